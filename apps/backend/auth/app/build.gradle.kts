@@ -59,6 +59,7 @@ dependencies {
     // AWS SDK Dependencies
     implementation(libs.aws.dynamodb)
     implementation(libs.aws.sqs)
+    implementation(libs.aws.ssm)
 
     // Other Third-Party Dependencies
     implementation(libs.bcrypt)
@@ -0,0 +1,34 @@
+package top.sunbath.api.auth.controller
+
+import io.micronaut.core.annotation.Nullable
+import io.micronaut.http.annotation.Controller
+import io.micronaut.http.annotation.Get
+import io.micronaut.http.annotation.QueryValue
+import io.micronaut.security.annotation.Secured
+import io.micronaut.validation.Validated
+import jakarta.validation.constraints.Max
+import jakarta.validation.constraints.Min
+import top.sunbath.api.auth.service.password.PasswordCostCalibration
+import top.sunbath.api.auth.service.password.PasswordCostCalibrator
+import java.time.Duration
+
+/**
+ * Controller for tuning password hashing on the deployed hardware.
+ */
+@Validated
+@Controller("/v1/password-hashing")
+@Secured("ROLE_ADMIN")
+class PasswordHashingController(
+    private val passwordCostCalibrator: PasswordCostCalibrator,
+) {
+    /**
+     * Measure the BCrypt costs on this instance and pick the highest one within the latency budget.
+     * @param budgetMillis The latency budget of a single hash (default: the configured budget)
+     * @return The picked cost and the measurements
+     */
+    @Get("/calibration")
+    fun calibrate(
+        @QueryValue @Nullable @Min(10) @Max(2000) budgetMillis: Long?,
+    ): PasswordCostCalibration =
+        budgetMillis?.let { passwordCostCalibrator.calibrate(Duration.ofMillis(it)) } ?: passwordCostCalibrator.calibrate()
+}
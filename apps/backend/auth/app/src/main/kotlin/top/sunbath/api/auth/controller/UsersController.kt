@@ -18,8 +18,10 @@ import jakarta.validation.Valid
 import jakarta.validation.constraints.Max
 import top.sunbath.api.auth.controller.request.CreateUserRequest
 import top.sunbath.api.auth.controller.request.UpdateUserRequest
+import top.sunbath.api.auth.controller.response.LookupItemBackfillResponse
 import top.sunbath.api.auth.model.User
 import top.sunbath.api.auth.repository.UserRepository
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
 import top.sunbath.shared.types.PagedListResponse
 import java.net.URI
 
@@ -71,24 +73,27 @@ class UsersController(
     /**
      * Create a new user.
      * @param request The create user request
-     * @return HTTP response with location header
+     * @return HTTP response with location header, 409 if the username or email is taken
      */
     @Post
     fun save(
         @Body @Valid request: CreateUserRequest,
     ): HttpResponse<Void> {
         val id =
-            userRepository.save(
-                username = request.username,
-                email = request.email,
-                password = request.password,
-                roles = setOf("ROLE_USER"),
-                fullName = request.fullName,
-                emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
-                lastVerificationEmailSentAt = null,
-            )
+            try {
+                userRepository.save(
+                    username = request.username,
+                    email = request.email,
+                    password = request.password,
+                    roles = setOf("ROLE_USER"),
+                    fullName = request.fullName,
+                    emailVerified = false,
+                    lastVerificationEmailSentAt = null,
+                )
+            } catch (e: TransactionConditionFailedException) {
+                // The username or email is taken
+                return HttpResponse.status(HttpStatus.CONFLICT)
+            }
         val uri: URI =
             UriBuilder
                 .of("/users")
@@ -98,6 +103,22 @@ class UsersController(
     }
 
     /**
+     * Write the username and email lookup items of users saved before them, one page of users per call.
+     * Call again with the returned cursor until it is null, until then creating users also checks the indexes.
+     * @param limit The maximum number of users to process (default: 100)
+     * @param cursor The cursor returned by the previous call (null for the first page)
+     * @return The number of lookup items written and the cursor of the next page
+     */
+    @Post("/lookup-items/backfill")
+    fun backfillLookupItems(
+        @QueryValue(defaultValue = "100") @Max(100) limit: Int,
+        @QueryValue()@Nullable() cursor: String?,
+    ): LookupItemBackfillResponse {
+        val (written, nextCursor) = userRepository.backfillLookupItems(limit, cursor)
+        return LookupItemBackfillResponse(written, nextCursor)
+    }
+
+        /**
      * Delete a user by ID.
      * @param id The user ID
      * @return HTTP response
@@ -114,7 +135,7 @@ class UsersController(
      * Update a user by ID.
      * @param id The user ID
      * @param request The update user request
-     * @return HTTP response with updated user data
+     * @return HTTP response with updated user data, 409 if the new email is taken
      */
     @Put("/{id}")
     fun update(
@@ -124,17 +145,20 @@ class UsersController(
         val user = userRepository.findById(id) ?: return HttpResponse.notFound()
 
         val updated =
-            userRepository.update(
-                id,
-                request.email,
-                request.password,
-                request.roles,
-                request.fullName,
-                user.emailVerified,
-                user.emailVerificationToken,
-                user.emailVerificationTokenExpiresAt,
-                user.lastVerificationEmailSentAt,
-            )
+            try {
+                userRepository.update(
+                    id,
+                    request.email,
+                    request.password,
+                    request.roles,
+                    request.fullName,
+                    user.emailVerified,
+                    user.lastVerificationEmailSentAt,
+                )
+            } catch (e: TransactionConditionFailedException) {
+                // The new email is taken
+                return HttpResponse.status(HttpStatus.CONFLICT)
+            }
 
         return if (updated) {
             val updatedUser = userRepository.findById(id)
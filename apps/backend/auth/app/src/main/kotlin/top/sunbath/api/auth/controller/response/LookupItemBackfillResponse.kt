@@ -0,0 +1,15 @@
+package top.sunbath.api.auth.controller.response
+
+import io.micronaut.serde.annotation.Serdeable
+
+/**
+ * Response for a page of the lookup item backfill.
+ *
+ * @property written The number of lookup items written for the page
+ * @property nextCursor The cursor of the next page, null once every user has its lookup items
+ */
+@Serdeable
+data class LookupItemBackfillResponse(
+    val written: Int,
+    val nextCursor: String?,
+)
@@ -10,7 +10,7 @@ data class UserResponse(
     val roles: Set<String>,
     val fullName: String?,
     val emailVerified: Boolean,
-    val emailVerificationTokenExpiresAt: Instant?,
+    val lastVerificationEmailSentAt: Instant?,
 ) {
     constructor(user: User) : this(
         id = user.id,
@@ -19,6 +19,6 @@ data class UserResponse(
         roles = user.roles,
         fullName = user.fullName,
         emailVerified = user.emailVerified,
-        emailVerificationTokenExpiresAt = user.emailVerificationTokenExpiresAt,
+        lastVerificationEmailSentAt = user.lastVerificationEmailSentAt,
     )
 }
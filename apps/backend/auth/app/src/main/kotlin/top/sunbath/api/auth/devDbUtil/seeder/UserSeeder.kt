@@ -1,6 +1,5 @@
 package top.sunbath.api.auth.devDbUtil.seeder
 
-import at.favre.lib.crypto.bcrypt.BCrypt
 import io.micronaut.context.annotation.Requires
 import io.micronaut.context.env.Environment
 import io.micronaut.context.event.ApplicationEventListener
@@ -10,6 +9,7 @@ import org.slf4j.LoggerFactory
 import top.sunbath.api.auth.devDbUtil.DevBootstrap
 import top.sunbath.api.auth.model.PasswordType
 import top.sunbath.api.auth.repository.UserRepository
+import top.sunbath.api.auth.service.password.PasswordHasher
 
 /**
  * User data initializer, only runs in development environment
@@ -19,13 +19,10 @@ import top.sunbath.api.auth.repository.UserRepository
 @Requires(beans = [DevBootstrap::class])
 class UserSeeder(
     private val userRepository: UserRepository,
+    private val passwordHasher: PasswordHasher,
 ) : ApplicationEventListener<StartupEvent> {
     private val logger = LoggerFactory.getLogger(UserSeeder::class.java)
 
-    companion object {
-        private const val BCRYPT_COST = 12
-    }
-
     override fun onApplicationEvent(event: StartupEvent) {
         logger.info("Starting user data initialization...")
 
@@ -42,8 +39,6 @@ class UserSeeder(
                     roles = setOf("ROLE_USER", "ROLE_ADMIN"),
                     fullName = "System Administrator",
                     emailVerified = true,
-                    emailVerificationToken = null,
-                    emailVerificationTokenExpiresAt = null,
                     lastVerificationEmailSentAt = null,
                 )
             val newlyAdded = userRepository.findById(adminId)
@@ -76,8 +71,6 @@ class UserSeeder(
                         roles = setOf("ROLE_USER"),
                         fullName = "Test User ${index + 1}",
                         emailVerified = true,
-                        emailVerificationToken = null,
-                        emailVerificationTokenExpiresAt = null,
                         lastVerificationEmailSentAt = null,
                     )
 
@@ -105,5 +98,5 @@ class UserSeeder(
      * @param password Plain text password
      * @return Hashed password
      */
-    private fun hashPassword(password: String): String = BCrypt.withDefaults().hashToString(BCRYPT_COST, password.toCharArray())
+    private fun hashPassword(password: String): String = passwordHasher.hash(password)
 }
@@ -59,11 +59,8 @@ class User :
     @get:NonNull
     var emailVerified: Boolean = false
 
-    @get:Nullable
-    var emailVerificationToken: String? = null
-
-    @get:Nullable
-    var emailVerificationTokenExpiresAt: Instant? = null
+    @get:NonNull
+    var emailVerificationGeneration: Long = 0
 
     @get:Nullable
     var lastVerificationEmailSentAt: Instant? = null
@@ -85,8 +82,7 @@ class User :
      * @param roles The user roles
      * @param fullName The full name
      * @param emailVerified Whether the email is verified
-     * @param emailVerificationToken The email verification token
-     * @param emailVerificationTokenExpiresAt When the verification token expires
+     * @param emailVerificationGeneration The generation of the latest verification token, 0 if none was issued
      * @param lastVerificationEmailSentAt When the last verification email was sent
      */
     @Creator
@@ -101,8 +97,7 @@ class User :
         roles: Set<String> = setOf("ROLE_USER"),
         fullName: String? = null,
         emailVerified: Boolean = false,
-        emailVerificationToken: String? = null,
-        emailVerificationTokenExpiresAt: Instant? = null,
+        emailVerificationGeneration: Long = 0,
         lastVerificationEmailSentAt: Instant? = null,
     ) {
         this.id = id
@@ -115,8 +110,7 @@ class User :
         this.roles = roles
         this.fullName = fullName
         this.emailVerified = emailVerified
-        this.emailVerificationToken = emailVerificationToken
-        this.emailVerificationTokenExpiresAt = emailVerificationTokenExpiresAt
+        this.emailVerificationGeneration = emailVerificationGeneration
         this.lastVerificationEmailSentAt = lastVerificationEmailSentAt
     }
 
@@ -138,24 +132,9 @@ class User :
             indexValues["EMAIL_SK"] = id
         }
 
-        // Add verification token index if exists
-        emailVerificationToken?.let {
-            indexValues["VERIFICATION_TOKEN_PK"] = it
-            indexValues["VERIFICATION_TOKEN_SK"] = id
-        }
-
         return indexValues
     }
 
-    /**
-     * Check if the verification token is valid.
-     * @return true if the token is valid and not expired
-     */
-    fun isVerificationTokenValid(): Boolean =
-        emailVerificationToken != null &&
-            emailVerificationTokenExpiresAt != null &&
-            emailVerificationTokenExpiresAt!!.isAfter(Instant.now())
-
     /**
      * Check if the migration token is valid.
      * @return true if the token is valid and not expired
@@ -175,25 +154,9 @@ class User :
             lastVerificationEmailSentAt!!.plusSeconds(minIntervalSeconds).isBefore(Instant.now())
 
     /**
-     * Update the verification token and its expiration time.
-     * @param token The new verification token
-     * @param expiresInSeconds The number of seconds until the token expires
-     */
-    fun updateVerificationToken(
-        token: String,
-        expiresInSeconds: Long,
-    ) {
-        emailVerificationToken = token
-        emailVerificationTokenExpiresAt = Instant.now().plusSeconds(expiresInSeconds)
-        lastVerificationEmailSentAt = Instant.now()
-    }
-
-    /**
-     * Mark the email as verified and clear the verification token.
+     * Mark the email as verified.
      */
     fun markEmailAsVerified() {
         emailVerified = true
-        emailVerificationToken = null
-        emailVerificationTokenExpiresAt = null
     }
 }
@@ -4,12 +4,25 @@ import io.micronaut.core.annotation.NonNull
 import jakarta.validation.constraints.NotBlank
 import top.sunbath.api.auth.model.PasswordType
 import top.sunbath.api.auth.model.User
+import java.time.Duration
 import java.time.Instant
 
 /**
  * Repository interface for User entity operations.
  */
 interface UserRepository {
+    companion object {
+        /**
+         * The label of username lookup writes, whose condition fails if the username belongs to another user.
+         */
+        const val USERNAME_LABEL = "username"
+
+        /**
+         * The label of email lookup writes, whose condition fails if the email belongs to another user.
+         */
+        const val EMAIL_LABEL = "email"
+    }
+
     /**
      * Find all users.
      * @return List of all users
@@ -40,7 +53,7 @@ interface UserRepository {
     ): User?
 
     /**
-     * Find a user by username.
+     * Find a user by username, with strongly consistent reads.
      * @param username The username
      * @return The user if found
      */
@@ -50,7 +63,7 @@ interface UserRepository {
     ): User?
 
     /**
-     * Delete a user by ID.
+     * Delete a user by ID, together with the items reserving its username and email.
      * @param id The user ID
      */
     fun delete(
@@ -58,7 +71,7 @@ interface UserRepository {
     )
 
     /**
-     * Find a user by email.
+     * Find a user by email, with strongly consistent reads.
      * @param email The email address
      * @return The user if found
      */
@@ -68,17 +81,18 @@ interface UserRepository {
     ): User?
 
     /**
-     * Save a new user.
+     * Save a new user, together with the items reserving its username and email.
      * @param username The username
      * @param email The email
      * @param password The hashed password
      * @param roles The user roles
      * @param fullName The full name (optional)
      * @param emailVerified Whether the email is verified
-     * @param emailVerificationToken The email verification token
-     * @param emailVerificationTokenExpiresAt When the verification token expires
+     * @param emailVerificationGeneration The generation of the verification token issued with the user, 0 if none
      * @param lastVerificationEmailSentAt When the last verification email was sent
      * @return The ID of the saved user
+     * @throws top.sunbath.shared.dynamodb.TransactionConditionFailedException if the username or email is taken,
+     * see [USERNAME_LABEL] and [EMAIL_LABEL]
      */
     @NonNull
     fun save(
@@ -88,20 +102,57 @@ interface UserRepository {
         @NonNull roles: Set<String>,
         fullName: String?,
         emailVerified: Boolean = false,
-        emailVerificationToken: String? = null,
-        emailVerificationTokenExpiresAt: Instant? = null,
+        emailVerificationGeneration: Long = 0,
         lastVerificationEmailSentAt: Instant? = null,
     ): String
 
     /**
-     * Find a user by verification token.
-     * @param token The verification token
-     * @return The user if found
+     * Write the username and email lookup items of users saved before them, one page of users at a time.
+     * Until the last page is done, [save] and [update] also check the username and email indexes.
+     * @param limit The maximum number of users of the page
+     * @param lastEvaluatedId The ID of the last user of the previous page (null for the first page)
+     * @return The number of lookup items written and the ID of the last user (null after the last page)
      */
     @NonNull
-    fun findByVerificationToken(
-        @NonNull @NotBlank token: String,
-    ): User?
+    fun backfillLookupItems(
+        limit: Int,
+        lastEvaluatedId: String?,
+    ): Pair<Int, String?>
+
+    /**
+     * Start the next verification generation of a user, unless a verification email was sent too recently.
+     * Only the generation and send time are updated, the rest of the user is not rewritten.
+     * @param id The user ID
+     * @param sentAt When the verification email of the new generation is sent
+     * @param minInterval The minimum interval since the previous verification email
+     * @return The new generation, or null if the previous email is too recent or the user does not exist
+     */
+    fun nextEmailVerificationGeneration(
+        @NonNull @NotBlank id: String,
+        @NonNull sentAt: Instant,
+        @NonNull minInterval: Duration,
+    ): Long?
+
+    /**
+     * Let a user request another verification email right away, because the one sent at the given time was not
+     * queued. A newer send time is kept.
+     * @param id The user ID
+     * @param sentAt When the verification email that was not queued was sent
+     * @return False if another verification email was sent since or the user does not exist
+     */
+    fun clearLastVerificationEmailSentAt(
+        @NonNull @NotBlank id: String,
+        @NonNull sentAt: Instant,
+    ): Boolean
+
+    /**
+     * Save that a user verified the email, on condition that no verification token was issued since the user was read.
+     * @param user The user as read, with the email marked as verified
+     * @return False if a newer verification token was issued or the user no longer exists
+     */
+    fun updateEmailVerified(
+        @NonNull user: User,
+    ): Boolean
 
     /**
      * Update an existing user.
@@ -111,10 +162,10 @@ interface UserRepository {
      * @param roles The updated roles (optional)
      * @param fullName The updated full name (optional)
      * @param emailVerified Whether the email is verified
-     * @param emailVerificationToken The email verification token
-     * @param emailVerificationTokenExpiresAt When the verification token expires
      * @param lastVerificationEmailSentAt When the last verification email was sent
      * @return True if the user was updated, false otherwise
+     * @throws top.sunbath.shared.dynamodb.TransactionConditionFailedException if the updated email is taken,
+     * see [EMAIL_LABEL]
      */
     fun update(
         @NonNull @NotBlank id: String,
@@ -123,8 +174,6 @@ interface UserRepository {
         roles: Set<String>?,
         fullName: String?,
         emailVerified: Boolean?,
-        emailVerificationToken: String?,
-        emailVerificationTokenExpiresAt: Instant?,
         lastVerificationEmailSentAt: Instant?,
     ): Boolean
 
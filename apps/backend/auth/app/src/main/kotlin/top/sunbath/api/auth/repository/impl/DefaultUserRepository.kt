@@ -10,10 +10,13 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
-import software.amazon.awssdk.services.dynamodb.model.PutItemResponse
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest
 import top.sunbath.api.auth.model.PasswordType
 import top.sunbath.api.auth.model.User
 import top.sunbath.api.auth.repository.UserRepository
@@ -21,6 +24,13 @@ import top.sunbath.shared.dynamodb.DynamoConfiguration
 import top.sunbath.shared.dynamodb.DynamoRepository
 import top.sunbath.shared.dynamodb.IdGenerator
 import top.sunbath.shared.dynamodb.IndexDefinition
+import top.sunbath.shared.dynamodb.InstantAttributes
+import top.sunbath.shared.dynamodb.TransactionCancelledException
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
+import top.sunbath.shared.dynamodb.TransactionFailure
+import top.sunbath.shared.dynamodb.TransactionFailureReason
+import top.sunbath.shared.dynamodb.TransactionOperation
+import java.time.Duration
 import java.time.Instant
 
 @Singleton
@@ -42,26 +52,35 @@ open class DefaultUserRepository(
         private const val ATTRIBUTE_ROLES = "roles"
         private const val ATTRIBUTE_FULLNAME = "fullName"
         private const val ATTRIBUTE_EMAIL_VERIFIED = "emailVerified"
-        private const val ATTRIBUTE_EMAIL_VERIFICATION_TOKEN = "emailVerificationToken"
-        private const val ATTRIBUTE_EMAIL_VERIFICATION_TOKEN_EXPIRES_AT = "emailVerificationTokenExpiresAt"
+        private const val ATTRIBUTE_EMAIL_VERIFICATION_GENERATION = "emailVerificationGeneration"
         private const val ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT = "lastVerificationEmailSentAt"
 
-        // Define index constants
+        // Lookup items reserve a username or email, their key is the prefix followed by the value
+        private const val USERNAME_LOOKUP_PREFIX = "USERNAME#"
+        private const val EMAIL_LOOKUP_PREFIX = "EMAIL#"
+        private const val USER_LABEL = "user"
+        private const val CONDITION_LOOKUP_OWNED = "attribute_not_exists($ATTRIBUTE_PK) OR #id = :id"
+
+        // The positions of the lookup puts in the writes of a user
+        private const val USERNAME_LOOKUP_INDEX = 1
+        private const val EMAIL_LOOKUP_INDEX = 2
+
+        // Marks that every user saved before the lookup items has them, until then writes check the indexes too
+        private const val MIGRATION_PREFIX = "MIGRATION#"
+        private const val LOOKUP_ITEMS_MIGRATION = "USER_LOOKUP_ITEMS"
+
+        // Define index constants, the username and email indexes only resolve users saved before the lookup items
         private const val USERNAME_INDEX = "USERNAME_INDEX"
         private const val USERNAME_PK = "USERNAME_PK"
         private const val USERNAME_SK = "USERNAME_SK"
         private const val EMAIL_INDEX = "EMAIL_INDEX"
         private const val EMAIL_PK = "EMAIL_PK"
         private const val EMAIL_SK = "EMAIL_SK"
-        private const val VERIFICATION_TOKEN_INDEX = "VERIFICATION_TOKEN_INDEX"
-        private const val VERIFICATION_TOKEN_PK = "VERIFICATION_TOKEN_PK"
-        private const val VERIFICATION_TOKEN_SK = "VERIFICATION_TOKEN_SK"
 
         // Register indexes
         init {
             DynamoRepository.registerIndex(IndexDefinition(USERNAME_INDEX, USERNAME_PK, USERNAME_SK))
             DynamoRepository.registerIndex(IndexDefinition(EMAIL_INDEX, EMAIL_PK, EMAIL_SK))
-            DynamoRepository.registerIndex(IndexDefinition(VERIFICATION_TOKEN_INDEX, VERIFICATION_TOKEN_PK, VERIFICATION_TOKEN_SK))
         }
     }
 
@@ -72,6 +91,10 @@ open class DefaultUserRepository(
         LOG.debug("Initializing DefaultUserRepository with username index: $USERNAME_INDEX")
     }
 
+    // Only cached once set, the backfill may finish on another instance
+    @Volatile
+    private var lookupItemsBackfilled = false
+
     @NonNull
     override fun save(
         @NonNull @NotBlank username: String,
@@ -80,12 +103,11 @@ open class DefaultUserRepository(
         @NonNull roles: Set<String>,
         fullName: String?,
         emailVerified: Boolean,
-        emailVerificationToken: String?,
-        emailVerificationTokenExpiresAt: Instant?,
+        emailVerificationGeneration: Long,
         lastVerificationEmailSentAt: Instant?,
     ): String {
         val id = idGenerator.generate()
-        save(
+        val user =
             User(
                 id = id,
                 username = username,
@@ -97,30 +119,203 @@ open class DefaultUserRepository(
                 roles = roles,
                 fullName = fullName,
                 emailVerified = emailVerified,
-                emailVerificationToken = emailVerificationToken,
-                emailVerificationTokenExpiresAt = emailVerificationTokenExpiresAt,
+                emailVerificationGeneration = emailVerificationGeneration,
                 lastVerificationEmailSentAt = lastVerificationEmailSentAt,
-            ),
-        )
+            )
+        // The lookup items are conditional puts, so a taken username or email cancels the whole write
+        checkNotTakenWithoutLookupItems(id, username, email)
+        transactWrite(writeOperations(user, CONDITION_NOT_EXISTS, null))
         return id
     }
 
+    /**
+     * Write an existing user and its lookup items.
+     * @param user The updated user
+     * @param previousEmail The email before the update, its lookup item is released if it changed
+     * @return False if the user no longer exists
+     */
     protected open fun save(
         @NonNull @NotNull @Valid user: User,
+        @NonNull previousEmail: String,
+    ): Boolean {
+        try {
+            if (previousEmail != user.email) {
+                checkNotTakenWithoutLookupItems(user.id, null, user.email)
+            }
+            transactWrite(writeOperations(user, CONDITION_EXISTS, previousEmail))
+        } catch (e: TransactionConditionFailedException) {
+            if (e.conditionFailed(USER_LABEL)) {
+                return false
+            }
+            throw e
+        }
+        return true
+    }
+
+    /**
+     * Build the writes of a user and its lookup items.
+     * The lookup items only hold the user ID, so the user item is the only copy of the user and a write can not be
+     * undone by another write built from an older read.
+     */
+    private fun writeOperations(
+        user: User,
+        userCondition: String,
+        previousEmail: String?,
+    ): List<TransactionOperation> {
+        val operations =
+            mutableListOf<TransactionOperation>(
+                putOperation(user, userCondition, label = USER_LABEL),
+                lookupPutOperation(usernameItem(user), user.id, UserRepository.USERNAME_LABEL),
+                lookupPutOperation(emailItem(user), user.id, UserRepository.EMAIL_LABEL),
+            )
+        if (previousEmail != null && previousEmail != user.email) {
+            operations.add(lookupDeleteOperation(lookupKey(EMAIL_LOOKUP_PREFIX, previousEmail), user.id))
+        }
+        return operations
+    }
+
+    /**
+     * Reject a username or email of another user that may not have its lookup items yet, unless the backfill is done.
+     * The failures are labeled like those of the lookup writes, and the lookup items of the other user are written.
+     * @param userId The ID of the user being written
+     * @param username The username to check, null to skip it
+     * @param email The email to check, null to skip it
+     * @throws TransactionConditionFailedException if the username or email is taken
+     */
+    private fun checkNotTakenWithoutLookupItems(
+        userId: String,
+        username: String?,
+        email: String?,
     ) {
-        val itemResponse: PutItemResponse =
+        if (lookupItemsBackfilled()) {
+            return
+        }
+        val failures =
+            listOfNotNull(
+                username
+                    ?.let { findByIndex(USERNAME_INDEX, USERNAME_PK, it) }
+                    ?.takeIf { it.id != userId }
+                    ?.let { lookupTaken(USERNAME_LOOKUP_INDEX, UserRepository.USERNAME_LABEL) },
+                email
+                    ?.let { findByIndex(EMAIL_INDEX, EMAIL_PK, it) }
+                    ?.takeIf { it.id != userId }
+                    ?.let { lookupTaken(EMAIL_LOOKUP_INDEX, UserRepository.EMAIL_LABEL) },
+            )
+        if (failures.isNotEmpty()) {
+            throw TransactionConditionFailedException(failures)
+        }
+    }
+
+    private fun lookupTaken(
+        index: Int,
+        label: String,
+    ): TransactionFailure =
+        TransactionFailure(index, label, TransactionFailureReason.CONDITIONAL_CHECK_FAILED, "Taken by a user found through the index")
+
+    /**
+     * Whether every user saved before the lookup items has them.
+     */
+    private fun lookupItemsBackfilled(): Boolean {
+        if (!lookupItemsBackfilled) {
+            lookupItemsBackfilled = getItem(lookupKey(MIGRATION_PREFIX, LOOKUP_ITEMS_MIGRATION)) != null
+        }
+        return lookupItemsBackfilled
+    }
+
+    override fun backfillLookupItems(
+        limit: Int,
+        lastEvaluatedId: String?,
+    ): Pair<Int, String?> {
+        val response = dynamoDbClient.query(findAllQueryRequest(User::class.java, lastEvaluatedId, limit))
+        val written = parseInResponse(response).sumOf { writeMissingLookupItems(it) }
+        val nextCursor = lastEvaluatedId(response, User::class.java)
+        if (nextCursor == null) {
             dynamoDbClient.putItem(
                 PutItemRequest
                     .builder()
                     .tableName(dynamoConfiguration.tableName)
-                    .item(item(user))
+                    .item(lookupKey(MIGRATION_PREFIX, LOOKUP_ITEMS_MIGRATION))
                     .build(),
             )
-        if (LOG.isDebugEnabled) {
-            LOG.debug(itemResponse.toString())
+            lookupItemsBackfilled = true
+            LOG.info("Backfilled the lookup items of all users")
         }
+        return Pair(written, nextCursor)
     }
 
+    /**
+     * Write the lookup items a user saved before them is missing.
+     * Lookup items written meanwhile are kept, so only missing ones are put, each on its own so that one taken by
+     * another user does not keep the other from being written.
+     * @return The number of lookup items written
+     */
+    private fun writeMissingLookupItems(user: User): Int =
+        listOf(usernameItem(user), emailItem(user)).count { item ->
+            try {
+                transactWrite(
+                    listOf(
+                        TransactionOperation.ConditionCheck(key(User::class.java, user.id), CONDITION_EXISTS),
+                        TransactionOperation.Put(item, CONDITION_NOT_EXISTS),
+                    ),
+                )
+                true
+            } catch (e: TransactionCancelledException) {
+                LOG.debug("Skipped writing lookup item ${item[ATTRIBUTE_PK]?.s()} of user ${user.id}: ${e.failures}")
+                false
+            }
+        }
+
+    /**
+     * Put a lookup item on condition that it is free or already belongs to the user.
+     */
+    private fun lookupPutOperation(
+        item: Map<String, AttributeValue>,
+        userId: String,
+        label: String,
+    ): TransactionOperation =
+        TransactionOperation.Put(
+            item,
+            CONDITION_LOOKUP_OWNED,
+            mapOf("#id" to ATTRIBUTE_ID),
+            mapOf(":id" to AttributeValue.builder().s(userId).build()),
+            label = label,
+        )
+
+    /**
+     * Delete a lookup item on condition that it does not belong to another user.
+     */
+    private fun lookupDeleteOperation(
+        key: Map<String, AttributeValue>,
+        userId: String,
+    ): TransactionOperation =
+        TransactionOperation.Delete(
+            key,
+            CONDITION_LOOKUP_OWNED,
+            mapOf("#id" to ATTRIBUTE_ID),
+            mapOf(":id" to AttributeValue.builder().s(userId).build()),
+        )
+
+    @NonNull
+    private fun lookupKey(
+        @NonNull prefix: String,
+        @NonNull value: String,
+    ): Map<String, AttributeValue> {
+        val pk = AttributeValue.builder().s("$prefix$value").build()
+        return mapOf(ATTRIBUTE_PK to pk, ATTRIBUTE_SK to pk)
+    }
+
+    @NonNull
+    private fun usernameItem(
+        @NonNull user: User,
+    ): Map<String, AttributeValue> =
+        lookupKey(USERNAME_LOOKUP_PREFIX, user.username) + (ATTRIBUTE_ID to AttributeValue.builder().s(user.id).build())
+
+    @NonNull
+    private fun emailItem(
+        @NonNull user: User,
+    ): Map<String, AttributeValue> =
+        lookupKey(EMAIL_LOOKUP_PREFIX, user.email) + (ATTRIBUTE_ID to AttributeValue.builder().s(user.id).build())
+
     @NonNull
     override fun findById(
         @NonNull @NotBlank id: String,
@@ -132,54 +327,169 @@ open class DefaultUserRepository(
     override fun findByUsername(
         @NonNull @NotBlank username: String,
     ): User? {
-        // Use the generic index query method
-        val queryRequest =
-            createIndexQuery<User>(
-                indexName = USERNAME_INDEX,
-                partitionKeyName = USERNAME_PK,
-                partitionKeyValue = username,
-            )
-
-        val response = dynamoDbClient.query(queryRequest)
-        return if (response.items().isEmpty()) null else userOf(response.items()[0])
+        // Username lookup items written before they held only the ID are full copies, their ID is read all the same
+        val userId =
+            getItem(lookupKey(USERNAME_LOOKUP_PREFIX, username))?.get(ATTRIBUTE_ID)?.s()
+                ?: return findByIndex(USERNAME_INDEX, USERNAME_PK, username)
+        return getItem(key(User::class.java, userId))?.let { userOf(it) }
     }
 
     @NonNull
     override fun findByEmail(
         @NonNull @NotBlank email: String,
     ): User? {
-        // Use the generic index query method
-        val queryRequest =
-            createIndexQuery<User>(
-                indexName = EMAIL_INDEX,
-                partitionKeyName = EMAIL_PK,
-                partitionKeyValue = email,
-            )
+        val userId =
+            getItem(lookupKey(EMAIL_LOOKUP_PREFIX, email))?.get(ATTRIBUTE_ID)?.s()
+                ?: return findByIndex(EMAIL_INDEX, EMAIL_PK, email)
+        return getItem(key(User::class.java, userId))?.let { userOf(it) }
+    }
 
-        val response = dynamoDbClient.query(queryRequest)
-        return if (response.items().isEmpty()) null else userOf(response.items()[0])
+    /**
+     * Read an item with a strongly consistent read.
+     */
+    private fun getItem(key: Map<String, AttributeValue>): Map<String, AttributeValue>? {
+        val response =
+            dynamoDbClient.getItem(
+                GetItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(key)
+                    .consistentRead(true)
+                    .build(),
+            )
+        return if (!response.hasItem() || response.item().isEmpty()) null else response.item()
     }
 
-    @NonNull
-    override fun findByVerificationToken(
-        @NonNull @NotBlank token: String,
+    /**
+     * Resolve a user saved before the lookup items through an index, and write its missing lookup items.
+     */
+    private fun findByIndex(
+        indexName: String,
+        partitionKeyName: String,
+        partitionKeyValue: String,
     ): User? {
-        // Use the generic index query method
         val queryRequest =
             createIndexQuery<User>(
-                indexName = VERIFICATION_TOKEN_INDEX,
-                partitionKeyName = VERIFICATION_TOKEN_PK,
-                partitionKeyValue = token,
+                indexName = indexName,
+                partitionKeyName = partitionKeyName,
+                partitionKeyValue = partitionKeyValue,
             )
+        val userId = dynamoDbClient.query(queryRequest).items().firstOrNull()?.get(ATTRIBUTE_ID)?.s() ?: return null
+        val user = getItem(key(User::class.java, userId))?.let { userOf(it) } ?: return null
+        writeMissingLookupItems(user)
+        return user
+    }
+
+    override fun nextEmailVerificationGeneration(
+        @NonNull @NotBlank id: String,
+        @NonNull sentAt: Instant,
+        @NonNull minInterval: Duration,
+    ): Long? {
+        val request =
+            UpdateItemRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .key(key(User::class.java, id))
+                .updateExpression("SET #generation = if_not_exists(#generation, :zero) + :one, #sentAt = :sentAt")
+                .conditionExpression("$CONDITION_EXISTS AND (attribute_not_exists(#sentAt) OR #sentAt <= :threshold)")
+                .expressionAttributeNames(
+                    mapOf(
+                        "#generation" to ATTRIBUTE_EMAIL_VERIFICATION_GENERATION,
+                        "#sentAt" to ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT,
+                    ),
+                ).expressionAttributeValues(
+                    mapOf(
+                        ":zero" to AttributeValue.builder().n("0").build(),
+                        ":one" to AttributeValue.builder().n("1").build(),
+                        ":sentAt" to InstantAttributes.of(sentAt),
+                        ":threshold" to InstantAttributes.of(sentAt.minus(minInterval)),
+                    ),
+                ).returnValues(ReturnValue.UPDATED_NEW)
+                .build()
+        return try {
+            dynamoDbClient.updateItem(request).attributes()[ATTRIBUTE_EMAIL_VERIFICATION_GENERATION]?.n()?.toLong()
+        } catch (e: ConditionalCheckFailedException) {
+            null
+        }
+    }
 
-        val response = dynamoDbClient.query(queryRequest)
-        return if (response.items().isEmpty()) null else userOf(response.items()[0])
+    override fun clearLastVerificationEmailSentAt(
+        @NonNull @NotBlank id: String,
+        @NonNull sentAt: Instant,
+    ): Boolean {
+        val request =
+            UpdateItemRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .key(key(User::class.java, id))
+                .updateExpression("REMOVE #sentAt")
+                .conditionExpression("#sentAt = :sentAt")
+                .expressionAttributeNames(mapOf("#sentAt" to ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT))
+                .expressionAttributeValues(mapOf(":sentAt" to InstantAttributes.of(sentAt)))
+                .build()
+        return try {
+            dynamoDbClient.updateItem(request)
+            true
+        } catch (e: ConditionalCheckFailedException) {
+            false
+        }
+    }
+
+    override fun updateEmailVerified(
+        @NonNull user: User,
+    ): Boolean {
+        // Only the flag is written, so a concurrent password or roles update is kept
+        val request =
+            UpdateItemRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .key(key(User::class.java, user.id))
+                .updateExpression("SET #verified = :verified")
+                .conditionExpression("#generation = :generation")
+                .expressionAttributeNames(
+                    mapOf(
+                        "#verified" to ATTRIBUTE_EMAIL_VERIFIED,
+                        "#generation" to ATTRIBUTE_EMAIL_VERIFICATION_GENERATION,
+                    ),
+                ).expressionAttributeValues(
+                    mapOf(
+                        ":verified" to AttributeValue.builder().bool(user.emailVerified).build(),
+                        ":generation" to AttributeValue.builder().n(user.emailVerificationGeneration.toString()).build(),
+                    ),
+                ).build()
+        return try {
+            dynamoDbClient.updateItem(request)
+            true
+        } catch (e: ConditionalCheckFailedException) {
+            false
+        }
     }
 
     override fun delete(
         @NonNull @NotBlank id: String,
     ) {
-        delete(User::class.java, id)
+        val user = getItem(key(User::class.java, id))?.let { userOf(it) } ?: return
+        try {
+            // The email condition keeps a concurrent email change from leaving its lookup item behind
+            transactWrite(
+                listOf(
+                    TransactionOperation.Delete(
+                        key(User::class.java, id),
+                        "#email = :email",
+                        mapOf("#email" to ATTRIBUTE_EMAIL),
+                        mapOf(":email" to AttributeValue.builder().s(user.email).build()),
+                        label = USER_LABEL,
+                    ),
+                    lookupDeleteOperation(lookupKey(USERNAME_LOOKUP_PREFIX, user.username), id),
+                    lookupDeleteOperation(lookupKey(EMAIL_LOOKUP_PREFIX, user.email), id),
+                ),
+            )
+        } catch (e: TransactionConditionFailedException) {
+            if (!e.conditionFailed(USER_LABEL)) {
+                throw e
+            }
+            delete(id)
+        }
     }
 
     override fun update(
@@ -189,11 +499,10 @@ open class DefaultUserRepository(
         roles: Set<String>?,
         fullName: String?,
         emailVerified: Boolean?,
-        emailVerificationToken: String?,
-        emailVerificationTokenExpiresAt: Instant?,
         lastVerificationEmailSentAt: Instant?,
     ): Boolean {
         val existingUser = findById(id) ?: return false
+        val previousEmail = existingUser.email
 
         // Update only the non-null fields
         email?.let { existingUser.email = it }
@@ -202,13 +511,10 @@ open class DefaultUserRepository(
         // fullName can be set to null explicitly
         existingUser.fullName = fullName
         emailVerified?.let { existingUser.emailVerified = it }
-        existingUser.emailVerificationToken = emailVerificationToken
-        existingUser.emailVerificationTokenExpiresAt = emailVerificationTokenExpiresAt
         existingUser.lastVerificationEmailSentAt = lastVerificationEmailSentAt
 
         // Save the updated user
-        save(existingUser)
-        return true
+        return save(existingUser, previousEmail)
     }
 
     /**
@@ -230,8 +536,7 @@ open class DefaultUserRepository(
         existingUser.migrationTokenExpiresAt = migrationTokenExpiresAt
 
         // Save the updated user
-        save(existingUser)
-        return true
+        return save(existingUser, existingUser.email)
     }
 
     @NonNull
@@ -302,13 +607,12 @@ open class DefaultUserRepository(
                     }
                 } ?: PasswordType.V1,
             migrationToken = item[ATTRIBUTE_MIGRATION_TOKEN]?.s(),
-            migrationTokenExpiresAt = item[ATTRIBUTE_MIGRATION_TOKEN_EXPIRES_AT]?.s()?.let { Instant.parse(it) },
+            migrationTokenExpiresAt = InstantAttributes.instantOf(item[ATTRIBUTE_MIGRATION_TOKEN_EXPIRES_AT]),
             roles = item[ATTRIBUTE_ROLES]?.ss()?.toSet() ?: setOf("ROLE_USER"),
             fullName = item[ATTRIBUTE_FULLNAME]?.s(),
             emailVerified = item[ATTRIBUTE_EMAIL_VERIFIED]?.bool() ?: false,
-            emailVerificationToken = item[ATTRIBUTE_EMAIL_VERIFICATION_TOKEN]?.s(),
-            emailVerificationTokenExpiresAt = item[ATTRIBUTE_EMAIL_VERIFICATION_TOKEN_EXPIRES_AT]?.s()?.let { Instant.parse(it) },
-            lastVerificationEmailSentAt = item[ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT]?.s()?.let { Instant.parse(it) },
+            emailVerificationGeneration = item[ATTRIBUTE_EMAIL_VERIFICATION_GENERATION]?.n()?.toLong() ?: 0,
+            lastVerificationEmailSentAt = InstantAttributes.instantOf(item[ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT]),
         )
 
     @NonNull
@@ -325,21 +629,17 @@ open class DefaultUserRepository(
             result[ATTRIBUTE_MIGRATION_TOKEN] = AttributeValue.builder().s(it).build()
         }
         entity.migrationTokenExpiresAt?.let {
-            result[ATTRIBUTE_MIGRATION_TOKEN_EXPIRES_AT] = AttributeValue.builder().s(it.toString()).build()
+            result[ATTRIBUTE_MIGRATION_TOKEN_EXPIRES_AT] = InstantAttributes.of(it)
         }
         result[ATTRIBUTE_ROLES] = AttributeValue.builder().ss(entity.roles).build()
         entity.fullName?.let {
             result[ATTRIBUTE_FULLNAME] = AttributeValue.builder().s(it).build()
         }
         result[ATTRIBUTE_EMAIL_VERIFIED] = AttributeValue.builder().bool(entity.emailVerified).build()
-        entity.emailVerificationToken?.let {
-            result[ATTRIBUTE_EMAIL_VERIFICATION_TOKEN] = AttributeValue.builder().s(it).build()
-        }
-        entity.emailVerificationTokenExpiresAt?.let {
-            result[ATTRIBUTE_EMAIL_VERIFICATION_TOKEN_EXPIRES_AT] = AttributeValue.builder().s(it.toString()).build()
-        }
+        result[ATTRIBUTE_EMAIL_VERIFICATION_GENERATION] =
+            AttributeValue.builder().n(entity.emailVerificationGeneration.toString()).build()
         entity.lastVerificationEmailSentAt?.let {
-            result[ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT] = AttributeValue.builder().s(it.toString()).build()
+            result[ATTRIBUTE_LAST_VERIFICATION_EMAIL_SENT_AT] = InstantAttributes.of(it)
         }
 
         return result
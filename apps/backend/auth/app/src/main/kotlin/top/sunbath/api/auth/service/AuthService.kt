@@ -1,6 +1,5 @@
 package top.sunbath.api.auth.service
 
-import at.favre.lib.crypto.bcrypt.BCrypt
 import io.micronaut.http.HttpStatus
 import io.micronaut.http.exceptions.HttpStatusException
 import jakarta.inject.Singleton
@@ -13,7 +12,10 @@ import top.sunbath.api.auth.model.PasswordType
 import top.sunbath.api.auth.repository.UserRepository
 import top.sunbath.api.auth.service.email.EmailService
 import top.sunbath.api.auth.service.outcome.LoginOutcome
+import top.sunbath.api.auth.service.password.PasswordHasher
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
 import java.security.SecureRandom
+import java.time.Duration
 import java.time.Instant
 import java.util.Base64
 
@@ -25,14 +27,13 @@ class AuthService(
     private val userRepository: UserRepository,
     private val jwtService: JwtService,
     private val emailService: EmailService,
+    private val verificationTokenService: VerificationTokenService,
+    private val passwordHasher: PasswordHasher,
 ) {
     private val logger = LoggerFactory.getLogger(AuthService::class.java)
 
     companion object {
-        private val BCRYPT_VERSION = BCrypt.Version.VERSION_2A
-        private const val BCRYPT_COST = 12
-        private const val VERIFICATION_TOKEN_LENGTH = 32
-        private const val VERIFICATION_TOKEN_EXPIRES_IN_HOURS = 24L
+        private const val FIRST_VERIFICATION_GENERATION = 1L
         private const val MIN_VERIFICATION_EMAIL_INTERVAL_SECONDS = 300L // 5 minutes
         private const val MIGRATION_TOKEN_LENGTH = 64
         private const val MIGRATION_TOKEN_EXPIRES_IN_SECONDS = 60L // 1 minute
@@ -45,48 +46,56 @@ class AuthService(
      * @return The registration response
      */
     fun register(request: CreateUserRequest): RegisterResponse {
-        // Check if username already exists
-        userRepository.findByUsername(request.username)?.let {
-            throw HttpStatusException(HttpStatus.CONFLICT, "Username already exists")
-        }
-
-        // Check if email already exists
-        userRepository.findByEmail(request.email)?.let {
-            throw HttpStatusException(HttpStatus.CONFLICT, "Email already exists")
-        }
-
-        // Generate verification token
-        val verificationToken = generateVerificationToken()
-        val verificationTokenExpiresAt = Instant.now().plusSeconds(VERIFICATION_TOKEN_EXPIRES_IN_HOURS * 3600)
-
         // Hash password
         val hashedPassword = hashPassword(request.password)
 
-        // Create user
+        // Create user, the write itself checks that the username and email are not taken
+        val sentAt = Instant.now()
         val userId =
-            userRepository.save(
-                username = request.username,
-                email = request.email,
-                password = hashedPassword,
-                roles = setOf("ROLE_USER"),
-                fullName = request.fullName,
-                emailVerified = false,
-                emailVerificationToken = verificationToken,
-                emailVerificationTokenExpiresAt = verificationTokenExpiresAt,
-                lastVerificationEmailSentAt = Instant.now(),
-            )
+            try {
+                userRepository.save(
+                    username = request.username,
+                    email = request.email,
+                    password = hashedPassword,
+                    roles = setOf("ROLE_USER"),
+                    fullName = request.fullName,
+                    emailVerified = false,
+                    emailVerificationGeneration = FIRST_VERIFICATION_GENERATION,
+                    lastVerificationEmailSentAt = sentAt,
+                )
+            } catch (e: TransactionConditionFailedException) {
+                if (e.conditionFailed(UserRepository.USERNAME_LABEL)) {
+                    throw HttpStatusException(HttpStatus.CONFLICT, "Username already exists")
+                }
+                if (e.conditionFailed(UserRepository.EMAIL_LABEL)) {
+                    throw HttpStatusException(HttpStatus.CONFLICT, "Email already exists")
+                }
+                throw e
+            }
+
+        // Generate verification token, it is signed rather than stored
+        val verificationToken = verificationTokenService.issue(userId, FIRST_VERIFICATION_GENERATION, sentAt)
 
         // Send verification email
         try {
             emailService.sendVerificationEmail(
                 to = request.email,
                 username = request.username,
-                verificationToken = verificationToken,
-                expiresAt = verificationTokenExpiresAt,
+                verificationToken = verificationToken.value,
+                expiresAt = verificationToken.expiresAt,
             )
         } catch (e: Exception) {
-            // Log error but don't fail registration
+            // The user is saved, so registration succeeds and another verification email can be requested right away
             logger.error("Failed to send verification email", e)
+            try {
+                userRepository.clearLastVerificationEmailSentAt(userId, sentAt)
+            } catch (e: Exception) {
+                logger.error("Failed to allow user $userId to request another verification email", e)
+            }
+            return RegisterResponse(
+                userId = userId,
+                message = "Registration successful, but the verification email could not be sent. Please request a new one.",
+            )
         }
 
         return RegisterResponse(
@@ -135,6 +144,11 @@ class AuthService(
             throw HttpStatusException(HttpStatus.UNAUTHORIZED, "Invalid credentials")
         }
 
+        // The password is only known here, so a hash of an outdated cost is replaced now
+        if (passwordHasher.needsRehash(user.password)) {
+            rehashPassword(user.id, request.password)
+        }
+
         // Generate JWT token
         return LoginOutcome.Success(jwtService.generateToken(user))
     }
@@ -187,13 +201,26 @@ class AuthService(
     }
 
     /**
-     * Generate a random verification token.
-     * @return The verification token
+     * Replace the password hash of a user with one at the configured cost.
+     * A failure does not fail the login, the hash is replaced on a later one.
+     * @param userId The user ID
+     * @param password The verified password
      */
-    private fun generateVerificationToken(): String {
-        val bytes = ByteArray(VERIFICATION_TOKEN_LENGTH)
-        secureRandom.nextBytes(bytes)
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes)
+    private fun rehashPassword(
+        userId: String,
+        password: String,
+    ) {
+        try {
+            userRepository.updatePasswordSettings(
+                id = userId,
+                password = hashPassword(password),
+                passwordType = null,
+                migrationToken = null,
+                migrationTokenExpiresAt = null,
+            )
+        } catch (e: Exception) {
+            logger.warn("Failed to rehash the password of user $userId", e)
+        }
     }
 
     /**
@@ -201,7 +228,7 @@ class AuthService(
      * @param password The password to hash
      * @return The hashed password
      */
-    private fun hashPassword(password: String): String = BCrypt.withDefaults().hashToString(BCRYPT_COST, password.toCharArray())
+    private fun hashPassword(password: String): String = passwordHasher.hash(password)
 
     /**
      * Verify a password against a hashed password.
@@ -212,10 +239,7 @@ class AuthService(
     private fun verifyPassword(
         password: String,
         hashedPassword: String,
-    ): Boolean {
-        val result = BCrypt.verifyer().verify(password.toCharArray(), hashedPassword.toCharArray())
-        return result.verified
-    }
+    ): Boolean = passwordHasher.verify(password, hashedPassword)
 
     /**
      * Verify email with the provided token.
@@ -224,29 +248,31 @@ class AuthService(
      * @throws HttpStatusException if the token is invalid or expired
      */
     fun verifyEmail(token: String): String {
-        // Find user by verification token
+        // Check the signature and expiry before touching the database
+        val claims =
+            verificationTokenService.read(token)
+                ?: throw HttpStatusException(HttpStatus.BAD_REQUEST, "Invalid verification token")
+        if (claims.isExpired()) {
+            throw HttpStatusException(HttpStatus.BAD_REQUEST, "Verification token has expired")
+        }
+
         val user =
-            userRepository.findByVerificationToken(token)
+            userRepository.findById(claims.userId)
                 ?: throw HttpStatusException(HttpStatus.BAD_REQUEST, "Invalid verification token")
+        if (user.emailVerified) {
+            throw HttpStatusException(HttpStatus.BAD_REQUEST, "Email is already verified")
+        }
 
-        // Check if token is valid and not expired
-        if (!user.isVerificationTokenValid()) {
-            throw HttpStatusException(HttpStatus.BAD_REQUEST, "Verification token has expired")
+        // Only the latest token is valid, a resend supersedes the earlier ones
+        if (user.emailVerificationGeneration != claims.generation) {
+            throw HttpStatusException(HttpStatus.BAD_REQUEST, "Invalid verification token")
         }
 
         // Mark email as verified
         user.markEmailAsVerified()
-        userRepository.update(
-            id = user.id,
-            email = user.email,
-            password = user.password,
-            roles = user.roles,
-            fullName = user.fullName,
-            emailVerified = user.emailVerified,
-            emailVerificationToken = user.emailVerificationToken,
-            emailVerificationTokenExpiresAt = user.emailVerificationTokenExpiresAt,
-            lastVerificationEmailSentAt = user.lastVerificationEmailSentAt,
-        )
+        if (!userRepository.updateEmailVerified(user)) {
+            throw HttpStatusException(HttpStatus.BAD_REQUEST, "Invalid verification token")
+        }
 
         return "Email verified successfully"
     }
@@ -276,31 +302,26 @@ class AuthService(
             )
         }
 
-        // Generate new verification token
-        val verificationToken = generateVerificationToken()
-        val verificationTokenExpiresAt = Instant.now().plusSeconds(VERIFICATION_TOKEN_EXPIRES_IN_HOURS * 3600)
-
-        // Update user with new token
-        user.updateVerificationToken(verificationToken, VERIFICATION_TOKEN_EXPIRES_IN_HOURS * 3600)
-        userRepository.update(
-            id = user.id,
-            email = user.email,
-            password = user.password,
-            roles = user.roles,
-            fullName = user.fullName,
-            emailVerified = user.emailVerified,
-            emailVerificationToken = user.emailVerificationToken,
-            emailVerificationTokenExpiresAt = user.emailVerificationTokenExpiresAt,
-            lastVerificationEmailSentAt = user.lastVerificationEmailSentAt,
-        )
+        // Start a new verification generation, the condition of the update enforces the interval under concurrency
+        val sentAt = Instant.now()
+        val generation =
+            userRepository.nextEmailVerificationGeneration(
+                user.id,
+                sentAt,
+                Duration.ofSeconds(MIN_VERIFICATION_EMAIL_INTERVAL_SECONDS),
+            ) ?: throw HttpStatusException(
+                HttpStatus.TOO_MANY_REQUESTS,
+                "Please wait before requesting another verification email",
+            )
+        val verificationToken = verificationTokenService.issue(user.id, generation, sentAt)
 
         // Send verification email
         try {
             emailService.sendVerificationEmail(
                 to = email,
-                username = user.username!!,
-                verificationToken = verificationToken,
-                expiresAt = verificationTokenExpiresAt,
+                username = user.username,
+                verificationToken = verificationToken.value,
+                expiresAt = verificationToken.expiresAt,
             )
         } catch (e: Exception) {
             // Log error but don't fail the operation
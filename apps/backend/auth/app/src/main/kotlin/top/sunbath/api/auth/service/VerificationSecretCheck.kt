@@ -0,0 +1,19 @@
+package top.sunbath.api.auth.service
+
+import io.micronaut.context.annotation.Requires
+import io.micronaut.context.event.ApplicationEventListener
+import io.micronaut.context.event.StartupEvent
+import jakarta.inject.Singleton
+
+/**
+ * Fails the startup in production if verification tokens would be signed with a missing or the default secret.
+ */
+@Requires(env = ["production"])
+@Singleton
+class VerificationSecretCheck(
+    private val verificationTokenService: VerificationTokenService,
+) : ApplicationEventListener<StartupEvent> {
+    override fun onApplicationEvent(event: StartupEvent) {
+        verificationTokenService.checkSigningSecret()
+    }
+}
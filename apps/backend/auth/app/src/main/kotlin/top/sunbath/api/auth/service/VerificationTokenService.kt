@@ -0,0 +1,159 @@
+package top.sunbath.api.auth.service
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import jakarta.inject.Singleton
+import top.sunbath.shared.ssm.SsmParameterProvider
+import java.security.MessageDigest
+import java.time.Duration
+import java.time.Instant
+import java.util.Base64
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Configuration properties for email verification tokens.
+ */
+@ConfigurationProperties("email-verification")
+open class EmailVerificationConfiguration {
+    /**
+     * The secret the tokens are signed with. Changing it invalidates all outstanding tokens.
+     */
+    @NonNull
+    var signingSecret: String = ""
+
+    /**
+     * The SSM parameter holding the signing secret. Takes precedence over [signingSecret], for production.
+     */
+    @Nullable
+    var signingSecretParameter: String? = null
+
+    /**
+     * How long a token is valid after it was issued.
+     */
+    @NonNull
+    var expiresIn: Duration = Duration.ofHours(24)
+}
+
+/**
+ * An issued verification token.
+ * @param value The token sent to the user
+ * @param expiresAt When the token expires
+ */
+data class VerificationToken(
+    val value: String,
+    val expiresAt: Instant,
+)
+
+/**
+ * The claims of a verification token whose signature matched.
+ * @param userId The user whose email the token verifies
+ * @param generation The verification generation of the user the token was issued for
+ * @param expiresAt When the token expires
+ */
+data class VerificationTokenClaims(
+    val userId: String,
+    val generation: Long,
+    val expiresAt: Instant,
+) {
+    fun isExpired(now: Instant = Instant.now()): Boolean = !expiresAt.isAfter(now)
+}
+
+/**
+ * Issues and reads stateless email verification tokens, so verifying needs no lookup by token.
+ *
+ * A token is `{payload}.{signature}`, both base64url encoded, where the payload is `{userId}.{generation}.{expiresAt}`
+ * and the signature an HMAC-SHA256 over it. Issuing a token for the next generation of a user supersedes the earlier
+ * ones.
+ */
+@Singleton
+class VerificationTokenService(
+    private val emailVerificationConfiguration: EmailVerificationConfiguration,
+    private val ssmParameterProvider: SsmParameterProvider,
+) {
+    companion object {
+        /**
+         * The signing secret of the default configuration, anyone can forge tokens signed with it.
+         */
+        const val DEFAULT_SIGNING_SECRET = "pleaseChangeThisVerificationSecretForANewOne"
+
+        private const val ALGORITHM = "HmacSHA256"
+        private const val SEPARATOR = "."
+        private val encoder = Base64.getUrlEncoder().withoutPadding()
+        private val decoder = Base64.getUrlDecoder()
+    }
+
+    private val signingSecret: String by lazy {
+        emailVerificationConfiguration.signingSecretParameter?.let { ssmParameterProvider.getParameter(it) }
+            ?: emailVerificationConfiguration.signingSecret
+    }
+
+    /**
+     * Check that a signing secret is configured and is not [DEFAULT_SIGNING_SECRET].
+     * @throws IllegalStateException if it is missing or the default
+     */
+    fun checkSigningSecret() {
+        check(signingSecret.isNotBlank()) { "Email verification signing secret not configured" }
+        check(signingSecret != DEFAULT_SIGNING_SECRET) { "Email verification signing secret is the default" }
+    }
+
+    /**
+     * Issue a token.
+     * @param userId The user whose email the token verifies
+     * @param generation The verification generation of the user
+     * @param issuedAt When the token is issued
+     * @return The token and when it expires
+     */
+    fun issue(
+        userId: String,
+        generation: Long,
+        issuedAt: Instant = Instant.now(),
+    ): VerificationToken {
+        val expiresAt = issuedAt.plus(emailVerificationConfiguration.expiresIn)
+        val payload = "$userId$SEPARATOR$generation$SEPARATOR${expiresAt.epochSecond}".toByteArray(Charsets.UTF_8)
+        return VerificationToken(
+            value = encoder.encodeToString(payload) + SEPARATOR + encoder.encodeToString(sign(payload)),
+            expiresAt = Instant.ofEpochSecond(expiresAt.epochSecond),
+        )
+    }
+
+    /**
+     * Read a token.
+     * @param token The token sent to the user
+     * @return The claims of the token, or null if it is malformed or its signature does not match. Expired tokens
+     *   are returned too, see [VerificationTokenClaims.isExpired]
+     */
+    fun read(token: String): VerificationTokenClaims? {
+        val parts = token.split(SEPARATOR)
+        if (parts.size != 2) {
+            return null
+        }
+        val payload = decodeOrNull(parts[0]) ?: return null
+        val signature = decodeOrNull(parts[1]) ?: return null
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return null
+        }
+        val claims = String(payload, Charsets.UTF_8).split(SEPARATOR)
+        if (claims.size != 3) {
+            return null
+        }
+        val generation = claims[1].toLongOrNull() ?: return null
+        val expiresAt = claims[2].toLongOrNull()?.let { Instant.ofEpochSecond(it) } ?: return null
+        return VerificationTokenClaims(claims[0], generation, expiresAt)
+    }
+
+    private fun sign(payload: ByteArray): ByteArray {
+        check(signingSecret.isNotBlank()) { "Email verification signing secret not configured" }
+        val mac = Mac.getInstance(ALGORITHM)
+        mac.init(SecretKeySpec(signingSecret.toByteArray(Charsets.UTF_8), ALGORITHM))
+        return mac.doFinal(payload)
+    }
+
+    private fun decodeOrNull(value: String): ByteArray? =
+        try {
+            decoder.decode(value)
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+}
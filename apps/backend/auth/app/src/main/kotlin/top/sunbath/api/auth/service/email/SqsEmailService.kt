@@ -1,69 +1,50 @@
 package top.sunbath.api.auth.service.email
 
-import com.fasterxml.jackson.databind.ObjectMapper
 import io.micronaut.context.annotation.Requires
-import jakarta.annotation.PostConstruct
 import jakarta.inject.Singleton
-import org.slf4j.LoggerFactory
-import software.amazon.awssdk.services.sqs.SqsClient
-import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest
-import top.sunbath.shared.sqs.SqsConfiguration
+import top.sunbath.shared.sqs.QueuePublisher
 import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
+import top.sunbath.shared.types.EmailTemplateIds
+import top.sunbath.shared.types.EmailTemplateRef
 import top.sunbath.shared.types.SqsMessage
 import java.util.UUID
 
 /**
- * Email service implementation using Resend.
+ * Email service implementation publishing to the email queue. Each message is sent right away, so a message the
+ * queue did not accept fails the request that sent it.
  */
 @Singleton
 @Requires(env = ["production"])
 class SqsEmailService(
-    private val sqsConfiguration: SqsConfiguration,
-    private val sqsClient: SqsClient,
+    private val queuePublisher: QueuePublisher,
 ) : EmailService {
     private val fromAddress = "no-reply@sunbath.top"
 
-    private lateinit var queueUrl: String
-
-    private val objectMapper = ObjectMapper()
-    private val logger = LoggerFactory.getLogger(this::class.java)
-
-    @PostConstruct
-    fun init() {
-        val queues = sqsConfiguration.getQueues()
-        logger.info("Queues: $queues")
-        val queueName = queues.get("email") ?: throw IllegalStateException("Email queue not found in configuration")
-        logger.info("Queue name: $queueName")
-        val getQueueUrlRequest =
-            GetQueueUrlRequest
-                .builder()
-                .queueName(queueName)
-                .build()
-        queueUrl = sqsClient.getQueueUrl(getQueueUrlRequest).queueUrl()
-        logger.info("Queue URL: $queueUrl")
-    }
-
     override fun sendVerificationEmail(
         to: String,
         username: String,
         verificationToken: String,
         expiresAt: java.time.Instant,
     ) {
-        val (subject, html) =
-            EmailTemplate.generateVerificationEmail(
-                username = username,
-                verificationToken = verificationToken,
-                expiresAt = expiresAt,
-            )
-
         try {
+            // The email service renders the template, only its parameters travel through the queue
             val emailData =
                 EmailData(
                     from = fromAddress,
                     to = to,
-                    subject = subject,
-                    html = html,
+                    priority = EmailPriority.HIGH,
+                    template =
+                        EmailTemplateRef(
+                            id = EmailTemplateIds.VERIFICATION,
+                            version = 1,
+                            params =
+                                mapOf(
+                                    "username" to username,
+                                    "verificationToken" to verificationToken,
+                                    "expiresAt" to expiresAt.toString(),
+                                ),
+                        ),
                 )
 
             val message =
@@ -72,15 +53,8 @@ class SqsEmailService(
                     data = emailData,
                 )
 
-            val messageBody = objectMapper.writeValueAsString(message)
-
-            sqsClient.sendMessage(
-                SendMessageRequest
-                    .builder()
-                    .queueUrl(queueUrl)
-                    .messageBody(messageBody)
-                    .build(),
-            )
+            val accepted = queuePublisher.sendNow(EmailPriority.HIGH.queue, listOf(QueuePublisher.Entry(message.id, message)))
+            check(message.id in accepted) { "The email queue did not accept message ${message.id}" }
         } catch (e: Exception) {
             throw RuntimeException("Failed to send verification email", e)
         }
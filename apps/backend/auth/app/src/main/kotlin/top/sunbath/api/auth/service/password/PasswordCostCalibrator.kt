@@ -0,0 +1,98 @@
+package top.sunbath.api.auth.service.password
+
+import at.favre.lib.crypto.bcrypt.BCrypt
+import io.micronaut.serde.annotation.Serdeable
+import jakarta.inject.Singleton
+import java.time.Duration
+
+/**
+ * The result of a cost calibration.
+ * @param cost The highest cost hashed within the budget, or [PasswordCostCalibrator.MIN_COST] if none was
+ * @param withinBudget Whether [cost] was hashed within the budget
+ * @param budgetMillis The latency budget
+ * @param configuredCost The cost new hashes are currently made with
+ * @param measurements The measured costs, in increasing order
+ */
+@Serdeable
+data class PasswordCostCalibration(
+    val cost: Int,
+    val withinBudget: Boolean,
+    val budgetMillis: Long,
+    val configuredCost: Int,
+    val measurements: List<PasswordCostMeasurement>,
+)
+
+/**
+ * The median time of hashing at a cost.
+ */
+@Serdeable
+data class PasswordCostMeasurement(
+    val cost: Int,
+    val millis: Long,
+)
+
+/**
+ * Measures how long BCrypt takes on the hardware it runs on, to pick the cost for
+ * [PasswordHashingConfiguration.cost].
+ *
+ * The result is only reported, the configured cost is not changed: instances on different hardware would otherwise
+ * pick different costs and rehash each other's hashes on every login.
+ */
+@Singleton
+class PasswordCostCalibrator(
+    private val configuration: PasswordHashingConfiguration,
+) {
+    companion object {
+        /**
+         * The lowest cost considered, whatever the budget.
+         */
+        const val MIN_COST = 10
+
+        /**
+         * The highest cost considered. Every step doubles the hash time.
+         */
+        const val MAX_COST = 16
+
+        private const val SAMPLES = 3
+        private const val SAMPLE_PASSWORD = "calibration-sample-password"
+    }
+
+    /**
+     * Measure the costs from [MIN_COST] up until one exceeds the budget.
+     * @param budget The latency budget of a single hash
+     * @return The highest cost within the budget, and the measurements
+     */
+    fun calibrate(budget: Duration = configuration.latencyBudget): PasswordCostCalibration {
+        val measurements = mutableListOf<PasswordCostMeasurement>()
+        for (cost in MIN_COST..MAX_COST) {
+            val measurement = PasswordCostMeasurement(cost, measure(cost))
+            measurements.add(measurement)
+            if (measurement.millis > budget.toMillis()) {
+                break
+            }
+        }
+        val chosen = measurements.lastOrNull { it.millis <= budget.toMillis() }
+        return PasswordCostCalibration(
+            cost = chosen?.cost ?: MIN_COST,
+            withinBudget = chosen != null,
+            budgetMillis = budget.toMillis(),
+            configuredCost = configuration.cost,
+            measurements = measurements,
+        )
+    }
+
+    /**
+     * The median time of hashing at a cost, after one warm-up hash.
+     */
+    private fun measure(cost: Int): Long {
+        val hasher = BCrypt.withDefaults()
+        hasher.hash(cost, SAMPLE_PASSWORD.toCharArray())
+        val samples =
+            (1..SAMPLES).map {
+                val start = System.nanoTime()
+                hasher.hash(cost, SAMPLE_PASSWORD.toCharArray())
+                Duration.ofNanos(System.nanoTime() - start).toMillis()
+            }
+        return samples.sorted()[SAMPLES / 2]
+    }
+}
@@ -0,0 +1,88 @@
+package top.sunbath.api.auth.service.password
+
+import at.favre.lib.crypto.bcrypt.BCrypt
+import io.micronaut.http.HttpStatus
+import io.micronaut.http.exceptions.HttpStatusException
+import jakarta.annotation.PreDestroy
+import jakarta.inject.Singleton
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Hashes and verifies passwords with BCrypt at the configured cost, see [PasswordHashingConfiguration].
+ *
+ * Hashing runs on a bounded pool, so a burst of logins queues up behind [PasswordHashingConfiguration.maxConcurrency]
+ * hashes instead of occupying every request thread and core. A request that finds the queue full is answered with
+ * 503 right away.
+ */
+@Singleton
+class PasswordHasher(
+    private val configuration: PasswordHashingConfiguration,
+) : AutoCloseable {
+    companion object {
+        /**
+         * The cost of a BCrypt hash, e.g. 12 for `$2a$12$...`.
+         * @return The cost, or null if the hash is not a BCrypt hash
+         */
+        fun costOf(hash: String): Int? = hash.split("$").takeIf { it.size >= 4 }?.get(2)?.toIntOrNull()
+    }
+
+    private val executor =
+        ThreadPoolExecutor(
+            configuration.maxConcurrency,
+            configuration.maxConcurrency,
+            0L,
+            TimeUnit.MILLISECONDS,
+            ArrayBlockingQueue(configuration.maxQueued),
+        ) { runnable ->
+            Thread(runnable, "password-hashing").apply { isDaemon = true }
+        }
+
+    /**
+     * Hash a password at the configured cost.
+     * @param password The password to hash
+     * @return The hashed password
+     */
+    fun hash(password: String): String =
+        submit { BCrypt.withDefaults().hashToString(configuration.cost, password.toCharArray()) }
+
+    /**
+     * Verify a password against a hashed password.
+     * @param password The password to verify
+     * @param hashedPassword The hashed password to verify against
+     * @return True if the password matches the hashed password, false otherwise
+     */
+    fun verify(
+        password: String,
+        hashedPassword: String,
+    ): Boolean = submit { BCrypt.verifyer().verify(password.toCharArray(), hashedPassword.toCharArray()).verified }
+
+    /**
+     * Whether a hash verified on login should be replaced by one at the configured cost.
+     */
+    fun needsRehash(hashedPassword: String): Boolean =
+        configuration.rehashOnLogin && costOf(hashedPassword) != configuration.cost
+
+    @PreDestroy
+    override fun close() {
+        executor.shutdownNow()
+    }
+
+    private fun <T> submit(task: () -> T): T {
+        val future =
+            try {
+                executor.submit(Callable(task))
+            } catch (e: RejectedExecutionException) {
+                throw HttpStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent requests, please try again")
+            }
+        try {
+            return future.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+}
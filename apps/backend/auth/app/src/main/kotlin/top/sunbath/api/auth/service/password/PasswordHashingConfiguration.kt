@@ -0,0 +1,42 @@
+package top.sunbath.api.auth.service.password
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+import java.time.Duration
+
+/**
+ * Configuration properties for password hashing.
+ */
+@ConfigurationProperties("password-hashing")
+open class PasswordHashingConfiguration {
+    /**
+     * The BCrypt cost of new hashes. Hashes of another cost are replaced on the next successful login.
+     * Use [PasswordCostCalibrator] to find the highest cost the deployed hardware hashes within [latencyBudget].
+     */
+    @NonNull
+    var cost: Int = 12
+
+    /**
+     * How long a single hash may take, the budget the calibration picks the cost for.
+     */
+    @NonNull
+    var latencyBudget: Duration = Duration.ofMillis(250)
+
+    /**
+     * The hashes computed at the same time. Hashing is CPU bound, so more threads than cores only add latency.
+     */
+    @NonNull
+    var maxConcurrency: Int = Runtime.getRuntime().availableProcessors()
+
+    /**
+     * The hashes waiting for a thread, further requests are rejected until the backlog drains.
+     */
+    @NonNull
+    var maxQueued: Int = 64
+
+    /**
+     * Whether a successful login replaces a hash whose cost differs from [cost].
+     */
+    @NonNull
+    var rehashOnLogin: Boolean = true
+}
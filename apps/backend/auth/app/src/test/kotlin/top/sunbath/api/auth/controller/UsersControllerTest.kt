@@ -16,6 +16,9 @@ import top.sunbath.api.auth.controller.request.CreateUserRequest
 import top.sunbath.api.auth.controller.request.UpdateUserRequest
 import top.sunbath.api.auth.model.User
 import top.sunbath.api.auth.repository.UserRepository
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
+import top.sunbath.shared.dynamodb.TransactionFailure
+import top.sunbath.shared.dynamodb.TransactionFailureReason
 import java.util.UUID
 
 /**
@@ -75,8 +78,6 @@ class UsersControllerTest {
                 roles = setOf("ROLE_USER"),
                 fullName = "Test User",
                 emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
                 lastVerificationEmailSentAt = null,
             )
 
@@ -128,8 +129,6 @@ class UsersControllerTest {
                 roles = setOf("ROLE_USER"),
                 fullName = request.fullName,
                 emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
                 lastVerificationEmailSentAt = null,
             )
         } returns userId
@@ -151,13 +150,36 @@ class UsersControllerTest {
                 roles = setOf("ROLE_USER"),
                 fullName = request.fullName,
                 emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
                 lastVerificationEmailSentAt = null,
             )
         }
     }
 
+    @Test
+    fun `test create user with taken username or email`() {
+        // Given
+        val request =
+            CreateUserRequest(
+                username = uniqueUsername("takenuser"),
+                email = "taken@example.com",
+                password = "Password123",
+                fullName = "Taken User",
+            )
+
+        every {
+            userRepository.save(request.username, request.email, request.password, any(), any(), any(), any(), any(), any())
+        } throws
+            TransactionConditionFailedException(
+                listOf(TransactionFailure(1, UserRepository.USERNAME_LABEL, TransactionFailureReason.CONDITIONAL_CHECK_FAILED, null)),
+            )
+
+        // When
+        val response = controller.save(request)
+
+        // Then
+        assertEquals(HttpStatus.CONFLICT, response.status)
+    }
+
     @Test
     fun `test update user when user exists`() {
         // Given
@@ -179,8 +201,6 @@ class UsersControllerTest {
                 roles = setOf("ROLE_USER"),
                 fullName = "Test User",
                 emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
                 lastVerificationEmailSentAt = null,
             )
 
@@ -193,8 +213,6 @@ class UsersControllerTest {
                 roles = request.roles!!,
                 fullName = request.fullName,
                 emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
                 lastVerificationEmailSentAt = null,
             )
 
@@ -208,8 +226,6 @@ class UsersControllerTest {
                 request.roles,
                 request.fullName,
                 existingUser.emailVerified,
-                existingUser.emailVerificationToken,
-                existingUser.emailVerificationTokenExpiresAt,
                 existingUser.lastVerificationEmailSentAt,
             )
         } returns true
@@ -230,8 +246,6 @@ class UsersControllerTest {
                 request.roles,
                 request.fullName,
                 existingUser.emailVerified,
-                existingUser.emailVerificationToken,
-                existingUser.emailVerificationTokenExpiresAt,
                 existingUser.lastVerificationEmailSentAt,
             )
         }
@@ -294,8 +308,6 @@ class UsersControllerTest {
                 roles = setOf("ROLE_USER"),
                 fullName = "Test User",
                 emailVerified = false,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
                 lastVerificationEmailSentAt = null,
             )
 
@@ -309,8 +321,6 @@ class UsersControllerTest {
                 request.roles,
                 request.fullName,
                 existingUser.emailVerified,
-                existingUser.emailVerificationToken,
-                existingUser.emailVerificationTokenExpiresAt,
                 existingUser.lastVerificationEmailSentAt,
             )
         } returns true
@@ -330,8 +340,6 @@ class UsersControllerTest {
                 request.roles,
                 request.fullName,
                 existingUser.emailVerified,
-                existingUser.emailVerificationToken,
-                existingUser.emailVerificationTokenExpiresAt,
                 existingUser.lastVerificationEmailSentAt,
             )
         }
@@ -352,4 +360,19 @@ class UsersControllerTest {
 
         verify(exactly = 1) { userRepository.delete(userId) }
     }
+
+    @Test
+    fun `test backfill lookup items returns the page cursor`() {
+        // Given
+        every { userRepository.backfillLookupItems(100, "cursor") } returns Pair(4, "next_cursor")
+
+        // When
+        val response = controller.backfillLookupItems(100, "cursor")
+
+        // Then
+        assertEquals(4, response.written)
+        assertEquals("next_cursor", response.nextCursor)
+
+        verify(exactly = 1) { userRepository.backfillLookupItems(100, "cursor") }
+    }
 }
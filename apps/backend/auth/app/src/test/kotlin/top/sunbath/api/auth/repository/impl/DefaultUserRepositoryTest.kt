@@ -0,0 +1,191 @@
+package top.sunbath.api.auth.repository.impl
+
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest
+import jakarta.inject.Inject
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.junit.jupiter.api.assertThrows
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest
+import top.sunbath.api.auth.BaseTest
+import top.sunbath.api.auth.model.PasswordType
+import top.sunbath.api.auth.repository.UserRepository
+import top.sunbath.shared.dynamodb.DynamoConfiguration
+import top.sunbath.shared.dynamodb.IdGenerator
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
+import java.time.Duration
+import java.time.Instant
+import java.util.UUID
+
+/**
+ * Tests for the DefaultUserRepository against DynamoDB Local, for users saved before the lookup items.
+ */
+@MicronautTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class DefaultUserRepositoryTest : BaseTest() {
+    @Inject
+    private lateinit var dynamoDbClient: DynamoDbClient
+
+    @Inject
+    private lateinit var dynamoConfiguration: DynamoConfiguration
+
+    @Inject
+    private lateinit var idGenerator: IdGenerator
+
+    private fun uniqueUsername(prefix: String): String = "${prefix}_${UUID.randomUUID().toString().substring(0, 8)}"
+
+    private fun keyOf(pk: String): Map<String, AttributeValue> {
+        val value = AttributeValue.builder().s(pk).build()
+        return mapOf("pk" to value, "sk" to value)
+    }
+
+    private fun getItem(pk: String): Map<String, AttributeValue>? =
+        dynamoDbClient
+            .getItem(
+                GetItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(keyOf(pk))
+                    .consistentRead(true)
+                    .build(),
+            ).item()
+            .takeIf { it.isNotEmpty() }
+
+    private fun deleteItem(pk: String) {
+        dynamoDbClient.deleteItem(
+            DeleteItemRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .key(keyOf(pk))
+                .build(),
+        )
+    }
+
+    // Helper to save a user as it was saved before the lookup items
+    private fun saveLegacyUser(username: String): String {
+        val id = userRepository.save(username, "$username@example.com", "hashed_password", setOf("ROLE_USER"), null)
+        deleteItem("USERNAME#$username")
+        deleteItem("EMAIL#$username@example.com")
+        return id
+    }
+
+    @Test
+    fun `test save rejects the username and email of a user without lookup items`() {
+        // Given
+        val username = uniqueUsername("legacyuser")
+        val email = "$username@example.com"
+        saveLegacyUser(username)
+
+        // When/Then
+        val usernameTaken =
+            assertThrows<TransactionConditionFailedException> {
+                userRepository.save(username, "other_$email", "hashed_password", setOf("ROLE_USER"), null)
+            }
+        assertTrue(usernameTaken.conditionFailed(UserRepository.USERNAME_LABEL))
+        assertFalse(usernameTaken.conditionFailed(UserRepository.EMAIL_LABEL))
+
+        val emailTaken =
+            assertThrows<TransactionConditionFailedException> {
+                userRepository.save(uniqueUsername("otheruser"), email, "hashed_password", setOf("ROLE_USER"), null)
+            }
+        assertTrue(emailTaken.conditionFailed(UserRepository.EMAIL_LABEL))
+        assertFalse(emailTaken.conditionFailed(UserRepository.USERNAME_LABEL))
+
+        // Only the legacy account exists
+        assertEquals(1, userRepository.findAll().count { it.username == username || it.email == email })
+    }
+
+    @Test
+    fun `test backfill writes the missing lookup items and marks the backfill done`() {
+        // Given - a repository of its own, so the other tests do not see the backfill done
+        val usernames = List(3) { uniqueUsername("legacyuser") }
+        usernames.forEach { saveLegacyUser(it) }
+        val repository = DefaultUserRepository(dynamoDbClient, dynamoConfiguration, idGenerator)
+
+        try {
+            // When
+            var written = 0
+            var cursor: String? = null
+            do {
+                val (count, nextCursor) = repository.backfillLookupItems(2, cursor)
+                written += count
+                cursor = nextCursor
+            } while (cursor != null)
+
+            // Then
+            assertEquals(6, written)
+            usernames.forEach {
+                assertNotNull(getItem("USERNAME#$it"))
+                assertNotNull(getItem("EMAIL#$it@example.com"))
+            }
+            assertNotNull(getItem("MIGRATION#USER_LOOKUP_ITEMS"))
+
+            // A second run finds nothing missing
+            assertEquals(0, repository.backfillLookupItems(100, null).first)
+        } finally {
+            deleteItem("MIGRATION#USER_LOOKUP_ITEMS")
+        }
+    }
+
+    @Test
+    fun `test verification keeps a password update made after the user was read`() {
+        // Given - verification reads the user, then the password is changed before the verification is written
+        val username = uniqueUsername("verifyuser")
+        val id =
+            userRepository.save(
+                username,
+                "$username@example.com",
+                "old_hashed_password",
+                setOf("ROLE_USER"),
+                null,
+                emailVerificationGeneration = 1,
+            )
+        val readForVerification = userRepository.findById(id)!!
+        assertTrue(userRepository.updatePasswordSettings(id, "new_hashed_password", PasswordType.V2, null, null))
+
+        // When
+        readForVerification.markEmailAsVerified()
+        assertTrue(userRepository.updateEmailVerified(readForVerification))
+
+        // Then - login sees both the verification and the new password
+        val user = userRepository.findByUsername(username)
+        assertNotNull(user)
+        assertTrue(user!!.emailVerified)
+        assertEquals("new_hashed_password", user.password)
+        assertEquals(id, getItem("USERNAME#$username")?.get("id")?.s())
+        assertNull(getItem("USERNAME#$username")?.get("password"))
+    }
+
+    @Test
+    fun `test clearing the send time of an unsent verification email allows another one right away`() {
+        // Given
+        val username = uniqueUsername("unsentuser")
+        val sentAt = Instant.now()
+        val id =
+            userRepository.save(
+                username,
+                "$username@example.com",
+                "hashed_password",
+                setOf("ROLE_USER"),
+                null,
+                emailVerificationGeneration = 1,
+                lastVerificationEmailSentAt = sentAt,
+            )
+        assertNull(userRepository.nextEmailVerificationGeneration(id, Instant.now(), Duration.ofMinutes(1)))
+
+        // When
+        assertFalse(userRepository.clearLastVerificationEmailSentAt(id, sentAt.minusSeconds(1)))
+        assertTrue(userRepository.clearLastVerificationEmailSentAt(id, sentAt))
+
+        // Then
+        assertNull(userRepository.findById(id)!!.lastVerificationEmailSentAt)
+        assertEquals(2L, userRepository.nextEmailVerificationGeneration(id, Instant.now(), Duration.ofMinutes(1)))
+    }
+}
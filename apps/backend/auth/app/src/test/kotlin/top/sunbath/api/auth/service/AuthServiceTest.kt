@@ -6,6 +6,7 @@ import io.mockk.MockKAnnotations
 import io.mockk.every
 import io.mockk.impl.annotations.MockK
 import io.mockk.junit5.MockKExtension
+import io.mockk.mockk
 import io.mockk.slot
 import io.mockk.spyk
 import io.mockk.verify
@@ -24,6 +25,12 @@ import top.sunbath.api.auth.model.User
 import top.sunbath.api.auth.repository.UserRepository
 import top.sunbath.api.auth.service.email.EmailService
 import top.sunbath.api.auth.service.outcome.LoginOutcome
+import top.sunbath.api.auth.service.password.PasswordHasher
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
+import top.sunbath.shared.dynamodb.TransactionFailure
+import top.sunbath.shared.dynamodb.TransactionFailureReason
+import top.sunbath.shared.ssm.SsmParameterProvider
+import java.time.Duration
 import java.time.Instant
 import java.util.UUID
 
@@ -41,8 +48,17 @@ class AuthServiceTest {
     @MockK
     private lateinit var emailService: EmailService
 
+    @MockK
+    private lateinit var passwordHasher: PasswordHasher
+
     private lateinit var authService: AuthService
 
+    private val verificationTokenService =
+        VerificationTokenService(
+            EmailVerificationConfiguration().apply { signingSecret = "test-verification-secret" },
+            mockk<SsmParameterProvider>(),
+        )
+
     // Test Data Constants
     private val v1Username = uniqueUsername("v1user")
     private val v1UserId = "v1_user_id_${UUID.randomUUID().toString().substring(0, 4)}"
@@ -57,6 +73,14 @@ class AuthServiceTest {
     // 生成唯一用户名的辅助函数
     private fun uniqueUsername(prefix: String): String = "${prefix}_${UUID.randomUUID().toString().substring(0, 8)}"
 
+    // Helper to create the exception of a user write whose lookup items are taken
+    private fun conditionFailed(vararg labels: String): TransactionConditionFailedException =
+        TransactionConditionFailedException(
+            labels.mapIndexed { index, label ->
+                TransactionFailure(index + 1, label, TransactionFailureReason.CONDITIONAL_CHECK_FAILED, null)
+            },
+        )
+
     // Helper to create V1 user mock
     private fun createV1UserMock(
         migrationToken: String? = null,
@@ -83,7 +107,7 @@ class AuthServiceTest {
         // 创建一个 spy 的 AuthService，这样我们可以模拟部分方法
         authService =
             spyk(
-                AuthService(userRepository, jwtService, emailService),
+                AuthService(userRepository, jwtService, emailService, verificationTokenService, passwordHasher),
                 recordPrivateCalls = true,
             )
 
@@ -98,6 +122,9 @@ class AuthServiceTest {
 
         // Mock token generation used internally by AuthService
         every { authService["generateMigrationToken"]() } returns validMigrationToken
+
+        // Hashes of the test data are at the configured cost
+        every { passwordHasher.needsRehash(any()) } returns false
     }
 
     @Test
@@ -118,8 +145,6 @@ class AuthServiceTest {
             authService["hashPassword"](request.password)
         } returns hashedPassword
 
-        every { userRepository.findByUsername(request.username) } returns null
-        every { userRepository.findByEmail(request.email) } returns null
         every {
             userRepository.save(
                 username = request.username,
@@ -128,8 +153,7 @@ class AuthServiceTest {
                 roles = setOf("ROLE_USER"),
                 fullName = request.fullName,
                 emailVerified = false,
-                emailVerificationToken = any(),
-                emailVerificationTokenExpiresAt = any(),
+                emailVerificationGeneration = 1,
                 lastVerificationEmailSentAt = any(),
             )
         } returns userId
@@ -151,8 +175,8 @@ class AuthServiceTest {
         assertEquals(userId, result.userId)
         assertEquals("Registration successful. Please check your email for verification instructions.", result.message)
 
-        verify(exactly = 1) { userRepository.findByUsername(request.username) }
-        verify(exactly = 1) { userRepository.findByEmail(request.email) }
+        verify(exactly = 0) { userRepository.findByUsername(any()) }
+        verify(exactly = 0) { userRepository.findByEmail(any()) }
         verify(exactly = 1) {
             userRepository.save(
                 username = request.username,
@@ -161,8 +185,7 @@ class AuthServiceTest {
                 roles = setOf("ROLE_USER"),
                 fullName = request.fullName,
                 emailVerified = false,
-                emailVerificationToken = any(),
-                emailVerificationTokenExpiresAt = any(),
+                emailVerificationGeneration = 1,
                 lastVerificationEmailSentAt = any(),
             )
         }
@@ -176,6 +199,40 @@ class AuthServiceTest {
         }
     }
 
+    @Test
+    fun `test registration when the verification email is not queued`() {
+        // Given
+        val request =
+            CreateUserRequest(
+                username = uniqueUsername("unsentuser"),
+                email = "unsent@example.com",
+                password = "Password123",
+                fullName = "Unsent User",
+            )
+        val userId = "generated_user_id"
+        val sentAt = slot<Instant>()
+
+        every { authService["hashPassword"](request.password) } returns "hashed_password"
+        every {
+            userRepository.save(request.username, request.email, any(), any(), any(), any(), any(), capture(sentAt))
+        } returns userId
+        every {
+            emailService.sendVerificationEmail(request.email, request.username, any(), any())
+        } throws RuntimeException("Failed to send verification email")
+        every { userRepository.clearLastVerificationEmailSentAt(userId, any()) } returns true
+
+        // When
+        val result = authService.register(request)
+
+        // Then - the user is saved and can request another verification email right away
+        assertEquals(userId, result.userId)
+        assertEquals(
+            "Registration successful, but the verification email could not be sent. Please request a new one.",
+            result.message,
+        )
+        verify(exactly = 1) { userRepository.clearLastVerificationEmailSentAt(userId, sentAt.captured) }
+    }
+
     @Test
     fun `test registration with existing username`() {
         // Given
@@ -187,15 +244,11 @@ class AuthServiceTest {
                 password = "Password123",
                 fullName = "Existing User",
             )
-        val existingUser =
-            User(
-                id = "existing_id",
-                username = username,
-                email = "existing@example.com",
-                password = "hashed_password",
-            )
 
-        every { userRepository.findByUsername(username) } returns existingUser
+        every { authService["hashPassword"](request.password) } returns "hashed_password"
+        every {
+            userRepository.save(username, request.email, any(), any(), any(), any(), any(), any())
+        } throws conditionFailed(UserRepository.USERNAME_LABEL, UserRepository.EMAIL_LABEL)
 
         // When/Then
         val exception =
@@ -205,8 +258,8 @@ class AuthServiceTest {
         assertEquals(HttpStatus.CONFLICT, exception.status)
         assertEquals("Username already exists", exception.message)
 
-        verify(exactly = 1) { userRepository.findByUsername(username) }
-        verify(exactly = 0) { userRepository.findByEmail(any()) }
+        verify(exactly = 0) { userRepository.findByUsername(any()) }
+        verify(exactly = 0) { emailService.sendVerificationEmail(any(), any(), any(), any()) }
     }
 
     @Test
@@ -219,16 +272,11 @@ class AuthServiceTest {
                 password = "Password123",
                 fullName = "New User",
             )
-        val existingUser =
-            User(
-                id = "existing_id",
-                username = "existinguser",
-                email = request.email,
-                password = "hashed_password",
-            )
 
-        every { userRepository.findByUsername(request.username) } returns null
-        every { userRepository.findByEmail(request.email) } returns existingUser
+        every { authService["hashPassword"](request.password) } returns "hashed_password"
+        every {
+            userRepository.save(request.username, request.email, any(), any(), any(), any(), any(), any())
+        } throws conditionFailed(UserRepository.EMAIL_LABEL)
 
         // When/Then
         val exception =
@@ -238,8 +286,8 @@ class AuthServiceTest {
         assertEquals(HttpStatus.CONFLICT, exception.status)
         assertEquals("Email already exists", exception.message)
 
-        verify(exactly = 1) { userRepository.findByUsername(request.username) }
-        verify(exactly = 1) { userRepository.findByEmail(request.email) }
+        verify(exactly = 0) { userRepository.findByEmail(any()) }
+        verify(exactly = 0) { emailService.sendVerificationEmail(any(), any(), any(), any()) }
     }
 
     @Test
@@ -280,6 +328,38 @@ class AuthServiceTest {
         verify(exactly = 1) { jwtService.generateToken(user) }
     }
 
+    @Test
+    fun `test login rehashes a password hashed at an outdated cost`() {
+        // Given
+        val username = uniqueUsername("rehashuser")
+        val password = "Password123"
+        val outdatedHash = "\$2a\$10\$${UUID.randomUUID()}"
+        val rehashed = "\$2a\$12\$${UUID.randomUUID()}"
+        val user =
+            User(
+                id = "user_id",
+                username = username,
+                email = "rehash@example.com",
+                password = outdatedHash,
+                passwordType = PasswordType.V2,
+                emailVerified = true,
+            )
+
+        every { authService["verifyPassword"](password, outdatedHash) } returns true
+        every { authService["hashPassword"](password) } returns rehashed
+        every { passwordHasher.needsRehash(outdatedHash) } returns true
+        every { userRepository.findByUsername(username) } returns user
+        every { userRepository.updatePasswordSettings(user.id, rehashed, null, null, null) } returns true
+        every { jwtService.generateToken(user) } returns validJwtToken
+
+        // When
+        val result = authService.login(LoginRequest(username, password))
+
+        // Then
+        assertTrue(result is LoginOutcome.Success)
+        verify(exactly = 1) { userRepository.updatePasswordSettings(user.id, rehashed, null, null, null) }
+    }
+
     @Test
     fun `test login with unverified email`() {
         // Given
@@ -374,7 +454,6 @@ class AuthServiceTest {
     @Test
     fun `test verify email with valid token`() {
         // Given
-        val token = "valid_token"
         val user =
             User(
                 id = "user_id",
@@ -382,52 +461,46 @@ class AuthServiceTest {
                 email = "test@example.com",
                 password = "hashed_password",
                 emailVerified = false,
-                emailVerificationToken = token,
-                emailVerificationTokenExpiresAt = Instant.now().plusSeconds(3600),
+                emailVerificationGeneration = 2,
             )
+        val token = verificationTokenService.issue(user.id, 2).value
 
-        every { userRepository.findByVerificationToken(token) } returns user
-        every {
-            userRepository.update(
-                id = user.id,
-                email = user.email,
-                password = user.password,
-                roles = user.roles,
-                fullName = user.fullName,
-                emailVerified = true,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
-                lastVerificationEmailSentAt = user.lastVerificationEmailSentAt,
-            )
-        } returns true
+        every { userRepository.findById(user.id) } returns user
+        every { userRepository.updateEmailVerified(user) } returns true
 
         // When
         val result = authService.verifyEmail(token)
 
         // Then
         assertEquals("Email verified successfully", result)
-        verify(exactly = 1) { userRepository.findByVerificationToken(token) }
-        verify(exactly = 1) {
-            userRepository.update(
-                id = user.id,
-                email = user.email,
-                password = user.password,
-                roles = user.roles,
-                fullName = user.fullName,
-                emailVerified = true,
-                emailVerificationToken = null,
-                emailVerificationTokenExpiresAt = null,
-                lastVerificationEmailSentAt = user.lastVerificationEmailSentAt,
-            )
-        }
+        assertTrue(user.emailVerified)
+        verify(exactly = 1) { userRepository.findById(user.id) }
+        verify(exactly = 1) { userRepository.updateEmailVerified(user) }
     }
 
     @Test
     fun `test verify email with invalid token`() {
         // Given
-        val token = "invalid_token"
+        val token = verificationTokenService.issue("user_id", 1).value
+
+        // When/Then
+        listOf("invalid_token", token.dropLast(2), "${token.substringBefore('.')}.${token.substringBefore('.')}").forEach {
+            val exception =
+                assertThrows<HttpStatusException> {
+                    authService.verifyEmail(it)
+                }
+            assertEquals(HttpStatus.BAD_REQUEST, exception.status)
+            assertEquals("Invalid verification token", exception.message)
+        }
+
+        verify(exactly = 0) { userRepository.findById(any()) }
+        verify(exactly = 0) { userRepository.updateEmailVerified(any()) }
+    }
 
-        every { userRepository.findByVerificationToken(token) } returns null
+    @Test
+    fun `test verify email with expired token`() {
+        // Given
+        val token = verificationTokenService.issue("user_id", 1, Instant.now().minus(Duration.ofHours(25))).value
 
         // When/Then
         val exception =
@@ -435,16 +508,15 @@ class AuthServiceTest {
                 authService.verifyEmail(token)
             }
         assertEquals(HttpStatus.BAD_REQUEST, exception.status)
-        assertEquals("Invalid verification token", exception.message)
+        assertEquals("Verification token has expired", exception.message)
 
-        verify(exactly = 1) { userRepository.findByVerificationToken(token) }
-        verify(exactly = 0) { userRepository.update(any(), any(), any(), any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { userRepository.findById(any()) }
+        verify(exactly = 0) { userRepository.updateEmailVerified(any()) }
     }
 
     @Test
-    fun `test verify email with expired token`() {
+    fun `test verify email with superseded token`() {
         // Given
-        val token = "expired_token"
         val user =
             User(
                 id = "user_id",
@@ -452,11 +524,11 @@ class AuthServiceTest {
                 email = "test@example.com",
                 password = "hashed_password",
                 emailVerified = false,
-                emailVerificationToken = token,
-                emailVerificationTokenExpiresAt = Instant.now().minusSeconds(3600),
+                emailVerificationGeneration = 2,
             )
+        val token = verificationTokenService.issue(user.id, 1).value
 
-        every { userRepository.findByVerificationToken(token) } returns user
+        every { userRepository.findById(user.id) } returns user
 
         // When/Then
         val exception =
@@ -464,10 +536,9 @@ class AuthServiceTest {
                 authService.verifyEmail(token)
             }
         assertEquals(HttpStatus.BAD_REQUEST, exception.status)
-        assertEquals("Verification token has expired", exception.message)
+        assertEquals("Invalid verification token", exception.message)
 
-        verify(exactly = 1) { userRepository.findByVerificationToken(token) }
-        verify(exactly = 0) { userRepository.update(any(), any(), any(), any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { userRepository.updateEmailVerified(any()) }
     }
 
     @Test
@@ -481,28 +552,18 @@ class AuthServiceTest {
                 email = email,
                 password = "hashed_password",
                 emailVerified = false,
+                emailVerificationGeneration = 2,
                 lastVerificationEmailSentAt = Instant.now().minusSeconds(3600),
             )
+        val tokenSlot = slot<String>()
 
         every { userRepository.findByEmail(email) } returns user
-        every {
-            userRepository.update(
-                id = user.id,
-                email = user.email,
-                password = user.password,
-                roles = user.roles,
-                fullName = user.fullName,
-                emailVerified = user.emailVerified,
-                emailVerificationToken = any(),
-                emailVerificationTokenExpiresAt = any(),
-                lastVerificationEmailSentAt = any(),
-            )
-        } returns true
+        every { userRepository.nextEmailVerificationGeneration(user.id, any(), any()) } returns 3
         every {
             emailService.sendVerificationEmail(
                 to = email,
                 username = user.username,
-                verificationToken = any(),
+                verificationToken = capture(tokenSlot),
                 expiresAt = any(),
             )
         } returns Unit
@@ -512,20 +573,9 @@ class AuthServiceTest {
 
         // Then
         assertEquals("Verification email sent successfully", result)
+        assertEquals(3L, verificationTokenService.read(tokenSlot.captured)?.generation)
         verify(exactly = 1) { userRepository.findByEmail(email) }
-        verify(exactly = 1) {
-            userRepository.update(
-                id = user.id,
-                email = user.email,
-                password = user.password,
-                roles = user.roles,
-                fullName = user.fullName,
-                emailVerified = user.emailVerified,
-                emailVerificationToken = any(),
-                emailVerificationTokenExpiresAt = any(),
-                lastVerificationEmailSentAt = any(),
-            )
-        }
+        verify(exactly = 1) { userRepository.nextEmailVerificationGeneration(user.id, any(), any()) }
         verify(exactly = 1) {
             emailService.sendVerificationEmail(
                 to = email,
@@ -552,7 +602,7 @@ class AuthServiceTest {
         assertEquals("Email not found", exception.message)
 
         verify(exactly = 1) { userRepository.findByEmail(email) }
-        verify(exactly = 0) { userRepository.update(any(), any(), any(), any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { userRepository.nextEmailVerificationGeneration(any(), any(), any()) }
         verify(exactly = 0) { emailService.sendVerificationEmail(any(), any(), any(), any()) }
     }
 
@@ -580,7 +630,7 @@ class AuthServiceTest {
         assertEquals("Email is already verified", exception.message)
 
         verify(exactly = 1) { userRepository.findByEmail(email) }
-        verify(exactly = 0) { userRepository.update(any(), any(), any(), any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { userRepository.nextEmailVerificationGeneration(any(), any(), any()) }
         verify(exactly = 0) { emailService.sendVerificationEmail(any(), any(), any(), any()) }
     }
 
@@ -609,7 +659,7 @@ class AuthServiceTest {
         assertEquals("Please wait before requesting another verification email", exception.message)
 
         verify(exactly = 1) { userRepository.findByEmail(email) }
-        verify(exactly = 0) { userRepository.update(any(), any(), any(), any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { userRepository.nextEmailVerificationGeneration(any(), any(), any()) }
         verify(exactly = 0) { emailService.sendVerificationEmail(any(), any(), any(), any()) }
     }
 
@@ -0,0 +1,65 @@
+package top.sunbath.api.auth.service
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertDoesNotThrow
+import org.junit.jupiter.api.assertThrows
+import top.sunbath.shared.ssm.SsmParameterProvider
+
+/**
+ * Unit tests for the signing secret of the VerificationTokenService.
+ */
+class VerificationTokenServiceTest {
+    private val ssmParameterProvider = mockk<SsmParameterProvider>()
+
+    private fun serviceOf(
+        signingSecret: String,
+        signingSecretParameter: String? = null,
+    ): VerificationTokenService =
+        VerificationTokenService(
+            EmailVerificationConfiguration().apply {
+                this.signingSecret = signingSecret
+                this.signingSecretParameter = signingSecretParameter
+            },
+            ssmParameterProvider,
+        )
+
+    @Test
+    fun `test the secret of the SSM parameter takes precedence`() {
+        // Given
+        every { ssmParameterProvider.getParameter("/auth/secret") } returns "ssm-verification-secret"
+        val service = serviceOf(VerificationTokenService.DEFAULT_SIGNING_SECRET, "/auth/secret")
+
+        // When
+        val token = service.issue("user-1", 1)
+
+        // Then - only a service with the SSM secret accepts the token
+        assertDoesNotThrow { service.checkSigningSecret() }
+        assertEquals("user-1", serviceOf("ssm-verification-secret").read(token.value)?.userId)
+        assertNull(serviceOf(VerificationTokenService.DEFAULT_SIGNING_SECRET).read(token.value))
+        verify(exactly = 1) { ssmParameterProvider.getParameter("/auth/secret") }
+    }
+
+    @Test
+    fun `test check rejects the default secret`() {
+        // Given
+        val service = serviceOf(VerificationTokenService.DEFAULT_SIGNING_SECRET)
+
+        // When/Then
+        assertThrows<IllegalStateException> { service.checkSigningSecret() }
+    }
+
+    @Test
+    fun `test check rejects a blank secret`() {
+        // Given
+        every { ssmParameterProvider.getParameter("/auth/secret") } returns " "
+        val service = serviceOf("test-verification-secret", "/auth/secret")
+
+        // When/Then
+        assertThrows<IllegalStateException> { service.checkSigningSecret() }
+    }
+}
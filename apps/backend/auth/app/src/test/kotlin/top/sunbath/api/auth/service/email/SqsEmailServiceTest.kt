@@ -0,0 +1,44 @@
+package top.sunbath.api.auth.service.email
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import top.sunbath.shared.sqs.QueuePublisher
+import top.sunbath.shared.types.EmailPriority
+import java.time.Instant
+
+/**
+ * Unit tests for the SqsEmailService.
+ */
+class SqsEmailServiceTest {
+    private val queuePublisher = mockk<QueuePublisher>()
+
+    private val emailService = SqsEmailService(queuePublisher)
+
+    @Test
+    fun `test verification email is sent right away`() {
+        // Given
+        every { queuePublisher.sendNow(EmailPriority.HIGH.queue, any()) } answers {
+            secondArg<List<QueuePublisher.Entry>>().map { it.id }.toSet()
+        }
+
+        // When
+        emailService.sendVerificationEmail("user@example.com", "user", "token", Instant.now())
+
+        // Then
+        verify(exactly = 1) { queuePublisher.sendNow(EmailPriority.HIGH.queue, match { it.size == 1 }) }
+    }
+
+    @Test
+    fun `test verification email the queue did not accept fails`() {
+        // Given
+        every { queuePublisher.sendNow(any(), any()) } returns emptySet()
+
+        // When/Then
+        assertThrows<RuntimeException> {
+            emailService.sendVerificationEmail("user@example.com", "user", "token", Instant.now())
+        }
+    }
+}
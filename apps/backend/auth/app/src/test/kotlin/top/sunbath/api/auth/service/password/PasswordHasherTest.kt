@@ -0,0 +1,64 @@
+package top.sunbath.api.auth.service.password
+
+import at.favre.lib.crypto.bcrypt.BCrypt
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+/**
+ * Unit tests for the PasswordHasher and PasswordCostCalibrator.
+ */
+class PasswordHasherTest {
+    // The lowest cost BCrypt accepts keeps the tests fast
+    private val configuration = PasswordHashingConfiguration().apply { cost = 4 }
+
+    private val passwordHasher = PasswordHasher(configuration)
+
+    @AfterEach
+    fun tearDown() {
+        passwordHasher.close()
+    }
+
+    @Test
+    fun `test hash and verify at the configured cost`() {
+        // When
+        val hash = passwordHasher.hash("Password123")
+
+        // Then
+        assertEquals(4, PasswordHasher.costOf(hash))
+        assertTrue(passwordHasher.verify("Password123", hash))
+        assertFalse(passwordHasher.verify("Password124", hash))
+    }
+
+    @Test
+    fun `test rehash only hashes of another cost`() {
+        // Given
+        val current = passwordHasher.hash("Password123")
+        val outdated = BCrypt.withDefaults().hashToString(5, "Password123".toCharArray())
+
+        // When/Then
+        assertFalse(passwordHasher.needsRehash(current))
+        assertTrue(passwordHasher.needsRehash(outdated))
+
+        configuration.rehashOnLogin = false
+        assertFalse(passwordHasher.needsRehash(outdated))
+    }
+
+    @Test
+    fun `test calibration stops at the first cost over budget`() {
+        // Given
+        val calibrator = PasswordCostCalibrator(configuration)
+
+        // When
+        val calibration = calibrator.calibrate(Duration.ZERO)
+
+        // Then
+        assertEquals(PasswordCostCalibrator.MIN_COST, calibration.cost)
+        assertFalse(calibration.withinBudget)
+        assertEquals(listOf(PasswordCostCalibrator.MIN_COST), calibration.measurements.map { it.cost })
+        assertEquals(4, calibration.configuredCost)
+    }
+}
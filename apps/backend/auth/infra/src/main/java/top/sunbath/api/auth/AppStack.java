@@ -71,7 +71,8 @@ public class AppStack extends Stack {
                 // 额外授予 Lambda 函数创建和管理索引的权限
                 function.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
                                 .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
-                                                "dynamodb:CreateTable"))
+                                                "dynamodb:CreateTable", "dynamodb:DescribeTimeToLive",
+                                                "dynamodb:UpdateTimeToLive"))
                                 .resources(Arrays.asList(singleTable.getTableArn(),
                                                 // index
                                                 singleTable.getTableArn() + "/*", distributedLocksArn))
@@ -86,10 +87,14 @@ public class AppStack extends Stack {
 
                 String ssmParameterArn = String.format("arn:aws:ssm:%s:%s:parameter/auth/resend/api-key", region,
                                 accountId);
+                // The secret email verification tokens are signed with, the function fails to start without it
+                String verificationSecretParameterArn = String.format(
+                                "arn:aws:ssm:%s:%s:parameter/auth/email-verification/signing-secret", region, accountId);
 
                 // 添加 SSM Parameter Store 访问权限
                 function.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
-                                .actions(Arrays.asList("ssm:GetParameter")).resources(Arrays.asList(ssmParameterArn))
+                                .actions(Arrays.asList("ssm:GetParameter"))
+                                .resources(Arrays.asList(ssmParameterArn, verificationSecretParameterArn))
                                 .build());
 
                 var currentVersion = function.getCurrentVersion();
@@ -39,7 +39,9 @@ dependencies {
 
     // KSP/Annotation Processors
     ksp(libs.micronaut.http.validation)
+    ksp(libs.micronaut.security.annotations)
     ksp(libs.micronaut.serde.processor)
+    ksp(libs.micronaut.validation.processor)
 
     // Project Dependencies
     implementation(project(":libs:jvm-shared-lib"))
@@ -47,6 +49,8 @@ dependencies {
     // Micronaut Dependencies
     implementation(libs.micronaut.aws.sdk.v2)
     implementation(libs.micronaut.cache.caffeine)
+    implementation(libs.micronaut.security)
+    implementation(libs.micronaut.security.jwt)
     implementation(libs.micronaut.serde.jackson)
     implementation(libs.micronaut.validation)
     runtimeOnly(libs.micronaut.aws.lambda.events.serde)
@@ -55,6 +59,7 @@ dependencies {
     // AWS SDK Dependencies
     implementation(libs.aws.dynamodb)
     implementation(libs.aws.lambda.java.events)
+    implementation(libs.aws.sqs)
     implementation(libs.aws.ssm)
 
     // Other Third-Party Dependencies
@@ -0,0 +1,17 @@
+package top.sunbath.api.email.config
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+
+/**
+ * Configuration properties for the stored email records.
+ */
+@ConfigurationProperties("email-record")
+open class EmailRecordConfiguration {
+    /**
+     * Whether records of template emails keep their rendered HTML. The template reference is always stored
+     * and renders the same email again as long as the template version exists.
+     */
+    @NonNull
+    var storeRenderedHtml: Boolean = false
+}
@@ -0,0 +1,44 @@
+package top.sunbath.api.email.controller
+
+import io.micronaut.core.annotation.Nullable
+import io.micronaut.http.annotation.Controller
+import io.micronaut.http.annotation.Get
+import io.micronaut.http.annotation.QueryValue
+import io.micronaut.security.annotation.Secured
+import io.micronaut.validation.Validated
+import jakarta.validation.constraints.Max
+import jakarta.validation.constraints.NotBlank
+import top.sunbath.api.email.model.EmailRecord
+import top.sunbath.api.email.repository.EmailRecordRepository
+import top.sunbath.shared.types.PagedListResponse
+
+/**
+ * Controller for the emails sent to a recipient.
+ */
+@Validated
+@Controller("/v1/emails")
+@Secured("ROLE_ADMIN")
+class EmailHistoryController(
+    private val emailRecordRepository: EmailRecordRepository,
+) {
+    /**
+     * Get the emails sent to a recipient with pagination, newest first and without their HTML.
+     * @param to The recipient
+     * @param limit The maximum number of emails to return (default: 20)
+     * @param cursor The cursor for pagination (null for first page)
+     * @return Paginated list of email records
+     */
+    @Get
+    fun index(
+        @QueryValue @NotBlank to: String,
+        @QueryValue(defaultValue = "20") @Max(100) limit: Int,
+        @QueryValue @Nullable cursor: String?,
+    ): PagedListResponse<EmailRecord> {
+        val (records, nextCursor) = emailRecordRepository.findByRecipientWithCursor(to, limit, cursor)
+        return PagedListResponse(
+            items = records,
+            nextCursor = nextCursor,
+            hasMore = nextCursor != null,
+        )
+    }
+}
@@ -0,0 +1,38 @@
+package top.sunbath.api.email.controller
+
+import io.micronaut.http.annotation.Body
+import io.micronaut.http.annotation.Controller
+import io.micronaut.http.annotation.Post
+import io.micronaut.security.annotation.Secured
+import io.micronaut.validation.Validated
+import jakarta.validation.Valid
+import top.sunbath.api.email.controller.request.VendorEventsRequest
+import top.sunbath.api.email.controller.response.SuppressionResponse
+import top.sunbath.api.email.suppression.SuppressionList
+
+/**
+ * Controller for the suppressed addresses.
+ */
+@Validated
+@Controller("/v1/suppressions")
+@Secured("ROLE_ADMIN")
+class SuppressionController(
+    private val suppressionList: SuppressionList,
+) {
+    /**
+     * Suppress the recipients of bounce and complaint events, with one batched write for all events.
+     * @param request The vendor events, other event types are ignored
+     * @return How many addresses were suppressed and events ignored
+     */
+    @Post
+    fun save(
+        @Body @Valid request: VendorEventsRequest,
+    ): SuppressionResponse {
+        val suppressions = request.events.map { suppressionList.suppressionsOf(it) }
+        val suppressed = suppressionList.addAll(suppressions.flatten())
+        return SuppressionResponse(
+            suppressed = suppressed,
+            ignored = suppressions.count { it.isEmpty() },
+        )
+    }
+}
@@ -0,0 +1,75 @@
+package top.sunbath.api.email.controller
+
+import io.micronaut.core.annotation.Nullable
+import io.micronaut.http.HttpResponse
+import io.micronaut.http.annotation.Body
+import io.micronaut.http.annotation.Controller
+import io.micronaut.http.annotation.Header
+import io.micronaut.http.annotation.Post
+import io.micronaut.security.annotation.Secured
+import io.micronaut.security.rules.SecurityRule
+import io.micronaut.serde.ObjectMapper
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.vendor.VendorEvent
+import top.sunbath.api.email.webhook.WebhookConfiguration
+import top.sunbath.api.email.webhook.WebhookVerifier
+import top.sunbath.shared.sqs.QueuePublisher
+import top.sunbath.shared.types.SqsMessage
+
+/**
+ * Controller for the webhook the vendor reports email events to.
+ *
+ * A request is only verified and put on the events queue, the event consumer applies the events in batches.
+ * The vendor retries a request that did not succeed, so a queue outage loses no event.
+ */
+@Controller("/v1/webhooks")
+@Secured(SecurityRule.IS_ANONYMOUS)
+class WebhookController(
+    private val webhookVerifier: WebhookVerifier,
+    private val webhookConfiguration: WebhookConfiguration,
+    private val queuePublisher: QueuePublisher,
+    private val objectMapper: ObjectMapper,
+) {
+    private val logger = LoggerFactory.getLogger(WebhookController::class.java)
+
+    /**
+     * Receive an event of Resend.
+     * @param id The message ID, unique per event and kept across retries
+     * @param timestamp When the request was signed, in epoch seconds
+     * @param signature The signatures of the request
+     * @param body The raw event, the signature covers it byte for byte
+     * @return 204 once the event is queued, 400 if the message ID is missing or the event cannot be read,
+     * 401 if the signature does not match
+     */
+    @Post("/resend")
+    fun resend(
+        @Header("svix-id") @Nullable id: String?,
+        @Header("svix-timestamp") @Nullable timestamp: String?,
+        @Header("svix-signature") @Nullable signature: String?,
+        @Body body: String,
+    ): HttpResponse<Void> {
+        if (id.isNullOrBlank()) {
+            logger.warn("Rejecting webhook request without a message ID")
+            return HttpResponse.badRequest()
+        }
+        if (!webhookVerifier.verify(id, timestamp, signature, body)) {
+            logger.warn("Rejecting webhook request $id with an invalid signature")
+            return HttpResponse.unauthorized()
+        }
+        val event =
+            try {
+                objectMapper.readValue(body, VendorEvent::class.java)
+            } catch (e: Exception) {
+                // Retrying an event that cannot be read would not help
+                logger.error("Failed to read webhook event $id: $body", e)
+                return HttpResponse.badRequest()
+            }
+        val entry = QueuePublisher.Entry(id, SqsMessage(id = id, data = event))
+        val accepted = queuePublisher.sendNow(webhookConfiguration.queue, listOf(entry))
+        if (id !in accepted) {
+            logger.error("Failed to queue webhook event $id, the vendor retries it")
+            return HttpResponse.serverError()
+        }
+        return HttpResponse.noContent()
+    }
+}
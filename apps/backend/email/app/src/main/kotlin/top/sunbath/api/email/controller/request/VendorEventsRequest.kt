@@ -0,0 +1,21 @@
+package top.sunbath.api.email.controller.request
+
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.serde.annotation.Serdeable
+import jakarta.validation.constraints.NotEmpty
+import jakarta.validation.constraints.Size
+import top.sunbath.api.email.vendor.VendorEvent
+
+/**
+ * Request carrying vendor events, applied together.
+ */
+@Introspected
+@Serdeable
+data class VendorEventsRequest(
+    /**
+     * The events, as the vendor reported them.
+     */
+    @field:NotEmpty
+    @field:Size(max = 1000)
+    val events: List<VendorEvent>,
+)
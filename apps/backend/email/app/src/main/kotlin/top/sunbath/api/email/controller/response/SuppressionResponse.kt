@@ -0,0 +1,18 @@
+package top.sunbath.api.email.controller.response
+
+import io.micronaut.serde.annotation.Serdeable
+
+/**
+ * Response for ingested vendor events.
+ */
+@Serdeable
+data class SuppressionResponse(
+    /**
+     * The addresses that are suppressed now.
+     */
+    val suppressed: Int,
+    /**
+     * The events that suppress no address, such as deliveries or transient bounces.
+     */
+    val ignored: Int,
+)
@@ -0,0 +1,16 @@
+package top.sunbath.api.email.handler
+
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.function.aws.MicronautRequestHandler
+import top.sunbath.api.email.redrive.DlqRedrive
+import top.sunbath.api.email.redrive.RedriveReport
+import top.sunbath.api.email.redrive.RedriveRequest
+
+/**
+ * Redrives a dead-letter queue, invoked by hand after an outage:
+ * `aws lambda invoke --function-name email-redrive-function --payload '{"mode":"MOVE"}' report.json`.
+ */
+@Introspected
+open class DlqRedriveFunctionHandler : MicronautRequestHandler<RedriveRequest, RedriveReport>() {
+    override fun execute(input: RedriveRequest): RedriveReport = applicationContext.getBean(DlqRedrive::class.java).redrive(input)
+}
@@ -1,34 +1,39 @@
 package top.sunbath.api.email.handler
 
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse
 import com.amazonaws.services.lambda.runtime.events.SQSEvent
-import com.fasterxml.jackson.databind.ObjectMapper
 import io.micronaut.context.ApplicationContext
 import io.micronaut.core.annotation.Introspected
 import io.micronaut.function.aws.MicronautRequestHandler
 import io.micronaut.function.executor.AbstractFunctionExecutor
 import org.slf4j.LoggerFactory
-import top.sunbath.api.email.repository.PreventEmailJobRepository
+import top.sunbath.api.email.model.EmailClaimStatus
+import top.sunbath.api.email.repository.EmailClaimRepository
 import top.sunbath.api.email.service.EmailService
+import top.sunbath.api.email.suppression.SuppressionList
+import top.sunbath.api.email.versioncheck.VersionChecker
+import top.sunbath.shared.sqs.MessageCodec
 import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
 import top.sunbath.shared.types.SqsMessage
 
 /**
  * This handler is used to send emails.
+ * It reports the records that failed, so SQS only redelivers those instead of the whole batch.
  *
  * In the Lambda environment, this handler is not managed by the Micronaut container,
  *  but instead achieves dependency injection through the MicronautRequestHandler base class creating and managing the ApplicationContext.
  *
  */
 @Introspected
-open class EmailFunctionHandler : MicronautRequestHandler<SQSEvent, String>() {
+open class EmailFunctionHandler : MicronautRequestHandler<SQSEvent, SQSBatchResponse>() {
     private var functionEexecutorDelegate: EmailFunctionExecutor? = null
 
-    override fun execute(input: SQSEvent): String {
+    override fun execute(input: SQSEvent): SQSBatchResponse {
         if (functionEexecutorDelegate == null) {
             functionEexecutorDelegate = EmailFunctionExecutor(super.getApplicationContext())
         }
-        functionEexecutorDelegate?.execute(input)
-        return "Executed"
+        return functionEexecutorDelegate!!.execute(input)
     }
 }
 
@@ -40,54 +45,178 @@ open class EmailFunctionHandler : MicronautRequestHandler<SQSEvent, String>() {
 @Introspected
 open class EmailFunctionExecutor(
     private val applicationContext: ApplicationContext,
-) : AbstractFunctionExecutor<SQSEvent, List<String>, ApplicationContext>() {
+) : AbstractFunctionExecutor<SQSEvent, SQSBatchResponse, ApplicationContext>() {
     protected var emailService: EmailService
-    protected var preventEmailJobRepository: PreventEmailJobRepository
+    protected var emailClaimRepository: EmailClaimRepository
+    protected var messageCodec: MessageCodec
+    protected var suppressionList: SuppressionList
+    protected var versionChecker: VersionChecker
 
     protected val log = LoggerFactory.getLogger(this::class.java)
-    protected val objectMapper = ObjectMapper()
 
     init {
         emailService = applicationContext.getBean(EmailService::class.java)
-        preventEmailJobRepository = applicationContext.getBean(PreventEmailJobRepository::class.java)
+        emailClaimRepository = applicationContext.getBean(EmailClaimRepository::class.java)
+        messageCodec = applicationContext.getBean(MessageCodec::class.java)
+        suppressionList = applicationContext.getBean(SuppressionList::class.java)
+        versionChecker = applicationContext.getBean(VersionChecker::class.java)
     }
 
-    override fun execute(input: SQSEvent): List<String> {
-        val result = mutableListOf<String>()
-        input.records.forEach { record ->
-            try {
-                val type =
-                    objectMapper.typeFactory.constructParametricType(
-                        SqsMessage::class.java,
-                        EmailData::class.java,
-                    )
-                val message = objectMapper.readValue<SqsMessage<EmailData>>(record.body, type)
+    /**
+     * Send the email of every record.
+     * @return The records that failed, SQS retries only those
+     */
+    override fun execute(input: SQSEvent): SQSBatchResponse {
+        val emailRecordIds = process(input.records)
+        val failures =
+            input.records
+                .filter { it.messageId !in emailRecordIds }
+                .map { SQSBatchResponse.BatchItemFailure(it.messageId) }
+        return SQSBatchResponse(failures)
+    }
 
-                val jobId = message.id
-                val preventEmailJob = preventEmailJobRepository.findById(jobId)
-                if (preventEmailJob != null) {
-                    log.info("Prevent Email Job $jobId found")
-                    return@forEach
+    /**
+     * Run the records through the pipeline: decode them all, drop those to suppressed addresses and those whose
+     * version checks fail, claim the rest, send the emails lane by lane with the high-priority lane first, then
+     * store all email records and claims of a lane at once.
+     * @return The ID of the email record by message ID, for every record that was sent; dropped records, and sent
+     *   ones whose email record could not be written, map to an empty ID
+     */
+    open fun process(records: List<SQSEvent.SQSMessage>): Map<String, String> {
+        val messages =
+            records.mapNotNull { record ->
+                try {
+                    record to messageCodec.decode(record.body, EmailData::class.java)
+                } catch (e: Exception) {
+                    log.error("Failed to decode message ${record.messageId}: ${record.body}", e)
+                    null
                 }
+            }
+
+        val emailRecordIds = mutableMapOf<String, String>()
+        // A suppressed address would only bounce again, its messages are done without a vendor call or a record
+        val (suppressed, sendable) = messages.partition { suppressionList.isSuppressed(it.second.data.to) }
+        suppressed.forEach { (record, message) ->
+            log.info("Dropping message ${message.id}, its recipient is suppressed")
+            emailRecordIds[record.messageId] = ""
+        }
+        val claimed = claim(checkVersions(sendable, emailRecordIds), emailRecordIds)
 
-                val emailRecordId = sendEmail(message.data)
-                log.info("Email sent to ${message.data.to}")
-                result.add(emailRecordId)
-                // Resend API has a limit of 2 requests per second.
-                Thread.sleep(500)
+        val lanes = claimed.groupBy { it.second.data.priority }
+        for (priority in EmailPriority.entries) {
+            val lane = lanes[priority] ?: continue
+            logQueueAge(priority, lane.map { it.first })
+            val outcomes =
+                try {
+                    emailService.sendAll(lane.map { it.second.data }, priority)
+                } catch (e: Exception) {
+                    // The service only fails before any email of the lane went out
+                    log.error("Failed to send ${lane.size} $priority priority emails", e)
+                    emailClaimRepository.releaseAll(lane.map { it.second.id })
+                    continue
+                }
+            // Emails no vendor could send are released and retried with their message. A sent email is never
+            // released, a redelivery would send it again.
+            val (sent, unsent) = lane.zip(outcomes).partition { it.second != null }
+            log.info("Sent ${sent.size} of ${lane.size} $priority priority emails")
+            emailRecordIds.putAll(sent.associate { (message, outcome) -> message.first.messageId to outcome!!.emailRecordId.orEmpty() })
+            try {
+                emailClaimRepository.completeAll(sent.associate { (message, outcome) -> message.second.id to outcome!! })
             } catch (e: Exception) {
-                log.error("Failed to process message: ${record.body}", e)
-                throw e // 触发SQS重试
+                // The claims stay pending until their lease passes, which keeps redeliveries from sending again
+                log.error("Failed to complete the claims of ${sent.size} sent $priority priority emails", e)
+            }
+            if (unsent.isNotEmpty()) {
+                emailClaimRepository.releaseAll(unsent.map { it.first.second.id })
+            }
+        }
+        return emailRecordIds
+    }
+
+    /**
+     * Drop the messages whose items moved past the versions they were queued for, e.g. reminders cancelled while
+     * they waited in the queue. They are done without a vendor call or a record.
+     * @param emailRecordIds Receives an empty email record ID for every dropped message
+     * @return The messages to send; if the versions could not be read, those with version checks are left out and
+     *   retried with their message
+     */
+    private fun checkVersions(
+        messages: List<Pair<SQSEvent.SQSMessage, SqsMessage<EmailData>>>,
+        emailRecordIds: MutableMap<String, String>,
+    ): List<Pair<SQSEvent.SQSMessage, SqsMessage<EmailData>>> {
+        val outdated =
+            try {
+                versionChecker.findOutdated(messages.map { it.second.data })
+            } catch (e: Exception) {
+                log.error("Failed to check the versions of ${messages.size} messages", e)
+                return messages.filter { it.second.data.versionChecks.isNullOrEmpty() }
+            }
+        return messages.filterIndexed { index, (record, message) ->
+            if (index in outdated) {
+                log.info("Dropping message ${message.id}, what it was sent for has changed")
+                emailRecordIds[record.messageId] = ""
             }
+            index !in outdated
         }
-        return result
     }
 
-    private fun sendEmail(emailData: EmailData): String =
-        emailService.send(
-            from = emailData.from,
-            to = emailData.to,
-            subject = emailData.subject,
-            html = emailData.html,
-        )
+    /**
+     * Claim every message of the batch at once before the vendor is called. A redelivered message that was sent
+     * already is done right away, one that is still being sent by another invocation fails and is retried later.
+     * @param emailRecordIds Receives the email record ID of every message that was sent already
+     * @return The messages that were claimed and are to be sent
+     */
+    private fun claim(
+        messages: List<Pair<SQSEvent.SQSMessage, SqsMessage<EmailData>>>,
+        emailRecordIds: MutableMap<String, String>,
+    ): List<Pair<SQSEvent.SQSMessage, SqsMessage<EmailData>>> {
+        if (messages.isEmpty()) {
+            return messages
+        }
+        val claims =
+            try {
+                emailClaimRepository.claimAll(messages.map { it.second.id })
+            } catch (e: Exception) {
+                log.error("Failed to claim ${messages.size} messages", e)
+                return emptyList()
+            }
+        val taken = mutableSetOf<String>()
+        return messages.filter { (record, message) ->
+            if (!claims.containsKey(message.id)) {
+                log.error("Failed to claim message ${message.id}")
+                return@filter false
+            }
+            if (!taken.add(message.id)) {
+                log.warn("Message ${message.id} appears twice in the batch, the copy is retried later")
+                return@filter false
+            }
+            val held = claims[message.id]
+            when {
+                held == null -> true
+                held.status == EmailClaimStatus.SENT -> {
+                    log.info("Message ${message.id} was sent already, skipping")
+                    emailRecordIds[record.messageId] = held.emailRecordId.orEmpty()
+                    false
+                }
+                else -> {
+                    log.warn("Message ${message.id} is being sent by another invocation")
+                    false
+                }
+            }
+        }
+    }
+
+    /**
+     * Log how long the records of a lane waited in their queue, the per-lane counterpart of the queue age alarms.
+     */
+    private fun logQueueAge(
+        priority: EmailPriority,
+        records: List<SQSEvent.SQSMessage>,
+    ) {
+        val now = System.currentTimeMillis()
+        val ages = records.mapNotNull { record -> record.attributes?.get("SentTimestamp")?.toLongOrNull()?.let { now - it } }
+        if (ages.isNotEmpty()) {
+            log.info("Queue age of $priority priority lane: max ${ages.max()} ms, mean ${ages.average().toLong()} ms, ${ages.size} emails")
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package top.sunbath.api.email.handler
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse
+import com.amazonaws.services.lambda.runtime.events.SQSEvent
+import io.micronaut.context.ApplicationContext
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.function.aws.MicronautRequestHandler
+import io.micronaut.function.executor.AbstractFunctionExecutor
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.vendor.VendorEvent
+import top.sunbath.api.email.webhook.VendorEventProcessor
+import top.sunbath.shared.sqs.MessageCodec
+
+/**
+ * This handler applies the vendor events the webhook queued to the email records.
+ * It reports the records that failed, so SQS only redelivers those instead of the whole batch.
+ */
+@Introspected
+open class VendorEventFunctionHandler : MicronautRequestHandler<SQSEvent, SQSBatchResponse>() {
+    private var functionExecutorDelegate: VendorEventFunctionExecutor? = null
+
+    override fun execute(input: SQSEvent): SQSBatchResponse {
+        if (functionExecutorDelegate == null) {
+            functionExecutorDelegate = VendorEventFunctionExecutor(super.getApplicationContext())
+        }
+        return functionExecutorDelegate!!.execute(input)
+    }
+}
+
+/**
+ * Delegate executor class for the VendorEventFunctionHandler, see [EmailFunctionExecutor].
+ */
+@Introspected
+open class VendorEventFunctionExecutor(
+    private val applicationContext: ApplicationContext,
+) : AbstractFunctionExecutor<SQSEvent, SQSBatchResponse, ApplicationContext>() {
+    protected var vendorEventProcessor: VendorEventProcessor
+    protected var messageCodec: MessageCodec
+
+    protected val log = LoggerFactory.getLogger(this::class.java)
+
+    init {
+        vendorEventProcessor = applicationContext.getBean(VendorEventProcessor::class.java)
+        messageCodec = applicationContext.getBean(MessageCodec::class.java)
+    }
+
+    /**
+     * Apply the events of all records at once.
+     * @return The records whose events are to be retried
+     */
+    override fun execute(input: SQSEvent): SQSBatchResponse {
+        val failed = process(input.records)
+        return SQSBatchResponse(failed.map { SQSBatchResponse.BatchItemFailure(it) })
+    }
+
+    /**
+     * Decode the records and apply their events.
+     * @return The message IDs of the records to retry
+     */
+    open fun process(records: List<SQSEvent.SQSMessage>): Set<String> {
+        val events =
+            records.mapNotNull { record ->
+                try {
+                    record.messageId to messageCodec.decode(record.body, VendorEvent::class.java).data
+                } catch (e: Exception) {
+                    // Retrying a record that cannot be decoded would not help
+                    log.error("Failed to decode message ${record.messageId}: ${record.body}", e)
+                    null
+                }
+            }
+        val failed =
+            try {
+                vendorEventProcessor.process(events.map { it.second }).toSet()
+            } catch (e: Exception) {
+                log.error("Failed to apply ${events.size} vendor events", e)
+                return events.map { it.first }.toSet()
+            }
+        // Equal events are equal data classes, retrying all their records is harmless
+        return events.filter { it.second in failed }.map { it.first }.toSet()
+    }
+}
@@ -0,0 +1,87 @@
+package top.sunbath.api.email.model
+
+import io.micronaut.core.annotation.Creator
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import io.micronaut.serde.annotation.Serdeable
+import top.sunbath.shared.dynamodb.Identified
+import java.time.Instant
+
+/**
+ * The state of a claim.
+ */
+enum class EmailClaimStatus {
+    /**
+     * The email is being sent by the invocation holding the claim.
+     */
+    PENDING,
+
+    /**
+     * The email was sent, redeliveries of its message are skipped.
+     */
+    SENT,
+}
+
+/**
+ * The claim of an SQS message, keyed by the id of the [top.sunbath.shared.types.SqsMessage].
+ *
+ * An invocation claims a message before it calls the vendor and records the outcome afterwards, so a redelivered
+ * message is not sent twice. A pending claim whose invocation died is taken over once its lease has passed.
+ * Claims expire with the table time to live.
+ */
+@Introspected
+@Serdeable
+class EmailClaim : Identified {
+    @get:NonNull
+    override var id: String = ""
+
+    @get:NonNull
+    var status: EmailClaimStatus = EmailClaimStatus.PENDING
+
+    @get:Nullable
+    var emailRecordId: String? = null
+
+    /**
+     * The vendor response of a sent email, kept even when its email record could not be written.
+     */
+    @get:Nullable
+    var vendorResponse: String? = null
+
+    @get:NonNull
+    var leaseUntil: Instant = Instant.EPOCH
+
+    @get:NonNull
+    var expiresAt: Instant = Instant.EPOCH
+
+    /**
+     * Default constructor.
+     */
+    constructor()
+
+    /**
+     * Constructor with all properties.
+     * @param id The SQS message ID
+     * @param status The state of the claim
+     * @param emailRecordId The email record of a sent email
+     * @param vendorResponse The vendor response of a sent email
+     * @param leaseUntil When a pending claim may be taken over
+     * @param expiresAt When the claim is deleted
+     */
+    @Creator
+    constructor(
+        id: String,
+        status: EmailClaimStatus,
+        emailRecordId: String?,
+        vendorResponse: String?,
+        leaseUntil: Instant,
+        expiresAt: Instant,
+    ) {
+        this.id = id
+        this.status = status
+        this.emailRecordId = emailRecordId
+        this.vendorResponse = vendorResponse
+        this.leaseUntil = leaseUntil
+        this.expiresAt = expiresAt
+    }
+}
@@ -7,6 +7,37 @@ import io.micronaut.core.annotation.Nullable
 import io.micronaut.serde.annotation.Serdeable
 import top.sunbath.shared.dynamodb.Identified
 import top.sunbath.shared.dynamodb.Indexable
+import java.time.Instant
+
+/**
+ * The delivery state of a sent email, as last reported by the vendor.
+ */
+enum class EmailDeliveryStatus {
+    /**
+     * The vendor handed the email to the receiving server.
+     */
+    SENT,
+
+    /**
+     * The receiving server deferred the email, the vendor keeps trying.
+     */
+    DELIVERY_DELAYED,
+
+    /**
+     * The receiving server accepted the email.
+     */
+    DELIVERED,
+
+    /**
+     * The receiving server rejected the email.
+     */
+    BOUNCED,
+
+    /**
+     * The recipient marked the email as spam.
+     */
+    COMPLAINED,
+}
 
 /**
  * A User entity.
@@ -28,12 +59,51 @@ class EmailRecord :
     @get:NonNull
     var subject: String = ""
 
-    @get:NonNull
-    var html: String = ""
+    /**
+     * The rendered HTML, only stored when the email was not sent from a template or rendered HTML is kept.
+     */
+    @get:Nullable
+    var html: String? = null
+
+    @get:Nullable
+    var templateId: String? = null
+
+    @get:Nullable
+    var templateVersion: Int? = null
+
+    @get:Nullable
+    var templateParams: Map<String, String>? = null
 
     @get:Nullable
     var vendorResponse: String = ""
 
+    /**
+     * The ID the vendor gave the email, its events refer to it.
+     */
+    @get:Nullable
+    var vendorEmailId: String? = null
+
+    @get:Nullable
+    var deliveryStatus: EmailDeliveryStatus? = null
+
+    /**
+     * When the vendor reported the [deliveryStatus].
+     */
+    @get:Nullable
+    var deliveryStatusAt: Instant? = null
+
+    /**
+     * When the email was first opened.
+     */
+    @get:Nullable
+    var openedAt: Instant? = null
+
+    /**
+     * When a link of the email was first clicked.
+     */
+    @get:Nullable
+    var clickedAt: Instant? = null
+
     /**
      * Default constructor.
      */
@@ -47,6 +117,10 @@ class EmailRecord :
      * @param subject The email subject
      * @param html The email html
      * @param vendorResponse The email vendor response
+     * @param templateId The template the email was rendered from
+     * @param templateVersion The version of the template
+     * @param templateParams The parameters the template was rendered with
+     * @param vendorEmailId The ID the vendor gave the email
      */
     @Creator
     constructor(
@@ -54,8 +128,12 @@ class EmailRecord :
         to: String,
         from: String,
         subject: String,
-        html: String,
+        html: String?,
         vendorResponse: String,
+        templateId: String? = null,
+        templateVersion: Int? = null,
+        templateParams: Map<String, String>? = null,
+        vendorEmailId: String? = null,
     ) {
         this.id = id
         this.to = to
@@ -63,6 +141,10 @@ class EmailRecord :
         this.subject = subject
         this.html = html
         this.vendorResponse = vendorResponse
+        this.templateId = templateId
+        this.templateVersion = templateVersion
+        this.templateParams = templateParams
+        this.vendorEmailId = vendorEmailId
     }
 
     /**
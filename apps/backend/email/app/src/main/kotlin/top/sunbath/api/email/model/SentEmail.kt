@@ -0,0 +1,11 @@
+package top.sunbath.api.email.model
+
+/**
+ * The outcome of an email that was handed to a vendor, or that failed in a way sending again would not fix.
+ * @param vendorResponse The serialized vendor response, or the serialized error
+ * @param emailRecordId The ID of its email record, null if the record could not be written
+ */
+data class SentEmail(
+    val vendorResponse: String,
+    val emailRecordId: String?,
+)
@@ -0,0 +1,68 @@
+package top.sunbath.api.email.model
+
+import io.micronaut.core.annotation.Creator
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.serde.annotation.Serdeable
+import top.sunbath.shared.dynamodb.Identified
+import java.time.Instant
+
+/**
+ * Why an address is suppressed.
+ */
+enum class SuppressionReason {
+    /**
+     * The address bounced permanently.
+     */
+    BOUNCE,
+
+    /**
+     * The recipient marked an email as spam.
+     */
+    COMPLAINT,
+}
+
+/**
+ * An address no email is sent to, keyed by the normalized address, see [addressOf].
+ */
+@Introspected
+@Serdeable
+class Suppression : Identified {
+    companion object {
+        /**
+         * The normalized form of an email address, the key of its suppression.
+         */
+        fun addressOf(email: String): String = email.trim().lowercase()
+    }
+
+    @get:NonNull
+    override var id: String = ""
+
+    @get:NonNull
+    var reason: SuppressionReason = SuppressionReason.BOUNCE
+
+    @get:NonNull
+    var createdAt: Instant = Instant.EPOCH
+
+    /**
+     * Default constructor.
+     */
+    constructor()
+
+    /**
+     * Constructor with all properties.
+     * @param id The normalized address
+     * @param reason Why the address is suppressed
+     * @param createdAt When the vendor reported the address
+     */
+    @Creator
+    constructor(
+        id: String,
+        reason: SuppressionReason,
+        createdAt: Instant,
+    ) {
+        this.id = id
+        this.reason = reason
+        this.createdAt = createdAt
+    }
+}
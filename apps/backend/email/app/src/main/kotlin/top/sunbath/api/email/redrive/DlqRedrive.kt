@@ -0,0 +1,143 @@
+package top.sunbath.api.email.redrive
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent
+import io.micronaut.context.ApplicationContext
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.handler.EmailFunctionExecutor
+import top.sunbath.api.email.worker.MessageSource
+import top.sunbath.shared.ratelimit.TokenBucket
+import top.sunbath.shared.sqs.MessageCodec
+import top.sunbath.shared.types.EmailData
+import kotlin.math.ceil
+
+/**
+ * Redrives the dead-letter queue of a lane, see [RedriveRequest].
+ *
+ * The dead-letter queue is read in batches. Messages that cannot be decoded are never redriven, they would fail
+ * again; all others are selected by age and template. Selected messages are moved back to their source queue or
+ * sent right away, paced to [RedriveRequest.messagesPerSecond]. Every message that stays in the dead-letter
+ * queue is hidden for [HOLD_SECONDS], so one redrive reads each message once.
+ */
+@Singleton
+class DlqRedrive(
+    private val applicationContext: ApplicationContext,
+    private val messageSource: MessageSource,
+    private val messageCodec: MessageCodec,
+) {
+    companion object {
+        /**
+         * How long messages left in the dead-letter queue stay hidden from the running redrive.
+         */
+        const val HOLD_SECONDS = 15 * 60
+
+        /**
+         * The template id selecting emails without template.
+         */
+        const val INLINE = "inline"
+
+        private const val BATCH_SIZE = 10
+        private const val WAIT_TIME_SECONDS = 1
+    }
+
+    private val logger = LoggerFactory.getLogger(DlqRedrive::class.java)
+    private val executor by lazy { EmailFunctionExecutor(applicationContext) }
+
+    fun redrive(request: RedriveRequest): RedriveReport {
+        val start = System.currentTimeMillis()
+        val source = "${request.priority.queue}-dlq"
+        val bucket = TokenBucket(ceil(request.messagesPerSecond).toInt().coerceAtLeast(1), request.messagesPerSecond)
+        val skipped = mutableMapOf<String, Int>()
+        var received = 0
+        var redriven = 0
+        var failed = 0
+
+        while (received < request.maxMessages) {
+            val batch = messageSource.receive(source, minOf(BATCH_SIZE, request.maxMessages - received), WAIT_TIME_SECONDS)
+            if (batch.isEmpty()) {
+                break
+            }
+            received += batch.size
+
+            val selected = mutableListOf<SQSEvent.SQSMessage>()
+            batch.forEach { record ->
+                val reason = skipReasonOf(record, request, start)
+                if (reason == null) {
+                    selected.add(record)
+                } else {
+                    skipped.merge(reason, 1, Int::plus)
+                }
+            }
+
+            val done =
+                if (request.dryRun || selected.isEmpty()) {
+                    emptyList()
+                } else {
+                    repeat(selected.size) { bucket.acquire() }
+                    redriveBatch(request, selected)
+                }
+            redriven += if (request.dryRun) selected.size else done.size
+            failed += if (request.dryRun) 0 else selected.size - done.size
+
+            if (done.isNotEmpty()) {
+                messageSource.delete(source, done.map { it.receiptHandle })
+            }
+            val held = batch.filter { it !in done }.map { it.receiptHandle }
+            if (held.isNotEmpty()) {
+                messageSource.extendVisibility(source, held, HOLD_SECONDS)
+            }
+        }
+
+        val report = RedriveReport(received, redriven, failed, skipped, request.dryRun, System.currentTimeMillis() - start)
+        logger.info("Redrive of [$source] with $request: $report")
+        return report
+    }
+
+    /**
+     * Redrive selected messages.
+     * @return The messages that were redriven and can be deleted from the dead-letter queue
+     */
+    private fun redriveBatch(
+        request: RedriveRequest,
+        selected: List<SQSEvent.SQSMessage>,
+    ): List<SQSEvent.SQSMessage> =
+        try {
+            when (request.mode) {
+                RedriveMode.MOVE -> {
+                    // The original body keeps the message id, so the idempotency claim still applies
+                    val accepted = messageSource.send(request.priority.queue, selected.map { it.body })
+                    selected.filterIndexed { index, _ -> index in accepted }
+                }
+                RedriveMode.REPLAY -> {
+                    val emailRecordIds = executor.process(selected)
+                    selected.filter { it.messageId in emailRecordIds }
+                }
+            }
+        } catch (e: Exception) {
+            logger.error("Error redriving ${selected.size} messages", e)
+            emptyList()
+        }
+
+    /**
+     * @return Why the message is left in the dead-letter queue, or null if it is selected
+     */
+    private fun skipReasonOf(
+        record: SQSEvent.SQSMessage,
+        request: RedriveRequest,
+        now: Long,
+    ): String? {
+        val email =
+            try {
+                messageCodec.decode(record.body, EmailData::class.java).data
+            } catch (e: Exception) {
+                return "undecodable"
+            }
+        val ageSeconds = record.attributes?.get("SentTimestamp")?.toLongOrNull()?.let { (now - it) / 1000 }
+        return when {
+            ageSeconds != null && request.minAgeSeconds != null && ageSeconds < request.minAgeSeconds -> "too-new"
+            ageSeconds != null && request.maxAgeSeconds != null && ageSeconds > request.maxAgeSeconds -> "too-old"
+            request.templateIds != null && (email.template?.id ?: INLINE) !in request.templateIds -> "template"
+            else -> null
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package top.sunbath.api.email.redrive
+
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.serde.annotation.Serdeable
+import top.sunbath.shared.types.EmailPriority
+
+/**
+ * How the messages of a dead-letter queue are redriven.
+ */
+@Serdeable
+enum class RedriveMode {
+    /**
+     * Send the messages back to their source queue, where the email function picks them up within its own
+     * rate limit.
+     */
+    MOVE,
+
+    /**
+     * Send the emails right here. The vendor rate limit of this function is not shared with the email function.
+     */
+    REPLAY,
+}
+
+/**
+ * A redrive of the dead-letter queue of one lane.
+ * @param priority The lane whose dead-letter queue is redriven
+ * @param mode How the selected messages are redriven
+ * @param maxMessages The most messages to read from the dead-letter queue
+ * @param messagesPerSecond The rate at which selected messages are redriven
+ * @param minAgeSeconds Only redrive messages first sent at least this long ago
+ * @param maxAgeSeconds Only redrive messages first sent at most this long ago
+ * @param templateIds Only redrive emails from these templates, `inline` selects emails without template
+ * @param dryRun Only report what would be redriven, the messages stay where they are
+ */
+@Introspected
+@Serdeable
+data class RedriveRequest(
+    val priority: EmailPriority = EmailPriority.HIGH,
+    val mode: RedriveMode = RedriveMode.MOVE,
+    val maxMessages: Int = 1000,
+    val messagesPerSecond: Double = 5.0,
+    val minAgeSeconds: Long? = null,
+    val maxAgeSeconds: Long? = null,
+    val templateIds: Set<String>? = null,
+    val dryRun: Boolean = false,
+)
+
+/**
+ * The outcome of a redrive.
+ * @param received The messages read from the dead-letter queue
+ * @param redriven The messages moved or sent, or that would be in a dry run
+ * @param failed The selected messages that could not be redriven and stay in the dead-letter queue
+ * @param skipped The messages left in the dead-letter queue by reason
+ * @param durationMillis How long the redrive took
+ */
+@Introspected
+@Serdeable
+data class RedriveReport(
+    val received: Int,
+    val redriven: Int,
+    val failed: Int,
+    val skipped: Map<String, Int>,
+    val dryRun: Boolean,
+    val durationMillis: Long,
+)
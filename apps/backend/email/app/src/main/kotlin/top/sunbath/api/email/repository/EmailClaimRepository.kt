@@ -0,0 +1,49 @@
+package top.sunbath.api.email.repository
+
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import jakarta.validation.constraints.NotBlank
+import top.sunbath.api.email.model.EmailClaim
+import top.sunbath.api.email.model.SentEmail
+
+/**
+ * Repository interface for the claims that make email sending idempotent.
+ */
+interface EmailClaimRepository {
+    /**
+     * Claim a message with a conditional put. A new claim, or a pending one whose lease has passed, is taken.
+     * @param messageId The SQS message ID
+     * @return Null if the claim was taken, otherwise the claim that is already held
+     */
+    @Nullable
+    fun claim(
+        @NonNull @NotBlank messageId: String,
+    ): EmailClaim?
+
+    /**
+     * Claim several messages at once with one transaction of conditional puts. Only the messages whose put was
+     * cancelled are claimed one by one afterwards.
+     * @param messageIds The SQS message IDs
+     * @return By message ID, null if the claim was taken, otherwise the claim that is already held. Messages that
+     * could not be claimed are missing.
+     */
+    fun claimAll(
+        @NonNull messageIds: List<String>,
+    ): Map<String, EmailClaim?>
+
+    /**
+     * Record that the emails of claimed messages were sent, with one batch write.
+     * @param sent The outcome of the email by message ID
+     */
+    fun completeAll(
+        @NonNull sent: Map<String, SentEmail>,
+    )
+
+    /**
+     * Give up claims, so the messages can be sent by a redelivery.
+     * @param messageIds The SQS message IDs
+     */
+    fun releaseAll(
+        @NonNull messageIds: List<String>,
+    )
+}
@@ -2,30 +2,40 @@ package top.sunbath.api.email.repository
 
 import io.micronaut.core.annotation.NonNull
 import io.micronaut.core.annotation.Nullable
-import jakarta.validation.constraints.NotBlank
+import top.sunbath.api.email.model.EmailDeliveryStatus
 import top.sunbath.api.email.model.EmailRecord
+import java.time.Instant
+
+/**
+ * The changes the vendor events of one email make to its record.
+ * @param id The record ID
+ * @param deliveryStatus The latest delivery status, null if the events report none
+ * @param deliveryStatusAt When the vendor reported [deliveryStatus]
+ * @param openedAt The first open, if any
+ * @param clickedAt The first click, if any
+ */
+data class EmailStatusUpdate(
+    val id: String,
+    val deliveryStatus: EmailDeliveryStatus? = null,
+    val deliveryStatusAt: Instant? = null,
+    val openedAt: Instant? = null,
+    val clickedAt: Instant? = null,
+)
 
 /**
  * Repository interface for Email Record operations.
  */
 interface EmailRecordRepository {
     /**
-     * Save a new email record.
-     * @param to The recipient's email address
-     * @param from The sender's email address
-     * @param subject The email subject
-     * @param html The email HTML content
-     * @param vendorResponse The vendor's response
-     * @return The ID of the saved record
+     * Save new email records with batched writes.
+     * Records that still cannot be written after retries are logged and skipped, their emails were already sent.
+     * @param records The records, their IDs are assigned here
+     * @return The IDs of the records, in the order of [records]; null for the records that were not written
      */
     @NonNull
-    fun save(
-        @NonNull @NotBlank to: String,
-        @NonNull @NotBlank from: String,
-        @NonNull @NotBlank subject: String,
-        @NonNull @NotBlank html: String,
-        @NonNull vendorResponse: String,
-    ): String
+    fun saveAll(
+        @NonNull records: List<EmailRecord>,
+    ): List<String?>
 
     /**
      * Find an email record by ID.
@@ -34,4 +44,40 @@ interface EmailRecordRepository {
      */
     @Nullable
     fun findById(id: String): EmailRecord?
+
+    /**
+     * Find the email records of a recipient with cursor-based pagination, newest first.
+     * The records are read without their HTML, [EmailRecord.html] is always null.
+     * @param to The recipient
+     * @param limit The maximum number of records to return
+     * @param lastEvaluatedId The ID of the last record of the previous page (null for first page)
+     * @return The records and the cursor of the next page, null if there are no more records
+     */
+    @NonNull
+    fun findByRecipientWithCursor(
+        @NonNull to: String,
+        limit: Int,
+        @Nullable lastEvaluatedId: String?,
+    ): Pair<List<EmailRecord>, String?>
+
+    /**
+     * Find the records of emails by the IDs the vendor gave them.
+     * @param vendorEmailIds The vendor IDs
+     * @return The record ID by vendor ID, for the emails that have a record
+     */
+    @NonNull
+    fun findIdsByVendorEmailIds(
+        @NonNull vendorEmailIds: Collection<String>,
+    ): Map<String, String>
+
+    /**
+     * Apply status updates, with one UpdateItem per record. A delivery status older than the stored one is
+     * ignored, the first open and click are kept.
+     * @param updates The updates, at most one per record
+     * @return The IDs of the records that could not be updated
+     */
+    @NonNull
+    fun updateStatuses(
+        @NonNull updates: List<EmailStatusUpdate>,
+    ): Set<String>
 }
@@ -0,0 +1,26 @@
+package top.sunbath.api.email.repository
+
+import io.micronaut.core.annotation.NonNull
+import top.sunbath.api.email.model.Suppression
+
+/**
+ * Repository interface for the suppressed addresses.
+ */
+interface SuppressionRepository {
+    /**
+     * Save suppressions with batched writes, replacing existing suppressions of the same addresses.
+     * @param suppressions The suppressions, at most one per address
+     * @return The suppressions that could not be written
+     */
+    @NonNull
+    fun saveAll(
+        @NonNull suppressions: List<Suppression>,
+    ): List<Suppression>
+
+    /**
+     * Read the addresses of all suppressions, without the rest of their attributes.
+     * @return The normalized addresses
+     */
+    @NonNull
+    fun findAllAddresses(): Set<String>
+}
@@ -0,0 +1,209 @@
+package top.sunbath.api.email.repository.impl
+
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import jakarta.inject.Singleton
+import jakarta.validation.constraints.NotBlank
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure
+import top.sunbath.api.email.model.EmailClaim
+import top.sunbath.api.email.model.EmailClaimStatus
+import top.sunbath.api.email.model.SentEmail
+import top.sunbath.api.email.repository.EmailClaimRepository
+import top.sunbath.shared.dynamodb.DynamoConfiguration
+import top.sunbath.shared.dynamodb.DynamoRepository
+import top.sunbath.shared.dynamodb.InstantAttributes
+import top.sunbath.shared.dynamodb.TransactionCancelledException
+import top.sunbath.shared.dynamodb.TransactionOperation
+import java.time.Duration
+import java.time.Instant
+
+@Singleton
+open class DefaultEmailClaimRepository(
+    dynamoDbClient: DynamoDbClient,
+    dynamoConfiguration: DynamoConfiguration,
+) : DynamoRepository<EmailClaim>(dynamoDbClient, dynamoConfiguration),
+    EmailClaimRepository {
+    companion object {
+        private val LOG: Logger = LoggerFactory.getLogger(DefaultEmailClaimRepository::class.java)
+        private const val ATTRIBUTE_ID = "id"
+        private const val ATTRIBUTE_STATUS = "status"
+        private const val ATTRIBUTE_EMAIL_RECORD_ID = "emailRecordId"
+        private const val ATTRIBUTE_VENDOR_RESPONSE = "vendorResponse"
+        private const val ATTRIBUTE_LEASE_UNTIL = "leaseUntil"
+
+        /**
+         * How long a pending claim is held. It outlasts the redeliveries of a message whose invocation died after
+         * calling the vendor, so such a message ends up in the DLQ rather than being sent twice. The lanes receive
+         * a message up to 10 times, 3 minutes apart.
+         */
+        val LEASE: Duration = Duration.ofMinutes(40)
+
+        /**
+         * How long claims are kept, well beyond the retention of the queues.
+         */
+        val RETENTION: Duration = Duration.ofDays(15)
+
+        /**
+         * A message can be claimed if it has no claim yet or its pending claim has passed its lease.
+         */
+        private const val CONDITION_CLAIMABLE = "$CONDITION_NOT_EXISTS OR (#status = :pending AND #leaseUntil < :now)"
+    }
+
+    @Nullable
+    override fun claim(
+        @NonNull @NotBlank messageId: String,
+    ): EmailClaim? {
+        val now = Instant.now()
+        val claim = pendingClaim(messageId, now)
+        try {
+            dynamoDbClient.putItem(
+                PutItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .item(item(claim))
+                    .conditionExpression(CONDITION_CLAIMABLE)
+                    .expressionAttributeNames(claimableNames())
+                    .expressionAttributeValues(claimableValues(now))
+                    .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)
+                    .build(),
+            )
+            return null
+        } catch (e: ConditionalCheckFailedException) {
+            LOG.debug("Message $messageId is already claimed")
+            val held = if (e.hasItem() && e.item().isNotEmpty()) e.item() else findHeld(messageId)
+            // A claim deleted in the meantime is treated as held, the redelivery then retries it
+            return held?.let { emailClaimOf(it) } ?: claim
+        }
+    }
+
+    override fun claimAll(
+        @NonNull messageIds: List<String>,
+    ): Map<String, EmailClaim?> {
+        val result = mutableMapOf<String, EmailClaim?>()
+        messageIds.distinct().chunked(MAX_TRANSACTION_OPERATIONS).forEach { result.putAll(claimTogether(it)) }
+        return result
+    }
+
+    /**
+     * Claim the messages in one transaction. DynamoDB cancels all puts when one fails, so the failed ones are
+     * claimed one by one and the rest are tried together again.
+     */
+    private fun claimTogether(messageIds: List<String>): Map<String, EmailClaim?> {
+        if (messageIds.isEmpty()) {
+            return emptyMap()
+        }
+        val now = Instant.now()
+        try {
+            transactWrite(
+                messageIds.map {
+                    TransactionOperation.Put(
+                        item(pendingClaim(it, now)),
+                        CONDITION_CLAIMABLE,
+                        claimableNames(),
+                        claimableValues(now),
+                        label = it,
+                    )
+                },
+            )
+            return messageIds.associateWith { null }
+        } catch (e: TransactionCancelledException) {
+            val failed = e.failures.mapNotNull { it.label }.toSet().ifEmpty { messageIds.toSet() }
+            LOG.debug("Claiming ${messageIds.size} messages together was cancelled by ${failed.size} of them")
+            val result = mutableMapOf<String, EmailClaim?>()
+            messageIds.filter { it in failed }.forEach { messageId ->
+                try {
+                    result[messageId] = claim(messageId)
+                } catch (e: Exception) {
+                    LOG.error("Failed to claim message $messageId", e)
+                }
+            }
+            result.putAll(claimTogether(messageIds.filter { it !in failed }))
+            return result
+        }
+    }
+
+    private fun pendingClaim(
+        messageId: String,
+        now: Instant,
+    ): EmailClaim = EmailClaim(messageId, EmailClaimStatus.PENDING, null, null, now.plus(LEASE), now.plus(RETENTION))
+
+    private fun claimableNames(): Map<String, String> = mapOf("#status" to ATTRIBUTE_STATUS, "#leaseUntil" to ATTRIBUTE_LEASE_UNTIL)
+
+    private fun claimableValues(now: Instant): Map<String, AttributeValue> =
+        mapOf(
+            ":pending" to AttributeValue.builder().s(EmailClaimStatus.PENDING.name).build(),
+            ":now" to InstantAttributes.of(now),
+        )
+
+    private fun findHeld(messageId: String): Map<String, AttributeValue>? {
+        val response =
+            dynamoDbClient.getItem(
+                GetItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(key(EmailClaim::class.java, messageId))
+                    .consistentRead(true)
+                    .build(),
+            )
+        return if (response.hasItem()) response.item() else null
+    }
+
+    override fun completeAll(
+        @NonNull sent: Map<String, SentEmail>,
+    ) {
+        val now = Instant.now()
+        val failed =
+            batchPut(
+                sent.map { (messageId, email) ->
+                    EmailClaim(messageId, EmailClaimStatus.SENT, email.emailRecordId, email.vendorResponse, now, now.plus(RETENTION))
+                },
+            )
+        failed.forEach {
+            LOG.error("Failed to record that message ${it.id} was sent, it stays claimed until its lease passes")
+        }
+    }
+
+    override fun releaseAll(
+        @NonNull messageIds: List<String>,
+    ) {
+        batchDelete(messageIds.map { key(EmailClaim::class.java, it) }).forEach {
+            LOG.error("Failed to release the claim $it, it stays claimed until its lease passes")
+        }
+    }
+
+    @NonNull
+    override fun item(
+        @NonNull entity: EmailClaim,
+    ): Map<String, AttributeValue> {
+        val result = super.item(entity).toMutableMap()
+        result[ATTRIBUTE_ID] = AttributeValue.builder().s(entity.id).build()
+        result[ATTRIBUTE_STATUS] = AttributeValue.builder().s(entity.status.name).build()
+        entity.emailRecordId?.let {
+            result[ATTRIBUTE_EMAIL_RECORD_ID] = AttributeValue.builder().s(it).build()
+        }
+        entity.vendorResponse?.let {
+            result[ATTRIBUTE_VENDOR_RESPONSE] = AttributeValue.builder().s(it).build()
+        }
+        result[ATTRIBUTE_LEASE_UNTIL] = InstantAttributes.of(entity.leaseUntil)
+        result[ATTRIBUTE_TTL] = AttributeValue.builder().n(entity.expiresAt.epochSecond.toString()).build()
+
+        return result
+    }
+
+    private fun emailClaimOf(item: Map<String, AttributeValue>): EmailClaim =
+        EmailClaim(
+            id = item[ATTRIBUTE_ID]?.s() ?: throw IllegalArgumentException("id is required"),
+            status = EmailClaimStatus.valueOf(item[ATTRIBUTE_STATUS]?.s() ?: throw IllegalArgumentException("status is required")),
+            emailRecordId = item[ATTRIBUTE_EMAIL_RECORD_ID]?.s(),
+            vendorResponse = item[ATTRIBUTE_VENDOR_RESPONSE]?.s(),
+            leaseUntil = InstantAttributes.instantOf(item[ATTRIBUTE_LEASE_UNTIL]) ?: Instant.EPOCH,
+            expiresAt = item[ATTRIBUTE_TTL]?.n()?.let { Instant.ofEpochSecond(it.toLong()) } ?: Instant.EPOCH,
+        )
+}
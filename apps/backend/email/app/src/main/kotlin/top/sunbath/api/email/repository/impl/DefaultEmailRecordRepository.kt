@@ -3,21 +3,27 @@ package top.sunbath.api.email.repository.impl
 import io.micronaut.core.annotation.NonNull
 import io.micronaut.core.annotation.Nullable
 import jakarta.inject.Singleton
-import jakarta.validation.Valid
-import jakarta.validation.constraints.NotBlank
-import jakarta.validation.constraints.NotNull
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import software.amazon.awssdk.core.SdkBytes
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
-import software.amazon.awssdk.services.dynamodb.model.PutItemResponse
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest
+import top.sunbath.api.email.model.EmailDeliveryStatus
 import top.sunbath.api.email.model.EmailRecord
 import top.sunbath.api.email.repository.EmailRecordRepository
+import top.sunbath.api.email.repository.EmailStatusUpdate
 import top.sunbath.shared.dynamodb.DynamoConfiguration
 import top.sunbath.shared.dynamodb.DynamoRepository
 import top.sunbath.shared.dynamodb.IdGenerator
 import top.sunbath.shared.dynamodb.IndexDefinition
+import top.sunbath.shared.dynamodb.InstantAttributes
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
 
 @Singleton
 open class DefaultEmailRecordRepository(
@@ -33,13 +39,46 @@ open class DefaultEmailRecordRepository(
         private const val ATTRIBUTE_FROM = "from"
         private const val ATTRIBUTE_SUBJECT = "subject"
         private const val ATTRIBUTE_HTML = "html"
+        private const val ATTRIBUTE_HTML_GZIP = "htmlGzip"
+        private const val ATTRIBUTE_TEMPLATE_ID = "templateId"
+        private const val ATTRIBUTE_TEMPLATE_VERSION = "templateVersion"
+        private const val ATTRIBUTE_TEMPLATE_PARAMS = "templateParams"
         private const val ATTRIBUTE_VENDOR_RESPONSE = "vendorResponse"
+        private const val ATTRIBUTE_VENDOR_EMAIL_ID = "vendorEmailId"
+        private const val ATTRIBUTE_DELIVERY_STATUS = "deliveryStatus"
+        private const val ATTRIBUTE_DELIVERY_STATUS_AT = "deliveryStatusAt"
+        private const val ATTRIBUTE_OPENED_AT = "openedAt"
+        private const val ATTRIBUTE_CLICKED_AT = "clickedAt"
 
         // Define index constants
         private const val TO_INDEX = "TO_INDEX"
         private const val TO_PK = "TO_PK"
         private const val TO_SK = "TO_SK"
 
+        // Lookup items map the ID the vendor gave an email to its record, their key is the prefix followed by the
+        // vendor ID. Unlike an index, they do not copy the records.
+        private const val VENDOR_EMAIL_LOOKUP_PREFIX = "VENDOR#"
+
+        /**
+         * Everything but the HTML, which can be larger than all other attributes together.
+         */
+        private val SUMMARY_ATTRIBUTES =
+            listOf(
+                ATTRIBUTE_ID,
+                ATTRIBUTE_TO,
+                ATTRIBUTE_FROM,
+                ATTRIBUTE_SUBJECT,
+                ATTRIBUTE_TEMPLATE_ID,
+                ATTRIBUTE_TEMPLATE_VERSION,
+                ATTRIBUTE_TEMPLATE_PARAMS,
+                ATTRIBUTE_VENDOR_RESPONSE,
+                ATTRIBUTE_VENDOR_EMAIL_ID,
+                ATTRIBUTE_DELIVERY_STATUS,
+                ATTRIBUTE_DELIVERY_STATUS_AT,
+                ATTRIBUTE_OPENED_AT,
+                ATTRIBUTE_CLICKED_AT,
+            )
+
         // Register indexes
         init {
             DynamoRepository.registerIndex(IndexDefinition(TO_INDEX, TO_PK, TO_SK))
@@ -54,48 +93,200 @@ open class DefaultEmailRecordRepository(
     }
 
     @NonNull
-    override fun save(
-        @NonNull @NotBlank to: String,
-        @NonNull @NotBlank from: String,
-        @NonNull @NotBlank subject: String,
-        @NonNull @NotBlank html: String,
-        @NonNull vendorResponse: String,
-    ): String {
-        val id = idGenerator.generate()
-        save(
-            EmailRecord(
-                id = id,
-                to = to,
-                from = from,
-                subject = subject,
-                html = html,
-                vendorResponse = vendorResponse,
-            ),
-        )
-        return id
+    override fun saveAll(
+        @NonNull records: List<EmailRecord>,
+    ): List<String?> {
+        records.forEach { it.id = idGenerator.generate() }
+        // Every record is followed by its vendor lookup item, so both are written with the same batch request
+        val items = records.flatMap { listOfNotNull(item(it), vendorEmailItem(it)) }
+        val failed =
+            try {
+                batchPutItems(items)
+            } catch (e: Exception) {
+                // A single invalid record, such as one over the item size limit, fails its whole batch
+                LOG.warn("Failed to save ${records.size} email records in a batch, saving them one by one", e)
+                items.filterNot { putItem(it) }
+            }
+        val (failedLookups, failedRecords) = failed.partition { it.getValue(ATTRIBUTE_PK).s().startsWith(VENDOR_EMAIL_LOOKUP_PREFIX) }
+        failedLookups.forEach {
+            LOG.error("Failed to save the vendor lookup of email record ${it[ATTRIBUTE_ID]?.s()}, its events will not be applied")
+        }
+        val failedIds = failedRecords.mapNotNull { it[ATTRIBUTE_ID]?.s() }.toSet()
+        failedIds.forEach {
+            LOG.error("Failed to save email record $it")
+        }
+        return records.map { if (it.id in failedIds) null else it.id }
     }
 
-    protected open fun save(
-        @NonNull @NotNull @Valid emailRecord: EmailRecord,
-    ) {
-        val itemResponse: PutItemResponse =
+    /**
+     * The vendor lookup item of a record.
+     * @return The item, or null if the vendor gave the email no ID
+     */
+    private fun vendorEmailItem(record: EmailRecord): Map<String, AttributeValue>? =
+        record.vendorEmailId?.let {
+            vendorEmailKey(it) +
+                mapOf(
+                    ATTRIBUTE_ID to AttributeValue.builder().s(record.id).build(),
+                    ATTRIBUTE_VENDOR_EMAIL_ID to AttributeValue.builder().s(it).build(),
+                )
+        }
+
+    private fun vendorEmailKey(vendorEmailId: String): Map<String, AttributeValue> {
+        val pk = AttributeValue.builder().s("$VENDOR_EMAIL_LOOKUP_PREFIX$vendorEmailId").build()
+        return mapOf(ATTRIBUTE_PK to pk, ATTRIBUTE_SK to pk)
+    }
+
+    /**
+     * Put a single item.
+     * @return False if the item could not be written
+     */
+    private fun putItem(item: Map<String, AttributeValue>): Boolean =
+        try {
             dynamoDbClient.putItem(
                 PutItemRequest
                     .builder()
                     .tableName(dynamoConfiguration.tableName)
-                    .item(item(emailRecord))
+                    .item(item)
                     .build(),
             )
-        if (LOG.isDebugEnabled) {
-            LOG.debug(itemResponse.toString())
+            true
+        } catch (e: Exception) {
+            LOG.error("Failed to save item ${item[ATTRIBUTE_PK]?.s()}", e)
+            false
         }
-    }
 
     @Nullable
     override fun findById(id: String): EmailRecord? {
         return findById(EmailRecord::class.java, id)?.let { return emailRecordOf(it) }
     }
 
+    @NonNull
+    override fun findByRecipientWithCursor(
+        @NonNull to: String,
+        limit: Int,
+        @Nullable lastEvaluatedId: String?,
+    ): Pair<List<EmailRecord>, String?> {
+        if (limit <= 0) {
+            return Pair(emptyList(), null)
+        }
+
+        // Record IDs are KSUIDs, so the sort key of the index orders the records by the second they were sent in
+        val names = mutableMapOf("#pk" to TO_PK)
+        val values = mutableMapOf(":pk" to AttributeValue.builder().s(to).build())
+        var keyCondition = "#pk = :pk"
+        if (lastEvaluatedId != null) {
+            names["#sk"] = TO_SK
+            values[":sk"] = AttributeValue.builder().s(lastEvaluatedId).build()
+            keyCondition += " AND #sk < :sk"
+        }
+        // "to" and "from" are reserved words, every projected attribute goes through a placeholder
+        SUMMARY_ATTRIBUTES.forEachIndexed { index, attribute -> names["#a$index"] = attribute }
+
+        val request =
+            QueryRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .indexName(TO_INDEX)
+                .scanIndexForward(false)
+                .limit(limit)
+                .keyConditionExpression(keyCondition)
+                .projectionExpression(SUMMARY_ATTRIBUTES.indices.joinToString(", ") { "#a$it" })
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .build()
+        val response = dynamoDbClient.query(request)
+        if (LOG.isTraceEnabled) {
+            LOG.trace(response.toString())
+        }
+
+        val records = response.items().map { emailRecordOf(it) }
+        val nextCursor = lastEvaluatedId(response, EmailRecord::class.java)
+        return Pair(records, nextCursor)
+    }
+
+    @NonNull
+    override fun findIdsByVendorEmailIds(
+        @NonNull vendorEmailIds: Collection<String>,
+    ): Map<String, String> =
+        // The first events of an email can arrive within a second of its record, hence the consistent read
+        batchGet(vendorEmailIds.toSet().map { vendorEmailKey(it) }, consistentRead = true)
+            .mapNotNull { item ->
+                val vendorEmailId = item[ATTRIBUTE_VENDOR_EMAIL_ID]?.s() ?: return@mapNotNull null
+                item[ATTRIBUTE_ID]?.s()?.let { vendorEmailId to it }
+            }.toMap()
+
+    @NonNull
+    override fun updateStatuses(
+        @NonNull updates: List<EmailStatusUpdate>,
+    ): Set<String> {
+        val failed = mutableSetOf<String>()
+        for (update in updates) {
+            try {
+                if (!updateStatus(update, withDeliveryStatus = true) && update.deliveryStatus != null) {
+                    // A newer delivery status is stored already, the opens and clicks still apply
+                    updateStatus(update, withDeliveryStatus = false)
+                }
+            } catch (e: Exception) {
+                LOG.error("Failed to update the status of email record ${update.id}", e)
+                failed.add(update.id)
+            }
+        }
+        return failed
+    }
+
+    /**
+     * Write all changes of an update with a single UpdateItem.
+     * @return False if the record is missing or holds a newer delivery status, nothing was written then
+     */
+    private fun updateStatus(
+        update: EmailStatusUpdate,
+        withDeliveryStatus: Boolean,
+    ): Boolean {
+        val assignments = mutableListOf<String>()
+        val names = mutableMapOf("#pk" to ATTRIBUTE_PK)
+        val values = mutableMapOf<String, AttributeValue>()
+        var condition = "attribute_exists(#pk)"
+        if (withDeliveryStatus && update.deliveryStatus != null && update.deliveryStatusAt != null) {
+            assignments += "#status = :status"
+            assignments += "#statusAt = :statusAt"
+            names["#status"] = ATTRIBUTE_DELIVERY_STATUS
+            names["#statusAt"] = ATTRIBUTE_DELIVERY_STATUS_AT
+            values[":status"] = AttributeValue.builder().s(update.deliveryStatus.name).build()
+            values[":statusAt"] = InstantAttributes.of(update.deliveryStatusAt)
+            condition += " AND (attribute_not_exists(#statusAt) OR #statusAt <= :statusAt)"
+        }
+        update.openedAt?.let {
+            assignments += "#openedAt = if_not_exists(#openedAt, :openedAt)"
+            names["#openedAt"] = ATTRIBUTE_OPENED_AT
+            values[":openedAt"] = InstantAttributes.of(it)
+        }
+        update.clickedAt?.let {
+            assignments += "#clickedAt = if_not_exists(#clickedAt, :clickedAt)"
+            names["#clickedAt"] = ATTRIBUTE_CLICKED_AT
+            values[":clickedAt"] = InstantAttributes.of(it)
+        }
+        if (assignments.isEmpty()) {
+            return true
+        }
+        try {
+            dynamoDbClient.updateItem(
+                UpdateItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(key(EmailRecord::class.java, update.id))
+                    .updateExpression("SET ${assignments.joinToString(", ")}")
+                    .conditionExpression(condition)
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(values)
+                    .build(),
+            )
+            return true
+        } catch (e: ConditionalCheckFailedException) {
+            LOG.debug("Email record ${update.id} is missing or has a newer status, skipping")
+            return false
+        }
+    }
+
     @NonNull
     override fun item(
         @NonNull entity: EmailRecord,
@@ -105,8 +296,20 @@ open class DefaultEmailRecordRepository(
         result[ATTRIBUTE_TO] = AttributeValue.builder().s(entity.to).build()
         result[ATTRIBUTE_FROM] = AttributeValue.builder().s(entity.from).build()
         result[ATTRIBUTE_SUBJECT] = AttributeValue.builder().s(entity.subject).build()
-        result[ATTRIBUTE_HTML] = AttributeValue.builder().s(entity.html).build()
+        // HTML compresses to a fraction of its size, which keeps records of non-template emails small
+        entity.html?.let { result[ATTRIBUTE_HTML_GZIP] = AttributeValue.builder().b(SdkBytes.fromByteArray(gzip(it))).build() }
+        entity.templateId?.let { result[ATTRIBUTE_TEMPLATE_ID] = AttributeValue.builder().s(it).build() }
+        entity.templateVersion?.let { result[ATTRIBUTE_TEMPLATE_VERSION] = AttributeValue.builder().n(it.toString()).build() }
+        entity.templateParams?.let { params ->
+            result[ATTRIBUTE_TEMPLATE_PARAMS] =
+                AttributeValue.builder().m(params.mapValues { AttributeValue.builder().s(it.value).build() }).build()
+        }
         result[ATTRIBUTE_VENDOR_RESPONSE] = AttributeValue.builder().s(entity.vendorResponse).build()
+        entity.vendorEmailId?.let { result[ATTRIBUTE_VENDOR_EMAIL_ID] = AttributeValue.builder().s(it).build() }
+        entity.deliveryStatus?.let { result[ATTRIBUTE_DELIVERY_STATUS] = AttributeValue.builder().s(it.name).build() }
+        entity.deliveryStatusAt?.let { result[ATTRIBUTE_DELIVERY_STATUS_AT] = InstantAttributes.of(it) }
+        entity.openedAt?.let { result[ATTRIBUTE_OPENED_AT] = InstantAttributes.of(it) }
+        entity.clickedAt?.let { result[ATTRIBUTE_CLICKED_AT] = InstantAttributes.of(it) }
 
         return result
     }
@@ -117,7 +320,25 @@ open class DefaultEmailRecordRepository(
             to = item[ATTRIBUTE_TO]?.s() ?: throw IllegalArgumentException("to is required"),
             from = item[ATTRIBUTE_FROM]?.s() ?: throw IllegalArgumentException("from is required"),
             subject = item[ATTRIBUTE_SUBJECT]?.s() ?: throw IllegalArgumentException("subject is required"),
-            html = item[ATTRIBUTE_HTML]?.s() ?: throw IllegalArgumentException("html is required"),
+            // Records written before compression keep their html as a string
+            html = item[ATTRIBUTE_HTML_GZIP]?.b()?.let { gunzip(it.asByteArray()) } ?: item[ATTRIBUTE_HTML]?.s(),
             vendorResponse = item[ATTRIBUTE_VENDOR_RESPONSE]?.s() ?: throw IllegalArgumentException("vendorResponse is required"),
-        )
+            templateId = item[ATTRIBUTE_TEMPLATE_ID]?.s(),
+            templateVersion = item[ATTRIBUTE_TEMPLATE_VERSION]?.n()?.toInt(),
+            templateParams = item[ATTRIBUTE_TEMPLATE_PARAMS]?.m()?.mapValues { it.value.s() },
+            vendorEmailId = item[ATTRIBUTE_VENDOR_EMAIL_ID]?.s(),
+        ).apply {
+            deliveryStatus = item[ATTRIBUTE_DELIVERY_STATUS]?.s()?.let { EmailDeliveryStatus.valueOf(it) }
+            deliveryStatusAt = InstantAttributes.instantOf(item[ATTRIBUTE_DELIVERY_STATUS_AT])
+            openedAt = InstantAttributes.instantOf(item[ATTRIBUTE_OPENED_AT])
+            clickedAt = InstantAttributes.instantOf(item[ATTRIBUTE_CLICKED_AT])
+        }
+
+    private fun gzip(text: String): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        GZIPOutputStream(bytes).use { it.write(text.toByteArray(Charsets.UTF_8)) }
+        return bytes.toByteArray()
+    }
+
+    private fun gunzip(bytes: ByteArray): String = GZIPInputStream(bytes.inputStream()).use { String(it.readBytes(), Charsets.UTF_8) }
 }
@@ -0,0 +1,78 @@
+package top.sunbath.api.email.repository.impl
+
+import io.micronaut.core.annotation.NonNull
+import jakarta.inject.Singleton
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest
+import top.sunbath.api.email.model.Suppression
+import top.sunbath.api.email.repository.SuppressionRepository
+import top.sunbath.shared.dynamodb.DynamoConfiguration
+import top.sunbath.shared.dynamodb.DynamoRepository
+import top.sunbath.shared.dynamodb.InstantAttributes
+
+@Singleton
+open class DefaultSuppressionRepository(
+    dynamoDbClient: DynamoDbClient,
+    dynamoConfiguration: DynamoConfiguration,
+) : DynamoRepository<Suppression>(dynamoDbClient, dynamoConfiguration),
+    SuppressionRepository {
+    companion object {
+        private val LOG: Logger = LoggerFactory.getLogger(DefaultSuppressionRepository::class.java)
+        private const val ATTRIBUTE_ID = "id"
+        private const val ATTRIBUTE_REASON = "reason"
+        private const val ATTRIBUTE_CREATED_AT = "createdAt"
+    }
+
+    @NonNull
+    override fun saveAll(
+        @NonNull suppressions: List<Suppression>,
+    ): List<Suppression> {
+        val failed = batchPut(suppressions)
+        failed.forEach {
+            LOG.error("Failed to save the suppression of ${it.id}")
+        }
+        return failed
+    }
+
+    @NonNull
+    override fun findAllAddresses(): Set<String> {
+        val addresses = HashSet<String>()
+        var exclusiveStartKey: Map<String, AttributeValue>? = null
+        do {
+            // All suppressions share one partition of the class index, only their sort key is read
+            val builder =
+                QueryRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .indexName(INDEX_GSI_1)
+                    .keyConditionExpression("#pk = :pk")
+                    .projectionExpression("#sk")
+                    .expressionAttributeNames(mapOf("#pk" to ATTRIBUTE_GSI_1_PK, "#sk" to ATTRIBUTE_GSI_1_SK))
+                    .expressionAttributeValues(mapOf(":pk" to classAttributeValue(Suppression::class.java)))
+            if (exclusiveStartKey != null) {
+                builder.exclusiveStartKey(exclusiveStartKey)
+            }
+            val response = dynamoDbClient.query(builder.build())
+            response.items().forEach { item ->
+                item[ATTRIBUTE_GSI_1_SK]?.let { id(Suppression::class.java, it) }?.let { addresses.add(it) }
+            }
+            exclusiveStartKey = if (response.hasLastEvaluatedKey()) response.lastEvaluatedKey() else null
+        } while (!exclusiveStartKey.isNullOrEmpty())
+        return addresses
+    }
+
+    @NonNull
+    override fun item(
+        @NonNull entity: Suppression,
+    ): Map<String, AttributeValue> {
+        val result = super.item(entity).toMutableMap()
+        result[ATTRIBUTE_ID] = AttributeValue.builder().s(entity.id).build()
+        result[ATTRIBUTE_REASON] = AttributeValue.builder().s(entity.reason.name).build()
+        result[ATTRIBUTE_CREATED_AT] = InstantAttributes.of(entity.createdAt)
+
+        return result
+    }
+}
@@ -1,24 +1,32 @@
 package top.sunbath.api.email.service
 
+import top.sunbath.api.email.model.SentEmail
+import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
+import java.time.Duration
+
 /**
  * Service interface for sending emails.
  */
 interface EmailService {
     /**
-     * Send a verification email to a user.
+     * Send emails within the vendor rate limit and record them.
+     * A refusal of the vendor does not fail the call, it is stored as the vendor response of the email record.
      *
-     * @param from The sender's email address
-     * @param to The recipient's email address
-     * @param subject The subject of the email
-     * @param html The HTML content of the email
-     * @return The ID of the email record
+     * @param emails The emails to send
+     * @param priority The lane of the emails, low-priority emails leave the reserved vendor capacity untouched
+     * @return The outcome of each email, in the order of [emails]; null for the emails no vendor could send now,
+     *   which are to be sent again later. An email record that cannot be stored does not fail the call, the email
+     *   went out already; its record ID is null then.
      * @throws IllegalStateException if the email service is not properly configured
-     * @throws RuntimeException if the email fails to send
      */
-    fun send(
-        from: String,
-        to: String,
-        subject: String,
-        html: String,
-    ): String
+    fun sendAll(
+        emails: List<EmailData>,
+        priority: EmailPriority = EmailPriority.HIGH,
+    ): List<SentEmail?>
+
+    /**
+     * How long until emails can be sent again, zero if they can now. Consumers pause while it is not zero.
+     */
+    fun availableIn(): Duration = Duration.ZERO
 }
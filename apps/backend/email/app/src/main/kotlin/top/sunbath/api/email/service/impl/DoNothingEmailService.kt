@@ -3,23 +3,29 @@ package top.sunbath.api.email.service.impl
 import io.micronaut.context.annotation.Requires
 import jakarta.inject.Singleton
 import org.slf4j.LoggerFactory
+import top.sunbath.api.email.model.SentEmail
 import top.sunbath.api.email.service.EmailService
+import top.sunbath.api.email.template.EmailRenderer
+import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
 
 /**
  * Email service implementation that does nothing.
  */
 @Singleton
 @Requires(env = ["dev"])
-class DoNothingEmailService : EmailService {
+class DoNothingEmailService(
+    private val emailRenderer: EmailRenderer,
+) : EmailService {
     private val logger = LoggerFactory.getLogger(DoNothingEmailService::class.java)
 
-    override fun send(
-        from: String,
-        to: String,
-        subject: String,
-        html: String,
-    ): String {
-        logger.info("Sending email to [$to] with subject [$subject] and html [$html]")
-        return "dev-email-id"
-    }
+    override fun sendAll(
+        emails: List<EmailData>,
+        priority: EmailPriority,
+    ): List<SentEmail?> =
+        emails.map {
+            val rendered = emailRenderer.render(it)
+            logger.info("Sending $priority priority email to [${it.to}] with subject [${rendered.subject}] and html [${rendered.html}]")
+            SentEmail("{}", "dev-email-id")
+        }
 }
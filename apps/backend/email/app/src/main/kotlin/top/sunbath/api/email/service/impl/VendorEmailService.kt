@@ -0,0 +1,106 @@
+package top.sunbath.api.email.service.impl
+
+import io.micronaut.context.annotation.Requires
+import io.micronaut.serde.ObjectMapper
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.config.EmailRecordConfiguration
+import top.sunbath.api.email.model.EmailRecord
+import top.sunbath.api.email.model.SentEmail
+import top.sunbath.api.email.repository.EmailRecordRepository
+import top.sunbath.api.email.service.EmailService
+import top.sunbath.api.email.template.EmailRenderer
+import top.sunbath.api.email.vendor.OutgoingEmail
+import top.sunbath.api.email.vendor.ResilientEmailSender
+import top.sunbath.api.email.vendor.VendorResponse
+import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
+import java.time.Duration
+
+/**
+ * Email service implementation sending through the email vendors, see [ResilientEmailSender].
+ *
+ * Template emails are rendered right before they are sent. An email that cannot be rendered is not sent, the
+ * error is stored as its vendor response like a refusal of the vendor.
+ */
+@Singleton
+@Requires(env = ["production", "test"])
+class VendorEmailService(
+    private val emailRecordRepository: EmailRecordRepository,
+    private val emailSender: ResilientEmailSender,
+    private val emailRenderer: EmailRenderer,
+    private val emailRecordConfiguration: EmailRecordConfiguration,
+    private val objectMapper: ObjectMapper,
+) : EmailService {
+    private val logger = LoggerFactory.getLogger(VendorEmailService::class.java)
+
+    override fun sendAll(
+        emails: List<EmailData>,
+        priority: EmailPriority,
+    ): List<SentEmail?> {
+        val rendered = emails.map { renderOrError(it) }
+        val sendable = emails.indices.filter { rendered[it].first != null }
+        val sent = emailSender.send(sendable.map { rendered[it].first!! }, priority == EmailPriority.HIGH)
+        val vendorResponses = rendered.map { it.second }.toMutableList()
+        sendable.zip(sent).forEach { (index, vendorResponse) -> vendorResponses[index] = vendorResponse }
+
+        // Emails no vendor could send get no record, they are sent again later
+        val recorded = emails.indices.filter { vendorResponses[it] != null }
+        val records =
+            recorded.map { index ->
+                val email = emails[index]
+                val template = email.template
+                val content = rendered[index].first
+                EmailRecord(
+                    id = "",
+                    to = email.to,
+                    from = email.from,
+                    subject = content?.subject ?: email.subject.orEmpty(),
+                    // Template emails are stored by reference, their HTML can be rendered again
+                    html = if (template == null || emailRecordConfiguration.storeRenderedHtml) content?.html else null,
+                    vendorResponse = vendorResponses[index]!!,
+                    templateId = template?.id,
+                    templateVersion = template?.version,
+                    templateParams = template?.params,
+                    vendorEmailId = vendorEmailIdOf(vendorResponses[index]!!),
+                )
+            }
+        // All records of the batch are written together once the emails went out. Failing to write them must not
+        // fail the call, the emails would then be sent again.
+        val ids =
+            try {
+                emailRecordRepository.saveAll(records)
+            } catch (e: Exception) {
+                logger.error("Failed to save the records of ${records.size} sent emails", e)
+                records.map { null }
+            }
+        val sentByIndex = recorded.zip(ids).associate { (index, id) -> index to SentEmail(vendorResponses[index]!!, id) }
+        return emails.indices.map { sentByIndex[it] }
+    }
+
+    override fun availableIn(): Duration = emailSender.availableIn()
+
+    /**
+     * The ID the vendor gave a sent email, its delivery events refer to it.
+     * @return The ID, or null if the vendor response is an error
+     */
+    private fun vendorEmailIdOf(vendorResponse: String): String? =
+        try {
+            objectMapper.readValue(vendorResponse, VendorResponse::class.java)?.id?.takeIf { it.isNotBlank() }
+        } catch (e: Exception) {
+            null
+        }
+
+    /**
+     * Render an email.
+     * @return The rendered email, or null and the serialized error
+     */
+    private fun renderOrError(email: EmailData): Pair<OutgoingEmail?, String?> =
+        try {
+            val rendered = emailRenderer.render(email)
+            OutgoingEmail(email.from, email.to, rendered.subject, rendered.html) to null
+        } catch (e: Exception) {
+            logger.error("Failed to render email to ${email.to} from template ${email.template?.id}", e)
+            null to objectMapper.writeValueAsString(VendorResponse.of(e))
+        }
+}
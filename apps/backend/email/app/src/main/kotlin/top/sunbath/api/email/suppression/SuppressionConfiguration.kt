@@ -0,0 +1,24 @@
+package top.sunbath.api.email.suppression
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+import java.time.Duration
+
+/**
+ * Configuration properties for the suppression list.
+ */
+@ConfigurationProperties("email-suppression")
+open class SuppressionConfiguration {
+    /**
+     * Whether emails to suppressed addresses are dropped.
+     */
+    @NonNull
+    var enabled: Boolean = true
+
+    /**
+     * How long the addresses held in memory are used before they are read again. Suppressions added by other
+     * containers take effect within this interval.
+     */
+    @NonNull
+    var refreshInterval: Duration = Duration.ofMinutes(5)
+}
@@ -0,0 +1,99 @@
+package top.sunbath.api.email.suppression
+
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.model.Suppression
+import top.sunbath.api.email.model.SuppressionReason
+import top.sunbath.api.email.repository.SuppressionRepository
+import top.sunbath.api.email.vendor.VendorEvent
+import java.time.Instant
+
+/**
+ * The addresses no email is sent to, checked before every send.
+ *
+ * All suppressed addresses are held in a hash set, so a check costs no request. The set is read again once it
+ * is older than the refresh interval, lazily on the next check, since a frozen Lambda container runs no timers.
+ * A failed refresh keeps the addresses read before and is retried after the next interval; until the first
+ * read succeeds, no address is suppressed.
+ */
+@Singleton
+class SuppressionList(
+    private val suppressionRepository: SuppressionRepository,
+    private val suppressionConfiguration: SuppressionConfiguration,
+) {
+    companion object {
+        private const val TRANSIENT_BOUNCE = "Transient"
+    }
+
+    private val logger = LoggerFactory.getLogger(SuppressionList::class.java)
+
+    private val lock = Any()
+
+    @Volatile
+    private var addresses: Set<String> = emptySet()
+
+    @Volatile
+    private var refreshedAt: Long? = null
+
+    /**
+     * Whether emails to an address are dropped.
+     */
+    fun isSuppressed(email: String): Boolean {
+        if (!suppressionConfiguration.enabled) {
+            return false
+        }
+        refreshIfStale()
+        return Suppression.addressOf(email) in addresses
+    }
+
+    /**
+     * Store suppressions with batched writes. They take effect in this container right away.
+     * @param suppressions The suppressions
+     * @return The number of suppressions that were stored
+     */
+    fun addAll(suppressions: List<Suppression>): Int {
+        // The last report of an address wins
+        val unique = suppressions.associateBy { it.id }.values.toList()
+        val failed = suppressionRepository.saveAll(unique).map { it.id }.toSet()
+        val stored = unique.map { it.id }.filter { it !in failed }
+        synchronized(lock) {
+            addresses = addresses + stored
+        }
+        return stored.size
+    }
+
+    /**
+     * The suppressions a vendor event calls for: every recipient of a complaint or a permanent bounce.
+     * Transient bounces and all other events call for none.
+     */
+    fun suppressionsOf(event: VendorEvent): List<Suppression> {
+        val reason =
+            when {
+                event.type == VendorEvent.COMPLAINED -> SuppressionReason.COMPLAINT
+                event.type == VendorEvent.BOUNCED && event.data.bounce?.type != TRANSIENT_BOUNCE -> SuppressionReason.BOUNCE
+                else -> return emptyList()
+            }
+        val createdAt = event.createdAt ?: Instant.now()
+        return event.data.to.map { Suppression(Suppression.addressOf(it), reason, createdAt) }
+    }
+
+    private fun refreshIfStale() {
+        val interval = suppressionConfiguration.refreshInterval.toNanos()
+        if (refreshedAt.let { it != null && System.nanoTime() - it < interval }) {
+            return
+        }
+        synchronized(lock) {
+            val last = refreshedAt
+            if (last != null && System.nanoTime() - last < interval) {
+                return
+            }
+            try {
+                addresses = suppressionRepository.findAllAddresses()
+                logger.info("Read ${addresses.size} suppressed addresses")
+            } catch (e: Exception) {
+                logger.error("Failed to read the suppressed addresses, keeping ${addresses.size} addresses", e)
+            }
+            refreshedAt = System.nanoTime()
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package top.sunbath.api.email.template
+
+import jakarta.inject.Singleton
+import top.sunbath.shared.types.EmailData
+
+/**
+ * Resolves the subject and HTML of an email, from its template reference or from its inline content.
+ */
+@Singleton
+class EmailRenderer(
+    templates: List<EmailTemplate>,
+) {
+    private val templates = templates.associateBy { it.id to it.version }
+
+    /**
+     * Render an email.
+     * @throws IllegalArgumentException if the template is unknown or its parameters do not match
+     */
+    fun render(email: EmailData): RenderedEmail {
+        val ref = email.template
+        if (ref == null) {
+            return RenderedEmail(
+                subject = email.subject ?: throw IllegalArgumentException("Email without template has no subject"),
+                html = email.html ?: throw IllegalArgumentException("Email without template has no html"),
+            )
+        }
+        val template =
+            templates[ref.id to ref.version]
+                ?: throw IllegalArgumentException("Unknown email template [${ref.id}] version ${ref.version}")
+        return template.render(ref.params)
+    }
+}
@@ -0,0 +1,25 @@
+package top.sunbath.api.email.template
+
+/**
+ * The subject and HTML of a rendered email.
+ */
+data class RenderedEmail(
+    val subject: String,
+    val html: String,
+)
+
+/**
+ * A template of the email service, addressed by its [id] and [version]. A new version is added next to the
+ * previous one whenever its parameters change, so messages already queued still render.
+ */
+interface EmailTemplate {
+    val id: String
+    val version: Int
+
+    /**
+     * Render the email.
+     * @param params The parameters of the message
+     * @throws IllegalArgumentException if a parameter is missing or invalid
+     */
+    fun render(params: Map<String, String>): RenderedEmail
+}
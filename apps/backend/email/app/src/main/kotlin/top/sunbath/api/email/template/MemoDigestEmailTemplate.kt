@@ -0,0 +1,103 @@
+package top.sunbath.api.email.template
+
+import jakarta.inject.Singleton
+import top.sunbath.shared.template.HtmlTemplate
+import top.sunbath.shared.types.EmailTemplateIds
+import java.time.Instant
+import java.time.ZoneId
+import java.time.format.DateTimeFormatter
+import java.time.format.FormatStyle
+
+/**
+ * The reminders of several memos that are due together, in one email.
+ */
+@Singleton
+class MemoDigestEmailTemplate : EmailTemplate {
+    override val id = EmailTemplateIds.MEMO_DIGEST
+    override val version = 1
+
+    private val dateFormatter =
+        DateTimeFormatter
+            .ofLocalizedDateTime(FormatStyle.MEDIUM)
+            .withZone(ZoneId.systemDefault())
+
+    private val memo =
+        HtmlTemplate(
+            """
+            <div style="background: #f8f9fa; border-radius: 8px; padding: 20px; margin-bottom: 25px; border: 1px solid #e0e0e0;">
+                <h2 style="color: #2c3e50; margin-top: 0; font-size: 20px;">
+                    {{title}}
+                </h2>
+                <div style="color: #555; line-height: 1.6; margin-bottom: 15px;">
+                    {{{content}}}
+                </div>
+                <div style="color: #7f8c8d; font-size: 14px;">
+                    ⏰ Due: {{reminderTime}}
+                </div>
+            </div>
+            """.trimIndent(),
+        )
+
+    private val html =
+        HtmlTemplate(
+            """
+            <!DOCTYPE html>
+            <html>
+            <head>
+                <meta charset="UTF-8">
+                <meta name="viewport" content="width=device-width, initial-scale=1">
+                <title>{{subject}}</title>
+            </head>
+            <body style="margin: 0; padding: 20px; font-family: Arial, sans-serif;">
+                <div style="max-width: 600px; margin: auto;">
+                    <h1 style="color: #2c3e50; margin-bottom: 30px;">Memo Reminders</h1>
+
+                    {{{memos}}}
+
+                    <p style="color: #666; line-height: 1.6; margin-bottom: 25px;">
+                        This is a friendly reminder about your memos. You can view and manage all your memos on our platform:
+                    </p>
+
+                    <table role="presentation" cellspacing="0" cellpadding="0" style="margin: 30px 0;">
+                        <tr>
+                            <td style="background: #9333ea; border-radius: 5px; text-align: center;">
+                                <a href="https://sunbath.top/memo"
+                                   style="display: inline-block; padding: 12px 25px;
+                                          border-radius: 8px;
+                                          color: #ffffff; text-decoration: none;
+                                          font-weight: bold; font-size: 15px;">
+                                    View All Memos
+                                </a>
+                            </td>
+                        </tr>
+                    </table>
+
+                    <div style="border-top: 1px solid #eee; padding-top: 20px; margin-top: 30px;
+                                color: #95a5a6; font-size: 12px;">
+                        <p>This is an automated message. Please do not reply directly to this email.</p>
+                    </div>
+                </div>
+            </body>
+            </html>
+            """.trimIndent(),
+        )
+
+    override fun render(params: Map<String, String>): RenderedEmail {
+        val count = params["count"]?.toIntOrNull() ?: throw IllegalArgumentException("count is required")
+        require(count > 0) { "count must be positive" }
+        val memos =
+            (0 until count).joinToString("\n") { index ->
+                val reminderTime = params["reminderTime.$index"] ?: throw IllegalArgumentException("reminderTime.$index is required")
+                memo.render(
+                    mapOf(
+                        "title" to params["title.$index"].orEmpty().ifEmpty { "Untitled Memo" },
+                        // Escaped here because the line breaks are markup
+                        "content" to HtmlTemplate.escape(params["content.$index"].orEmpty()).replace("\n", "<br>"),
+                        "reminderTime" to dateFormatter.format(Instant.parse(reminderTime)),
+                    ),
+                )
+            }
+        val subject = "Reminder of Your $count Memos"
+        return RenderedEmail(subject, html.render(mapOf("subject" to subject, "memos" to memos)))
+    }
+}
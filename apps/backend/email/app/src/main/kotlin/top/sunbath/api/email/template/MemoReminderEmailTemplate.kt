@@ -1,38 +1,35 @@
-package top.sunbath.api.memo.service.notification
+package top.sunbath.api.email.template
 
-import top.sunbath.api.memo.model.Memo
+import jakarta.inject.Singleton
+import top.sunbath.shared.template.HtmlTemplate
+import top.sunbath.shared.types.EmailTemplateIds
+import java.time.Instant
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
 import java.time.format.FormatStyle
 
 /**
- * Email template manager.
+ * The reminder of a memo that is due.
  */
-object EmailTemplate {
+@Singleton
+class MemoReminderEmailTemplate : EmailTemplate {
+    override val id = EmailTemplateIds.MEMO_REMINDER
+    override val version = 1
+
     private val dateFormatter =
         DateTimeFormatter
             .ofLocalizedDateTime(FormatStyle.MEDIUM)
             .withZone(ZoneId.systemDefault())
 
-    /**
-     * Generate verification email content.
-     *
-     * @param username The recipient's username
-     * @param verificationToken The verification token
-     * @param expiresAt When the verification token expires
-     * @return A pair of subject and HTML content
-     */
-    fun generateMemoNotificationEmail(memo: Memo): Pair<String, String> {
-        val subject = "Reminder of Your Memo: [${if (memo.title.isEmpty()) "Untitled Memo" else memo.title}]"
-
-        val html =
+    private val html =
+        HtmlTemplate(
             """
             <!DOCTYPE html>
             <html>
             <head>
                 <meta charset="UTF-8">
                 <meta name="viewport" content="width=device-width, initial-scale=1">
-                <title>$subject</title>
+                <title>{{subject}}</title>
             </head>
             <body style="margin: 0; padding: 20px; font-family: Arial, sans-serif;">
                 <div style="max-width: 600px; margin: auto;">
@@ -40,13 +37,13 @@ object EmailTemplate {
                     
                     <div style="background: #f8f9fa; border-radius: 8px; padding: 20px; margin-bottom: 25px; border: 1px solid #e0e0e0;">
                         <h2 style="color: #2c3e50; margin-top: 0; font-size: 20px;">
-                            ${if (memo.title.isEmpty()) "Untitled Memo" else memo.title}
+                            {{title}}
                         </h2>
                         <div style="color: #555; line-height: 1.6; margin-bottom: 15px;">
-                            ${memo.content.replace("\n", "<br>")}
+                            {{{content}}}
                         </div>
                         <div style="color: #7f8c8d; font-size: 14px;">
-                            ⏰ Due: ${dateFormatter.format(memo.reminderTime)}
+                            ⏰ Due: {{reminderTime}}
                         </div>
                     </div>
 
@@ -75,8 +72,22 @@ object EmailTemplate {
                 </div>
             </body>
             </html>
-            """.trimIndent()
+            """.trimIndent(),
+        )
 
-        return subject to html
+    override fun render(params: Map<String, String>): RenderedEmail {
+        val title = params["title"].orEmpty().ifEmpty { "Untitled Memo" }
+        val reminderTime = params["reminderTime"] ?: throw IllegalArgumentException("reminderTime is required")
+        // The subject is plain text, it is escaped where the html embeds it
+        val subject = "Reminder of Your Memo: [$title]"
+        val values =
+            mapOf(
+                "subject" to subject,
+                "title" to title,
+                // Escaped here because the line breaks are markup
+                "content" to HtmlTemplate.escape(params["content"].orEmpty()).replace("\n", "<br>"),
+                "reminderTime" to dateFormatter.format(Instant.parse(reminderTime)),
+            )
+        return RenderedEmail(subject, html.render(values))
     }
 }
@@ -1,5 +1,8 @@
-package top.sunbath.api.auth.service.email
+package top.sunbath.api.email.template
 
+import jakarta.inject.Singleton
+import top.sunbath.shared.template.HtmlTemplate
+import top.sunbath.shared.types.EmailTemplateIds
 import java.net.URLEncoder
 import java.time.Instant
 import java.time.ZoneId
@@ -7,33 +10,20 @@ import java.time.format.DateTimeFormatter
 import java.time.format.FormatStyle
 
 /**
- * Email template manager.
+ * The email asking a new user to verify their email address.
  */
-object EmailTemplate {
+@Singleton
+class VerificationEmailTemplate : EmailTemplate {
+    override val id = EmailTemplateIds.VERIFICATION
+    override val version = 1
+
     private val dateFormatter =
         DateTimeFormatter
             .ofLocalizedDateTime(FormatStyle.MEDIUM)
             .withZone(ZoneId.systemDefault())
 
-    /**
-     * Generate verification email content.
-     *
-     * @param username The recipient's username
-     * @param verificationToken The verification token
-     * @param expiresAt When the verification token expires
-     * @return A pair of subject and HTML content
-     */
-    fun generateVerificationEmail(
-        username: String,
-        verificationToken: String,
-        expiresAt: Instant,
-    ): Pair<String, String> {
-        val subject = "Verify your email address"
-        val escapedToken = URLEncoder.encode(verificationToken, "UTF-8")
-        val verificationLink = "https://sunbath.top/auth/verify-email?token=$escapedToken"
-        val expiresAtFormatted = dateFormatter.format(expiresAt)
-
-        val html =
+    private val html =
+        HtmlTemplate(
             """
             <!DOCTYPE html>
             <html>
@@ -44,10 +34,10 @@ object EmailTemplate {
             <body style="font-family: Arial, sans-serif; line-height: 1.6; color: #333;">
                 <div style="max-width: 600px; margin: 0 auto; padding: 20px;">
                     <h2>Welcome to Sunbath!</h2>
-                    <p>Hi $username,</p>
+                    <p>Hi {{username}},</p>
                     <p>Thank you for registering. Please verify your email address by clicking the button below:</p>
                     <p style="text-align: center; margin: 30px 0;">
-                        <a href="$verificationLink" 
+                        <a href="{{verificationLink}}" 
                            style="background-color: #4CAF50; color: white; padding: 12px 24px; 
                                   text-decoration: none; border-radius: 4px; display: inline-block;">
                             Verify Email
@@ -55,9 +45,9 @@ object EmailTemplate {
                     </p>
                     <p>Or copy and paste this link into your browser:</p>
                     <p style="background-color: #f5f5f5; padding: 10px; word-break: break-all;">
-                        $verificationLink
+                        {{verificationLink}}
                     </p>
-                    <p>This verification link will expire at: $expiresAtFormatted</p>
+                    <p>This verification link will expire at: {{expiresAt}}</p>
                     <p>If you didn't create an account, you can safely ignore this email.</p>
                     <hr style="margin: 30px 0; border: none; border-top: 1px solid #eee;">
                     <p style="font-size: 12px; color: #666;">
@@ -66,8 +56,18 @@ object EmailTemplate {
                 </div>
             </body>
             </html>
-            """.trimIndent()
+            """.trimIndent(),
+        )
 
-        return subject to html
+    override fun render(params: Map<String, String>): RenderedEmail {
+        val token = params["verificationToken"] ?: throw IllegalArgumentException("verificationToken is required")
+        val expiresAt = params["expiresAt"] ?: throw IllegalArgumentException("expiresAt is required")
+        val values =
+            mapOf(
+                "username" to (params["username"] ?: throw IllegalArgumentException("username is required")),
+                "verificationLink" to "https://sunbath.top/auth/verify-email?token=${URLEncoder.encode(token, "UTF-8")}",
+                "expiresAt" to dateFormatter.format(Instant.parse(expiresAt)),
+            )
+        return RenderedEmail("Verify your email address", html.render(values))
     }
 }
@@ -0,0 +1,16 @@
+package top.sunbath.api.email.versioncheck
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+
+/**
+ * Configuration properties for the version checks of emails.
+ */
+@ConfigurationProperties("email-version-check")
+open class VersionCheckConfiguration {
+    /**
+     * The table of every source of version checks. Checks of other sources are not made, their emails are sent.
+     */
+    @NonNull
+    var tables: Map<String, String> = emptyMap()
+}
@@ -0,0 +1,112 @@
+package top.sunbath.api.email.versioncheck
+
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes
+import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.VersionCheck
+
+/**
+ * Checks the versions emails carry right before they are sent, see [EmailData.versionChecks].
+ *
+ * The items of all emails of a batch are read with strongly consistent BatchGetItem requests, one per 100 items,
+ * so a whole batch of reminders usually costs a single request.
+ */
+@Singleton
+class VersionChecker(
+    private val dynamoDbClient: DynamoDbClient,
+    private val versionCheckConfiguration: VersionCheckConfiguration,
+) {
+    companion object {
+        private const val ATTRIBUTE_PK = "pk"
+        private const val ATTRIBUTE_SK = "sk"
+        private const val MAX_KEYS_PER_REQUEST = 100
+        private const val MAX_ATTEMPTS = 5
+        private const val BASE_BACKOFF_MILLIS = 50L
+    }
+
+    private val logger = LoggerFactory.getLogger(VersionChecker::class.java)
+
+    /**
+     * Find the emails none of whose version checks holds any more.
+     * @param emails The emails to check
+     * @return The positions of the outdated emails
+     * @throws IllegalStateException if some items could not be read, no email is known to be current then
+     */
+    fun findOutdated(emails: List<EmailData>): Set<Int> {
+        val checks =
+            emails
+                .flatMap { it.versionChecks.orEmpty() }
+                .filter { check ->
+                    (check.source in versionCheckConfiguration.tables).also {
+                        if (!it) {
+                            logger.warn("No table configured for version checks of ${check.source}, sending without the check")
+                        }
+                    }
+                }
+        if (checks.isEmpty()) {
+            return emptySet()
+        }
+        val versions = readVersions(checks)
+        return emails.indices
+            .filter { index ->
+                val ofEmail = emails[index].versionChecks.orEmpty().filter { it.source in versionCheckConfiguration.tables }
+                ofEmail.isNotEmpty() && ofEmail.none { versions[itemOf(it)] == it.version }
+            }.toSet()
+    }
+
+    /**
+     * Read the current version of every checked item.
+     * @return The version by table and key, items that do not exist are left out
+     */
+    private fun readVersions(checks: List<VersionCheck>): Map<Triple<String, String, String>, Long> {
+        val versions = mutableMapOf<Triple<String, String, String>, Long>()
+        checks
+            .map { itemOf(it) }
+            .distinct()
+            .groupBy { it.first }
+            .forEach { (table, items) ->
+                items.chunked(MAX_KEYS_PER_REQUEST).forEach { chunk ->
+                    var pending: Map<String, KeysAndAttributes> =
+                        mapOf(
+                            table to
+                                KeysAndAttributes
+                                    .builder()
+                                    .keys(chunk.map { keyOf(it.second, it.third) })
+                                    .projectionExpression("#pk, #sk, #version")
+                                    .expressionAttributeNames(
+                                        mapOf("#pk" to ATTRIBUTE_PK, "#sk" to ATTRIBUTE_SK, "#version" to VersionCheck.ATTRIBUTE_VERSION),
+                                    ).consistentRead(true)
+                                    .build(),
+                        )
+                    var attempt = 0
+                    while (pending.isNotEmpty()) {
+                        if (attempt > 0) {
+                            check(attempt < MAX_ATTEMPTS) { "Failed to read the versions of ${pending.getValue(table).keys().size} items" }
+                            Thread.sleep(BASE_BACKOFF_MILLIS shl (attempt - 1))
+                        }
+                        val response = dynamoDbClient.batchGetItem(BatchGetItemRequest.builder().requestItems(pending).build())
+                        response.responses()[table]?.forEach { item ->
+                            val version = item[VersionCheck.ATTRIBUTE_VERSION]?.n()?.toLong() ?: return@forEach
+                            versions[Triple(table, item.getValue(ATTRIBUTE_PK).s(), item.getValue(ATTRIBUTE_SK).s())] = version
+                        }
+                        pending = response.unprocessedKeys().filterValues { it.hasKeys() && it.keys().isNotEmpty() }
+                        attempt++
+                    }
+                }
+            }
+        return versions
+    }
+
+    private fun itemOf(check: VersionCheck): Triple<String, String, String> =
+        Triple(versionCheckConfiguration.tables.getValue(check.source), check.pk, check.sk)
+
+    private fun keyOf(
+        pk: String,
+        sk: String,
+    ): Map<String, AttributeValue> =
+        mapOf(ATTRIBUTE_PK to AttributeValue.builder().s(pk).build(), ATTRIBUTE_SK to AttributeValue.builder().s(sk).build())
+}
@@ -0,0 +1,98 @@
+package top.sunbath.api.email.webhook
+
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.model.EmailDeliveryStatus
+import top.sunbath.api.email.repository.EmailRecordRepository
+import top.sunbath.api.email.repository.EmailStatusUpdate
+import top.sunbath.api.email.suppression.SuppressionList
+import top.sunbath.api.email.vendor.VendorEvent
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Applies batches of vendor events to the email records.
+ *
+ * A burst of events mostly repeats the same few emails: sent, delivered, opened, clicked. The events of a batch
+ * are therefore collapsed per email into one [EmailStatusUpdate] carrying the latest delivery status and the
+ * first open and click, written with a single UpdateItem. Bounces and complaints also suppress their recipients.
+ */
+@Singleton
+class VendorEventProcessor(
+    private val emailRecordRepository: EmailRecordRepository,
+    private val suppressionList: SuppressionList,
+) {
+    companion object {
+        /**
+         * How long an event may wait for the record of its email. Records are written right after the vendor
+         * accepted the emails, so an event can overtake its record; events of unknown emails older than this,
+         * such as those of emails sent by other services of the vendor account, are dropped.
+         */
+        val RECORD_GRACE: Duration = Duration.ofMinutes(5)
+
+        private val STATUS_BY_TYPE =
+            mapOf(
+                VendorEvent.SENT to EmailDeliveryStatus.SENT,
+                VendorEvent.DELIVERY_DELAYED to EmailDeliveryStatus.DELIVERY_DELAYED,
+                VendorEvent.DELIVERED to EmailDeliveryStatus.DELIVERED,
+                VendorEvent.BOUNCED to EmailDeliveryStatus.BOUNCED,
+                VendorEvent.COMPLAINED to EmailDeliveryStatus.COMPLAINED,
+            )
+    }
+
+    private val logger = LoggerFactory.getLogger(VendorEventProcessor::class.java)
+
+    /**
+     * Apply the events.
+     * @param events The events
+     * @param now The time of the batch
+     * @return The events that could not be applied yet and are to be retried
+     */
+    fun process(
+        events: List<VendorEvent>,
+        now: Instant = Instant.now(),
+    ): List<VendorEvent> {
+        suppressionList.addAll(events.flatMap { suppressionList.suppressionsOf(it) })
+
+        val byEmail = events.filter { it.data.emailId != null }.groupBy { it.data.emailId!! }
+        val recordIds = emailRecordRepository.findIdsByVendorEmailIds(byEmail.keys)
+        val failed = mutableListOf<VendorEvent>()
+        val updates = mutableMapOf<String, List<VendorEvent>>()
+        for ((emailId, emailEvents) in byEmail) {
+            val recordId = recordIds[emailId]
+            when {
+                recordId != null -> updates[recordId] = emailEvents
+                emailEvents.any { (it.createdAt ?: now).isAfter(now.minus(RECORD_GRACE)) } -> failed.addAll(emailEvents)
+                else -> logger.info("Dropping ${emailEvents.size} events of email $emailId, it has no record")
+            }
+        }
+
+        val notUpdated =
+            emailRecordRepository.updateStatuses(updates.map { (recordId, emailEvents) -> updateOf(recordId, emailEvents, now) })
+        notUpdated.forEach { failed.addAll(updates.getValue(it)) }
+        logger.info("Applied ${events.size - failed.size} events to ${updates.size - notUpdated.size} email records, ${failed.size} left")
+        return failed
+    }
+
+    /**
+     * Collapse the events of one email into a single update.
+     */
+    private fun updateOf(
+        recordId: String,
+        events: List<VendorEvent>,
+        now: Instant,
+    ): EmailStatusUpdate {
+        // The latest status wins; of events reported at the same time, the later stage of delivery
+        val latest =
+            events
+                .mapNotNull { event -> STATUS_BY_TYPE[event.type]?.let { it to (event.createdAt ?: now) } }
+                .maxWithOrNull(compareBy<Pair<EmailDeliveryStatus, Instant>> { it.second }.thenBy { it.first.ordinal })
+        return EmailStatusUpdate(
+            id = recordId,
+            deliveryStatus = latest?.first,
+            deliveryStatusAt = latest?.second,
+            openedAt = events.filter { it.type == VendorEvent.OPENED }.minOfOrNull { it.createdAt ?: now },
+            clickedAt = events.filter { it.type == VendorEvent.CLICKED }.minOfOrNull { it.createdAt ?: now },
+        )
+    }
+}
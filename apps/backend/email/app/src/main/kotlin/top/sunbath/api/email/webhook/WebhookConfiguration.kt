@@ -0,0 +1,37 @@
+package top.sunbath.api.email.webhook
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import java.time.Duration
+
+/**
+ * Configuration properties for the vendor webhook.
+ */
+@ConfigurationProperties("email-webhook")
+open class WebhookConfiguration {
+    /**
+     * The signing secret of the webhook, `whsec_` followed by the base64 encoded key. Takes precedence over
+     * [signingSecretParameter], for development and tests.
+     */
+    @Nullable
+    var signingSecret: String? = null
+
+    /**
+     * The SSM parameter holding the signing secret.
+     */
+    @Nullable
+    var signingSecretParameter: String? = null
+
+    /**
+     * How far the timestamp of a request may be off, older requests are rejected as replays.
+     */
+    @NonNull
+    var tolerance: Duration = Duration.ofMinutes(5)
+
+    /**
+     * The logical queue the verified events are put on.
+     */
+    @NonNull
+    var queue: String = "email-events"
+}
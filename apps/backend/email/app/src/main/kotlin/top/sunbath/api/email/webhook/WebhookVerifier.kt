@@ -0,0 +1,72 @@
+package top.sunbath.api.email.webhook
+
+import jakarta.inject.Singleton
+import top.sunbath.shared.ssm.SsmParameterProvider
+import java.security.MessageDigest
+import java.time.Duration
+import java.time.Instant
+import java.util.Base64
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Verifies the signature of webhook requests. Resend signs them the Svix way: an HMAC-SHA256 over
+ * `{id}.{timestamp}.{body}`, sent base64 encoded and prefixed with `v1,` in a space separated list.
+ */
+@Singleton
+class WebhookVerifier(
+    private val webhookConfiguration: WebhookConfiguration,
+    private val ssmParameterProvider: SsmParameterProvider,
+) {
+    companion object {
+        private const val SECRET_PREFIX = "whsec_"
+        private const val SIGNATURE_VERSION = "v1,"
+        private const val ALGORITHM = "HmacSHA256"
+    }
+
+    /**
+     * Whether a request was signed with the webhook secret within the tolerance.
+     * @param id The message ID header
+     * @param timestamp The timestamp header, in epoch seconds
+     * @param signatures The signature header
+     * @param body The raw request body
+     * @param now The time the timestamp is checked against
+     */
+    fun verify(
+        id: String?,
+        timestamp: String?,
+        signatures: String?,
+        body: String,
+        now: Instant = Instant.now(),
+    ): Boolean {
+        if (id.isNullOrBlank() || signatures.isNullOrBlank()) {
+            return false
+        }
+        val signedAt = timestamp?.toLongOrNull()?.let { Instant.ofEpochSecond(it) } ?: return false
+        if (Duration.between(signedAt, now).abs() > webhookConfiguration.tolerance) {
+            return false
+        }
+        val mac = Mac.getInstance(ALGORITHM)
+        mac.init(SecretKeySpec(key(), ALGORITHM))
+        val expected = mac.doFinal("$id.$timestamp.$body".toByteArray(Charsets.UTF_8))
+        return signatures.split(" ").any { signature ->
+            signature.startsWith(SIGNATURE_VERSION) &&
+                MessageDigest.isEqual(expected, decodeOrEmpty(signature.removePrefix(SIGNATURE_VERSION)))
+        }
+    }
+
+    private fun key(): ByteArray {
+        val secret =
+            webhookConfiguration.signingSecret
+                ?: webhookConfiguration.signingSecretParameter?.let { ssmParameterProvider.getParameter(it) }
+                ?: throw IllegalStateException("Webhook signing secret not configured")
+        return Base64.getDecoder().decode(secret.removePrefix(SECRET_PREFIX))
+    }
+
+    private fun decodeOrEmpty(signature: String): ByteArray =
+        try {
+            Base64.getDecoder().decode(signature)
+        } catch (e: IllegalArgumentException) {
+            ByteArray(0)
+        }
+}
@@ -0,0 +1,165 @@
+package top.sunbath.api.email.worker
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent
+import io.micronaut.context.ApplicationContext
+import io.micronaut.context.annotation.Requires
+import io.micronaut.context.event.ApplicationEventListener
+import io.micronaut.context.event.StartupEvent
+import jakarta.annotation.PreDestroy
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.email.handler.EmailFunctionExecutor
+import top.sunbath.api.email.service.EmailService
+import top.sunbath.shared.types.EmailPriority
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs the email service as a long-lived process: every lane queue is long-polled by
+ * [WorkerConfiguration.consumers] consumers, which hand their batches to the same [EmailFunctionExecutor] as the
+ * Lambda handler. Throughput scales with the number of consumers.
+ *
+ * While a batch is processed its visibility timeout is extended, so a slow send is not delivered to another
+ * consumer. Processed messages are deleted, failed ones become visible again once their timeout expires and are
+ * retried like the batch item failures of the Lambda handler.
+ *
+ * While the email vendors are unavailable, see [EmailService.availableIn], the consumers stop receiving.
+ *
+ * On shutdown the consumers stop receiving and the batches in progress are drained for up to
+ * [WorkerConfiguration.drainTimeoutSeconds]. The consumer threads keep the process alive while it runs.
+ */
+@Singleton
+@Requires(property = "email-worker.enabled", value = "true")
+class EmailWorker(
+    private val applicationContext: ApplicationContext,
+    private val messageSource: MessageSource,
+    private val emailService: EmailService,
+    private val configuration: WorkerConfiguration,
+) : ApplicationEventListener<StartupEvent> {
+    companion object {
+        private const val RECEIVE_ERROR_BACKOFF_MILLIS = 1000L
+        private const val MAX_PAUSE_MILLIS = 5000L
+    }
+
+    private val logger = LoggerFactory.getLogger(EmailWorker::class.java)
+
+    @Volatile
+    private var running = false
+    private var consumers: ExecutorService? = null
+    private val extender: ScheduledExecutorService =
+        Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "email-worker-visibility").apply { isDaemon = true }
+        }
+
+    override fun onApplicationEvent(event: StartupEvent) {
+        start()
+    }
+
+    /**
+     * Start the consumers of every lane.
+     */
+    @Synchronized
+    fun start() {
+        if (running) {
+            return
+        }
+        val executor = EmailFunctionExecutor(applicationContext)
+        val queues = EmailPriority.entries.map { it.queue }
+        var thread = 0
+        val pool =
+            Executors.newFixedThreadPool(queues.size * configuration.consumers) { runnable ->
+                Thread(runnable, "email-worker-${thread++}")
+            }
+        running = true
+        queues.forEach { queue ->
+            repeat(configuration.consumers) { pool.execute { consume(queue, executor) } }
+        }
+        consumers = pool
+        logger.info("Started ${configuration.consumers} consumers for each of the queues $queues")
+    }
+
+    /**
+     * Stop receiving and wait for the batches in progress.
+     */
+    @PreDestroy
+    @Synchronized
+    fun stop() {
+        val pool = consumers ?: return
+        running = false
+        consumers = null
+        pool.shutdown()
+        if (!pool.awaitTermination(configuration.drainTimeoutSeconds.toLong(), TimeUnit.SECONDS)) {
+            logger.warn("Batches still in progress after ${configuration.drainTimeoutSeconds}s, interrupting them")
+            pool.shutdownNow()
+        }
+        extender.shutdownNow()
+        logger.info("Stopped the consumers")
+    }
+
+    private fun consume(
+        queue: String,
+        executor: EmailFunctionExecutor,
+    ) {
+        while (running) {
+            // No messages are taken while no vendor can send them, they would only wait for their retry
+            val pause = emailService.availableIn()
+            if (!pause.isZero) {
+                logger.debug("Email vendors unavailable, pausing [$queue] for $pause")
+                Thread.sleep(pause.toMillis().coerceIn(1, MAX_PAUSE_MILLIS))
+                continue
+            }
+            val records =
+                try {
+                    messageSource.receive(queue, configuration.maxMessages, configuration.waitTimeSeconds)
+                } catch (e: Exception) {
+                    logger.error("Error receiving from [$queue]", e)
+                    Thread.sleep(RECEIVE_ERROR_BACKOFF_MILLIS)
+                    continue
+                }
+            if (records.isNotEmpty()) {
+                // A batch received just before shutdown is still processed, that is what the drain waits for
+                process(queue, records, executor)
+            }
+        }
+    }
+
+    private fun process(
+        queue: String,
+        records: List<SQSEvent.SQSMessage>,
+        executor: EmailFunctionExecutor,
+    ) {
+        val receiptHandles = records.map { it.receiptHandle }
+        val timeout = configuration.visibilityTimeoutSeconds
+        val period = (timeout / 2L).coerceAtLeast(1)
+        // The first extension runs right away, so the queue's own visibility timeout does not matter
+        val extension =
+            extender.scheduleAtFixedRate(
+                {
+                    try {
+                        messageSource.extendVisibility(queue, receiptHandles, timeout)
+                    } catch (e: Exception) {
+                        logger.warn("Error extending the visibility of ${receiptHandles.size} messages of [$queue]", e)
+                    }
+                },
+                0,
+                period,
+                TimeUnit.SECONDS,
+            )
+        try {
+            val emailRecordIds = executor.process(records)
+            val done = records.filter { it.messageId in emailRecordIds }.map { it.receiptHandle }
+            if (done.isNotEmpty()) {
+                messageSource.delete(queue, done)
+            }
+            if (done.size < records.size) {
+                logger.warn("${records.size - done.size} of ${records.size} messages of [$queue] failed and will be retried")
+            }
+        } catch (e: Exception) {
+            logger.error("Error processing ${records.size} messages of [$queue]", e)
+        } finally {
+            extension.cancel(false)
+        }
+    }
+}
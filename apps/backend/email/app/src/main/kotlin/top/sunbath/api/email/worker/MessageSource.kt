@@ -0,0 +1,52 @@
+package top.sunbath.api.email.worker
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent
+
+/**
+ * The queues the polling worker and the DLQ redrive consume, addressed by their logical name. Received messages
+ * have the shape of the records the Lambda handler gets, so both run the same executor.
+ */
+interface MessageSource {
+    /**
+     * Receive messages, waiting for them to arrive.
+     * @param queue The logical queue name
+     * @param maxMessages The most messages to return
+     * @param waitTimeSeconds How long to wait when the queue is empty
+     * @return The messages, with their receipt handles; empty if none arrived in time
+     */
+    fun receive(
+        queue: String,
+        maxMessages: Int,
+        waitTimeSeconds: Int,
+    ): List<SQSEvent.SQSMessage>
+
+    /**
+     * Send messages.
+     * @param bodies The message bodies
+     * @return The indices of the bodies that were accepted
+     */
+    fun send(
+        queue: String,
+        bodies: List<String>,
+    ): Set<Int>
+
+    /**
+     * Delete processed messages.
+     * @param receiptHandles The receipt handles of the messages
+     */
+    fun delete(
+        queue: String,
+        receiptHandles: List<String>,
+    )
+
+    /**
+     * Keep messages hidden from other consumers for a while longer.
+     * @param receiptHandles The receipt handles of the messages
+     * @param timeoutSeconds The new visibility timeout, counted from now
+     */
+    fun extendVisibility(
+        queue: String,
+        receiptHandles: List<String>,
+        timeoutSeconds: Int,
+    )
+}
@@ -0,0 +1,133 @@
+package top.sunbath.api.email.worker
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent
+import jakarta.inject.Singleton
+import software.amazon.awssdk.services.sqs.SqsClient
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry
+import top.sunbath.shared.sqs.SqsConfiguration
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * [MessageSource] backed by SQS, with the queues configured under `aws.sqs.queues`.
+ */
+@Singleton
+class SqsMessageSource(
+    private val sqsClient: SqsClient,
+    private val sqsConfiguration: SqsConfiguration,
+) : MessageSource {
+    companion object {
+        /**
+         * The most entries of a batch request.
+         */
+        private const val MAX_BATCH_SIZE = 10
+    }
+
+    private val queueUrls = ConcurrentHashMap<String, String>()
+
+    override fun receive(
+        queue: String,
+        maxMessages: Int,
+        waitTimeSeconds: Int,
+    ): List<SQSEvent.SQSMessage> =
+        sqsClient
+            .receiveMessage(
+                ReceiveMessageRequest
+                    .builder()
+                    .queueUrl(queueUrlOf(queue))
+                    .maxNumberOfMessages(maxMessages.coerceIn(1, MAX_BATCH_SIZE))
+                    .waitTimeSeconds(waitTimeSeconds.coerceIn(0, 20))
+                    .attributeNamesWithStrings("SentTimestamp")
+                    .build(),
+            ).messages()
+            .map { message ->
+                SQSEvent.SQSMessage().apply {
+                    messageId = message.messageId()
+                    receiptHandle = message.receiptHandle()
+                    body = message.body()
+                    attributes = message.attributesAsStrings()
+                }
+            }
+
+    override fun send(
+        queue: String,
+        bodies: List<String>,
+    ): Set<Int> =
+        bodies.indices.chunked(MAX_BATCH_SIZE).flatMapTo(mutableSetOf()) { chunk ->
+            sqsClient
+                .sendMessageBatch(
+                    SendMessageBatchRequest
+                        .builder()
+                        .queueUrl(queueUrlOf(queue))
+                        .entries(
+                            chunk.map { index ->
+                                SendMessageBatchRequestEntry
+                                    .builder()
+                                    .id(index.toString())
+                                    .messageBody(bodies[index])
+                                    .build()
+                            },
+                        ).build(),
+                ).successful()
+                .map { it.id().toInt() }
+        }
+
+    override fun delete(
+        queue: String,
+        receiptHandles: List<String>,
+    ) {
+        receiptHandles.chunked(MAX_BATCH_SIZE).forEach { chunk ->
+            sqsClient.deleteMessageBatch(
+                DeleteMessageBatchRequest
+                    .builder()
+                    .queueUrl(queueUrlOf(queue))
+                    .entries(
+                        chunk.mapIndexed { index, handle ->
+                            DeleteMessageBatchRequestEntry
+                                .builder()
+                                .id(index.toString())
+                                .receiptHandle(handle)
+                                .build()
+                        },
+                    ).build(),
+            )
+        }
+    }
+
+    override fun extendVisibility(
+        queue: String,
+        receiptHandles: List<String>,
+        timeoutSeconds: Int,
+    ) {
+        receiptHandles.chunked(MAX_BATCH_SIZE).forEach { chunk ->
+            sqsClient.changeMessageVisibilityBatch(
+                ChangeMessageVisibilityBatchRequest
+                    .builder()
+                    .queueUrl(queueUrlOf(queue))
+                    .entries(
+                        chunk.mapIndexed { index, handle ->
+                            ChangeMessageVisibilityBatchRequestEntry
+                                .builder()
+                                .id(index.toString())
+                                .receiptHandle(handle)
+                                .visibilityTimeout(timeoutSeconds)
+                                .build()
+                        },
+                    ).build(),
+            )
+        }
+    }
+
+    private fun queueUrlOf(queue: String): String =
+        queueUrls.computeIfAbsent(queue) {
+            val queueName =
+                sqsConfiguration.getQueues()[queue] ?: throw IllegalStateException("Queue [$queue] not found in configuration")
+            sqsClient.getQueueUrl(GetQueueUrlRequest.builder().queueName(queueName).build()).queueUrl()
+        }
+}
@@ -0,0 +1,46 @@
+package top.sunbath.api.email.worker
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+
+/**
+ * Configuration properties for the polling worker mode.
+ */
+@ConfigurationProperties("email-worker")
+open class WorkerConfiguration {
+    /**
+     * Whether the email queues are polled by this process instead of being delivered to the Lambda handler.
+     */
+    @NonNull
+    var enabled: Boolean = false
+
+    /**
+     * The consumers polling each queue in parallel.
+     */
+    @NonNull
+    var consumers: Int = 2
+
+    /**
+     * The most messages a consumer receives at once, at most 10.
+     */
+    @NonNull
+    var maxMessages: Int = 10
+
+    /**
+     * How long a receive waits for messages to arrive, at most 20 seconds.
+     */
+    @NonNull
+    var waitTimeSeconds: Int = 20
+
+    /**
+     * The visibility timeout a batch is kept at while it is processed. It is extended every half of it.
+     */
+    @NonNull
+    var visibilityTimeoutSeconds: Int = 60
+
+    /**
+     * How long shutdown waits for the batches in progress.
+     */
+    @NonNull
+    var drainTimeoutSeconds: Int = 30
+}
@@ -0,0 +1,62 @@
+package top.sunbath.api.email.controller
+
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest
+import jakarta.inject.Inject
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import top.sunbath.api.email.model.EmailRecord
+import top.sunbath.api.email.repository.EmailRecordRepository
+import java.util.UUID
+
+@MicronautTest
+class EmailHistoryControllerTest {
+    @Inject
+    private lateinit var controller: EmailHistoryController
+
+    @Inject
+    private lateinit var emailRecordRepository: EmailRecordRepository
+
+    private fun recordOf(
+        to: String,
+        subject: String,
+    ): EmailRecord = EmailRecord("", to, "sender@test.com", subject, "<p>$subject</p>", "{\"id\":\"$subject\"}")
+
+    @Test
+    fun `should page through the emails of a recipient newest first without html`() {
+        // Given
+        val to = "history-${UUID.randomUUID()}@test.com"
+        val ids = (1..5).map { emailRecordRepository.saveAll(listOf(recordOf(to, "Email $it"))).single()!! }
+        emailRecordRepository.saveAll(listOf(recordOf("other-${UUID.randomUUID()}@test.com", "Other")))
+
+        // When
+        val first = controller.index(to, 2, null)
+        val second = controller.index(to, 2, first.nextCursor)
+        val third = controller.index(to, 2, second.nextCursor)
+
+        // Then
+        val items = first.items + second.items + third.items
+        assertEquals(ids.sortedDescending(), items.map { it.id })
+        assertTrue(items.all { it.to == to && it.html == null && it.subject.startsWith("Email") })
+        assertTrue(first.hasMore)
+        assertNotNull(second.nextCursor)
+        assertEquals(1, third.items.size)
+        assertFalse(third.hasMore)
+        // The stored records keep their html
+        assertEquals("<p>Email 1</p>", emailRecordRepository.findById(ids.first())!!.html)
+    }
+
+    @Test
+    fun `should return an empty page for an unknown recipient`() {
+        // When
+        val page = controller.index("nobody-${UUID.randomUUID()}@test.com", 10, null)
+
+        // Then
+        assertTrue(page.items.isEmpty())
+        assertNull(page.nextCursor)
+        assertFalse(page.hasMore)
+    }
+}
@@ -0,0 +1,93 @@
+package top.sunbath.api.email.controller
+
+import io.micronaut.context.ApplicationContext
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest
+import jakarta.inject.Inject
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import top.sunbath.api.email.controller.request.VendorEventsRequest
+import top.sunbath.api.email.handler.EmailFunctionExecutor
+import top.sunbath.api.email.integration.TestEmailDataFactory
+import top.sunbath.api.email.integration.TestMessageFactory
+import top.sunbath.api.email.repository.SuppressionRepository
+import top.sunbath.api.email.suppression.SuppressionList
+import top.sunbath.api.email.vendor.VendorEvent
+import top.sunbath.api.email.vendor.VendorEventBounce
+import top.sunbath.api.email.vendor.VendorEventData
+import java.util.UUID
+
+@MicronautTest
+class SuppressionControllerTest {
+    @Inject
+    private lateinit var applicationContext: ApplicationContext
+
+    @Inject
+    private lateinit var controller: SuppressionController
+
+    @Inject
+    private lateinit var suppressionList: SuppressionList
+
+    @Inject
+    private lateinit var suppressionRepository: SuppressionRepository
+
+    private fun uniqueAddress(prefix: String): String = "$prefix-${UUID.randomUUID()}@test.com"
+
+    private fun eventOf(
+        type: String,
+        to: String,
+        bounceType: String? = null,
+    ): VendorEvent = VendorEvent(type, data = VendorEventData("email-id", listOf(to), bounceType?.let { VendorEventBounce(it) }))
+
+    @Test
+    fun `should suppress the recipients of permanent bounces and complaints`() {
+        // Given
+        val bounced = uniqueAddress("bounced")
+        val complained = uniqueAddress("complained")
+        val transient = uniqueAddress("transient")
+        val delivered = uniqueAddress("delivered")
+        val request =
+            VendorEventsRequest(
+                listOf(
+                    eventOf(VendorEvent.BOUNCED, bounced.uppercase(), "Permanent"),
+                    eventOf(VendorEvent.COMPLAINED, complained),
+                    eventOf(VendorEvent.BOUNCED, transient, "Transient"),
+                    eventOf(VendorEvent.DELIVERED, delivered),
+                ),
+            )
+
+        // When
+        val response = controller.save(request)
+
+        // Then
+        assertEquals(2, response.suppressed)
+        assertEquals(2, response.ignored)
+        assertTrue(suppressionList.isSuppressed(bounced))
+        assertTrue(suppressionList.isSuppressed(complained))
+        assertFalse(suppressionList.isSuppressed(transient))
+        assertFalse(suppressionList.isSuppressed(delivered))
+        assertTrue(suppressionRepository.findAllAddresses().containsAll(listOf(bounced, complained)))
+    }
+
+    @Test
+    fun `should drop emails to suppressed addresses without sending them`() {
+        // Given
+        val bounced = uniqueAddress("bounced")
+        controller.save(VendorEventsRequest(listOf(eventOf(VendorEvent.BOUNCED, bounced, "Permanent"))))
+        val suppressedId = UUID.randomUUID().toString()
+        val sentId = UUID.randomUUID().toString()
+        val message =
+            TestMessageFactory.batchOf(
+                TestMessageFactory.createEmailMessage(suppressedId, TestEmailDataFactory.createEmailData().copy(to = bounced)),
+                TestMessageFactory.createEmailMessage(sentId, TestEmailDataFactory.createEmailData()),
+            )
+
+        // When
+        val emailRecordIds = EmailFunctionExecutor(applicationContext).process(message.records)
+
+        // Then - the dropped message is done, but has no email record
+        assertEquals("", emailRecordIds.getValue(suppressedId))
+        assertTrue(emailRecordIds.getValue(sentId).isNotEmpty())
+    }
+}
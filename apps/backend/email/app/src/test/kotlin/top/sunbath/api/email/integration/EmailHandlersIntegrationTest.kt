@@ -4,24 +4,30 @@ import io.micronaut.context.ApplicationContext
 import io.micronaut.test.extensions.junit5.annotation.MicronautTest
 import jakarta.inject.Inject
 import org.junit.jupiter.api.AfterAll
-import org.junit.jupiter.api.Assertions.assertDoesNotThrow
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertNotNull
-import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertNull
 import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestInstance
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest
-import top.sunbath.api.email.handler.CancelEmailFunctionExecutor
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
 import top.sunbath.api.email.handler.EmailFunctionExecutor
 import top.sunbath.api.email.integration.TestEmailDataFactory
 import top.sunbath.api.email.integration.TestMessageFactory
+import top.sunbath.api.email.model.EmailClaimStatus
+import top.sunbath.api.email.repository.EmailClaimRepository
 import top.sunbath.api.email.repository.EmailRecordRepository
-import top.sunbath.api.email.repository.PreventEmailJobRepository
 import top.sunbath.shared.dynamodb.DynamoConfiguration
+import top.sunbath.shared.types.EmailPriority
+import top.sunbath.shared.types.EmailTemplateIds
+import top.sunbath.shared.types.SqsMessage
+import top.sunbath.shared.types.VersionCheck
 import java.util.UUID
+import kotlin.random.Random
 
 @MicronautTest
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -33,7 +39,7 @@ class EmailHandlersIntegrationTest {
     private lateinit var emailRecordRepository: EmailRecordRepository
 
     @Inject
-    private lateinit var preventEmailJobRepository: PreventEmailJobRepository
+    private lateinit var emailClaimRepository: EmailClaimRepository
 
     @Inject
     private lateinit var dynamoConfiguration: DynamoConfiguration
@@ -43,20 +49,16 @@ class EmailHandlersIntegrationTest {
 
     private lateinit var emailExecutor: EmailFunctionExecutor
 
-    private lateinit var cancelExecutor: CancelEmailFunctionExecutor
-
     private val testEmailData = TestEmailDataFactory.createEmailData()
 
     @BeforeAll
     fun setup() {
-        // Initialize the executors
+        // Initialize the executor
         // We run tests against executors,
         //  not handlers because handlers will initialize beans in the getApplicationContext() method,
         //  which is not the context as the test ApplicationContext.
         emailExecutor = EmailFunctionExecutor(applicationContext)
         emailExecutor.getApplicationContext()
-        cancelExecutor = CancelEmailFunctionExecutor(applicationContext)
-        cancelExecutor.getApplicationContext()
     }
 
     @AfterAll
@@ -66,17 +68,16 @@ class EmailHandlersIntegrationTest {
     }
 
     @Test
-    fun `should send email when message is not in block list`() {
+    fun `should send email`() {
         // Given
         val messageId = UUID.randomUUID().toString()
         val message = TestMessageFactory.createEmailMessage(messageId, testEmailData)
 
         // When
-        val emailRecordIds = emailExecutor.execute(message)
+        val emailRecordIds = emailExecutor.process(message.records)
 
         // Then
-        assertEquals(1, emailRecordIds.size)
-        val emailRecord = emailRecordRepository.findById(emailRecordIds[0])
+        val emailRecord = emailRecordRepository.findById(emailRecordIds.getValue(messageId))
         assertNotNull(emailRecord)
         assertEquals(testEmailData.to, emailRecord!!.to)
         assertEquals(testEmailData.from, emailRecord.from)
@@ -85,68 +86,270 @@ class EmailHandlersIntegrationTest {
     }
 
     @Test
-    fun `should not send email when message is in block list`() {
+    fun `should render a template email and store its template reference`() {
         // Given
         val messageId = UUID.randomUUID().toString()
-        val cancelMessage = TestMessageFactory.createCancelMessage(messageId)
-        val emailMessage = TestMessageFactory.createEmailMessage(messageId, testEmailData)
+        val templateEmailData = TestEmailDataFactory.createTemplateEmailData()
+        val message = TestMessageFactory.createEmailMessage(messageId, templateEmailData)
+
+        // When
+        val emailRecordIds = emailExecutor.process(message.records)
+
+        // Then - the record keeps the reference instead of the rendered html
+        val emailRecord = emailRecordRepository.findById(emailRecordIds.getValue(messageId))
+        assertNotNull(emailRecord)
+        assertEquals("Verify your email address", emailRecord!!.subject)
+        assertEquals(EmailTemplateIds.VERIFICATION, emailRecord.templateId)
+        assertEquals(1, emailRecord.templateVersion)
+        assertEquals(templateEmailData.template?.params, emailRecord.templateParams)
+        assertNull(emailRecord.html)
+    }
+
+    @Test
+    fun `should record an unknown template as error without sending`() {
+        // Given
+        val messageId = UUID.randomUUID().toString()
+        val message = TestMessageFactory.createEmailMessage(messageId, TestEmailDataFactory.createTemplateEmailData(version = 99))
+
+        // When
+        val emailRecordIds = emailExecutor.process(message.records)
+
+        // Then
+        val emailRecord = emailRecordRepository.findById(emailRecordIds.getValue(messageId))
+        assertTrue(emailRecord?.vendorResponse?.contains("Unknown email template") ?: false)
+    }
+
+    @Test
+    fun `should store one email record per message of a batch`() {
+        // Given
+        val messageIds = List(3) { UUID.randomUUID().toString() }
+        val batch =
+            TestMessageFactory.batchOf(
+                *messageIds
+                    .map { TestMessageFactory.createEmailMessage(it, testEmailData.copy(subject = "Subject $it")) }
+                    .toTypedArray(),
+            )
+
+        // When
+        val emailRecordIds = emailExecutor.process(batch.records)
+
+        // Then
+        assertEquals(messageIds.toSet(), emailRecordIds.keys)
+        messageIds.forEach {
+            assertEquals("Subject $it", emailRecordRepository.findById(emailRecordIds.getValue(it))?.subject)
+        }
+    }
+
+    @Test
+    fun `should send both priority lanes of a mixed batch`() {
+        // Given
+        val highMessageId = UUID.randomUUID().toString()
+        val lowMessageId = UUID.randomUUID().toString()
+        val batch =
+            TestMessageFactory.batchOf(
+                TestMessageFactory.createEmailMessage(lowMessageId, testEmailData.copy(priority = EmailPriority.LOW)),
+                TestMessageFactory.createEmailMessage(highMessageId, testEmailData),
+            )
 
         // When
-        cancelExecutor.execute(cancelMessage)
-        val emailRecordIds = emailExecutor.execute(emailMessage)
+        val emailRecordIds = emailExecutor.process(batch.records)
 
         // Then
-        assertEquals(0, emailRecordIds.size)
-        assertNotNull(preventEmailJobRepository.findById(messageId))
+        assertEquals(setOf(highMessageId, lowMessageId), emailRecordIds.keys)
+        assertNotNull(emailRecordRepository.findById(emailRecordIds.getValue(lowMessageId)))
+    }
 
-        // verify no email is sent
+    @Test
+    fun `should not send a redelivered message again`() {
+        // Given
+        val messageId = UUID.randomUUID().toString()
+        val message = TestMessageFactory.createEmailMessage(messageId, testEmailData)
+        val firstIds = emailExecutor.process(message.records)
+
+        // When
+        val redeliveredIds = emailExecutor.process(message.records)
+
+        // Then - the redelivery reports the email record of the first delivery
+        assertEquals(firstIds.getValue(messageId), redeliveredIds.getValue(messageId))
     }
 
     @Test
-    fun `should handle message order - email sent before cancel`() {
+    fun `should fail a message that is being sent by another invocation`() {
         // Given
         val messageId = UUID.randomUUID().toString()
-        val emailMessage = TestMessageFactory.createEmailMessage(messageId, testEmailData)
-        val cancelMessage = TestMessageFactory.createCancelMessage(messageId)
+        val message = TestMessageFactory.createEmailMessage(messageId, testEmailData)
+        assertNull(emailClaimRepository.claim(messageId))
 
         // When
-        val emailRecordIds = emailExecutor.execute(emailMessage)
-        cancelExecutor.execute(cancelMessage)
+        val response = emailExecutor.execute(message)
 
         // Then
-        assertEquals(1, emailRecordIds.size)
-        val emailRecord = emailRecordRepository.findById(emailRecordIds[0])
-        assertNotNull(emailRecord)
-        assertEquals(testEmailData.to, emailRecord!!.to)
-        assertEquals(testEmailData.from, emailRecord.from)
-        assertEquals(testEmailData.subject, emailRecord.subject)
-        assertEquals(testEmailData.html, emailRecord.html)
-        assertNotNull(preventEmailJobRepository.findById(messageId))
+        assertEquals(listOf(messageId), response.batchItemFailures.map { it.itemIdentifier })
+    }
+
+    @Test
+    fun `should claim the free messages of a batch together with taken ones`() {
+        // Given
+        val freeMessageId = UUID.randomUUID().toString()
+        val takenMessageId = UUID.randomUUID().toString()
+        assertNull(emailClaimRepository.claim(takenMessageId))
+
+        // When
+        val claims = emailClaimRepository.claimAll(listOf(freeMessageId, takenMessageId))
+
+        // Then - only the taken message reports the claim it is held by
+        assertEquals(setOf(freeMessageId, takenMessageId), claims.keys)
+        assertNull(claims[freeMessageId])
+        assertEquals(EmailClaimStatus.PENDING, claims[takenMessageId]?.status)
+        assertEquals(EmailClaimStatus.PENDING, emailClaimRepository.claim(freeMessageId)?.status)
+    }
+
+    @Test
+    fun `should send the new messages of a batch that holds sent and pending ones`() {
+        // Given
+        val sentMessage = TestMessageFactory.createEmailMessage(UUID.randomUUID().toString(), testEmailData)
+        val sentIds = emailExecutor.process(sentMessage.records)
+        val pendingMessageId = UUID.randomUUID().toString()
+        assertNull(emailClaimRepository.claim(pendingMessageId))
+        val newMessageId = UUID.randomUUID().toString()
+        val batch =
+            TestMessageFactory.batchOf(
+                sentMessage,
+                TestMessageFactory.createEmailMessage(pendingMessageId, testEmailData),
+                TestMessageFactory.createEmailMessage(newMessageId, testEmailData),
+            )
+
+        // When
+        val emailRecordIds = emailExecutor.process(batch.records)
+
+        // Then - the sent message reports its record, the pending one is retried later
+        assertEquals(sentIds, emailRecordIds.filterKeys { it in sentIds.keys })
+        assertNull(emailRecordIds[pendingMessageId])
+        assertNotNull(emailRecordRepository.findById(emailRecordIds.getValue(newMessageId)))
+        assertEquals(EmailClaimStatus.SENT, emailClaimRepository.claim(newMessageId)?.status)
+    }
+
+    @Test
+    fun `should complete the claim of a sent email whose record cannot be written`() {
+        // Given - random html stays over the item size limit when compressed, so the record write fails
+        val messageId = UUID.randomUUID().toString()
+        val random = Random(42)
+        val html = buildString { repeat(800_000) { append('a' + random.nextInt(26)) } }
+        val message = TestMessageFactory.createEmailMessage(messageId, testEmailData.copy(html = html))
+
+        // When
+        val response = emailExecutor.execute(message)
+
+        // Then - the email went out, so its message is done and its claim keeps the vendor response
+        assertTrue(response.batchItemFailures.isEmpty())
+        val claim = emailClaimRepository.claim(messageId)
+        assertEquals(EmailClaimStatus.SENT, claim?.status)
+        assertNull(claim?.emailRecordId)
+        assertNotNull(claim?.vendorResponse)
+
+        // A redelivery is skipped instead of sending the email again
+        assertEquals(mapOf(messageId to ""), emailExecutor.process(message.records))
+    }
+
+    @Test
+    fun `should drop a reminder whose schedule moved on while it was queued`() {
+        // Given - the schedule is at version 2, reminders were queued at versions 1 and 2 and for a deleted memo
+        val pk = "MEMO#${UUID.randomUUID()}"
+        val sk = "NOTIFICATIONSCHEDULE#${UUID.randomUUID()}"
+        dynamoDbClient.putItem(
+            PutItemRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .item(
+                    mapOf(
+                        "pk" to AttributeValue.builder().s(pk).build(),
+                        "sk" to AttributeValue.builder().s(sk).build(),
+                        "version" to AttributeValue.builder().n("2").build(),
+                    ),
+                ).build(),
+        )
+        val staleMessageId = UUID.randomUUID().toString()
+        val currentMessageId = UUID.randomUUID().toString()
+        val deletedMessageId = UUID.randomUUID().toString()
+        val batch =
+            TestMessageFactory.batchOf(
+                TestMessageFactory.createEmailMessage(
+                    staleMessageId,
+                    testEmailData.copy(versionChecks = listOf(VersionCheck("memo", pk, sk, 1))),
+                ),
+                TestMessageFactory.createEmailMessage(
+                    currentMessageId,
+                    testEmailData.copy(versionChecks = listOf(VersionCheck("memo", pk, sk, 2))),
+                ),
+                TestMessageFactory.createEmailMessage(
+                    deletedMessageId,
+                    testEmailData.copy(versionChecks = listOf(VersionCheck("memo", "MEMO#deleted", "NOTIFICATIONSCHEDULE#deleted", 1))),
+                ),
+            )
+
+        // When
+        val emailRecordIds = emailExecutor.process(batch.records)
+
+        // Then - the outdated reminders are done without being claimed or recorded
+        assertEquals("", emailRecordIds[staleMessageId])
+        assertEquals("", emailRecordIds[deletedMessageId])
+        assertNotNull(emailRecordRepository.findById(emailRecordIds.getValue(currentMessageId)))
+        assertNull(emailClaimRepository.claim(staleMessageId))
+        assertNull(emailClaimRepository.claim(deletedMessageId))
+    }
+
+    @Test
+    fun `should report no failures when every email is sent`() {
+        // Given
+        val message = TestMessageFactory.createEmailMessage(UUID.randomUUID().toString(), testEmailData)
+
+        // When
+        val response = emailExecutor.execute(message)
+
+        // Then
+        assertTrue(response.batchItemFailures.isEmpty())
     }
 
     @Test
-    fun `should handle duplicate cancel requests`() {
+    fun `should report invalid message format as failed record`() {
+        // Given
+        val invalidMessage = TestMessageFactory.createInvalidMessage("invalid-message")
+
+        // When
+        val response = emailExecutor.execute(invalidMessage)
+
+        // Then
+        assertEquals(listOf("invalid-message"), response.batchItemFailures.map { it.itemIdentifier })
+    }
+
+    @Test
+    fun `should report a message of an unknown schema version as failed record`() {
         // Given
         val messageId = UUID.randomUUID().toString()
-        val cancelMessage = TestMessageFactory.createCancelMessage(messageId)
+        val message = TestMessageFactory.createEmailMessage(messageId, testEmailData, schemaVersion = SqsMessage.SCHEMA_VERSION + 1)
 
-        // When & Then
-        assertDoesNotThrow {
-            cancelExecutor.execute(cancelMessage)
-            cancelExecutor.execute(cancelMessage)
-        }
-        assertNotNull(preventEmailJobRepository.findById(messageId))
+        // When
+        val response = emailExecutor.execute(message)
+
+        // Then
+        assertEquals(listOf(messageId), response.batchItemFailures.map { it.itemIdentifier })
     }
 
     @Test
-    fun `should throw exception for invalid message format`() {
+    fun `should report only the failed records of a batch`() {
         // Given
-        val invalidMessage = TestMessageFactory.createInvalidMessage()
+        val validMessageId = UUID.randomUUID().toString()
+        val batch =
+            TestMessageFactory.batchOf(
+                TestMessageFactory.createEmailMessage(validMessageId, testEmailData),
+                TestMessageFactory.createInvalidMessage("invalid-message"),
+            )
 
-        // When & Then
-        assertThrows(Exception::class.java) {
-            emailExecutor.execute(invalidMessage)
-        }
+        // When
+        val response = emailExecutor.execute(batch)
+
+        // Then - the valid record is not redelivered
+        assertEquals(listOf("invalid-message"), response.batchItemFailures.map { it.itemIdentifier })
     }
 
     @Test
@@ -157,12 +360,31 @@ class EmailHandlersIntegrationTest {
         val message = TestMessageFactory.createEmailMessage(messageId, errorEmailData)
 
         // When
-        val emailRecordIds = emailExecutor.execute(message)
+        val emailRecordIds = emailExecutor.process(message.records)
 
         // Then
-        assertEquals(1, emailRecordIds.size)
-        val emailRecord = emailRecordRepository.findById(emailRecordIds[0])
+        val emailRecord = emailRecordRepository.findById(emailRecordIds.getValue(messageId))
         assertNotNull(emailRecord?.vendorResponse)
         assertTrue(emailRecord?.vendorResponse?.contains("Test error") ?: false)
     }
+
+    @Test
+    fun `should record a rejected batch as error of every email`() {
+        // Given
+        val messageIds = listOf(UUID.randomUUID().toString(), UUID.randomUUID().toString())
+        val batch =
+            TestMessageFactory.batchOf(
+                TestMessageFactory.createEmailMessage(messageIds[0], testEmailData),
+                TestMessageFactory.createEmailMessage(messageIds[1], testEmailData.copy(from = "error@test.com")),
+            )
+
+        // When
+        val emailRecordIds = emailExecutor.process(batch.records)
+
+        // Then - the batch endpoint accepts or rejects all emails together
+        messageIds.forEach {
+            val emailRecord = emailRecordRepository.findById(emailRecordIds.getValue(it))
+            assertTrue(emailRecord?.vendorResponse?.contains("Test error") ?: false)
+        }
+    }
 }
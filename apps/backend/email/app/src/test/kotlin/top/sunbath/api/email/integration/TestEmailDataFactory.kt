@@ -1,6 +1,8 @@
 package top.sunbath.api.email.integration
 
 import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailTemplateIds
+import top.sunbath.shared.types.EmailTemplateRef
 
 object TestEmailDataFactory {
     fun createEmailData() =
@@ -10,4 +12,23 @@ object TestEmailDataFactory {
             subject = "Test Subject",
             html = "<p>Test Content</p>",
         )
+
+    fun createTemplateEmailData(
+        id: String = EmailTemplateIds.VERIFICATION,
+        version: Int = 1,
+    ) = EmailData(
+        from = "noreply@example.com",
+        to = "test@example.com",
+        template =
+            EmailTemplateRef(
+                id = id,
+                version = version,
+                params =
+                    mapOf(
+                        "username" to "testuser",
+                        "verificationToken" to "test-token",
+                        "expiresAt" to "2030-01-01T00:00:00Z",
+                    ),
+            ),
+    )
 }
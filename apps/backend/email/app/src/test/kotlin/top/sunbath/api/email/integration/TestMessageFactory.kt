@@ -10,41 +10,35 @@ object TestMessageFactory {
     fun createEmailMessage(
         messageId: String,
         emailData: EmailData,
+        schemaVersion: Int = SqsMessage.SCHEMA_VERSION,
     ): SQSEvent {
-        val sqsMessage = SqsMessage<EmailData>(id = messageId, data = emailData)
+        val sqsMessage = SqsMessage<EmailData>(id = messageId, data = emailData, schemaVersion = schemaVersion)
         val messageBody = objectMapper.writeValueAsString(sqsMessage)
 
         return SQSEvent().apply {
             records =
                 listOf(
                     SQSEvent.SQSMessage().apply {
+                        this.messageId = messageId
                         body = messageBody
                     },
                 )
         }
     }
 
-    fun createCancelMessage(messageId: String): SQSEvent {
-        val sqsMessage = SqsMessage<String>(id = messageId, data = messageId)
-        val messageBody = objectMapper.writeValueAsString(sqsMessage)
-
-        return SQSEvent().apply {
+    fun createInvalidMessage(messageId: String = "invalid-message"): SQSEvent =
+        SQSEvent().apply {
             records =
                 listOf(
                     SQSEvent.SQSMessage().apply {
-                        body = messageBody
+                        this.messageId = messageId
+                        body = "invalid message body"
                     },
                 )
         }
-    }
 
-    fun createInvalidMessage(): SQSEvent =
+    fun batchOf(vararg events: SQSEvent): SQSEvent =
         SQSEvent().apply {
-            records =
-                listOf(
-                    SQSEvent.SQSMessage().apply {
-                        body = "invalid message body"
-                    },
-                )
+            records = events.flatMap { it.records }
         }
 }
@@ -0,0 +1,33 @@
+package top.sunbath.api.email.integration
+
+import io.micronaut.context.annotation.Factory
+import io.micronaut.context.annotation.Replaces
+import io.micronaut.context.annotation.Requires
+import io.micronaut.context.env.Environment
+import io.mockk.every
+import io.mockk.mockk
+import jakarta.inject.Singleton
+import top.sunbath.api.email.worker.InMemoryMessageSource
+import top.sunbath.shared.sqs.MessageCodec
+import top.sunbath.shared.sqs.QueuePublisher
+
+/**
+ * Factory for a [QueuePublisher] that puts the messages on the queues of the [InMemoryMessageSource].
+ */
+@Factory
+class TestQueuePublisherFactory {
+    @Singleton
+    @Replaces(QueuePublisher::class)
+    @Requires(env = [Environment.TEST])
+    fun mockQueuePublisher(
+        messageSource: InMemoryMessageSource,
+        messageCodec: MessageCodec,
+    ): QueuePublisher =
+        mockk(relaxed = true) {
+            every { sendNow(any(), any()) } answers {
+                val entries = secondArg<List<QueuePublisher.Entry>>()
+                messageSource.send(firstArg(), entries.map { messageCodec.encode(it.message) })
+                entries.map { it.id }.toSet()
+            }
+        }
+}
@@ -35,6 +35,24 @@ class TestResendFactory {
                         )
                     } throws ResendException("Test error")
                 }
+            every { batch() } returns
+                mockk {
+                    every {
+                        send(
+                            match { options: List<CreateEmailOptions> ->
+                                options.none { it.from == "error@test.com" }
+                            },
+                        )
+                    } returns mockk(relaxed = true)
+
+                    every {
+                        send(
+                            match { options: List<CreateEmailOptions> ->
+                                options.any { it.from == "error@test.com" }
+                            },
+                        )
+                    } throws ResendException("Test error")
+                }
         }
 
     @Singleton
@@ -0,0 +1,76 @@
+package top.sunbath.api.email.redrive
+
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest
+import jakarta.inject.Inject
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import top.sunbath.api.email.integration.TestEmailDataFactory
+import top.sunbath.api.email.integration.TestMessageFactory
+import top.sunbath.api.email.worker.InMemoryMessageSource
+import top.sunbath.shared.types.EmailPriority
+import top.sunbath.shared.types.EmailTemplateIds
+import java.util.UUID
+
+@MicronautTest
+class DlqRedriveTest {
+    @Inject
+    private lateinit var dlqRedrive: DlqRedrive
+
+    @Inject
+    private lateinit var messageSource: InMemoryMessageSource
+
+    private fun enqueueDeadLetters(priority: EmailPriority) {
+        val inline = TestMessageFactory.createEmailMessage(UUID.randomUUID().toString(), TestEmailDataFactory.createEmailData())
+        val template = TestMessageFactory.createEmailMessage(UUID.randomUUID().toString(), TestEmailDataFactory.createTemplateEmailData())
+        val invalid = TestMessageFactory.createInvalidMessage(UUID.randomUUID().toString())
+        messageSource.enqueue("${priority.queue}-dlq", TestMessageFactory.batchOf(inline, template, invalid).records)
+    }
+
+    @Test
+    fun `should move the selected messages back to their queue`() {
+        // Given
+        enqueueDeadLetters(EmailPriority.LOW)
+        val extended = messageSource.extended.size
+
+        // When
+        val report =
+            dlqRedrive.redrive(
+                RedriveRequest(priority = EmailPriority.LOW, templateIds = setOf(EmailTemplateIds.VERIFICATION), messagesPerSecond = 100.0),
+            )
+
+        // Then - only the template email is moved, the others stay in the dead-letter queue
+        assertEquals(3, report.received)
+        assertEquals(1, report.redriven)
+        assertEquals(mapOf("template" to 1, "undecodable" to 1), report.skipped)
+        assertEquals(1, messageSource.receive(EmailPriority.LOW.queue, 10, 0).size)
+        assertEquals(extended + 2, messageSource.extended.size)
+    }
+
+    @Test
+    fun `should replay the messages and report them`() {
+        // Given
+        enqueueDeadLetters(EmailPriority.HIGH)
+
+        // When
+        val report = dlqRedrive.redrive(RedriveRequest(mode = RedriveMode.REPLAY, messagesPerSecond = 100.0))
+
+        // Then
+        assertEquals(3, report.received)
+        assertEquals(2, report.redriven)
+        assertEquals(0, report.failed)
+        assertEquals(mapOf("undecodable" to 1), report.skipped)
+    }
+
+    @Test
+    fun `should change nothing in a dry run`() {
+        // Given
+        enqueueDeadLetters(EmailPriority.HIGH)
+
+        // When
+        val report = dlqRedrive.redrive(RedriveRequest(dryRun = true, messagesPerSecond = 100.0))
+
+        // Then
+        assertEquals(2, report.redriven)
+        assertEquals(0, messageSource.receive(EmailPriority.HIGH.queue, 10, 0).size)
+    }
+}
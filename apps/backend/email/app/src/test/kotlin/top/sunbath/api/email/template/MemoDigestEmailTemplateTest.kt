@@ -0,0 +1,42 @@
+package top.sunbath.api.email.template
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/**
+ * Unit tests for the MemoDigestEmailTemplate.
+ */
+class MemoDigestEmailTemplateTest {
+    private val template = MemoDigestEmailTemplate()
+
+    @Test
+    fun `test render lists every memo`() {
+        // When
+        val rendered =
+            template.render(
+                mapOf(
+                    "count" to "2",
+                    "title.0" to "First",
+                    "content.0" to "One",
+                    "reminderTime.0" to "2030-01-01T09:00:00Z",
+                    "title.1" to "<Second>",
+                    "content.1" to "Two",
+                    "reminderTime.1" to "2030-01-01T09:00:30Z",
+                ),
+            )
+
+        // Then
+        assertEquals("Reminder of Your 2 Memos", rendered.subject)
+        assertTrue(rendered.html.contains("First"))
+        assertTrue(rendered.html.contains("&lt;Second&gt;"))
+    }
+
+    @Test
+    fun `test render rejects a missing reminder`() {
+        assertThrows(IllegalArgumentException::class.java) {
+            template.render(mapOf("count" to "2", "title.0" to "First", "reminderTime.0" to "2030-01-01T09:00:00Z"))
+        }
+    }
+}
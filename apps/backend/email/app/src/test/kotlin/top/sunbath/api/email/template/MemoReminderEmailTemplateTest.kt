@@ -0,0 +1,41 @@
+package top.sunbath.api.email.template
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/**
+ * Unit tests for the MemoReminderEmailTemplate.
+ */
+class MemoReminderEmailTemplateTest {
+    private val template = MemoReminderEmailTemplate()
+
+    @Test
+    fun `test render escapes user content`() {
+        // When
+        val rendered =
+            template.render(
+                mapOf(
+                    "title" to "<b>Groceries</b>",
+                    "content" to "Milk & eggs\n<script>alert(1)</script>",
+                    "reminderTime" to "2030-01-01T00:00:00Z",
+                ),
+            )
+
+        // Then - the subject is plain text, the html only contains the escaped values
+        assertEquals("Reminder of Your Memo: [<b>Groceries</b>]", rendered.subject)
+        assertTrue(rendered.html.contains("&lt;b&gt;Groceries&lt;/b&gt;"))
+        assertTrue(rendered.html.contains("Milk &amp; eggs<br>&lt;script&gt;alert(1)&lt;/script&gt;"))
+        assertFalse(rendered.html.contains("<script>"))
+    }
+
+    @Test
+    fun `test render names untitled memos`() {
+        // When
+        val rendered = template.render(mapOf("title" to "", "content" to "", "reminderTime" to "2030-01-01T00:00:00Z"))
+
+        // Then
+        assertEquals("Reminder of Your Memo: [Untitled Memo]", rendered.subject)
+    }
+}
@@ -0,0 +1,184 @@
+package top.sunbath.api.email.webhook
+
+import io.micronaut.context.ApplicationContext
+import io.micronaut.http.HttpStatus
+import io.micronaut.serde.ObjectMapper
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest
+import io.mockk.every
+import io.mockk.mockk
+import jakarta.inject.Inject
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import top.sunbath.api.email.controller.WebhookController
+import top.sunbath.api.email.handler.VendorEventFunctionExecutor
+import top.sunbath.api.email.model.EmailDeliveryStatus
+import top.sunbath.api.email.model.EmailRecord
+import top.sunbath.api.email.repository.EmailRecordRepository
+import top.sunbath.api.email.vendor.VendorEvent
+import top.sunbath.api.email.worker.InMemoryMessageSource
+import top.sunbath.shared.sqs.QueuePublisher
+import java.time.Instant
+import java.time.temporal.ChronoUnit
+import java.util.Base64
+import java.util.UUID
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+@MicronautTest
+class VendorEventWebhookTest {
+    @Inject
+    private lateinit var applicationContext: ApplicationContext
+
+    @Inject
+    private lateinit var controller: WebhookController
+
+    @Inject
+    private lateinit var emailRecordRepository: EmailRecordRepository
+
+    @Inject
+    private lateinit var messageSource: InMemoryMessageSource
+
+    @Inject
+    private lateinit var webhookConfiguration: WebhookConfiguration
+
+    @Inject
+    private lateinit var webhookVerifier: WebhookVerifier
+
+    @Inject
+    private lateinit var objectMapper: ObjectMapper
+
+    private val start = Instant.now().truncatedTo(ChronoUnit.MILLIS)
+
+    private fun bodyOf(
+        type: String,
+        emailId: String,
+        createdAt: Instant,
+    ): String = """{"type":"$type","created_at":"$createdAt","data":{"email_id":"$emailId","to":["history@test.com"]}}"""
+
+    private fun sign(
+        id: String,
+        timestamp: String,
+        body: String,
+    ): String {
+        val mac = Mac.getInstance("HmacSHA256")
+        val key = Base64.getDecoder().decode(webhookConfiguration.signingSecret!!.removePrefix("whsec_"))
+        mac.init(SecretKeySpec(key, "HmacSHA256"))
+        return "v1," + Base64.getEncoder().encodeToString(mac.doFinal("$id.$timestamp.$body".toByteArray()))
+    }
+
+    private fun post(body: String): HttpStatus {
+        val id = "msg_${UUID.randomUUID()}"
+        val timestamp = Instant.now().epochSecond.toString()
+        return controller.resend(id, timestamp, sign(id, timestamp, body), body).status
+    }
+
+    private fun consume(): Set<String> {
+        val records = messageSource.receive(webhookConfiguration.queue, 100, 0)
+        return VendorEventFunctionExecutor(applicationContext).process(records)
+    }
+
+    private fun recordOf(vendorEmailId: String): String =
+        emailRecordRepository
+            .saveAll(listOf(EmailRecord("", "history@test.com", "sender@test.com", "Subject", null, "{}", vendorEmailId = vendorEmailId)))
+            .single()!!
+
+    @Test
+    fun `should collapse the events of an email into its record`() {
+        // Given
+        val vendorEmailId = UUID.randomUUID().toString()
+        val recordId = recordOf(vendorEmailId)
+
+        // When - events arrive out of order
+        listOf(
+            bodyOf(VendorEvent.OPENED, vendorEmailId, start.plusSeconds(30)),
+            bodyOf(VendorEvent.DELIVERED, vendorEmailId, start.plusSeconds(2)),
+            bodyOf(VendorEvent.SENT, vendorEmailId, start),
+            bodyOf(VendorEvent.OPENED, vendorEmailId, start.plusSeconds(10)),
+            bodyOf(VendorEvent.CLICKED, vendorEmailId, start.plusSeconds(40)),
+        ).forEach { assertEquals(HttpStatus.NO_CONTENT, post(it)) }
+        val failed = consume()
+
+        // Then
+        assertTrue(failed.isEmpty())
+        val record = emailRecordRepository.findById(recordId)!!
+        assertEquals(EmailDeliveryStatus.DELIVERED, record.deliveryStatus)
+        assertEquals(start.plusSeconds(2), record.deliveryStatusAt)
+        assertEquals(start.plusSeconds(10), record.openedAt)
+        assertEquals(start.plusSeconds(40), record.clickedAt)
+    }
+
+    @Test
+    fun `should keep a newer status and still record the first open`() {
+        // Given
+        val vendorEmailId = UUID.randomUUID().toString()
+        val recordId = recordOf(vendorEmailId)
+        post(bodyOf(VendorEvent.DELIVERED, vendorEmailId, start.plusSeconds(2)))
+        consume()
+
+        // When - a late event reports an earlier stage
+        post(bodyOf(VendorEvent.SENT, vendorEmailId, start))
+        post(bodyOf(VendorEvent.OPENED, vendorEmailId, start.plusSeconds(5)))
+        val failed = consume()
+
+        // Then
+        assertTrue(failed.isEmpty())
+        val record = emailRecordRepository.findById(recordId)!!
+        assertEquals(EmailDeliveryStatus.DELIVERED, record.deliveryStatus)
+        assertEquals(start.plusSeconds(5), record.openedAt)
+    }
+
+    @Test
+    fun `should retry recent events of unknown emails and drop old ones`() {
+        // Given
+        val outdated = Instant.now().minus(VendorEventProcessor.RECORD_GRACE).minusSeconds(60)
+        post(bodyOf(VendorEvent.DELIVERED, UUID.randomUUID().toString(), Instant.now()))
+        post(bodyOf(VendorEvent.DELIVERED, UUID.randomUUID().toString(), outdated))
+
+        // When
+        val failed = consume()
+
+        // Then - the record of the recent one may not be written yet
+        assertEquals(1, failed.size)
+    }
+
+    @Test
+    fun `should reject requests with an invalid or outdated signature`() {
+        // Given
+        val body = bodyOf(VendorEvent.DELIVERED, UUID.randomUUID().toString(), start)
+        val id = "msg_${UUID.randomUUID()}"
+        val now = Instant.now().epochSecond.toString()
+        val outdated = Instant.now().minus(webhookConfiguration.tolerance).minusSeconds(60).epochSecond.toString()
+
+        // When / Then
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.resend(id, now, sign(id, now, "$body "), body).status)
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.resend(id, outdated, sign(id, outdated, body), body).status)
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.resend(id, now, null, body).status)
+        assertTrue(messageSource.receive(webhookConfiguration.queue, 100, 0).isEmpty())
+    }
+
+    @Test
+    fun `should reject requests without a message ID`() {
+        // Given
+        val body = bodyOf(VendorEvent.DELIVERED, UUID.randomUUID().toString(), start)
+        val now = Instant.now().epochSecond.toString()
+
+        // When / Then
+        assertEquals(HttpStatus.BAD_REQUEST, controller.resend(null, now, sign("", now, body), body).status)
+        assertEquals(HttpStatus.BAD_REQUEST, controller.resend("", now, sign("", now, body), body).status)
+        assertTrue(messageSource.receive(webhookConfiguration.queue, 100, 0).isEmpty())
+    }
+
+    @Test
+    fun `should fail requests whose event the queue did not accept`() {
+        // Given - the vendor retries the request
+        val queuePublisher = mockk<QueuePublisher> { every { sendNow(any(), any()) } returns emptySet() }
+        val rejecting = WebhookController(webhookVerifier, webhookConfiguration, queuePublisher, objectMapper)
+        val body = bodyOf(VendorEvent.DELIVERED, UUID.randomUUID().toString(), start)
+        val id = "msg_${UUID.randomUUID()}"
+        val now = Instant.now().epochSecond.toString()
+
+        // When / Then
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, rejecting.resend(id, now, sign(id, now, body), body).status)
+    }
+}
@@ -0,0 +1,65 @@
+package top.sunbath.api.email.worker
+
+import io.micronaut.context.annotation.Property
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest
+import jakarta.inject.Inject
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import top.sunbath.api.email.integration.TestEmailDataFactory
+import top.sunbath.api.email.integration.TestMessageFactory
+import top.sunbath.shared.types.EmailPriority
+import java.util.UUID
+
+@MicronautTest
+@Property(name = "email-worker.enabled", value = "true")
+@Property(name = "email-worker.wait-time-seconds", value = "1")
+class EmailWorkerTest {
+    @Inject
+    private lateinit var messageSource: InMemoryMessageSource
+
+    private fun awaitDeleted(receiptHandle: String): Boolean {
+        val deadline = System.currentTimeMillis() + 10_000
+        while (System.currentTimeMillis() < deadline) {
+            if (receiptHandle in messageSource.deleted) {
+                return true
+            }
+            Thread.sleep(50)
+        }
+        return false
+    }
+
+    @Test
+    fun `should send and delete the messages of both lanes`() {
+        // Given
+        val high = TestMessageFactory.createEmailMessage(UUID.randomUUID().toString(), TestEmailDataFactory.createEmailData())
+        val low =
+            TestMessageFactory.createEmailMessage(
+                UUID.randomUUID().toString(),
+                TestEmailDataFactory.createEmailData().copy(priority = EmailPriority.LOW),
+            )
+
+        // When
+        val highHandles = messageSource.enqueue(EmailPriority.HIGH.queue, high.records)
+        val lowHandles = messageSource.enqueue(EmailPriority.LOW.queue, low.records)
+
+        // Then
+        assertTrue(awaitDeleted(highHandles.single()))
+        assertTrue(awaitDeleted(lowHandles.single()))
+        assertTrue(messageSource.extended.containsAll(highHandles + lowHandles))
+    }
+
+    @Test
+    fun `should leave a failed message on the queue`() {
+        // Given
+        val valid = TestMessageFactory.createEmailMessage(UUID.randomUUID().toString(), TestEmailDataFactory.createEmailData())
+        val invalid = TestMessageFactory.createInvalidMessage(UUID.randomUUID().toString())
+
+        // When
+        val handles = messageSource.enqueue(EmailPriority.HIGH.queue, TestMessageFactory.batchOf(invalid, valid).records)
+
+        // Then - only the valid message is deleted, the invalid one becomes visible again
+        assertTrue(awaitDeleted(handles[1]))
+        assertFalse(handles[0] in messageSource.deleted)
+    }
+}
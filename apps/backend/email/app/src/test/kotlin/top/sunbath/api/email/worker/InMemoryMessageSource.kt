@@ -0,0 +1,89 @@
+package top.sunbath.api.email.worker
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent
+import io.micronaut.context.annotation.Replaces
+import io.micronaut.context.annotation.Requires
+import io.micronaut.context.env.Environment
+import jakarta.inject.Singleton
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * [MessageSource] stand-in that keeps the queues in memory. Received messages are not redelivered.
+ */
+@Singleton
+@Replaces(SqsMessageSource::class)
+@Requires(env = [Environment.TEST])
+class InMemoryMessageSource : MessageSource {
+    private val queues = ConcurrentHashMap<String, LinkedBlockingQueue<SQSEvent.SQSMessage>>()
+
+    /**
+     * The receipt handles of the deleted messages.
+     */
+    val deleted: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * The receipt handles of the messages whose visibility was extended.
+     */
+    val extended: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Put messages on a queue.
+     * @return The receipt handles of the messages
+     */
+    fun enqueue(
+        queue: String,
+        records: List<SQSEvent.SQSMessage>,
+    ): List<String> =
+        records.map { record ->
+            record.receiptHandle = UUID.randomUUID().toString()
+            queueOf(queue).add(record)
+            record.receiptHandle
+        }
+
+    override fun send(
+        queue: String,
+        bodies: List<String>,
+    ): Set<Int> {
+        enqueue(
+            queue,
+            bodies.map { messageBody ->
+                SQSEvent.SQSMessage().apply {
+                    messageId = UUID.randomUUID().toString()
+                    body = messageBody
+                }
+            },
+        )
+        return bodies.indices.toSet()
+    }
+
+    override fun receive(
+        queue: String,
+        maxMessages: Int,
+        waitTimeSeconds: Int,
+    ): List<SQSEvent.SQSMessage> {
+        val first = queueOf(queue).poll(waitTimeSeconds.toLong(), TimeUnit.SECONDS) ?: return emptyList()
+        val records = mutableListOf(first)
+        queueOf(queue).drainTo(records, maxMessages - 1)
+        return records
+    }
+
+    override fun delete(
+        queue: String,
+        receiptHandles: List<String>,
+    ) {
+        deleted.addAll(receiptHandles)
+    }
+
+    override fun extendVisibility(
+        queue: String,
+        receiptHandles: List<String>,
+        timeoutSeconds: Int,
+    ) {
+        extended.addAll(receiptHandles)
+    }
+
+    private fun queueOf(queue: String) = queues.computeIfAbsent(queue) { LinkedBlockingQueue() }
+}
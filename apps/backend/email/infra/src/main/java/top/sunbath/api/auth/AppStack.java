@@ -8,6 +8,10 @@ import software.amazon.awscdk.CfnOutput;
 import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.aws_apigatewayv2_integrations.HttpLambdaIntegration;
+import software.amazon.awscdk.services.apigatewayv2.*;
+import software.amazon.awscdk.services.cloudwatch.Alarm;
+import software.amazon.awscdk.services.cloudwatch.ComparisonOperator;
 import software.amazon.awscdk.services.dynamodb.*;
 import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.iam.Effect;
@@ -41,26 +45,38 @@ public class AppStack extends Stack {
                 var emailQueueDlq = Queue.Builder.create(this, serviceName + "-dlq").queueName(serviceName + "-dlq")
                                 .retentionPeriod(Duration.days(14)).build();
 
+                // While the vendor circuit is open every invocation fails its records right away, so the receives
+                // of a message have to span a vendor outage: 10 receives 3 minutes apart hold out for half an hour.
+                // The pending claim lease of the function outlasts them.
+                var maxReceiveCount = 10;
+
                 // Create main queue with DLQ
                 var emailQueue = Queue.Builder.create(this, serviceName + "-queue").queueName(serviceName + "-queue")
                                 .retentionPeriod(Duration.days(14))
                                 // according to SQS docs, the visibility timeout should be at least 6 times
                                 // the maximum timeout of the lambda function
                                 .visibilityTimeout(Duration.seconds(30 * 6)).deadLetterQueue(DeadLetterQueue.builder()
-                                                .maxReceiveCount(3).queue(emailQueueDlq).build())
+                                                .maxReceiveCount(maxReceiveCount).queue(emailQueueDlq).build())
                                 .build();
 
-                // Create Dead Letter Queue
-                var preventEmailJobQueueDlq = Queue.Builder.create(this, serviceName + "-cancel-dlq")
-                                .queueName("prevent-email-job-dlq").retentionPeriod(Duration.days(14)).build();
+                // Low-priority lane, reminders wait here instead of in front of transactional email
+                var lowPriorityQueueDlq = Queue.Builder.create(this, serviceName + "-low-priority-dlq")
+                                .queueName(serviceName + "-low-priority-dlq").retentionPeriod(Duration.days(14)).build();
 
-                // Create prevent email job queue with DLQ
-                var preventEmailJobQueue = Queue.Builder.create(this, serviceName + "-cancel-queue")
-                                .queueName("prevent-email-job-queue").retentionPeriod(Duration.days(14))
-                                // according to SQS docs, the visibility timeout should be at least 6 times
-                                // the maximum timeout of the lambda function
+                var lowPriorityQueue = Queue.Builder.create(this, serviceName + "-low-priority-queue")
+                                .queueName(serviceName + "-low-priority-queue").retentionPeriod(Duration.days(14))
+                                .visibilityTimeout(Duration.seconds(30 * 6)).deadLetterQueue(DeadLetterQueue.builder()
+                                                .maxReceiveCount(maxReceiveCount).queue(lowPriorityQueueDlq).build())
+                                .build();
+
+                // Delivery events of the vendor, queued by the webhook and applied to the email records in batches
+                var eventsQueueDlq = Queue.Builder.create(this, serviceName + "-events-dlq")
+                                .queueName(serviceName + "-events-dlq").retentionPeriod(Duration.days(14)).build();
+
+                var eventsQueue = Queue.Builder.create(this, serviceName + "-events-queue")
+                                .queueName(serviceName + "-events-queue").retentionPeriod(Duration.days(4))
                                 .visibilityTimeout(Duration.seconds(30 * 6)).deadLetterQueue(DeadLetterQueue.builder()
-                                                .maxReceiveCount(3).queue(preventEmailJobQueueDlq).build())
+                                                .maxReceiveCount(5).queue(eventsQueueDlq).build())
                                 .build();
 
                 Map<String, String> environmentVariables = new HashMap<>();
@@ -79,20 +95,13 @@ public class AppStack extends Stack {
                                 .tracing(Tracing.ACTIVE).architecture(Architecture.X86_64)
                                 .snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS).build();
 
-                var cancelEmailJobFunction = MicronautFunction
-                                .create(ApplicationType.DEFAULT, false, this, serviceName + "-cancel-function")
-                                .runtime(Runtime.JAVA_21)
-                                .handler("top.sunbath.api.email.handler.CancelEmailFunctionHandler")
-                                .environment(environmentVariables).code(Code.fromAsset(functionPath()))
-                                .timeout(Duration.seconds(30)).memorySize(512).logRetention(RetentionDays.ONE_WEEK)
-                                .build();
-
-                // Set reserved concurrent executions to 1
+                // Set reserved concurrent executions to 1, the rate limiter of a single container then holds globally
                 CfnFunction cfnFunction = (CfnFunction) emailFunction.getNode().getDefaultChild();
                 cfnFunction.setReservedConcurrentExecutions(1);
 
                 // Grant SQS permissions to Lambda
                 emailQueue.grantConsumeMessages(emailFunction);
+                lowPriorityQueue.grantConsumeMessages(emailFunction);
                 // Grant DLQ send permissions to queue
                 PolicyStatement dlqAccessPolicy = PolicyStatement.Builder.create()
                                 .actions(Arrays.asList("sqs:SendMessage"))
@@ -101,15 +110,25 @@ public class AppStack extends Stack {
                                 .conditions(Map.of("ArnEquals", Map.of("aws:SourceArn", emailQueue.getQueueArn())))
                                 .build();
                 emailQueueDlq.addToResourcePolicy(dlqAccessPolicy);
-
-                PolicyStatement preventDlqAccessPolicy = PolicyStatement.Builder.create()
+                lowPriorityQueueDlq.addToResourcePolicy(PolicyStatement.Builder.create()
                                 .actions(Arrays.asList("sqs:SendMessage"))
-                                .resources(Arrays.asList(preventEmailJobQueueDlq.getQueueArn()))
+                                .resources(Arrays.asList(lowPriorityQueueDlq.getQueueArn()))
                                 .principals(Arrays.asList(new ServicePrincipal("lambda.amazonaws.com")))
                                 .conditions(Map.of("ArnEquals",
-                                                Map.of("aws:SourceArn", preventEmailJobQueue.getQueueArn())))
+                                                Map.of("aws:SourceArn", lowPriorityQueue.getQueueArn())))
+                                .build());
+
+                // Queue age per lane, a high-priority email should go out within a minute
+                Alarm.Builder.create(this, "QueueAgeAlarm")
+                                .alarmDescription("Transactional email waits longer than a minute")
+                                .metric(emailQueue.metricApproximateAgeOfOldestMessage()).threshold(60)
+                                .evaluationPeriods(1).comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                                .build();
+                Alarm.Builder.create(this, "LowPriorityQueueAgeAlarm")
+                                .alarmDescription("Reminder email waits longer than 15 minutes")
+                                .metric(lowPriorityQueue.metricApproximateAgeOfOldestMessage()).threshold(15 * 60)
+                                .evaluationPeriods(1).comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
                                 .build();
-                preventEmailJobQueueDlq.addToResourcePolicy(preventDlqAccessPolicy);
 
                 // Output queue information
                 CfnOutput.Builder.create(this, "QueueUrl").exportName(serviceName + "-queue-url")
@@ -118,6 +137,12 @@ public class AppStack extends Stack {
                 CfnOutput.Builder.create(this, "DlqUrl").exportName(serviceName + "-dlq-url")
                                 .value(emailQueueDlq.getQueueUrl()).build();
 
+                CfnOutput.Builder.create(this, "LowPriorityQueueUrl").exportName(serviceName + "-low-priority-queue-url")
+                                .value(lowPriorityQueue.getQueueUrl()).build();
+
+                CfnOutput.Builder.create(this, "LowPriorityDlqUrl").exportName(serviceName + "-low-priority-dlq-url")
+                                .value(lowPriorityQueueDlq.getQueueUrl()).build();
+
                 // 获取当前区域和账户 ID
                 String region = this.getRegion();
                 String accountId = this.getAccount();
@@ -134,20 +159,12 @@ public class AppStack extends Stack {
                 // 授予 Lambda 函数对 DynamoDB 表的读写权限
                 singleTable.grantReadWriteData(emailFunction);
                 distributedLocksTable.grantReadWriteData(emailFunction);
-                singleTable.grantReadWriteData(cancelEmailJobFunction);
-                distributedLocksTable.grantReadWriteData(cancelEmailJobFunction);
 
                 // 额外授予 Lambda 函数创建和管理索引的权限
                 emailFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
                                 .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
-                                                "dynamodb:CreateTable"))
-                                .resources(Arrays.asList(singleTable.getTableArn(),
-                                                // index
-                                                singleTable.getTableArn() + "/*", distributedLocksArn))
-                                .build());
-                cancelEmailJobFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
-                                .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
-                                                "dynamodb:CreateTable"))
+                                                "dynamodb:CreateTable", "dynamodb:DescribeTimeToLive",
+                                                "dynamodb:UpdateTimeToLive"))
                                 .resources(Arrays.asList(singleTable.getTableArn(),
                                                 // index
                                                 singleTable.getTableArn() + "/*", distributedLocksArn))
@@ -159,12 +176,12 @@ public class AppStack extends Stack {
                                                 // index
                                                 singleTable.getTableArn() + "/*", distributedLocksArn))
                                 .build());
-                cancelEmailJobFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
-                                .actions(Arrays.asList("dynamodb:Query", "dynamodb:Scan", "dynamodb:GetItem",
-                                                "dynamodb:PutItem", "dynamodb:UpdateItem", "dynamodb:DeleteItem"))
-                                .resources(Arrays.asList(singleTable.getTableArn(),
-                                                // index
-                                                singleTable.getTableArn() + "/*", distributedLocksArn))
+
+                // Reminders are checked against their schedule in the memo table right before they are sent
+                emailFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("dynamodb:BatchGetItem"))
+                                .resources(Arrays.asList(String.format("arn:aws:dynamodb:%s:%s:table/memo-service-single-table",
+                                                region, accountId)))
                                 .build());
 
                 String ssmParameterArn = String.format("arn:aws:ssm:%s:%s:parameter/auth/resend/api-key", region,
@@ -174,26 +191,122 @@ public class AppStack extends Stack {
                 emailFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
                                 .actions(Arrays.asList("ssm:GetParameter")).resources(Arrays.asList(ssmParameterArn))
                                 .build());
-                cancelEmailJobFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
-                                .actions(Arrays.asList("ssm:GetParameter")).resources(Arrays.asList(ssmParameterArn))
-                                .build());
 
                 var currentEmailFunctionVersion = emailFunction.getCurrentVersion();
                 var emailFunctionProdAlias = Alias.Builder.create(this, "ProdAlias").aliasName("Prod")
                                 .version(currentEmailFunctionVersion).build();
-                var currentCancelEmailJobFunctionVersion = cancelEmailJobFunction.getCurrentVersion();
-                var cancelEmailJobFunctionProdAlias = Alias.Builder.create(this, "CancelEmailJobProdAlias")
-                                .aliasName("Prod").version(currentCancelEmailJobFunctionVersion).build();
 
                 // Create SQS event source mapping
                 SqsEventSource emailEventSource = SqsEventSource.Builder.create(emailQueue)
-                                // Process one message at a time due to rate limit
-                                .batchSize(1).build();
+                                // The function paces the sends of a batch to the vendor rate limit
+                                // and stores their records with one batch write
+                                .batchSize(10)
+                                // Only the records reported as failed are retried
+                                .reportBatchItemFailures(true).build();
                 emailFunctionProdAlias.addEventSource(emailEventSource);
+                emailFunctionProdAlias.addEventSource(SqsEventSource.Builder.create(lowPriorityQueue).batchSize(10)
+                                .reportBatchItemFailures(true).build());
 
-                SqsEventSource cancelEmailEventSource = SqsEventSource.Builder.create(preventEmailJobQueue).batchSize(1)
+                // Redrive of the dead-letter queues, invoked by hand after an outage
+                var redriveFunction = MicronautFunction
+                                .create(ApplicationType.DEFAULT, false, this, serviceName + "-redrive-function")
+                                .functionName(serviceName + "-redrive-function").runtime(Runtime.JAVA_21)
+                                .handler("top.sunbath.api.email.handler.DlqRedriveFunctionHandler")
+                                .environment(environmentVariables).code(Code.fromAsset(functionPath()))
+                                .timeout(Duration.minutes(15)).memorySize(512).logRetention(RetentionDays.ONE_WEEK)
+                                .tracing(Tracing.ACTIVE).architecture(Architecture.X86_64).build();
+                emailQueueDlq.grantConsumeMessages(redriveFunction);
+                lowPriorityQueueDlq.grantConsumeMessages(redriveFunction);
+                emailQueue.grantSendMessages(redriveFunction);
+                lowPriorityQueue.grantSendMessages(redriveFunction);
+                // The replay mode sends the emails itself
+                singleTable.grantReadWriteData(redriveFunction);
+                redriveFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
+                                                "dynamodb:CreateTable", "dynamodb:DescribeTimeToLive",
+                                                "dynamodb:UpdateTimeToLive"))
+                                .resources(Arrays.asList(singleTable.getTableArn(), singleTable.getTableArn() + "/*"))
+                                .build());
+                redriveFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("ssm:GetParameter")).resources(Arrays.asList(ssmParameterArn))
+                                .build());
+
+                // Admin API over the email records, separate from the SQS consumer and its reserved concurrency
+                var apiFunction = MicronautFunction
+                                .create(ApplicationType.DEFAULT, false, this, serviceName + "-api-function")
+                                .runtime(Runtime.JAVA_21)
+                                .handler("io.micronaut.function.aws.proxy.payload2.APIGatewayV2HTTPEventFunction")
+                                .environment(environmentVariables).code(Code.fromAsset(functionPath()))
+                                .timeout(Duration.seconds(10)).memorySize(512).logRetention(RetentionDays.ONE_WEEK)
+                                .tracing(Tracing.ACTIVE).architecture(Architecture.X86_64)
+                                .snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS).build();
+                // The suppression endpoint writes to the table, the webhook only queues events
+                singleTable.grantReadWriteData(apiFunction);
+                eventsQueue.grantSendMessages(apiFunction);
+                distributedLocksTable.grantReadWriteData(apiFunction);
+                apiFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
+                                                "dynamodb:CreateTable", "dynamodb:DescribeTimeToLive",
+                                                "dynamodb:UpdateTimeToLive"))
+                                .resources(Arrays.asList(singleTable.getTableArn(), singleTable.getTableArn() + "/*"))
+                                .build());
+
+                var apiFunctionProdAlias = Alias.Builder.create(this, "ApiProdAlias").aliasName("Prod")
+                                .version(apiFunction.getCurrentVersion()).build();
+                HttpApi httpApi = HttpApi.Builder.create(this, serviceName + "-http-api")
+                                .defaultIntegration(HttpLambdaIntegration.Builder
+                                                .create("LambdaIntegration", apiFunctionProdAlias).build())
+                                .corsPreflight(CorsPreflightOptions.builder()
+                                                .allowOrigins(Arrays.asList("https://sunbath.top",
+                                                                "http://localhost:4200"))
+                                                .allowMethods(Arrays.asList(CorsHttpMethod.GET, CorsHttpMethod.OPTIONS))
+                                                .allowHeaders(Arrays.asList("Content-Type", "Authorization",
+                                                                "X-Amz-Date", "X-Api-Key"))
+                                                .allowCredentials(true).maxAge(Duration.days(1)).build())
                                 .build();
-                cancelEmailJobFunctionProdAlias.addEventSource(cancelEmailEventSource);
+
+                // 配置自定义域名
+                var domainName = "api.sunbath.top";
+                var basePath = "email";
+                var domainNameV2 = DomainName.fromDomainNameAttributes(this, "ApiDomainNameV2",
+                                DomainNameAttributes.builder().name(domainName).regionalHostedZoneId("ZL327KTPIQFUL")
+                                                .regionalDomainName("d-she55i1zs4.execute-api.ap-southeast-1.amazonaws.com")
+                                                .build());
+                ApiMapping.Builder.create(this, serviceName + "-api-mapping").api(httpApi).domainName(domainNameV2)
+                                .apiMappingKey(basePath).stage(httpApi.getDefaultStage()).build();
+
+                apiFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("ssm:GetParameter"))
+                                .resources(Arrays.asList(String.format("arn:aws:ssm:%s:%s:parameter/email/resend/webhook-secret",
+                                                region, accountId)))
+                                .build());
+
+                var eventsFunction = MicronautFunction
+                                .create(ApplicationType.DEFAULT, false, this, serviceName + "-events-function")
+                                .runtime(Runtime.JAVA_21)
+                                .handler("top.sunbath.api.email.handler.VendorEventFunctionHandler")
+                                .environment(environmentVariables).code(Code.fromAsset(functionPath()))
+                                .timeout(Duration.seconds(30)).memorySize(512).logRetention(RetentionDays.ONE_WEEK)
+                                .tracing(Tracing.ACTIVE).architecture(Architecture.X86_64)
+                                .snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS).build();
+                eventsQueue.grantConsumeMessages(eventsFunction);
+                singleTable.grantReadWriteData(eventsFunction);
+                distributedLocksTable.grantReadWriteData(eventsFunction);
+                eventsFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
+                                                "dynamodb:CreateTable", "dynamodb:DescribeTimeToLive",
+                                                "dynamodb:UpdateTimeToLive"))
+                                .resources(Arrays.asList(singleTable.getTableArn(), singleTable.getTableArn() + "/*"))
+                                .build());
+                var eventsFunctionProdAlias = Alias.Builder.create(this, "EventsProdAlias").aliasName("Prod")
+                                .version(eventsFunction.getCurrentVersion()).build();
+                eventsFunctionProdAlias.addEventSource(SqsEventSource.Builder.create(eventsQueue)
+                                // A burst is collected into large batches, whose events collapse per email
+                                .batchSize(100).maxBatchingWindow(Duration.seconds(10))
+                                .reportBatchItemFailures(true).build());
+
+                CfnOutput.Builder.create(this, "EmailApiUrl").exportName("EmailApiUrl")
+                                .value("https://" + domainName + "/" + basePath).build();
 
                 // 输出 DynamoDB 表名
                 CfnOutput.Builder.create(this, "SingleTableName").exportName(serviceName + "-SingleTableName")
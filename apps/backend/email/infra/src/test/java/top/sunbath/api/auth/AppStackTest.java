@@ -5,6 +5,7 @@ import software.amazon.awscdk.App;
 import software.amazon.awscdk.assertions.Template;
 import java.io.File;
 import java.util.Collections;
+import java.util.List;
 
 class AppStackTest {
 
@@ -16,7 +17,16 @@ class AppStackTest {
             template.hasResourceProperties("AWS::Lambda::Function",
                     Collections.singletonMap("Handler", "top.sunbath.api.email.handler.EmailFunctionHandler"));
             template.hasResourceProperties("AWS::Lambda::Function",
-                    Collections.singletonMap("Handler", "top.sunbath.api.email.handler.CancelEmailFunctionHandler"));
+                    Collections.singletonMap("Handler", "top.sunbath.api.email.handler.DlqRedriveFunctionHandler"));
+            template.hasResourceProperties("AWS::Lambda::Function", Collections.singletonMap("Handler",
+                    "io.micronaut.function.aws.proxy.payload2.APIGatewayV2HTTPEventFunction"));
+            template.hasResourceProperties("AWS::Lambda::EventSourceMapping",
+                    Collections.singletonMap("FunctionResponseTypes", List.of("ReportBatchItemFailures")));
+            template.hasResourceProperties("AWS::Lambda::Function",
+                    Collections.singletonMap("Handler", "top.sunbath.api.email.handler.VendorEventFunctionHandler"));
+            template.resourceCountIs("AWS::Lambda::EventSourceMapping", 3);
+            template.hasResourceProperties("AWS::SQS::Queue",
+                    Collections.singletonMap("QueueName", "email-low-priority-queue"));
         }
     }
 }
\ No newline at end of file
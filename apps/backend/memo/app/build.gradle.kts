@@ -58,6 +58,7 @@ dependencies {
 
     // AWS SDK Dependencies
     implementation(libs.aws.dynamodb)
+    implementation(libs.aws.lambda.java.events)
     implementation(libs.aws.sqs)
 
     // Other Third-Party Dependencies
@@ -6,6 +6,7 @@ import io.micronaut.context.event.ApplicationEventListener
 import io.micronaut.context.event.StartupEvent
 import jakarta.inject.Singleton
 import top.sunbath.api.memo.repository.impl.DefaultMemoRepository
+import top.sunbath.api.memo.repository.impl.DefaultOutboxRepository
 
 @Requires(property = "dynamodb-local.host")
 @Requires(property = "dynamodb-local.port")
@@ -13,6 +14,8 @@ import top.sunbath.api.memo.repository.impl.DefaultMemoRepository
 @Singleton
 open class DevBootstrap(
     private val dynamoMemoRepository: DefaultMemoRepository,
+    // Injected so that the outbox index is registered before the table is created
+    @Suppress("unused") private val dynamoOutboxRepository: DefaultOutboxRepository,
 ) : ApplicationEventListener<StartupEvent> {
     override fun onApplicationEvent(event: StartupEvent) {
         if (!dynamoMemoRepository.existsTable()) {
@@ -0,0 +1,24 @@
+package top.sunbath.api.memo.factory
+
+import io.micronaut.context.annotation.Factory
+import jakarta.inject.Singleton
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import top.sunbath.api.memo.service.OutboxRelay
+import top.sunbath.shared.dynamodb.DynamoDbLock
+
+/**
+ * Factory for creating the distributed lock guarding the outbox relay.
+ */
+@Factory
+class DynamoDbLockFactory(
+    private val dynamoDbClient: DynamoDbClient,
+) {
+    /**
+     * Creates a lock that expires shortly after the longest possible sweep,
+     * so a crashed relay does not block the next one for long.
+     *
+     * @return Configured DynamoDB lock
+     */
+    @Singleton
+    fun dynamoDbLock(): DynamoDbLock = DynamoDbLock(dynamoDbClient, lockTimeoutSeconds = OutboxRelay.LOCK_TIMEOUT_SECONDS)
+}
@@ -0,0 +1,25 @@
+package top.sunbath.api.memo.handler
+
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.function.aws.MicronautRequestHandler
+import org.slf4j.LoggerFactory
+import top.sunbath.api.memo.service.OutboxRelay
+
+/**
+ * This handler sweeps the notification outbox. It is triggered by an EventBridge schedule.
+ *
+ * In the Lambda environment, this handler is not managed by the Micronaut container,
+ *  but instead achieves dependency injection through the MicronautRequestHandler base class creating and managing the ApplicationContext.
+ */
+@Introspected
+open class OutboxRelayFunctionHandler : MicronautRequestHandler<ScheduledEvent, String>() {
+    private val log = LoggerFactory.getLogger(OutboxRelayFunctionHandler::class.java)
+
+    override fun execute(input: ScheduledEvent): String {
+        val outboxRelay = super.getApplicationContext().getBean(OutboxRelay::class.java)
+        val processed = outboxRelay.sweep()
+        log.info("Swept $processed outbox messages")
+        return "Swept $processed"
+    }
+}
@@ -0,0 +1,29 @@
+package top.sunbath.api.memo.job
+
+import io.micronaut.context.annotation.Requires
+import io.micronaut.context.env.Environment
+import io.micronaut.scheduling.annotation.Scheduled
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.memo.service.OutboxRelay
+
+/**
+ * Sweeps the notification outbox in the background during local development.
+ * In production the outbox is swept by the [top.sunbath.api.memo.handler.OutboxRelayFunctionHandler].
+ */
+@Requires(env = [Environment.DEVELOPMENT])
+@Singleton
+open class OutboxRelayJob(
+    private val outboxRelay: OutboxRelay,
+) {
+    private val logger = LoggerFactory.getLogger(OutboxRelayJob::class.java)
+
+    @Scheduled(fixedDelay = "10s", initialDelay = "10s")
+    open fun sweep() {
+        try {
+            outboxRelay.sweep()
+        } catch (e: Exception) {
+            logger.error("Error sweeping the outbox", e)
+        }
+    }
+}
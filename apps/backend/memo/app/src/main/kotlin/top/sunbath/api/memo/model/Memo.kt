@@ -91,6 +91,28 @@ class Memo :
         this.updatedAt = updatedAt
     }
 
+    /**
+     * Returns a copy of this memo with the given changes applied and a fresh updatedAt.
+     */
+    fun copyWith(
+        title: String = this.title,
+        content: String = this.content,
+        reminderTime: Instant? = this.reminderTime,
+        isCompleted: Boolean = this.isCompleted,
+        isDeleted: Boolean = this.isDeleted,
+    ): Memo =
+        Memo(
+            id = id,
+            title = title,
+            content = content,
+            reminderTime = reminderTime,
+            userId = userId,
+            isCompleted = isCompleted,
+            isDeleted = isDeleted,
+            createdAt = createdAt,
+            updatedAt = Instant.now(),
+        )
+
     /**
      * Returns index values for this user.
      */
@@ -5,18 +5,27 @@ import io.micronaut.core.annotation.Introspected
 import io.micronaut.core.annotation.NonNull
 import io.micronaut.core.annotation.Nullable
 import io.micronaut.serde.annotation.Serdeable
+import top.sunbath.shared.dynamodb.CollectionMember
 import top.sunbath.shared.dynamodb.Identified
 import top.sunbath.shared.dynamodb.Indexable
 import java.time.Instant
 
 /**
  * A NotificationSchedule entity.
+ *
+ * The schedule shares the ID of its memo and is stored in the memo's item collection,
+ * so the memo and its schedule are loaded with one Query.
+ *
+ * Every reschedule or cancellation increments the [version]. Reminder messages carry the version they were
+ * scheduled with, so a reminder is stale as soon as the versions differ. A cancelled schedule is kept
+ * without notification and reminder time, so its version keeps increasing if the memo is scheduled again.
  */
 @Introspected
 @Serdeable
 class NotificationSchedule :
     Identified,
-    Indexable {
+    Indexable,
+    CollectionMember {
     @get:NonNull
     override var id: String = ""
 
@@ -32,6 +41,12 @@ class NotificationSchedule :
     @get:Nullable
     var reminderTime: Instant? = null
 
+    /**
+     * Schedules written before versioning are at version 0.
+     */
+    @get:NonNull
+    var version: Long = 0
+
     /**
      * Default constructor.
      */
@@ -47,14 +62,20 @@ class NotificationSchedule :
         createdAt: Instant,
         updatedAt: Instant,
         reminderTime: Instant?,
+        version: Long,
     ) {
         this.id = id
         this.notificationId = notificationId
         this.createdAt = createdAt
         this.updatedAt = updatedAt
         this.reminderTime = reminderTime
+        this.version = version
     }
 
+    override fun parentClass(): Class<*> = Memo::class.java
+
+    override fun parentId(): String = id
+
     /**
      * Returns index values for this user.
      */
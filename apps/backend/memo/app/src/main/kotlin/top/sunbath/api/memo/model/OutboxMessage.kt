@@ -0,0 +1,146 @@
+package top.sunbath.api.memo.model
+
+import io.micronaut.core.annotation.Creator
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import io.micronaut.serde.annotation.Serdeable
+import top.sunbath.shared.dynamodb.CollectionMember
+import top.sunbath.shared.dynamodb.Identified
+import top.sunbath.shared.dynamodb.Indexable
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+
+/**
+ * The kind of side effect an outbox message stands for.
+ */
+enum class OutboxMessageType {
+    /**
+     * Send the reminder email of a memo.
+     */
+    REMIND,
+}
+
+/**
+ * An OutboxMessage entity.
+ *
+ * A pending notification side effect, written in the same transaction as the memo change that caused it
+ * and delivered later by the outbox relay. It lives in the memo's item collection and is listed
+ * through the sparse outbox index, which only contains pending messages.
+ *
+ * The index is partitioned into one-minute buckets by the time the message is due, so the relay
+ * only ever reads the buckets that are about to become due.
+ *
+ * A reminder carries the version of the notification schedule it was created with. It is never
+ * cancelled explicitly: once the schedule has moved on to another version, the relay drops it as stale, or
+ * the email service does if it was handed over already.
+ */
+@Introspected
+@Serdeable
+class OutboxMessage :
+    Identified,
+    Indexable,
+    CollectionMember {
+    companion object {
+        const val OUTBOX_PK = "OUTBOX_PK"
+        const val OUTBOX_SK = "OUTBOX_SK"
+        private const val OUTBOX_PK_PREFIX = "OUTBOX#"
+
+        /**
+         * The bucket a point in time falls into, in minutes since the epoch.
+         */
+        fun bucketOf(instant: Instant): Long = TimeUnit.MILLISECONDS.toMinutes(instant.toEpochMilli())
+
+        /**
+         * The outbox index partition key of a bucket.
+         */
+        fun bucketKey(bucket: Long): String = "$OUTBOX_PK_PREFIX$bucket"
+    }
+
+    @get:NonNull
+    override var id: String = ""
+
+    @get:NonNull
+    var memoId: String = ""
+
+    @get:NonNull
+    var type: OutboxMessageType = OutboxMessageType.REMIND
+
+    @get:NonNull
+    var notificationId: String = ""
+
+    @get:Nullable
+    var recipient: String? = null
+
+    @get:NonNull
+    var attempts: Int = 0
+
+    @get:NonNull
+    var createdAt: Instant = Instant.now()
+
+    /**
+     * The version of the notification schedule the message was created for.
+     */
+    @get:NonNull
+    var version: Long = 0
+
+    /**
+     * When the message should take effect. Reminders are due shortly before the reminder time.
+     */
+    @get:NonNull
+    var dueAt: Instant = Instant.now()
+
+    /**
+     * The bucket the message is listed in. It starts as the bucket of [dueAt] and moves forward
+     * when a delivery attempt fails.
+     */
+    @get:NonNull
+    var bucket: Long = bucketOf(dueAt)
+
+    /**
+     * Default constructor.
+     */
+    constructor()
+
+    /**
+     * Constructor with all properties.
+     */
+    @Creator
+    constructor(
+        id: String,
+        memoId: String,
+        type: OutboxMessageType,
+        notificationId: String,
+        recipient: String?,
+        attempts: Int,
+        createdAt: Instant,
+        version: Long,
+        dueAt: Instant,
+        bucket: Long,
+    ) {
+        this.id = id
+        this.memoId = memoId
+        this.type = type
+        this.notificationId = notificationId
+        this.recipient = recipient
+        this.attempts = attempts
+        this.createdAt = createdAt
+        this.version = version
+        this.dueAt = dueAt
+        this.bucket = bucket
+    }
+
+    override fun parentClass(): Class<*> = Memo::class.java
+
+    override fun parentId(): String = memoId
+
+    /**
+     * Returns index values for this message.
+     */
+    override fun getIndexValues(): Map<String, String> = mapOf(OUTBOX_PK to bucketKey(bucket))
+
+    /**
+     * Messages within a bucket are relayed in the order they become due.
+     */
+    override fun getNumericIndexValues(): Map<String, Long> = mapOf(OUTBOX_SK to dueAt.toEpochMilli())
+}
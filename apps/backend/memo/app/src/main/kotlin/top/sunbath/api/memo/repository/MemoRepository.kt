@@ -6,6 +6,8 @@ import io.micronaut.core.annotation.Nullable
 import io.micronaut.serde.annotation.Serdeable
 import jakarta.validation.constraints.NotBlank
 import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.NotificationSchedule
+import top.sunbath.shared.dynamodb.TransactionOperation
 import java.time.Instant
 
 @Introspected
@@ -36,6 +38,14 @@ data class MemoSort(
     val sortKey: MemoSortKey? = MemoSortKey.CREATED_AT,
 )
 
+/**
+ * A memo together with its notification schedule, loaded from the memo's item collection.
+ */
+data class MemoWithSchedule(
+    val memo: Memo,
+    val schedule: NotificationSchedule?,
+)
+
 /**
  * Repository interface for Memo entity operations.
  */
@@ -64,6 +74,26 @@ interface MemoRepository {
         @NonNull @NotBlank id: String,
     ): Memo?
 
+    /**
+     * Find memos and their notification schedules by the memo IDs with strongly consistent batched reads.
+     * Schedules that have not moved into the memo's item collection yet are not included.
+     * @param ids The memo IDs
+     * @return The memos that exist with their schedules, in no particular order
+     */
+    @NonNull
+    fun findAllWithSchedules(
+        @NonNull ids: Collection<String>,
+    ): List<MemoWithSchedule>
+
+    /**
+     * Find a memo and its notification schedule with a single Query.
+     * @param id The memo ID
+     * @return The memo and its schedule if the memo is found
+     */
+    fun findWithSchedule(
+        @NonNull @NotBlank id: String,
+    ): MemoWithSchedule?
+
     /**
      * Save a new memo.
      */
@@ -75,6 +105,38 @@ interface MemoRepository {
         @NonNull reminderTime: Instant?,
     ): String
 
+    /**
+     * Build a new memo with a generated ID without writing it.
+     */
+    @NonNull
+    fun newMemo(
+        @NonNull @NotBlank userId: String,
+        @NonNull @NotBlank title: String,
+        @NonNull @NotBlank content: String,
+        reminderTime: Instant?,
+    ): Memo
+
+    /**
+     * Build the transaction operation writing a new memo. It fails if the memo already exists.
+     */
+    @NonNull
+    fun createOperation(
+        @NonNull memo: Memo,
+    ): TransactionOperation
+
+    /**
+     * Build the transaction operation replacing an existing memo. It fails if the memo does not exist.
+     */
+    @NonNull
+    fun updateOperation(
+        @NonNull memo: Memo,
+    ): TransactionOperation
+
+    /**
+     * Write memo and schedule operations atomically with one TransactWriteItems call.
+     */
+    fun transactWrite(operations: List<TransactionOperation>)
+
     /**
      * Update an existing memo.
      */
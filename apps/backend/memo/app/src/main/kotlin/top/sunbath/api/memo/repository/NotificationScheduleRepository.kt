@@ -3,12 +3,26 @@ package top.sunbath.api.memo.repository
 import io.micronaut.core.annotation.NonNull
 import jakarta.validation.constraints.NotBlank
 import top.sunbath.api.memo.model.NotificationSchedule
+import top.sunbath.shared.dynamodb.TransactionOperation
+import top.sunbath.shared.types.VersionCheck
 import java.time.Instant
 
 /**
  * Repository interface for Memo entity operations.
  */
 interface NotificationScheduleRepository {
+    companion object {
+        /**
+         * The label of schedule writes, whose condition fails if the schedule was changed concurrently.
+         */
+        const val SCHEDULE_LABEL = "notificationSchedule"
+
+        /**
+         * The source of version checks on schedules, the email service maps it to the table of this service.
+         */
+        const val VERSION_CHECK_SOURCE = "memo"
+    }
+
     /**
      * Find a notification schedule by ID.
      * @param id The notification schedule ID
@@ -20,7 +34,7 @@ interface NotificationScheduleRepository {
     ): NotificationSchedule?
 
     /**
-     * Save a new notification schedule.
+     * Save a new notification schedule at version 1.
      */
     @NonNull
     fun save(
@@ -29,6 +43,42 @@ interface NotificationScheduleRepository {
         @NonNull reminderTime: Instant,
     ): String
 
+    /**
+     * Build the transaction operations saving a notification schedule.
+     * They fail if the stored schedule is not at the previous version, i.e. it was changed concurrently.
+     * @param version The new version of the schedule
+     */
+    @NonNull
+    fun saveOperations(
+        @NonNull @NotBlank id: String,
+        @NonNull @NotBlank notificationId: String,
+        @NonNull reminderTime: Instant,
+        version: Long,
+    ): List<TransactionOperation>
+
+    /**
+     * Build the transaction operations cancelling a notification schedule.
+     * The schedule is kept without notification at the new version, so pending reminders become stale.
+     * They fail if the stored schedule is not at the previous version, i.e. it was changed concurrently.
+     * @param version The new version of the schedule
+     */
+    @NonNull
+    fun cancelOperations(
+        @NonNull @NotBlank id: String,
+        version: Long,
+    ): List<TransactionOperation>
+
+    /**
+     * Build the check a reminder email carries, so the email service drops it once the schedule moved on.
+     * @param id The notification schedule ID
+     * @param version The version the reminder was scheduled with
+     */
+    @NonNull
+    fun versionCheckOf(
+        @NonNull @NotBlank id: String,
+        version: Long,
+    ): VersionCheck
+
     /**
      * Delete an existing notification schedule.
      */
@@ -0,0 +1,75 @@
+package top.sunbath.api.memo.repository
+
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import jakarta.validation.constraints.NotBlank
+import top.sunbath.api.memo.model.OutboxMessage
+import top.sunbath.api.memo.model.OutboxMessageType
+import top.sunbath.shared.dynamodb.TransactionOperation
+import java.time.Instant
+
+/**
+ * Repository interface for OutboxMessage entity operations.
+ */
+interface OutboxRepository {
+    /**
+     * Build the transaction operation enqueuing a new outbox message, stored under its notification id.
+     * @param memoId The memo the message belongs to
+     * @param type The kind of side effect
+     * @param notificationId The notification the side effect applies to
+     * @param version The version of the notification schedule the message is created for
+     * @param recipient The email address to remind
+     * @param dueAt When the message should take effect, now if null or in the past
+     */
+    @NonNull
+    fun enqueueOperation(
+        @NonNull @NotBlank memoId: String,
+        @NonNull type: OutboxMessageType,
+        @NonNull @NotBlank notificationId: String,
+        version: Long,
+        recipient: String?,
+        dueAt: Instant? = null,
+    ): TransactionOperation
+
+    /**
+     * Find pending messages of a bucket in the order they become due.
+     * @param bucket The bucket, see [OutboxMessage.bucketOf]
+     * @param after The last message of the previous page, null for the first page
+     * @param limit The maximum number of messages
+     */
+    @NonNull
+    fun findByBucket(
+        bucket: Long,
+        @Nullable after: OutboxMessage?,
+        limit: Int,
+    ): List<OutboxMessage>
+
+    /**
+     * Delete delivered outbox messages.
+     * @return The messages that could not be deleted and will be delivered again
+     */
+    @NonNull
+    fun deleteAll(
+        @NonNull messages: List<OutboxMessage>,
+    ): List<OutboxMessage>
+
+    /**
+     * Record a failed delivery attempt. The message stays pending and is listed in [retryBucket] from now on.
+     */
+    fun recordFailure(
+        @NonNull message: OutboxMessage,
+        retryBucket: Long,
+    )
+
+    /**
+     * Find the first bucket the relay has not completely swept yet.
+     * @return The bucket or null if the relay never ran
+     */
+    @Nullable
+    fun findCheckpoint(): Long?
+
+    /**
+     * Record that all buckets before [bucket] have been swept.
+     */
+    fun saveCheckpoint(bucket: Long)
+}
@@ -16,14 +16,19 @@ import software.amazon.awssdk.services.dynamodb.model.PutItemResponse
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse
 import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.NotificationSchedule
 import top.sunbath.api.memo.repository.MemoListFilter
 import top.sunbath.api.memo.repository.MemoRepository
 import top.sunbath.api.memo.repository.MemoSort
 import top.sunbath.api.memo.repository.MemoSortOrder
+import top.sunbath.api.memo.repository.MemoWithSchedule
 import top.sunbath.shared.dynamodb.DynamoConfiguration
 import top.sunbath.shared.dynamodb.DynamoRepository
 import top.sunbath.shared.dynamodb.IdGenerator
 import top.sunbath.shared.dynamodb.IndexDefinition
+import top.sunbath.shared.dynamodb.InstantAttributes
+import top.sunbath.shared.dynamodb.ItemCollection
+import top.sunbath.shared.dynamodb.TransactionOperation
 import java.time.Instant
 
 @Singleton
@@ -88,6 +93,41 @@ open class DefaultMemoRepository(
         return id
     }
 
+    @NonNull
+    override fun newMemo(
+        @NonNull @NotBlank userId: String,
+        @NonNull @NotBlank title: String,
+        @NonNull @NotBlank content: String,
+        reminderTime: Instant?,
+    ): Memo {
+        val now = Instant.now()
+        return Memo(
+            id = idGenerator.generate(),
+            title = title,
+            content = content,
+            reminderTime = reminderTime,
+            userId = userId,
+            isCompleted = false,
+            isDeleted = false,
+            createdAt = now,
+            updatedAt = now,
+        )
+    }
+
+    @NonNull
+    override fun createOperation(
+        @NonNull memo: Memo,
+    ): TransactionOperation = putOperation(memo, CONDITION_NOT_EXISTS, label = "memo")
+
+    @NonNull
+    override fun updateOperation(
+        @NonNull memo: Memo,
+    ): TransactionOperation = putOperation(memo, CONDITION_EXISTS, label = "memo")
+
+    override fun transactWrite(operations: List<TransactionOperation>) {
+        super.transactWrite(operations)
+    }
+
     protected open fun save(
         @NonNull @NotNull @Valid memo: Memo,
     ) {
@@ -111,6 +151,44 @@ open class DefaultMemoRepository(
         return findById(Memo::class.java, id)?.let { return memoOf(it) }
     }
 
+    @NonNull
+    override fun findAllWithSchedules(
+        @NonNull ids: Collection<String>,
+    ): List<MemoWithSchedule> {
+        val keys =
+            ids.flatMap {
+                listOf(
+                    key(Memo::class.java, it),
+                    memberKey(Memo::class.java, it, NotificationSchedule::class.java, it),
+                )
+            }
+        val items = ItemCollection(batchGet(keys, consistentRead = true))
+        val schedules =
+            items
+                .all(NotificationSchedule::class.java) { DefaultNotificationScheduleRepository.notificationScheduleOf(it) }
+                .associateBy { it.id }
+        return items.all(Memo::class.java) { memoOf(it) }.map { MemoWithSchedule(it, schedules[it.id]) }
+    }
+
+    override fun findWithSchedule(
+        @NonNull @NotBlank id: String,
+    ): MemoWithSchedule? {
+        val collection = findCollection(Memo::class.java, id)
+        val memo = collection.first(Memo::class.java) { memoOf(it) } ?: return null
+        var schedule =
+            collection.first(NotificationSchedule::class.java) {
+                DefaultNotificationScheduleRepository.notificationScheduleOf(it)
+            }
+        if (schedule == null && memo.reminderTime != null) {
+            // Schedules written before they moved into the memo's item collection
+            schedule =
+                findById(NotificationSchedule::class.java, id)?.let {
+                    DefaultNotificationScheduleRepository.notificationScheduleOf(it)
+                }
+        }
+        return MemoWithSchedule(memo, schedule)
+    }
+
     override fun update(
         @NonNull @NotBlank id: String,
         @NonNull @NotBlank title: String,
@@ -230,11 +308,11 @@ open class DefaultMemoRepository(
             title = item[ATTRIBUTE_TITLE]!!.s(),
             content = item[ATTRIBUTE_CONTENT]!!.s(),
             userId = item[ATTRIBUTE_USER_ID]!!.s(),
-            reminderTime = item[ATTRIBUTE_REMINDER_TIME]?.s()?.let { Instant.parse(it) },
+            reminderTime = InstantAttributes.instantOf(item[ATTRIBUTE_REMINDER_TIME]),
             isCompleted = item[ATTRIBUTE_IS_COMPLETED]?.bool() ?: false,
             isDeleted = item[ATTRIBUTE_IS_DELETED]?.bool() ?: false,
-            createdAt = item[ATTRIBUTE_CREATED_AT]?.s()?.let { Instant.parse(it) } ?: Instant.now(),
-            updatedAt = item[ATTRIBUTE_UPDATED_AT]?.s()?.let { Instant.parse(it) } ?: Instant.now(),
+            createdAt = InstantAttributes.instantOf(item[ATTRIBUTE_CREATED_AT]) ?: Instant.now(),
+            updatedAt = InstantAttributes.instantOf(item[ATTRIBUTE_UPDATED_AT]) ?: Instant.now(),
         )
 
     @NonNull
@@ -247,12 +325,12 @@ open class DefaultMemoRepository(
         result[ATTRIBUTE_CONTENT] = AttributeValue.builder().s(entity.content).build()
         result[ATTRIBUTE_USER_ID] = AttributeValue.builder().s(entity.userId).build()
         entity.reminderTime?.let {
-            result[ATTRIBUTE_REMINDER_TIME] = AttributeValue.builder().s(it.toString()).build()
+            result[ATTRIBUTE_REMINDER_TIME] = InstantAttributes.of(it)
         }
         result[ATTRIBUTE_IS_COMPLETED] = AttributeValue.builder().bool(entity.isCompleted).build()
         result[ATTRIBUTE_IS_DELETED] = AttributeValue.builder().bool(entity.isDeleted).build()
-        result[ATTRIBUTE_CREATED_AT] = AttributeValue.builder().s(entity.createdAt.toString()).build()
-        result[ATTRIBUTE_UPDATED_AT] = AttributeValue.builder().s(entity.updatedAt.toString()).build()
+        result[ATTRIBUTE_CREATED_AT] = InstantAttributes.of(entity.createdAt)
+        result[ATTRIBUTE_UPDATED_AT] = InstantAttributes.of(entity.updatedAt)
 
         return result
     }
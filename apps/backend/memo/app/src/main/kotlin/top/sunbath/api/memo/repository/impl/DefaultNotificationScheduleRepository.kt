@@ -11,10 +11,14 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbClient
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
 import software.amazon.awssdk.services.dynamodb.model.PutItemResponse
+import top.sunbath.api.memo.model.Memo
 import top.sunbath.api.memo.model.NotificationSchedule
 import top.sunbath.api.memo.repository.NotificationScheduleRepository
 import top.sunbath.shared.dynamodb.DynamoConfiguration
 import top.sunbath.shared.dynamodb.DynamoRepository
+import top.sunbath.shared.dynamodb.InstantAttributes
+import top.sunbath.shared.dynamodb.TransactionOperation
+import top.sunbath.shared.types.VersionCheck
 import java.time.Instant
 
 @Singleton
@@ -30,11 +34,31 @@ open class DefaultNotificationScheduleRepository(
         private const val ATTRIBUTE_REMINDER_TIME = "reminderTime"
         private const val ATTRIBUTE_CREATED_AT = "createdAt"
         private const val ATTRIBUTE_UPDATED_AT = "updatedAt"
+        // Also read by the version checks of the email service
+        private const val ATTRIBUTE_VERSION = VersionCheck.ATTRIBUTE_VERSION
 
         // Register indexes
         init {
             // No indexes
         }
+
+        /**
+         * Convert a map of attribute values to a NotificationSchedule entity.
+         * @param item The map of attribute values
+         * @return The NotificationSchedule entity
+         */
+        @NonNull
+        internal fun notificationScheduleOf(
+            @NonNull item: Map<String, AttributeValue>,
+        ): NotificationSchedule =
+            NotificationSchedule(
+                id = item[ATTRIBUTE_ID]!!.s(),
+                notificationId = item[ATTRIBUTE_NOTIFICATION_ID]!!.s(),
+                reminderTime = InstantAttributes.instantOf(item[ATTRIBUTE_REMINDER_TIME]),
+                createdAt = InstantAttributes.instantOf(item[ATTRIBUTE_CREATED_AT])!!,
+                updatedAt = InstantAttributes.instantOf(item[ATTRIBUTE_UPDATED_AT])!!,
+                version = item[ATTRIBUTE_VERSION]?.n()?.toLong() ?: 0,
+            )
     }
 
     // Add a constructor init block to ensure indexes are registered
@@ -64,11 +88,81 @@ open class DefaultNotificationScheduleRepository(
                 reminderTime = reminderTime,
                 createdAt = Instant.now(),
                 updatedAt = Instant.now(),
+                version = 1,
             ),
         )
         return id
     }
 
+    @NonNull
+    override fun saveOperations(
+        @NonNull @NotBlank id: String,
+        @NonNull @NotBlank notificationId: String,
+        @NonNull reminderTime: Instant,
+        version: Long,
+    ): List<TransactionOperation> {
+        val now = Instant.now()
+        return listOf(
+            versionedPutOperation(
+                NotificationSchedule(
+                    id = id,
+                    notificationId = notificationId,
+                    reminderTime = reminderTime,
+                    createdAt = now,
+                    updatedAt = now,
+                    version = version,
+                ),
+            ),
+        )
+    }
+
+    /**
+     * The legacy key is deleted as well until all schedules have moved into the memo's item collection.
+     */
+    @NonNull
+    override fun cancelOperations(
+        @NonNull @NotBlank id: String,
+        version: Long,
+    ): List<TransactionOperation> {
+        val now = Instant.now()
+        return listOf(
+            versionedPutOperation(
+                NotificationSchedule(
+                    id = id,
+                    notificationId = "",
+                    reminderTime = null,
+                    createdAt = now,
+                    updatedAt = now,
+                    version = version,
+                ),
+            ),
+            deleteOperation(key(NotificationSchedule::class.java, id)),
+        )
+    }
+
+    /**
+     * Put a schedule on condition that the stored one is at the previous version.
+     * Schedules at version 0 either do not exist or were written before versioning.
+     */
+    private fun versionedPutOperation(schedule: NotificationSchedule): TransactionOperation {
+        val previousVersion = schedule.version - 1
+        if (previousVersion <= 0) {
+            return TransactionOperation.Put(
+                item(schedule),
+                "attribute_not_exists(#version)",
+                mapOf("#version" to ATTRIBUTE_VERSION),
+                label = NotificationScheduleRepository.SCHEDULE_LABEL,
+            )
+        }
+        return TransactionOperation.Put(
+            item(schedule),
+            "#version = :version",
+            mapOf("#version" to ATTRIBUTE_VERSION),
+            mapOf(":version" to AttributeValue.builder().n(previousVersion.toString()).build()),
+            label = NotificationScheduleRepository.SCHEDULE_LABEL,
+        )
+    }
+
     /**
      * Save a notification schedule.
      * @param notificationSchedule The notification schedule to save
@@ -91,6 +185,7 @@ open class DefaultNotificationScheduleRepository(
 
     /**
      * Find a notification schedule by ID.
+     * Schedules written before they moved into the memo's item collection are still found under their own key.
      * @param id The ID of the notification schedule
      * @return The notification schedule if found
      */
@@ -98,36 +193,39 @@ open class DefaultNotificationScheduleRepository(
     override fun findById(
         @NonNull @NotBlank id: String,
     ): NotificationSchedule? {
-        return findById(NotificationSchedule::class.java, id)?.let { return notificationScheduleOf(it) }
+        val item =
+            findMemberById(Memo::class.java, id, NotificationSchedule::class.java, id)
+                ?: findById(NotificationSchedule::class.java, id)
+        return item?.let { notificationScheduleOf(it) }
+    }
+
+    @NonNull
+    override fun versionCheckOf(
+        @NonNull @NotBlank id: String,
+        version: Long,
+    ): VersionCheck {
+        // Schedules with reminders in the outbox are all in the memo's item collection
+        val key = memberKey(Memo::class.java, id, NotificationSchedule::class.java, id)
+        return VersionCheck(
+            NotificationScheduleRepository.VERSION_CHECK_SOURCE,
+            key.getValue(ATTRIBUTE_PK).s(),
+            key.getValue(ATTRIBUTE_SK).s(),
+            version,
+        )
     }
 
     /**
      * Delete a notification schedule by ID.
+     * The legacy key is deleted as well until all schedules have moved into the memo's item collection.
      * @param id The ID of the notification schedule
      */
     override fun delete(
         @NonNull @NotBlank id: String,
     ) {
+        deleteMember(Memo::class.java, id, NotificationSchedule::class.java, id)
         delete(NotificationSchedule::class.java, id)
     }
 
-    /**
-     * Convert a map of attribute values to a NotificationSchedule entity.
-     * @param item The map of attribute values
-     * @return The NotificationSchedule entity
-     */
-    @NonNull
-    private fun notificationScheduleOf(
-        @NonNull item: Map<String, AttributeValue>,
-    ): NotificationSchedule =
-        NotificationSchedule(
-            id = item[ATTRIBUTE_ID]!!.s(),
-            notificationId = item[ATTRIBUTE_NOTIFICATION_ID]!!.s(),
-            reminderTime = item[ATTRIBUTE_REMINDER_TIME]!!.s().let { Instant.parse(it) },
-            createdAt = item[ATTRIBUTE_CREATED_AT]!!.s().let { Instant.parse(it) },
-            updatedAt = item[ATTRIBUTE_UPDATED_AT]!!.s().let { Instant.parse(it) },
-        )
-
     /**
      * Convert a NotificationSchedule entity to a map of attribute values.
      * @param entity The NotificationSchedule entity
@@ -140,9 +238,12 @@ open class DefaultNotificationScheduleRepository(
         val result = super.item(entity).toMutableMap()
         result[ATTRIBUTE_ID] = AttributeValue.builder().s(entity.id).build()
         result[ATTRIBUTE_NOTIFICATION_ID] = AttributeValue.builder().s(entity.notificationId).build()
-        result[ATTRIBUTE_REMINDER_TIME] = AttributeValue.builder().s(entity.reminderTime?.toString()).build()
-        result[ATTRIBUTE_CREATED_AT] = AttributeValue.builder().s(entity.createdAt.toString()).build()
-        result[ATTRIBUTE_UPDATED_AT] = AttributeValue.builder().s(entity.updatedAt.toString()).build()
+        entity.reminderTime?.let {
+            result[ATTRIBUTE_REMINDER_TIME] = InstantAttributes.of(it)
+        }
+        result[ATTRIBUTE_CREATED_AT] = InstantAttributes.of(entity.createdAt)
+        result[ATTRIBUTE_UPDATED_AT] = InstantAttributes.of(entity.updatedAt)
+        result[ATTRIBUTE_VERSION] = AttributeValue.builder().n(entity.version.toString()).build()
 
         return result
     }
@@ -0,0 +1,256 @@
+package top.sunbath.api.memo.repository.impl
+
+import io.micronaut.core.annotation.NonNull
+import io.micronaut.core.annotation.Nullable
+import jakarta.inject.Singleton
+import jakarta.validation.constraints.NotBlank
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest
+import top.sunbath.api.memo.model.OutboxMessage
+import top.sunbath.api.memo.model.OutboxMessageType
+import top.sunbath.api.memo.repository.OutboxRepository
+import top.sunbath.shared.dynamodb.DynamoConfiguration
+import top.sunbath.shared.dynamodb.DynamoRepository
+import top.sunbath.shared.dynamodb.IndexDefinition
+import top.sunbath.shared.dynamodb.InstantAttributes
+import top.sunbath.shared.dynamodb.TransactionOperation
+import java.time.Instant
+
+@Singleton
+open class DefaultOutboxRepository(
+    dynamoDbClient: DynamoDbClient,
+    dynamoConfiguration: DynamoConfiguration,
+) : DynamoRepository<OutboxMessage>(dynamoDbClient, dynamoConfiguration),
+    OutboxRepository {
+    companion object {
+        private val LOG: Logger = LoggerFactory.getLogger(DefaultOutboxRepository::class.java)
+        private const val ATTRIBUTE_ID = "id"
+        private const val ATTRIBUTE_MEMO_ID = "memoId"
+        private const val ATTRIBUTE_TYPE = "type"
+        private const val ATTRIBUTE_NOTIFICATION_ID = "notificationId"
+        private const val ATTRIBUTE_RECIPIENT = "recipient"
+        private const val ATTRIBUTE_ATTEMPTS = "attempts"
+        private const val ATTRIBUTE_CREATED_AT = "createdAt"
+        private const val ATTRIBUTE_VERSION = "version"
+        private const val ATTRIBUTE_DUE_AT = "dueAt"
+        private const val ATTRIBUTE_BUCKET = "bucket"
+
+        // The relay checkpoint is a single item outside of any item collection
+        private const val CHECKPOINT_KEY = "OUTBOX_CHECKPOINT"
+        private const val ATTRIBUTE_CHECKPOINT_BUCKET = "bucket"
+
+        // Sparse index: only pending outbox messages carry its keys
+        private const val OUTBOX_INDEX = "OUTBOX_INDEX"
+
+        // Register indexes
+        init {
+            DynamoRepository.registerIndex(
+                IndexDefinition(
+                    OUTBOX_INDEX,
+                    OutboxMessage.OUTBOX_PK,
+                    OutboxMessage.OUTBOX_SK,
+                    sortKeyType = ScalarAttributeType.N,
+                ),
+            )
+        }
+
+        /**
+         * Convert a map of attribute values to an OutboxMessage entity.
+         * @param item The map of attribute values
+         * @return The OutboxMessage entity
+         */
+        @NonNull
+        internal fun outboxMessageOf(
+            @NonNull item: Map<String, AttributeValue>,
+        ): OutboxMessage =
+            OutboxMessage(
+                id = item[ATTRIBUTE_ID]!!.s(),
+                memoId = item[ATTRIBUTE_MEMO_ID]!!.s(),
+                type = OutboxMessageType.valueOf(item[ATTRIBUTE_TYPE]!!.s()),
+                notificationId = item[ATTRIBUTE_NOTIFICATION_ID]!!.s(),
+                recipient = item[ATTRIBUTE_RECIPIENT]?.s(),
+                attempts = item[ATTRIBUTE_ATTEMPTS]?.n()?.toInt() ?: 0,
+                createdAt = InstantAttributes.instantOf(item[ATTRIBUTE_CREATED_AT])!!,
+                version = item[ATTRIBUTE_VERSION]?.n()?.toLong() ?: 0,
+                dueAt = InstantAttributes.instantOf(item[ATTRIBUTE_DUE_AT])!!,
+                bucket = item[ATTRIBUTE_BUCKET]!!.n().toLong(),
+            )
+    }
+
+    // Add a constructor init block to ensure indexes are registered
+    init {
+        // This ensures that the companion object's init block is executed
+        // and the indexes are registered before the repository is used
+        LOG.debug("Initializing DefaultOutboxRepository with outbox index: $OUTBOX_INDEX")
+    }
+
+    @NonNull
+    override fun enqueueOperation(
+        @NonNull @NotBlank memoId: String,
+        @NonNull type: OutboxMessageType,
+        @NonNull @NotBlank notificationId: String,
+        version: Long,
+        recipient: String?,
+        dueAt: Instant?,
+    ): TransactionOperation {
+        val now = Instant.now()
+        // Never due in the past: buckets before the current minute may already have been swept for good
+        val effectiveDueAt = if (dueAt == null || dueAt.isBefore(now)) now else dueAt
+        return putOperation(
+            OutboxMessage(
+                id = notificationId,
+                memoId = memoId,
+                type = type,
+                notificationId = notificationId,
+                recipient = recipient,
+                attempts = 0,
+                createdAt = now,
+                version = version,
+                dueAt = effectiveDueAt,
+                bucket = OutboxMessage.bucketOf(effectiveDueAt),
+            ),
+            CONDITION_NOT_EXISTS,
+            label = "outbox",
+        )
+    }
+
+    /**
+     * The outbox index is eventually consistent, a message deleted moments ago may still be returned.
+     * Delivery is therefore at least once.
+     */
+    @NonNull
+    override fun findByBucket(
+        bucket: Long,
+        @Nullable after: OutboxMessage?,
+        limit: Int,
+    ): List<OutboxMessage> {
+        if (limit <= 0) {
+            return emptyList()
+        }
+        val builder =
+            QueryRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .indexName(OUTBOX_INDEX)
+                .keyConditionExpression("#pk = :pk")
+                .expressionAttributeNames(mapOf("#pk" to OutboxMessage.OUTBOX_PK))
+                .expressionAttributeValues(mapOf(":pk" to AttributeValue.builder().s(OutboxMessage.bucketKey(bucket)).build()))
+                .scanIndexForward(true)
+                .limit(limit)
+        if (after != null) {
+            // An index query resumes from the table key and the index key of the last item
+            val startKey = key(after).toMutableMap()
+            startKey[OutboxMessage.OUTBOX_PK] = AttributeValue.builder().s(OutboxMessage.bucketKey(bucket)).build()
+            startKey[OutboxMessage.OUTBOX_SK] = AttributeValue.builder().n(after.dueAt.toEpochMilli().toString()).build()
+            builder.exclusiveStartKey(startKey)
+        }
+        return dynamoDbClient.query(builder.build()).items().map { outboxMessageOf(it) }
+    }
+
+    @NonNull
+    override fun deleteAll(
+        @NonNull messages: List<OutboxMessage>,
+    ): List<OutboxMessage> {
+        val failedKeys = batchDelete(messages.map { key(it) }).toSet()
+        return messages.filter { key(it) in failedKeys }
+    }
+
+    override fun recordFailure(
+        @NonNull message: OutboxMessage,
+        retryBucket: Long,
+    ) {
+        try {
+            dynamoDbClient.updateItem(
+                UpdateItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(key(message))
+                    .conditionExpression(CONDITION_EXISTS)
+                    .updateExpression("SET #bucket = :bucket, #outboxPk = :outboxPk ADD #attempts :one")
+                    .expressionAttributeNames(
+                        mapOf(
+                            "#bucket" to ATTRIBUTE_BUCKET,
+                            "#outboxPk" to OutboxMessage.OUTBOX_PK,
+                            "#attempts" to ATTRIBUTE_ATTEMPTS,
+                        ),
+                    ).expressionAttributeValues(
+                        mapOf(
+                            ":bucket" to AttributeValue.builder().n(retryBucket.toString()).build(),
+                            ":outboxPk" to AttributeValue.builder().s(OutboxMessage.bucketKey(retryBucket)).build(),
+                            ":one" to AttributeValue.builder().n("1").build(),
+                        ),
+                    ).build(),
+            )
+        } catch (e: ConditionalCheckFailedException) {
+            LOG.debug("Outbox message ${message.id} is no longer pending")
+        }
+    }
+
+    @Nullable
+    override fun findCheckpoint(): Long? {
+        val response =
+            dynamoDbClient.getItem(
+                GetItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(checkpointKey())
+                    .consistentRead(true)
+                    .build(),
+            )
+        if (!response.hasItem()) {
+            return null
+        }
+        return response.item()[ATTRIBUTE_CHECKPOINT_BUCKET]?.n()?.toLong()
+    }
+
+    override fun saveCheckpoint(bucket: Long) {
+        val item = checkpointKey().toMutableMap()
+        item[ATTRIBUTE_CHECKPOINT_BUCKET] = AttributeValue.builder().n(bucket.toString()).build()
+        dynamoDbClient.putItem(
+            PutItemRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .item(item)
+                .build(),
+        )
+    }
+
+    private fun checkpointKey(): Map<String, AttributeValue> {
+        val value = AttributeValue.builder().s(CHECKPOINT_KEY).build()
+        return mapOf(ATTRIBUTE_PK to value, ATTRIBUTE_SK to value)
+    }
+
+    /**
+     * Convert an OutboxMessage entity to a map of attribute values.
+     * @param entity The OutboxMessage entity
+     * @return A map of attribute values
+     */
+    @NonNull
+    override fun item(
+        @NonNull entity: OutboxMessage,
+    ): Map<String, AttributeValue> {
+        val result = super.item(entity).toMutableMap()
+        result[ATTRIBUTE_ID] = AttributeValue.builder().s(entity.id).build()
+        result[ATTRIBUTE_MEMO_ID] = AttributeValue.builder().s(entity.memoId).build()
+        result[ATTRIBUTE_TYPE] = AttributeValue.builder().s(entity.type.name).build()
+        result[ATTRIBUTE_NOTIFICATION_ID] = AttributeValue.builder().s(entity.notificationId).build()
+        entity.recipient?.let {
+            result[ATTRIBUTE_RECIPIENT] = AttributeValue.builder().s(it).build()
+        }
+        result[ATTRIBUTE_ATTEMPTS] = AttributeValue.builder().n(entity.attempts.toString()).build()
+        result[ATTRIBUTE_CREATED_AT] = InstantAttributes.of(entity.createdAt)
+        result[ATTRIBUTE_VERSION] = AttributeValue.builder().n(entity.version.toString()).build()
+        result[ATTRIBUTE_DUE_AT] = InstantAttributes.of(entity.dueAt)
+        result[ATTRIBUTE_BUCKET] = AttributeValue.builder().n(entity.bucket.toString()).build()
+
+        return result
+    }
+}
@@ -5,11 +5,15 @@ import org.slf4j.LoggerFactory
 import top.sunbath.api.memo.controller.request.GetMemoListRequestFilter
 import top.sunbath.api.memo.controller.request.GetMemoListRequestSort
 import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.NotificationSchedule
 import top.sunbath.api.memo.repository.MemoListFilter
 import top.sunbath.api.memo.repository.MemoRepository
 import top.sunbath.api.memo.repository.MemoSort
 import top.sunbath.api.memo.repository.MemoSortKey
 import top.sunbath.api.memo.repository.MemoSortOrder
+import top.sunbath.api.memo.repository.NotificationScheduleRepository
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
+import top.sunbath.shared.dynamodb.TransactionOperation
 import top.sunbath.shared.types.CurrentUser
 import java.time.Instant
 
@@ -21,6 +25,22 @@ class MemoService(
     private val memoRepository: MemoRepository,
     private val notificationScheduleService: NotificationScheduleService,
 ) {
+    companion object {
+        /**
+         * How often a write is attempted when the schedule keeps changing concurrently.
+         */
+        private const val MAX_WRITE_ATTEMPTS = 3
+    }
+
+    /**
+     * The outcome of writing a memo together with its schedule.
+     */
+    private enum class WriteResult {
+        WRITTEN,
+        MEMO_NOT_FOUND,
+        SCHEDULE_CHANGED,
+    }
+
     private val logger = LoggerFactory.getLogger(MemoService::class.java)
 
     /**
@@ -37,18 +57,20 @@ class MemoService(
         content: String,
         reminderTime: Instant?,
     ): Memo {
-        val memoId =
-            memoRepository.save(
+        val memo =
+            memoRepository.newMemo(
                 userId = userInfo.id,
                 title = title,
                 content = content,
                 reminderTime = reminderTime,
             )
 
-        handleNotificationSchedule(memoId, userInfo)
+        // A new memo has no schedule yet
+        memoRepository.transactWrite(
+            listOf(memoRepository.createOperation(memo)) + scheduleOperations(memo, null, userInfo),
+        )
 
-        return memoRepository.findById(memoId)
-            ?: throw RuntimeException("Failed to load newly created memo $memoId")
+        return memo
     }
 
     /**
@@ -145,30 +167,34 @@ class MemoService(
         isCompleted: Boolean,
         isDeleted: Boolean?,
     ): Boolean {
-        val originalMemo =
-            memoRepository.findById(id)
-                ?: return false
+        repeat(MAX_WRITE_ATTEMPTS) {
+            val original =
+                memoRepository.findWithSchedule(id)
+                    ?: return false
+            val originalMemo = original.memo
 
-        if (originalMemo.userId != userInfo.id) {
-            logger.warn("User ${userInfo.id} attempted to update memo $id owned by ${originalMemo.userId}")
-            return false
-        }
+            if (originalMemo.userId != userInfo.id) {
+                logger.warn("User ${userInfo.id} attempted to update memo $id owned by ${originalMemo.userId}")
+                return false
+            }
 
-        val updateSuccess =
-            memoRepository.update(
-                id = id,
-                title = title,
-                content = content,
-                reminderTime = reminderTime,
-                isCompleted = isCompleted,
-                isDeleted = isDeleted ?: originalMemo.isDeleted,
-            )
+            val updatedMemo =
+                originalMemo.copyWith(
+                    title = title,
+                    content = content,
+                    reminderTime = reminderTime,
+                    isCompleted = isCompleted,
+                    isDeleted = isDeleted ?: originalMemo.isDeleted,
+                )
 
-        if (updateSuccess) {
-            handleNotificationSchedule(id, userInfo)
+            when (writeWithSchedule(updatedMemo, original.schedule, userInfo)) {
+                WriteResult.WRITTEN -> return true
+                WriteResult.MEMO_NOT_FOUND -> return false
+                WriteResult.SCHEDULE_CHANGED -> logger.info("Schedule of memo $id changed concurrently, reloading")
+            }
         }
-
-        return updateSuccess
+        logger.error("Failed to update memo $id after $MAX_WRITE_ATTEMPTS attempts, its schedule kept changing")
+        return false
     }
 
     /**
@@ -181,55 +207,76 @@ class MemoService(
         userInfo: CurrentUser,
         id: String,
     ): Boolean {
-        val memoToDelete =
-            memoRepository.findById(id)
-                ?: return true
+        repeat(MAX_WRITE_ATTEMPTS) {
+            val original =
+                memoRepository.findWithSchedule(id)
+                    ?: return true
+            val memoToDelete = original.memo
 
-        if (memoToDelete.userId != userInfo.id) {
-            logger.warn("User ${userInfo.id} attempted to delete memo $id owned by ${memoToDelete.userId}. Skipping deletion.")
-            return false
-        }
-
-        if (memoToDelete.isDeleted) {
-            logger.info("Memo $id is already marked as deleted.")
-            return true
-        }
+            if (memoToDelete.userId != userInfo.id) {
+                logger.warn("User ${userInfo.id} attempted to delete memo $id owned by ${memoToDelete.userId}. Skipping deletion.")
+                return false
+            }
 
-        val updateSuccess =
-            memoRepository.update(
-                id = id,
-                title = memoToDelete.title,
-                content = memoToDelete.content,
-                reminderTime = memoToDelete.reminderTime,
-                isCompleted = memoToDelete.isCompleted,
-                isDeleted = true,
-            )
+            if (memoToDelete.isDeleted) {
+                logger.info("Memo $id is already marked as deleted.")
+                return true
+            }
 
-        if (updateSuccess) {
-            handleNotificationSchedule(id, userInfo)
-        } else {
-            logger.error("Failed to mark memo $id as deleted in repository.")
+            when (writeWithSchedule(memoToDelete.copyWith(isDeleted = true), original.schedule, userInfo)) {
+                WriteResult.WRITTEN -> return true
+                WriteResult.MEMO_NOT_FOUND -> {
+                    logger.error("Failed to mark memo $id as deleted in repository.")
+                    return false
+                }
+                WriteResult.SCHEDULE_CHANGED -> logger.info("Schedule of memo $id changed concurrently, reloading")
+            }
         }
+        logger.error("Failed to mark memo $id as deleted after $MAX_WRITE_ATTEMPTS attempts, its schedule kept changing")
+        return false
+    }
 
-        return updateSuccess
+    /**
+     * Write an existing memo together with its schedule changes in one transaction.
+     * @param memo The memo to write.
+     * @param previousSchedule The schedule loaded together with the memo, if any.
+     * @param userInfo The current user.
+     * @return Whether the memo was written, or why not.
+     */
+    private fun writeWithSchedule(
+        memo: Memo,
+        previousSchedule: NotificationSchedule?,
+        userInfo: CurrentUser,
+    ): WriteResult {
+        val operations = listOf(memoRepository.updateOperation(memo)) + scheduleOperations(memo, previousSchedule, userInfo)
+        return try {
+            memoRepository.transactWrite(operations)
+            WriteResult.WRITTEN
+        } catch (e: TransactionConditionFailedException) {
+            if (e.conditionFailed(NotificationScheduleRepository.SCHEDULE_LABEL)) {
+                return WriteResult.SCHEDULE_CHANGED
+            }
+            logger.warn("Memo ${memo.id} no longer exists, transaction cancelled: ${e.failures}")
+            WriteResult.MEMO_NOT_FOUND
+        }
     }
 
     /**
-     * Handle the notification schedule.
-     * @param memoId The id of the memo.
+     * Build the notification schedule operations.
+     * A failing schedule never blocks the memo write, it is logged and the memo is written alone.
+     * @param memo The memo as it will be written.
+     * @param previousSchedule The schedule loaded together with the memo, if any.
      * @param userInfo The current user.
      */
-    private fun handleNotificationSchedule(
-        memoId: String,
+    private fun scheduleOperations(
+        memo: Memo,
+        previousSchedule: NotificationSchedule?,
         userInfo: CurrentUser,
-    ) {
+    ): List<TransactionOperation> =
         try {
-            val memo = memoRepository.findById(memoId)
-            if (memo != null) {
-                notificationScheduleService.handleNotificationSchedule(memo, userInfo)
-            }
+            notificationScheduleService.scheduleOperations(memo, previousSchedule, userInfo)
         } catch (e: Exception) {
             logger.error("Error handling notification schedule", e)
+            emptyList()
         }
-    }
 }
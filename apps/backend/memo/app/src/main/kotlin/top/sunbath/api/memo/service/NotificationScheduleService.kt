@@ -3,90 +3,109 @@ package top.sunbath.api.memo.service
 import jakarta.inject.Singleton
 import org.slf4j.LoggerFactory
 import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.NotificationSchedule
+import top.sunbath.api.memo.model.OutboxMessageType
 import top.sunbath.api.memo.repository.NotificationScheduleRepository
-import top.sunbath.api.memo.service.notification.NotificationService
+import top.sunbath.api.memo.repository.OutboxRepository
+import top.sunbath.shared.dynamodb.TransactionOperation
 import top.sunbath.shared.types.CurrentUser
+import java.time.Duration
 import java.time.Instant
+import java.util.UUID
 
 /**
  * Service for handling notification schedules.
+ *
+ * Nothing is sent from here: reminders are written to the outbox in the same transaction as the memo
+ * and delivered later by the [OutboxRelay]. Every change of the schedule increments its version, which
+ * turns all reminders created for an earlier version stale, so cancelling a reminder writes no message.
  */
 @Singleton
 open class NotificationScheduleService(
     private val notificationScheduleRepository: NotificationScheduleRepository,
-    private val notificationService: NotificationService,
+    private val outboxRepository: OutboxRepository,
 ) {
-    private val fromAddress = "no-reply@sunbath.top"
+    companion object {
+        /**
+         * Reminders are sent this long before the reminder time.
+         */
+        val REMINDER_LEAD: Duration = Duration.ofSeconds(30)
+    }
+
     private val logger = LoggerFactory.getLogger(NotificationScheduleService::class.java)
 
     /**
-     * Handle a notification schedule.
+     * Build the schedule writes for a memo whose previous schedule is already known,
+     * e.g. because it was loaded together with the memo from the memo's item collection.
+     * The returned operations are meant to be committed in the same transaction as the memo write.
      * @param memo The memo to handle the notification schedule for.
+     * @param previousSchedule The current schedule of the memo, if any.
      * @param to The user to send the notification to.
+     * @return The schedule and outbox operations, empty if the schedule does not change.
      */
-    open fun handleNotificationSchedule(
+    open fun scheduleOperations(
         memo: Memo,
+        previousSchedule: NotificationSchedule?,
         to: CurrentUser,
-    ) {
+    ): List<TransactionOperation> {
         // We will use the memo id as the schedule id
         val memoId = memo.id
+        val activeSchedule = previousSchedule?.takeIf { it.notificationId.isNotEmpty() }
+        val nextVersion = (previousSchedule?.version ?: 0) + 1
 
         // Handle null reminderTime first
         if (memo.reminderTime == null) {
-            logger.info("Reminder time is null for memo: $memoId, checking for existing schedule to delete.")
-            val previousSchedule = notificationScheduleRepository.findById(memoId)
-            if (previousSchedule?.notificationId != null) {
-                notificationService.deleteNotification(previousSchedule.notificationId)
-                notificationScheduleRepository.delete(memoId)
-                logger.info("Deleted existing schedule for memo $memoId because reminderTime is null.")
+            logger.info("Reminder time is null for memo: $memoId, checking for existing schedule to cancel.")
+            if (activeSchedule != null) {
+                logger.info("Cancelling existing schedule for memo $memoId because reminderTime is null.")
+                return notificationScheduleRepository.cancelOperations(memoId, nextVersion)
             }
-            return // Nothing more to do if reminder time is null
+            return emptyList() // Nothing more to do if reminder time is null
         }
 
         // Reminder time is not null, proceed with scheduling logic
-        val reminderTime = memo.reminderTime // Already checked for null
-        // Use !! because we already checked for null
-        val shouldCancel = memo.isCompleted || memo.isDeleted || reminderTime!! < Instant.now()
-
-        // Find previous schedule *once*
-        val previousSchedule = notificationScheduleRepository.findById(memoId)
-        val previousNotificationId = previousSchedule?.notificationId
+        val reminderTime = memo.reminderTime!! // Already checked for null
+        val shouldCancel = memo.isCompleted || memo.isDeleted || reminderTime < Instant.now()
 
         if (shouldCancel) {
             logger.info(
-                "Canceling schedule for memo: $memoId (completed: ${memo.isCompleted}, deleted: ${memo.isDeleted}, past: ${reminderTime!! < Instant.now()})",
+                "Canceling schedule for memo: $memoId (completed: ${memo.isCompleted}, deleted: ${memo.isDeleted}, past: ${reminderTime < Instant.now()})",
             )
-            if (previousNotificationId != null) {
-                notificationService.deleteNotification(previousNotificationId)
-                logger.info("Deleted notification $previousNotificationId for memo $memoId due to cancel condition.")
-            }
-            notificationScheduleRepository.delete(memoId)
-        } else {
-            // Need to schedule or reschedule
-
-            // Check if there's an existing notification with the same reminder time
-            // If so, and the memo status hasn't changed, we can avoid unnecessary delete/recreate
-            if (previousNotificationId != null && previousSchedule.reminderTime == reminderTime) {
-                logger.info("Existing notification $previousNotificationId for memo $memoId has the same reminder time. Skipping update.")
-                return
+            if (activeSchedule == null) {
+                return emptyList()
             }
+            return notificationScheduleRepository.cancelOperations(memoId, nextVersion)
+        }
 
-            // Delete old notification if it exists
-            if (previousNotificationId != null) {
-                // Delete the old one before sending the new one
-                notificationService.deleteNotification(previousNotificationId)
-                notificationScheduleRepository.delete(memoId) // Also delete the repository entry
-                logger.info("Deleted previous notification $previousNotificationId for memo $memoId before sending new one.")
-            }
+        // Need to schedule or reschedule
 
-            // Send the new notification
-            val newNotificationId = notificationService.publishNotification(memo, to)
-            if (newNotificationId != null) {
-                notificationScheduleRepository.save(id = memoId, notificationId = newNotificationId, reminderTime!!)
-                logger.info("Scheduled new notification $newNotificationId for memo $memoId.")
-            } else {
-                logger.warn("Failed to send notification for memo $memoId, schedule not saved.")
-            }
+        // Check if there's an existing notification with the same reminder time
+        // If so, and the memo status hasn't changed, we can avoid unnecessary delete/recreate
+        if (activeSchedule != null && activeSchedule.reminderTime == reminderTime) {
+            logger.info(
+                "Existing notification ${activeSchedule.notificationId} for memo $memoId has the same reminder time. Skipping update.",
+            )
+            return emptyList()
         }
+
+        // The old reminder, if any, turns stale with the new version
+        val newNotificationId = UUID.randomUUID().toString()
+        logger.info("Scheduling new notification $newNotificationId for memo $memoId at version $nextVersion.")
+        return listOf(
+            outboxRepository.enqueueOperation(
+                memoId,
+                OutboxMessageType.REMIND,
+                newNotificationId,
+                nextVersion,
+                to.email,
+                reminderTime.minus(REMINDER_LEAD),
+            ),
+        ) +
+            notificationScheduleRepository.saveOperations(
+                id = memoId,
+                notificationId = newNotificationId,
+                reminderTime = reminderTime,
+                version = nextVersion,
+            )
     }
 }
@@ -0,0 +1,190 @@
+package top.sunbath.api.memo.service
+
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import top.sunbath.api.memo.model.OutboxMessage
+import top.sunbath.api.memo.repository.MemoRepository
+import top.sunbath.api.memo.repository.OutboxRepository
+import top.sunbath.api.memo.service.notification.NotificationService
+import top.sunbath.api.memo.service.notification.ReminderNotification
+import top.sunbath.shared.dynamodb.DynamoDbLock
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Delivers pending outbox messages through the [NotificationService].
+ *
+ * The outbox index works like a two-level timing wheel. Messages are listed in one-minute buckets by the time
+ * they are due; every sweep walks the buckets from its checkpoint up to [LOOKAHEAD] ahead of now and hands
+ * their messages to the transport, which holds each one back to the second with its own delivery delay.
+ * Reminders can therefore be scheduled at any horizon although the transport delay is limited to 15 minutes.
+ *
+ * Only one sweep runs at a time, guarded by a distributed lock. Buckets that can no longer receive messages
+ * are checkpointed once swept, so a sweep never reads the same minute twice. A message that was not accepted
+ * moves to the next bucket with an increased attempt count and is retried by the next sweep.
+ * Delivery is at least once.
+ *
+ * Reminders are never cancelled once handed over. Instead, each batch reads the memos and their schedules
+ * in one strongly consistent batch lookup right before the hand-over, and drops every reminder whose
+ * schedule version has moved on. A change made after the hand-over is caught by the email service, which
+ * checks the schedule version the reminder carries again right before sending.
+ */
+@Singleton
+open class OutboxRelay(
+    private val outboxRepository: OutboxRepository,
+    private val memoRepository: MemoRepository,
+    private val notificationService: NotificationService,
+    private val lock: DynamoDbLock,
+) {
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 100
+
+        /**
+         * How far ahead of now messages are handed to the transport. It covers the interval between
+         * two sweeps with some slack and must stay well below the 15 minute delivery delay limit of SQS.
+         */
+        val LOOKAHEAD: Duration = Duration.ofMinutes(2)
+
+        /**
+         * Where the first sweep starts when no checkpoint exists yet.
+         */
+        private val INITIAL_LOOKBACK: Duration = Duration.ofHours(1)
+
+        /**
+         * A sweep stops walking buckets after this long, so it finishes well within the function timeout.
+         */
+        private val MAX_SWEEP_DURATION: Duration = Duration.ofSeconds(40)
+
+        /**
+         * A message that failed this many times is dropped.
+         */
+        const val MAX_ATTEMPTS = 10
+
+        const val LOCK_TIMEOUT_SECONDS = 120L
+        private const val LOCK_ID = "outbox_relay_sweep"
+    }
+
+    private val logger = LoggerFactory.getLogger(OutboxRelay::class.java)
+
+    /**
+     * Sweep all buckets that are due, unless another sweep is running.
+     * @param now The time of the sweep.
+     * @param batchSize The number of messages read per batch.
+     * @return The number of messages delivered or dropped.
+     */
+    open fun sweep(
+        now: Instant = Instant.now(),
+        batchSize: Int = DEFAULT_BATCH_SIZE,
+    ): Int {
+        var processed = 0
+        val swept = lock.withLock(LOCK_ID) { processed = sweepBuckets(now, batchSize) }
+        if (!swept) {
+            logger.info("Another sweep is running, skipping")
+        }
+        return processed
+    }
+
+    private fun sweepBuckets(
+        now: Instant,
+        batchSize: Int,
+    ): Int {
+        val currentBucket = OutboxMessage.bucketOf(now)
+        val horizonBucket = OutboxMessage.bucketOf(now.plus(LOOKAHEAD))
+        // New messages are never due in the past, so buckets before the previous minute are final
+        // once swept. The extra minute absorbs clock skew between the writers and the relay.
+        val lastFinalBucket = currentBucket - 2
+        val checkpoint = outboxRepository.findCheckpoint() ?: OutboxMessage.bucketOf(now.minus(INITIAL_LOOKBACK))
+
+        val startedAt = System.nanoTime()
+        val deadline = startedAt + MAX_SWEEP_DURATION.toNanos()
+        var nextCheckpoint = checkpoint
+        var processed = 0
+        try {
+            for (bucket in checkpoint..horizonBucket) {
+                if (System.nanoTime() > deadline) {
+                    logger.warn("Sweep stopped at bucket $bucket after $MAX_SWEEP_DURATION, ${horizonBucket - bucket + 1} buckets left")
+                    break
+                }
+                // Failed messages are retried by the next sweep, not by this one
+                processed += sweepBucket(bucket, maxOf(bucket, currentBucket + 1), now, batchSize)
+                if (bucket <= lastFinalBucket) {
+                    nextCheckpoint = bucket + 1
+                }
+            }
+        } finally {
+            if (nextCheckpoint != checkpoint) {
+                outboxRepository.saveCheckpoint(nextCheckpoint)
+            }
+        }
+        logger.info("Relayed $processed messages in ${Duration.ofNanos(System.nanoTime() - startedAt).toMillis()} ms")
+        return processed
+    }
+
+    private fun sweepBucket(
+        bucket: Long,
+        retryBucket: Long,
+        now: Instant,
+        batchSize: Int,
+    ): Int {
+        var processed = 0
+        var after: OutboxMessage? = null
+        do {
+            val page = outboxRepository.findByBucket(bucket, after, batchSize)
+            // A bucket within the lookahead may hold messages due after the horizon, those wait for a later sweep
+            val due = page.filter { !it.dueAt.isAfter(now.plus(LOOKAHEAD)) }
+            if (due.isNotEmpty()) {
+                processed += relay(due, retryBucket)
+            }
+            after = page.lastOrNull()
+        } while (page.size == batchSize && due.size == page.size)
+        return processed
+    }
+
+    /**
+     * Relay one batch of messages.
+     * @return The number of messages removed from the outbox.
+     */
+    private fun relay(
+        messages: List<OutboxMessage>,
+        retryBucket: Long,
+    ): Int {
+        // Reminders render the memo as it is now and are checked against the current schedule version;
+        // one batched read covers the whole batch
+        val current = memoRepository.findAllWithSchedules(messages.map { it.memoId }.toSet()).associateBy { it.memo.id }
+        val reminders = mutableListOf<ReminderNotification>()
+        val obsolete = mutableListOf<OutboxMessage>()
+        for (message in messages) {
+            val memo = current[message.memoId]?.memo
+            val version = current[message.memoId]?.schedule?.version
+            val recipient = message.recipient
+            if (memo == null || version != message.version || recipient == null) {
+                logger.info("Dropping reminder ${message.notificationId} of memo ${message.memoId}, its schedule has changed")
+                obsolete.add(message)
+            } else {
+                reminders.add(ReminderNotification(message.id, message.notificationId, memo, recipient, message.dueAt, message.version))
+            }
+        }
+
+        val accepted =
+            if (reminders.isNotEmpty()) {
+                notificationService.publishNotifications(reminders)
+            } else {
+                emptySet()
+            }
+
+        val (delivered, failed) = messages.partition { it.id in accepted || it in obsolete }
+        val (exhausted, retried) = failed.partition { it.attempts + 1 >= MAX_ATTEMPTS }
+        retried.forEach {
+            logger.warn("Outbox message ${it.id} (${it.type} ${it.notificationId}) was not accepted, attempt ${it.attempts + 1}")
+            outboxRepository.recordFailure(it, retryBucket)
+        }
+        exhausted.forEach {
+            logger.error("Dropping outbox message ${it.id} (${it.type} ${it.notificationId}) after $MAX_ATTEMPTS attempts")
+        }
+        val notDeleted = outboxRepository.deleteAll(delivered + exhausted)
+        if (notDeleted.isNotEmpty()) {
+            logger.warn("${notDeleted.size} delivered outbox messages could not be deleted and will be delivered again")
+        }
+        return delivered.size - notDeleted.count { it !in exhausted }
+    }
+}
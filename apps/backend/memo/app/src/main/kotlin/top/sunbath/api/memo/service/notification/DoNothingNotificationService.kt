@@ -3,8 +3,6 @@ package top.sunbath.api.memo.service.notification
 import io.micronaut.context.annotation.Requires
 import jakarta.inject.Singleton
 import org.slf4j.LoggerFactory
-import top.sunbath.api.memo.model.Memo
-import top.sunbath.shared.types.CurrentUser
 
 /**
  * A notification service that does nothing.
@@ -16,15 +14,10 @@ import top.sunbath.shared.types.CurrentUser
 open class DoNothingNotificationService : NotificationService {
     private val logger = LoggerFactory.getLogger(DoNothingNotificationService::class.java)
 
-    override fun publishNotification(
-        memo: Memo,
-        to: CurrentUser,
-    ): String? {
-        logger.info("Publishing notification to [${to.email}] for memo [${memo.id}]")
-        return "fake-notification-id"
-    }
-
-    override fun deleteNotification(id: String) {
-        logger.info("Deleting notification with id [$id]")
+    override fun publishNotifications(reminders: List<ReminderNotification>): Set<String> {
+        reminders.forEach {
+            logger.info("Publishing notification [${it.notificationId}] to [${it.recipient}] for memo [${it.memo.id}]")
+        }
+        return reminders.map { it.messageId }.toSet()
     }
 }
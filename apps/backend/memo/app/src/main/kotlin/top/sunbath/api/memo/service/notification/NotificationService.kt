@@ -1,25 +1,36 @@
 package top.sunbath.api.memo.service.notification
 
 import top.sunbath.api.memo.model.Memo
-import top.sunbath.shared.types.CurrentUser
+import java.time.Instant
 
-interface NotificationService {
-    /**
-     * Publish a notification that is about to happen to a user.
-     *
-     * @param memo The memo to publish the notification for.
-     * @param to The user to publish the notification to.
-     * @return The id of the notification.
-     */
-    fun publishNotification(
-        memo: Memo,
-        to: CurrentUser,
-    ): String?
+/**
+ * A reminder to deliver.
+ *
+ * @param messageId The id of the outbox message carrying the reminder.
+ * @param notificationId The id of the notification, also the id of the queued email.
+ * @param memo The memo to remind of, as it is now.
+ * @param recipient The email address to send the reminder to.
+ * @param dueAt When the reminder should be sent, at most a few minutes from now.
+ * @param version The version of the notification schedule the reminder was scheduled with.
+ */
+data class ReminderNotification(
+    val messageId: String,
+    val notificationId: String,
+    val memo: Memo,
+    val recipient: String,
+    val dueAt: Instant,
+    val version: Long,
+)
 
+/**
+ * The transport used by the outbox relay to deliver notifications.
+ */
+interface NotificationService {
     /**
-     * Delete a notification.
+     * Publish reminders that are about to happen. The transport holds each reminder back until it is due.
      *
-     * @param id The id of the notification to delete.
+     * @param reminders The reminders to publish.
+     * @return The message ids of the reminders that were accepted.
      */
-    fun deleteNotification(id: String)
+    fun publishNotifications(reminders: List<ReminderNotification>): Set<String>
 }
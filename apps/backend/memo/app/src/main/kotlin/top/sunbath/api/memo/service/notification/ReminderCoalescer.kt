@@ -0,0 +1,50 @@
+package top.sunbath.api.memo.service.notification
+
+import io.micronaut.context.annotation.ConfigurationProperties
+import io.micronaut.core.annotation.NonNull
+import jakarta.inject.Singleton
+import java.time.Duration
+
+/**
+ * Configuration properties for reminder digests.
+ */
+@ConfigurationProperties("notification.digest")
+open class DigestConfiguration {
+    /**
+     * Reminders of one recipient due within this window of the first one are sent as one digest email.
+     * Zero only groups reminders due at the same time.
+     */
+    @NonNull
+    var window: Duration = Duration.ofMinutes(1)
+}
+
+/**
+ * Groups the reminders handed over together by recipient, so a recipient with many reminders due at the same
+ * time gets one digest email instead of one email per memo.
+ */
+@Singleton
+class ReminderCoalescer(
+    private val digestConfiguration: DigestConfiguration,
+) {
+    /**
+     * Group reminders.
+     * @return Groups of reminders of the same recipient, each due within the window of its first reminder, in
+     *   the order they are due
+     */
+    fun coalesce(reminders: List<ReminderNotification>): List<List<ReminderNotification>> {
+        val window = digestConfiguration.window
+        val groups = mutableListOf<List<ReminderNotification>>()
+        reminders.groupBy { it.recipient }.values.forEach { ofRecipient ->
+            var group = mutableListOf<ReminderNotification>()
+            for (reminder in ofRecipient.sortedBy { it.dueAt }) {
+                if (group.isNotEmpty() && Duration.between(group.first().dueAt, reminder.dueAt) > window) {
+                    groups.add(group)
+                    group = mutableListOf()
+                }
+                group.add(reminder)
+            }
+            groups.add(group)
+        }
+        return groups.sortedBy { it.first().dueAt }
+    }
+}
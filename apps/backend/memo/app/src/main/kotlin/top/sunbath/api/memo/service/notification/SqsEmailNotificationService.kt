@@ -1,128 +1,125 @@
 package top.sunbath.api.memo.service.notification
 
-import com.fasterxml.jackson.databind.ObjectMapper
 import io.micronaut.context.annotation.Requires
-import jakarta.annotation.PostConstruct
 import jakarta.inject.Singleton
 import org.slf4j.LoggerFactory
-import software.amazon.awssdk.services.sqs.SqsClient
-import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest
-import top.sunbath.api.memo.model.Memo
-import top.sunbath.api.memo.service.notification.EmailTemplate
-import top.sunbath.shared.sqs.SqsConfiguration
-import top.sunbath.shared.types.CurrentUser
+import top.sunbath.api.memo.repository.NotificationScheduleRepository
+import top.sunbath.shared.sqs.QueuePublisher
 import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
+import top.sunbath.shared.types.EmailTemplateIds
+import top.sunbath.shared.types.EmailTemplateRef
 import top.sunbath.shared.types.SqsMessage
+import top.sunbath.shared.types.VersionCheck
 import java.time.Instant
 import java.util.UUID
 
+/**
+ * Delivers notifications to the low-priority email lane, so reminder bursts never delay transactional email.
+ * Reminders of the same recipient that are due together are sent as one digest, see [ReminderCoalescer].
+ * The [QueuePublisher] sends them in batches right away, so the outbox relay learns which ones were accepted.
+ * Every email carries the schedule versions of its reminders, so a reminder cancelled or moved while it waits in
+ * the queue is not sent.
+ */
 @Singleton
 @Requires(env = ["production"])
 class SqsEmailNotificationService(
-    private val sqsClient: SqsClient,
-    private val sqsConfiguration: SqsConfiguration,
+    private val queuePublisher: QueuePublisher,
+    private val reminderCoalescer: ReminderCoalescer,
+    private val notificationScheduleRepository: NotificationScheduleRepository,
 ) : NotificationService {
+    companion object {
+        /**
+         * The longest delay SQS accepts. The outbox relay only hands over reminders due within this window.
+         */
+        const val MAX_DELAY_SECONDS = 900L
+    }
+
     private val fromAddress = "no-reply@sunbath.top"
 
     private val logger = LoggerFactory.getLogger(SqsEmailNotificationService::class.java)
 
-    private lateinit var emailQueueUrl: String
-    private lateinit var cancelEmailQueueUrl: String
-    private val objectMapper = ObjectMapper()
+    override fun publishNotifications(reminders: List<ReminderNotification>): Set<String> {
+        // A digest stands for all of its reminders, they are accepted or not together
+        val messageIds = mutableMapOf<String, List<String>>()
+        val entries =
+            reminderCoalescer.coalesce(reminders).mapNotNull { group ->
+                try {
+                    val entry = if (group.size == 1) reminderEntryOf(group[0]) else digestEntryOf(group)
+                    messageIds[entry.id] = group.map { it.messageId }
+                    entry
+                } catch (e: Exception) {
+                    logger.error("Error building notification for memos ${group.map { it.memo.id }}", e)
+                    null
+                }
+            }
+        return queuePublisher.sendNow(EmailPriority.LOW.queue, entries).flatMapTo(mutableSetOf()) { messageIds.getValue(it) }
+    }
 
-    @PostConstruct
-    fun init() {
-        val queues = sqsConfiguration.getQueues()
-        logger.info("Queues: $queues")
+    private fun reminderEntryOf(reminder: ReminderNotification): QueuePublisher.Entry {
+        val memo = reminder.memo
+        // The email service renders the template, only its parameters travel through the queue
+        val emailData =
+            EmailData(
+                from = fromAddress,
+                to = reminder.recipient,
+                priority = EmailPriority.LOW,
+                template =
+                    EmailTemplateRef(
+                        id = EmailTemplateIds.MEMO_REMINDER,
+                        version = 1,
+                        params =
+                            mapOf(
+                                "title" to memo.title,
+                                "content" to memo.content,
+                                "reminderTime" to (memo.reminderTime ?: reminder.dueAt).toString(),
+                            ),
+                    ),
+                versionChecks = listOf(versionCheckOf(reminder)),
+            )
 
-        val emailQueueName = queues.get("email") ?: throw IllegalStateException("Email queue not found in configuration")
-        logger.info("Queue name: $emailQueueName")
-        val getEmailQueueUrlRequest =
-            GetQueueUrlRequest
-                .builder()
-                .queueName(emailQueueName)
-                .build()
-        emailQueueUrl = sqsClient.getQueueUrl(getEmailQueueUrlRequest).queueUrl()
-        logger.info("Queue URL: $emailQueueUrl")
+        // The notification id is the message id, one per scheduled reminder
+        val message =
+            SqsMessage(
+                id = reminder.notificationId,
+                data = emailData,
+            )
 
-        val cancelEmailQueueName = queues.get("cancel-email") ?: throw IllegalStateException("Email queue not found in configuration")
-        val getCancelEmailQueueUrlRequest =
-            GetQueueUrlRequest
-                .builder()
-                .queueName(cancelEmailQueueName)
-                .build()
-        cancelEmailQueueUrl = sqsClient.getQueueUrl(getCancelEmailQueueUrlRequest).queueUrl()
-        logger.info("Queue URL: $cancelEmailQueueUrl")
+        return QueuePublisher.Entry(reminder.messageId, message, delaySecondsOf(reminder.dueAt))
     }
 
-    override fun publishNotification(
-        memo: Memo,
-        to: CurrentUser,
-    ): String? {
-        try {
-            if (memo.reminderTime == null) {
-                return null
-            }
-            val (subject, html) =
-                EmailTemplate.generateMemoNotificationEmail(
-                    memo = memo,
-                )
-            val emailData =
-                EmailData(
-                    from = fromAddress,
-                    to = to.email,
-                    subject = subject,
-                    html = html,
-                )
-
-            val messageId = UUID.randomUUID().toString()
-
-            val message =
-                SqsMessage(
-                    id = messageId,
-                    data = emailData,
-                )
-            val messageBody = objectMapper.writeValueAsString(message)
+    /**
+     * One email for several reminders of the same recipient, sent when the first one is due.
+     */
+    private fun digestEntryOf(reminders: List<ReminderNotification>): QueuePublisher.Entry {
+        val params = mutableMapOf("count" to reminders.size.toString())
+        reminders.forEachIndexed { index, reminder ->
+            params["title.$index"] = reminder.memo.title
+            params["content.$index"] = reminder.memo.content
+            params["reminderTime.$index"] = (reminder.memo.reminderTime ?: reminder.dueAt).toString()
+        }
+        val emailData =
+            EmailData(
+                from = fromAddress,
+                to = reminders.first().recipient,
+                priority = EmailPriority.LOW,
+                template = EmailTemplateRef(id = EmailTemplateIds.MEMO_DIGEST, version = 1, params = params),
+                versionChecks = reminders.map { versionCheckOf(it) },
+            )
 
-            val memoReminderTime = memo.reminderTime!!
-            // 30s before the reminder time
-            val delaySeconds = Math.max(memoReminderTime.epochSecond - Instant.now().epochSecond - 30, 0).toInt()
-            sqsClient.sendMessage(
-                SendMessageRequest
-                    .builder()
-                    .queueUrl(emailQueueUrl)
-                    .messageBody(messageBody)
-                    .delaySeconds(delaySeconds)
-                    .build(),
+        // Derived from the notification ids, so the same digest handed over again is recognized as sent
+        val message =
+            SqsMessage(
+                id = UUID.nameUUIDFromBytes(reminders.map { it.notificationId }.sorted().joinToString(",").toByteArray()).toString(),
+                data = emailData,
             )
-            return messageId
-        } catch (e: Exception) {
-            logger.error("Error sending notification", e)
-            return null
-        }
-    }
 
-    override fun deleteNotification(id: String) {
-        try {
-            logger.info("Deleting notification with id [$id]")
+        return QueuePublisher.Entry(reminders.first().messageId, message, delaySecondsOf(reminders.first().dueAt))
+    }
 
-            val message =
-                SqsMessage(
-                    id = UUID.randomUUID().toString(),
-                    data = id,
-                )
-            val messageBody = objectMapper.writeValueAsString(message)
+    // The schedule shares the ID of its memo
+    private fun versionCheckOf(reminder: ReminderNotification): VersionCheck =
+        notificationScheduleRepository.versionCheckOf(reminder.memo.id, reminder.version)
 
-            sqsClient.sendMessage(
-                SendMessageRequest
-                    .builder()
-                    .queueUrl(cancelEmailQueueUrl)
-                    .messageBody(messageBody)
-                    .build(),
-            )
-        } catch (e: Exception) {
-            logger.error("Error deleting notification with id [$id]", e)
-        }
-    }
+    private fun delaySecondsOf(dueAt: Instant): Int = (dueAt.epochSecond - Instant.now().epochSecond).coerceIn(0, MAX_DELAY_SECONDS).toInt()
 }
@@ -5,11 +5,14 @@ import io.micronaut.context.event.ApplicationEventListener
 import io.micronaut.context.event.StartupEvent
 import jakarta.inject.Singleton
 import top.sunbath.api.memo.repository.impl.DefaultMemoRepository
+import top.sunbath.api.memo.repository.impl.DefaultOutboxRepository
 
 @Requires(env = ["test"])
 @Singleton
 class TestBootstrap(
     private val dynamoMemoRepository: DefaultMemoRepository,
+    // Injected so that the outbox index is registered before the table is created
+    @Suppress("unused") private val dynamoOutboxRepository: DefaultOutboxRepository,
 ) : ApplicationEventListener<StartupEvent> {
     override fun onApplicationEvent(event: StartupEvent) {
         if (!dynamoMemoRepository.existsTable()) {
@@ -15,6 +15,7 @@ import jakarta.inject.Inject
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
 import org.junit.jupiter.api.Assertions.assertNotNull
 import org.junit.jupiter.api.Assertions.assertNull
 import org.junit.jupiter.api.Assertions.assertThrows
@@ -25,15 +26,23 @@ import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestInstance
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest
 import software.amazon.awssdk.services.dynamodb.model.ScanRequest
 import top.sunbath.api.memo.controller.request.CreateMemoRequest
 import top.sunbath.api.memo.controller.request.UpdateMemoRequest
 import top.sunbath.api.memo.controller.response.MemoResponse
 import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.OutboxMessage
+import top.sunbath.api.memo.model.OutboxMessageType
 import top.sunbath.api.memo.repository.MemoRepository
 import top.sunbath.api.memo.repository.NotificationScheduleRepository
+import top.sunbath.api.memo.repository.OutboxRepository
+import top.sunbath.api.memo.service.NotificationScheduleService
+import top.sunbath.api.memo.service.OutboxRelay
 import top.sunbath.api.memo.service.notification.NotificationService
+import top.sunbath.api.memo.service.notification.ReminderNotification
 import top.sunbath.shared.dynamodb.DynamoConfiguration
 import top.sunbath.shared.types.CurrentUser
 import top.sunbath.shared.types.PagedListResponse
@@ -65,6 +74,12 @@ class MemoControllerIntegrationTest {
     @Inject
     lateinit var notificationScheduleRepository: NotificationScheduleRepository
 
+    @Inject
+    lateinit var outboxRelay: OutboxRelay
+
+    @Inject
+    lateinit var outboxRepository: OutboxRepository
+
     // Test User Info
     private val testUser = TestUserFactory.createUserInfo()
     private val otherUser = TestUserFactory.createUserInfo(id = "other-user-id")
@@ -73,9 +88,11 @@ class MemoControllerIntegrationTest {
     private val notificationIdSlot = slot<String>()
 
     // Define relative times for testing
-    private val futureTime get() = Instant.now().plus(1, ChronoUnit.DAYS)
-    private val anotherFutureTime get() = Instant.now().plus(2, ChronoUnit.DAYS)
-    private val pastTime get() = Instant.now().minus(1, ChronoUnit.DAYS)
+    // Future reminders are within the relay lookahead, so a sweep right away hands them to the transport
+    private val futureTime get() = Instant.now().plus(90, ChronoUnit.SECONDS).truncatedTo(ChronoUnit.MILLIS)
+    private val anotherFutureTime get() = Instant.now().plus(100, ChronoUnit.SECONDS).truncatedTo(ChronoUnit.MILLIS)
+    private val farFutureTime get() = Instant.now().plus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.MILLIS)
+    private val pastTime get() = Instant.now().minus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.MILLIS)
 
     @AfterEach
     fun cleanup() {
@@ -84,8 +101,7 @@ class MemoControllerIntegrationTest {
 
         // Clean up database
         val scanRequest = ScanRequest.builder().tableName(dynamoConfiguration.tableName).build()
-        val scanResponse = dynamoDbClient.scan(scanRequest)
-        scanResponse.items().forEach { item ->
+        dynamoDbClient.scanPaginator(scanRequest).items().forEach { item ->
             val key = mapOf("pk" to item["pk"]!!, "sk" to item["sk"]!!)
             val deleteRequest =
                 DeleteItemRequest
@@ -271,6 +287,43 @@ class MemoControllerIntegrationTest {
             assertEquals(testUser.id, body.userId)
         }
 
+        @Test
+        fun `should get memo stored with legacy ISO timestamps`() {
+            // Arrange - items written before the epoch millis encoding hold ISO strings
+            val memoId = "legacy-memo-id"
+            val reminderTime = futureTime.truncatedTo(ChronoUnit.MILLIS)
+            val createdAt = Instant.now().truncatedTo(ChronoUnit.MILLIS)
+            val key = AttributeValue.builder().s("MEMO#$memoId").build()
+            dynamoDbClient.putItem(
+                PutItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .item(
+                        mapOf(
+                            "pk" to key,
+                            "sk" to key,
+                            "id" to AttributeValue.builder().s(memoId).build(),
+                            "title" to AttributeValue.builder().s("Legacy").build(),
+                            "content" to AttributeValue.builder().s("Legacy Content").build(),
+                            "userId" to AttributeValue.builder().s(testUser.id).build(),
+                            "reminderTime" to AttributeValue.builder().s(reminderTime.toString()).build(),
+                            "isCompleted" to AttributeValue.builder().bool(false).build(),
+                            "isDeleted" to AttributeValue.builder().bool(false).build(),
+                            "createdAt" to AttributeValue.builder().s(createdAt.toString()).build(),
+                            "updatedAt" to AttributeValue.builder().s(createdAt.toString()).build(),
+                        ),
+                    ).build(),
+            )
+
+            // Act
+            val memo = memoRepository.findById(memoId)
+
+            // Assert
+            assertNotNull(memo)
+            assertEquals(reminderTime, memo!!.reminderTime)
+            assertEquals(createdAt, memo.createdAt)
+        }
+
         @Test
         fun `should return 404 when memo does not exist`() {
             // Act
@@ -324,8 +377,6 @@ class MemoControllerIntegrationTest {
             // Arrange
             val frozenFutureTime = futureTime
             val createRequest = CreateMemoRequest(title = "Future Reminder", content = "Content", reminderTime = frozenFutureTime)
-            // Capture the notification ID when sendNotification is called
-            // every { notificationService.publishNotification(any(), any()) } returns "fake-notification-id"
 
             // Act
             val response =
@@ -344,14 +395,16 @@ class MemoControllerIntegrationTest {
             assertNotNull(memoResponse)
             assertEquals(memoId, memoResponse.id)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification
             verify(exactly = 1) {
-                notificationService.publishNotification(
-                    match { it.id == memoId && it.reminderTime == frozenFutureTime },
-                    eq(testUser),
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.any { it.memo.id == memoId && it.memo.reminderTime == frozenFutureTime && it.recipient == testUser.email }
+                    },
                 )
             }
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
 
             // Assert DB State
             val createdMemo = memoRepository.findById(memoId)
@@ -384,9 +437,10 @@ class MemoControllerIntegrationTest {
             assertNotNull(locationHeader)
             val memoId = locationHeader!!.substringAfterLast('/')
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - no notification should be published for past reminders
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
 
             // Assert DB State
             val createdMemo = memoRepository.findById(memoId)
@@ -413,9 +467,10 @@ class MemoControllerIntegrationTest {
             assertNotNull(locationHeader)
             val memoId = locationHeader!!.substringAfterLast('/')
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - no notification should be published when no reminder
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
 
             // Assert DB State
             val createdMemo = memoRepository.findById(memoId)
@@ -450,7 +505,6 @@ class MemoControllerIntegrationTest {
                     reminderTime = frozenFutureTime,
                     isCompleted = false,
                 )
-            // every { notificationService.publishNotification(any(), any()) } returns "fake-notification-id"
 
             // Act
             val response =
@@ -462,14 +516,16 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - notification should be published
             verify(exactly = 1) {
-                notificationService.publishNotification(
-                    match { it.id == memoId && it.reminderTime == frozenFutureTime },
-                    eq(testUser),
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.any { it.memo.id == memoId && it.memo.reminderTime == frozenFutureTime && it.recipient == testUser.email }
+                    },
                 )
             }
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -511,10 +567,6 @@ class MemoControllerIntegrationTest {
                     isCompleted = false,
                 )
 
-            // Configure mocks for update
-            // every { notificationService.deleteNotification(any()) } returns Unit
-            every { notificationService.publishNotification(any(), any()) } returns "new-notification-id"
-
             // Act
             val response =
                 client.toBlocking().exchange(
@@ -525,15 +577,22 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
-            // Assert Mock Verification - old notification deleted, new one published
-            verify(exactly = 1) { notificationService.deleteNotification(initialNotificationId) }
+            outboxRelay.sweep()
+
+            // Assert Mock Verification - new notification published, nothing is sent to cancel the old one
             verify(exactly = 1) {
-                notificationService.publishNotification(
-                    match { it.id == memoId && it.reminderTime == newFutureTime },
-                    eq(testUser),
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.any { it.memo.id == memoId && it.memo.reminderTime == newFutureTime && it.recipient == testUser.email }
+                    },
                 )
             }
 
+            // Assert the schedule moved on to the next version, so the old reminder is stale
+            val schedule = notificationScheduleRepository.findById(memoId)
+            assertEquals(2L, schedule!!.version)
+            assertNotEquals(initialNotificationId, schedule.notificationId)
+
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
             assertNotNull(updatedMemo)
@@ -582,9 +641,15 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
-            // Assert Mock Verification - notification should be deleted
-            verify(exactly = 1) { notificationService.deleteNotification(initialNotificationId) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            outboxRelay.sweep()
+
+            // Assert Mock Verification - nothing is published for a cancelled reminder
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
+
+            // Assert the schedule moved on to the next version, so the old reminder is stale
+            val schedule = notificationScheduleRepository.findById(memoId)
+            assertEquals(2L, schedule!!.version)
+            assertNull(schedule.reminderTime)
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -634,9 +699,15 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
-            // Assert Mock Verification - notification should be deleted
-            verify(exactly = 1) { notificationService.deleteNotification(initialNotificationId) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            outboxRelay.sweep()
+
+            // Assert Mock Verification - nothing is published for a cancelled reminder
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
+
+            // Assert the schedule moved on to the next version, so the old reminder is stale
+            val schedule = notificationScheduleRepository.findById(memoId)
+            assertEquals(2L, schedule!!.version)
+            assertNull(schedule.reminderTime)
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -685,9 +756,15 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
-            // Assert Mock Verification - notification should be deleted when marked completed
-            verify(exactly = 1) { notificationService.deleteNotification(initialNotificationId) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            outboxRelay.sweep()
+
+            // Assert Mock Verification - nothing is published for a cancelled reminder
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
+
+            // Assert the schedule moved on to the next version, so the old reminder is stale
+            val schedule = notificationScheduleRepository.findById(memoId)
+            assertEquals(2L, schedule!!.version)
+            assertNull(schedule.reminderTime)
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -723,9 +800,9 @@ class MemoControllerIntegrationTest {
                 Void::class.java,
             )
 
-            // Configure mocks for reopen notification
+            // Relay the notifications of the first update before counting calls again
+            outboxRelay.sweep()
             clearMocks(notificationService, answers = false)
-            every { notificationService.publishNotification(any(), any()) } returns "new-notification-id"
 
             // Now mark as not completed
             val reopenRequest =
@@ -746,14 +823,16 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - notification should be published when reopened with future reminder
             verify(exactly = 1) {
-                notificationService.publishNotification(
-                    match { it.id == memoId && it.reminderTime == reminderTime },
-                    eq(testUser),
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.any { it.memo.id == memoId && it.memo.reminderTime == reminderTime && it.recipient == testUser.email }
+                    },
                 )
             }
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -827,9 +906,10 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - no notification service calls should be made
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -870,7 +950,8 @@ class MemoControllerIntegrationTest {
             assertNotNull(completedMemo)
             assertTrue(completedMemo!!.isCompleted)
 
-            // Clear verification counts for notification service
+            // Relay pending notifications and clear verification counts for notification service
+            outboxRelay.sweep()
             clearMocks(notificationService)
 
             // Now update to incomplete
@@ -892,9 +973,10 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - no notification service calls should be made
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -944,9 +1026,15 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
-            // Assert Mock Verification - notification should be deleted
-            verify(exactly = 1) { notificationService.deleteNotification(initialNotificationId) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            outboxRelay.sweep()
+
+            // Assert Mock Verification - nothing is published for a cancelled reminder
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
+
+            // Assert the schedule moved on to the next version, so the old reminder is stale
+            val schedule = notificationScheduleRepository.findById(memoId)
+            assertEquals(2L, schedule!!.version)
+            assertNull(schedule.reminderTime)
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -978,8 +1066,6 @@ class MemoControllerIntegrationTest {
                     isCompleted = false,
                 )
 
-            // Configure mocks for notification
-            every { notificationService.publishNotification(any(), any()) } returns "new-notification-id"
 
             // Act
             val response =
@@ -991,12 +1077,14 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - new notification should be published
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
             verify(exactly = 1) {
-                notificationService.publishNotification(
-                    match { it.id == memoId && it.reminderTime == newFutureTime },
-                    eq(testUser),
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.any { it.memo.id == memoId && it.memo.reminderTime == newFutureTime && it.recipient == testUser.email }
+                    },
                 )
             }
 
@@ -1098,7 +1186,8 @@ class MemoControllerIntegrationTest {
             assertNotNull(completedMemo)
             assertTrue(completedMemo!!.isCompleted)
 
-            // Clear verification counts for notification service
+            // Relay pending notifications and clear verification counts for notification service
+            outboxRelay.sweep()
             clearMocks(notificationService)
 
             // Now update only title and content, keeping completion status the same
@@ -1120,10 +1209,11 @@ class MemoControllerIntegrationTest {
             // Assert Response
             assertEquals(HttpStatus.OK, response.status)
 
+            outboxRelay.sweep()
+
             // Assert Mock Verification - no notification service calls should be made
             // since the completion status remains true and reminder time is unchanged
-            verify(exactly = 0) { notificationService.deleteNotification(any()) }
-            verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
 
             // Assert DB State
             val updatedMemo = memoRepository.findById(memoId)
@@ -1186,6 +1276,192 @@ class MemoControllerIntegrationTest {
         }
     }
 
+    @Nested
+    @DisplayName("Notification Outbox")
+    inner class NotificationOutboxTest {
+        @Test
+        fun `should keep notification in outbox and retry when the transport rejects it`() {
+            // Arrange
+            val frozenFutureTime = futureTime
+            val createRequest = CreateMemoRequest(title = "Future Reminder", content = "Content", reminderTime = frozenFutureTime)
+            val response =
+                client.toBlocking().exchange(
+                    HttpRequest.POST("/", createRequest).bearerAuth(generateJwtToken(testUser)),
+                    MemoResponse::class.java,
+                )
+            assertEquals(HttpStatus.CREATED, response.status)
+            val memoId = response.header("Location")!!.substringAfterLast('/')
+
+            every { notificationService.publishNotifications(any()) } returns emptySet()
+
+            // Act - first sweep is rejected
+            val rejected = outboxRelay.sweep()
+
+            // Assert - nothing was relayed
+            assertEquals(0, rejected)
+
+            // Act - transport recovers
+            clearMocks(notificationService)
+            val relayed = outboxRelay.sweep()
+
+            // Assert - the same notification is delivered once and leaves the outbox
+            assertEquals(1, relayed)
+            verify(exactly = 1) {
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.any { it.memo.id == memoId && it.memo.reminderTime == frozenFutureTime && it.recipient == testUser.email }
+                    },
+                )
+            }
+        }
+
+        @Test
+        fun `should hold a far reminder in the outbox while it is beyond the lookahead`() {
+            // Arrange
+            val memoId = createMemoWithReminder(farFutureTime)
+
+            // Act
+            val processed = outboxRelay.sweep()
+
+            // Assert
+            assertEquals(0, processed)
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
+            val dueAt = memoRepository.findById(memoId)!!.reminderTime!!.minus(NotificationScheduleService.REMINDER_LEAD)
+            val bucket = OutboxMessage.bucketOf(dueAt)
+            assertEquals(1, outboxRepository.findByBucket(bucket, null, 10).size)
+        }
+
+        @Test
+        fun `should relay a far reminder once a sweep reaches its bucket`() {
+            // Arrange
+            val reminderTime = farFutureTime
+            val memoId = createMemoWithReminder(reminderTime)
+
+            // Act - sweep as the relay will a minute before the reminder is due
+            val processed = outboxRelay.sweep(reminderTime.minus(1, ChronoUnit.MINUTES))
+
+            // Assert - the transport holds the reminder back until shortly before the reminder time
+            assertEquals(1, processed)
+            verify(exactly = 1) {
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.single().let {
+                            it.memo.id == memoId && it.dueAt == reminderTime.minus(NotificationScheduleService.REMINDER_LEAD)
+                        }
+                    },
+                )
+            }
+        }
+
+        @Test
+        fun `should drop a cancelled reminder as stale without sending anything`() {
+            // Arrange
+            val reminderTime = farFutureTime
+            val memoId = createMemoWithReminder(reminderTime)
+            val updateRequest =
+                UpdateMemoRequest(title = "Updated Title", content = "Updated Content", reminderTime = null, isCompleted = false)
+            client.toBlocking().exchange(
+                HttpRequest.PUT("/$memoId", updateRequest).bearerAuth(generateJwtToken(testUser)),
+                Void::class.java,
+            )
+
+            // Act
+            val processed = outboxRelay.sweep(reminderTime.minus(1, ChronoUnit.MINUTES))
+
+            // Assert - the reminder left the outbox without reaching the transport
+            assertEquals(1, processed)
+            verify(exactly = 0) { notificationService.publishNotifications(any()) }
+            val bucket = OutboxMessage.bucketOf(reminderTime.minus(NotificationScheduleService.REMINDER_LEAD))
+            assertTrue(outboxRepository.findByBucket(bucket, null, 10).isEmpty())
+        }
+
+        @Test
+        fun `should relay only the latest version of a rescheduled reminder`() {
+            // Arrange - the first reminder is still in the outbox when the memo is rescheduled
+            val memoId = createMemoWithReminder(futureTime)
+            val newReminderTime = anotherFutureTime
+            val updateRequest =
+                UpdateMemoRequest(title = "Updated Title", content = "Updated Content", reminderTime = newReminderTime, isCompleted = false)
+            client.toBlocking().exchange(
+                HttpRequest.PUT("/$memoId", updateRequest).bearerAuth(generateJwtToken(testUser)),
+                Void::class.java,
+            )
+
+            // Act
+            val processed = outboxRelay.sweep()
+
+            // Assert - both reminders left the outbox, only the current one was sent
+            assertEquals(2, processed)
+            verify(exactly = 1) {
+                notificationService.publishNotifications(
+                    match { reminders ->
+                        reminders.single().dueAt == newReminderTime.minus(NotificationScheduleService.REMINDER_LEAD)
+                    },
+                )
+            }
+        }
+
+        @Test
+        fun `should relay thousands of reminders due within one minute in a single sweep`() {
+            // Arrange - reminders due every 30ms over one minute, starting in 30 seconds
+            val count = 2000
+            val firstDueAt = Instant.now().plusSeconds(30).truncatedTo(ChronoUnit.MILLIS)
+            // Three writes per reminder, within the limit of 100 per transaction
+            (0 until count).chunked(30).forEach { chunk ->
+                val operations =
+                    chunk.flatMap { i ->
+                        val dueAt = firstDueAt.plusMillis(i * 30L)
+                        val reminderTime = dueAt.plus(NotificationScheduleService.REMINDER_LEAD)
+                        val memo =
+                            memoRepository.newMemo(
+                                userId = testUser.id,
+                                title = "Memo $i",
+                                content = "Content $i",
+                                reminderTime = reminderTime,
+                            )
+                        listOf(
+                            memoRepository.createOperation(memo),
+                            outboxRepository.enqueueOperation(
+                                memo.id,
+                                OutboxMessageType.REMIND,
+                                "notification-$i",
+                                1,
+                                testUser.email,
+                                dueAt,
+                            ),
+                        ) + notificationScheduleRepository.saveOperations(memo.id, "notification-$i", reminderTime, 1)
+                    }
+                memoRepository.transactWrite(operations)
+            }
+
+            val published = mutableListOf<List<ReminderNotification>>()
+            every { notificationService.publishNotifications(capture(published)) } answers { callOriginal() }
+
+            // Act
+            val processed = outboxRelay.sweep()
+
+            // Assert - a minute worth of reminders is relayed by one sweep and leaves every bucket empty
+            assertEquals(count, processed)
+            assertEquals(count, published.sumOf { it.size })
+            assertTrue(published.size >= count / OutboxRelay.DEFAULT_BATCH_SIZE)
+            val lastBucket = OutboxMessage.bucketOf(firstDueAt.plusMillis(count * 30L))
+            (OutboxMessage.bucketOf(firstDueAt)..lastBucket).forEach { bucket ->
+                assertTrue(outboxRepository.findByBucket(bucket, null, 1).isEmpty())
+            }
+        }
+
+        private fun createMemoWithReminder(reminderTime: Instant): String {
+            val createRequest = CreateMemoRequest(title = "Reminder", content = "Content", reminderTime = reminderTime)
+            val response =
+                client.toBlocking().exchange(
+                    HttpRequest.POST("/", createRequest).bearerAuth(generateJwtToken(testUser)),
+                    MemoResponse::class.java,
+                )
+            assertEquals(HttpStatus.CREATED, response.status)
+            return response.header("Location")!!.substringAfterLast('/')
+        }
+    }
+
     // Helper method to generate JWT token
     private fun generateJwtToken(user: CurrentUser): String {
         val claims =
@@ -16,11 +16,17 @@ import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.ExtendWith
 import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.NotificationSchedule
 import top.sunbath.api.memo.repository.MemoListFilter
 import top.sunbath.api.memo.repository.MemoRepository
 import top.sunbath.api.memo.repository.MemoSort
 import top.sunbath.api.memo.repository.MemoSortKey
 import top.sunbath.api.memo.repository.MemoSortOrder
+import top.sunbath.api.memo.repository.MemoWithSchedule
+import top.sunbath.shared.dynamodb.TransactionConditionFailedException
+import top.sunbath.shared.dynamodb.TransactionFailure
+import top.sunbath.shared.dynamodb.TransactionFailureReason
+import top.sunbath.shared.dynamodb.TransactionOperation
 import top.sunbath.shared.types.CurrentUser
 import java.time.Instant
 
@@ -44,6 +50,10 @@ class MemoServiceTest {
             email = "test@example.com",
         )
 
+    private val memoOperation = TransactionOperation.Put(emptyMap(), label = "memo")
+
+    private val scheduleOperation = TransactionOperation.Put(emptyMap(), label = "notificationSchedule")
+
     @BeforeEach
     fun setup() {
         MockKAnnotations.init(this)
@@ -66,9 +76,10 @@ class MemoServiceTest {
                 this.reminderTime = reminderTime
             }
 
-        every { memoRepository.save(any(), any(), any(), any()) } returns memoId
-        every { memoRepository.findById(memoId) } returns memo
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } just runs
+        every { memoRepository.newMemo(any(), any(), any(), any()) } returns memo
+        every { memoRepository.createOperation(memo) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns listOf(scheduleOperation)
 
         // When
         val result = memoService.createMemo(testUserInfo, title, content, reminderTime)
@@ -77,9 +88,9 @@ class MemoServiceTest {
         assertEquals(memoId, result.id)
 
         // Verify
-        verify(exactly = 1) { memoRepository.save(testUserInfo.id, title, content, reminderTime) }
-        verify(exactly = 2) { memoRepository.findById(memoId) }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
+        verify(exactly = 1) { memoRepository.newMemo(testUserInfo.id, title, content, reminderTime) }
+        verify(exactly = 1) { notificationScheduleService.scheduleOperations(memo, null, testUserInfo) }
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation, scheduleOperation)) }
     }
 
     @Test
@@ -98,9 +109,10 @@ class MemoServiceTest {
                 this.reminderTime = reminderTime
             }
 
-        every { memoRepository.save(any(), any(), any(), any()) } returns memoId
-        every { memoRepository.findById(memoId) } returns memo
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } throws RuntimeException("Test exception")
+        every { memoRepository.newMemo(any(), any(), any(), any()) } returns memo
+        every { memoRepository.createOperation(memo) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } throws RuntimeException("Test exception")
 
         // When
         val result = memoService.createMemo(testUserInfo, title, content, reminderTime)
@@ -109,9 +121,9 @@ class MemoServiceTest {
         assertEquals(memoId, result.id)
 
         // Verify
-        verify(exactly = 1) { memoRepository.save(testUserInfo.id, title, content, reminderTime) }
-        verify(exactly = 2) { memoRepository.findById(memoId) }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
+        verify(exactly = 1) { memoRepository.newMemo(testUserInfo.id, title, content, reminderTime) }
+        verify(exactly = 1) { notificationScheduleService.scheduleOperations(memo, null, testUserInfo) }
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation)) }
     }
 
     @Test
@@ -350,9 +362,10 @@ class MemoServiceTest {
                 isCompleted = true
             }
 
-        every { memoRepository.findById(memoId) } returnsMany listOf(memo, updatedMemo)
-        every { memoRepository.update(any(), any(), any(), any(), any(), any()) } returns true
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } just runs
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns listOf(scheduleOperation)
 
         // When
         val result =
@@ -370,18 +383,32 @@ class MemoServiceTest {
         assertTrue(result)
 
         // Verify
-        verify(exactly = 2) { memoRepository.findById(memoId) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
         verify(exactly = 1) {
-            memoRepository.update(
-                id = memoId,
-                title = updatedTitle,
-                content = updatedContent,
-                reminderTime = updatedReminderTime,
-                isCompleted = true,
-                isDeleted = false,
+            memoRepository.updateOperation(
+                match {
+                    it.id == memoId &&
+                        it.title == updatedTitle &&
+                        it.content == updatedContent &&
+                        it.reminderTime == updatedReminderTime &&
+                        it.isCompleted &&
+                        !it.isDeleted
+                },
+            )
+        }
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation, scheduleOperation)) }
+        verify(exactly = 1) {
+            notificationScheduleService.scheduleOperations(
+                match {
+                    it.id == updatedMemo.id &&
+                        it.title == updatedMemo.title &&
+                        it.reminderTime == updatedMemo.reminderTime &&
+                        it.isCompleted == updatedMemo.isCompleted
+                },
+                null,
+                testUserInfo,
             )
         }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
     }
 
     @Test
@@ -390,7 +417,7 @@ class MemoServiceTest {
         val memoId = "non-existent-memo-id"
         val updatedTitle = "Updated Title"
 
-        every { memoRepository.findById(memoId) } returns null
+        every { memoRepository.findWithSchedule(memoId) } returns null
 
         // When
         val result =
@@ -408,9 +435,9 @@ class MemoServiceTest {
         assertFalse(result)
 
         // Verify
-        verify(exactly = 1) { memoRepository.findById(memoId) }
-        verify(exactly = 0) { memoRepository.update(any(), any(), any(), any(), any(), any()) }
-        verify(exactly = 0) { notificationScheduleService.handleNotificationSchedule(any(), any()) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 0) { memoRepository.transactWrite(any()) }
+        verify(exactly = 0) { notificationScheduleService.scheduleOperations(any(), any(), any()) }
     }
 
     @Test
@@ -427,7 +454,7 @@ class MemoServiceTest {
                 content = "Original Content"
             }
 
-        every { memoRepository.findById(memoId) } returns memo
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
 
         // When
         val result =
@@ -445,9 +472,132 @@ class MemoServiceTest {
         assertFalse(result)
 
         // Verify
-        verify(exactly = 1) { memoRepository.findById(memoId) }
-        verify(exactly = 0) { memoRepository.update(any(), any(), any(), any(), any(), any()) }
-        verify(exactly = 0) { notificationScheduleService.handleNotificationSchedule(any(), any()) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 0) { memoRepository.transactWrite(any()) }
+        verify(exactly = 0) { notificationScheduleService.scheduleOperations(any(), any(), any()) }
+    }
+
+    @Test
+    fun `test updateMemo returns false when the memo disappears before the write`() {
+        // Given
+        val memoId = "test-memo-id"
+        val memo =
+            Memo().apply {
+                id = memoId
+                userId = testUserInfo.id
+                title = "Original Title"
+                content = "Original Content"
+            }
+        val failure = TransactionFailure(0, "memo", TransactionFailureReason.CONDITIONAL_CHECK_FAILED, "The conditional request failed")
+
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns emptyList()
+        every { memoRepository.transactWrite(any()) } throws TransactionConditionFailedException(listOf(failure))
+
+        // When
+        val result =
+            memoService.updateMemo(
+                testUserInfo,
+                memoId,
+                "Updated Title",
+                "Updated Content",
+                null,
+                false,
+                false,
+            )
+
+        // Then
+        assertFalse(result)
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation)) }
+    }
+
+    @Test
+    fun `test updateMemo reloads the schedule when it changed concurrently`() {
+        // Given
+        val memoId = "test-memo-id"
+        val memo =
+            Memo().apply {
+                id = memoId
+                userId = testUserInfo.id
+                title = "Original Title"
+                content = "Original Content"
+            }
+        val staleSchedule = NotificationSchedule().apply { id = memoId }
+        val currentSchedule = NotificationSchedule().apply { id = memoId }
+        val failure =
+            TransactionFailure(
+                1,
+                "notificationSchedule",
+                TransactionFailureReason.CONDITIONAL_CHECK_FAILED,
+                "The conditional request failed",
+            )
+
+        every { memoRepository.findWithSchedule(memoId) } returnsMany
+            listOf(MemoWithSchedule(memo, staleSchedule), MemoWithSchedule(memo, currentSchedule))
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns listOf(scheduleOperation)
+        every { memoRepository.transactWrite(any()) } throws TransactionConditionFailedException(listOf(failure)) andThenJust runs
+
+        // When
+        val result =
+            memoService.updateMemo(
+                testUserInfo,
+                memoId,
+                "Updated Title",
+                "Updated Content",
+                Instant.now().plusSeconds(3600),
+                false,
+                false,
+            )
+
+        // Then
+        assertTrue(result)
+        verify(exactly = 2) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 1) { notificationScheduleService.scheduleOperations(any(), staleSchedule, testUserInfo) }
+        verify(exactly = 1) { notificationScheduleService.scheduleOperations(any(), currentSchedule, testUserInfo) }
+        verify(exactly = 2) { memoRepository.transactWrite(listOf(memoOperation, scheduleOperation)) }
+    }
+
+    @Test
+    fun `test updateMemo gives up when the schedule keeps changing`() {
+        // Given
+        val memoId = "test-memo-id"
+        val memo =
+            Memo().apply {
+                id = memoId
+                userId = testUserInfo.id
+                title = "Original Title"
+                content = "Original Content"
+            }
+        val failure =
+            TransactionFailure(
+                1,
+                "notificationSchedule",
+                TransactionFailureReason.CONDITIONAL_CHECK_FAILED,
+                "The conditional request failed",
+            )
+
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns listOf(scheduleOperation)
+        every { memoRepository.transactWrite(any()) } throws TransactionConditionFailedException(listOf(failure))
+
+        // When
+        val result =
+            memoService.updateMemo(
+                testUserInfo,
+                memoId,
+                "Updated Title",
+                "Updated Content",
+                Instant.now().plusSeconds(3600),
+                false,
+                false,
+            )
+
+        // Then
+        assertFalse(result)
+        verify(exactly = 3) { memoRepository.transactWrite(any()) }
     }
 
     @Test
@@ -470,9 +620,10 @@ class MemoServiceTest {
                 content = "Original Content"
             }
 
-        every { memoRepository.findById(memoId) } returnsMany listOf(memo, updatedMemo)
-        every { memoRepository.update(any(), any(), any(), any(), any(), any()) } returns true
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } throws RuntimeException("Test exception")
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } throws RuntimeException("Test exception")
 
         // When
         val result =
@@ -490,9 +641,20 @@ class MemoServiceTest {
         assertTrue(result)
 
         // Verify
-        verify(exactly = 2) { memoRepository.findById(memoId) }
-        verify(exactly = 1) { memoRepository.update(any(), any(), any(), any(), any(), any()) }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation)) }
+        verify(exactly = 1) {
+            notificationScheduleService.scheduleOperations(
+                match {
+                    it.id == updatedMemo.id &&
+                        it.title == updatedMemo.title &&
+                        it.reminderTime == updatedMemo.reminderTime &&
+                        it.isCompleted == updatedMemo.isCompleted
+                },
+                null,
+                testUserInfo,
+            )
+        }
     }
 
     @Test
@@ -516,9 +678,10 @@ class MemoServiceTest {
                 isDeleted = true
             }
 
-        every { memoRepository.findById(memoId) } returnsMany listOf(memo, deletedMemo)
-        every { memoRepository.update(any(), any(), any(), any(), any(), any()) } returns true
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } just runs
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns listOf(scheduleOperation)
 
         // When
         val result = memoService.deleteMemo(testUserInfo, memoId)
@@ -527,18 +690,20 @@ class MemoServiceTest {
         assertTrue(result)
 
         // Verify
-        verify(exactly = 2) { memoRepository.findById(memoId) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
         verify(exactly = 1) {
-            memoRepository.update(
-                id = memoId,
-                title = memo.title,
-                content = memo.content,
-                reminderTime = memo.reminderTime,
-                isCompleted = memo.isCompleted,
-                isDeleted = true,
+            memoRepository.updateOperation(
+                match { it.id == memoId && it.title == memo.title && it.isDeleted },
+            )
+        }
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation, scheduleOperation)) }
+        verify(exactly = 1) {
+            notificationScheduleService.scheduleOperations(
+                match { it.id == deletedMemo.id && it.isDeleted == deletedMemo.isDeleted },
+                null,
+                testUserInfo,
             )
         }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
     }
 
     @Test
@@ -546,7 +711,7 @@ class MemoServiceTest {
         // Given
         val memoId = "non-existent-memo-id"
 
-        every { memoRepository.findById(memoId) } returns null
+        every { memoRepository.findWithSchedule(memoId) } returns null
 
         // When
         val result = memoService.deleteMemo(testUserInfo, memoId)
@@ -555,9 +720,9 @@ class MemoServiceTest {
         assertTrue(result)
 
         // Verify
-        verify(exactly = 1) { memoRepository.findById(memoId) }
-        verify(exactly = 0) { memoRepository.update(any(), any(), any(), any(), any(), any()) }
-        verify(exactly = 0) { notificationScheduleService.handleNotificationSchedule(any(), any()) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 0) { memoRepository.transactWrite(any()) }
+        verify(exactly = 0) { notificationScheduleService.scheduleOperations(any(), any(), any()) }
     }
 
     @Test
@@ -573,7 +738,7 @@ class MemoServiceTest {
                 content = "Test Content"
             }
 
-        every { memoRepository.findById(memoId) } returns memo
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
 
         // When
         val result = memoService.deleteMemo(testUserInfo, memoId)
@@ -582,9 +747,9 @@ class MemoServiceTest {
         assertFalse(result)
 
         // Verify
-        verify(exactly = 1) { memoRepository.findById(memoId) }
-        verify(exactly = 0) { memoRepository.update(any(), any(), any(), any(), any(), any()) }
-        verify(exactly = 0) { notificationScheduleService.handleNotificationSchedule(any(), any()) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 0) { memoRepository.transactWrite(any()) }
+        verify(exactly = 0) { notificationScheduleService.scheduleOperations(any(), any(), any()) }
     }
 
     @Test
@@ -608,9 +773,10 @@ class MemoServiceTest {
                 isDeleted = true
             }
 
-        every { memoRepository.findById(memoId) } returnsMany listOf(memo, deletedMemo)
-        every { memoRepository.update(any(), any(), any(), any(), any(), any()) } returns true
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } throws RuntimeException("Test exception")
+        every { memoRepository.findWithSchedule(memoId) } returns MemoWithSchedule(memo, null)
+        every { memoRepository.updateOperation(any()) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } throws RuntimeException("Test exception")
 
         // When
         val result = memoService.deleteMemo(testUserInfo, memoId)
@@ -619,13 +785,19 @@ class MemoServiceTest {
         assertTrue(result)
 
         // Verify
-        verify(exactly = 2) { memoRepository.findById(memoId) }
-        verify(exactly = 1) { memoRepository.update(any(), any(), any(), any(), any(), any()) }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
+        verify(exactly = 1) { memoRepository.findWithSchedule(memoId) }
+        verify(exactly = 1) { memoRepository.transactWrite(listOf(memoOperation)) }
+        verify(exactly = 1) {
+            notificationScheduleService.scheduleOperations(
+                match { it.id == deletedMemo.id && it.isDeleted == deletedMemo.isDeleted },
+                null,
+                testUserInfo,
+            )
+        }
     }
 
     @Test
-    fun `test handleNotificationSchedule calls service with correct parameters`() {
+    fun `test scheduleOperations calls service with correct parameters`() {
         // Given
         val memoId = "new-memo-id"
         val memo =
@@ -636,9 +808,10 @@ class MemoServiceTest {
                 content = "New Content"
             }
 
-        every { memoRepository.save(any(), any(), any(), any()) } returns memoId
-        every { memoRepository.findById(memoId) } returns memo
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } just runs
+        every { memoRepository.newMemo(any(), any(), any(), any()) } returns memo
+        every { memoRepository.createOperation(memo) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } returns emptyList()
 
         // When - call the private method via a public method to test its behavior
         val result = memoService.createMemo(testUserInfo, "New Memo", "New Content", null)
@@ -647,14 +820,12 @@ class MemoServiceTest {
         assertEquals(memoId, result.id)
 
         // Verify
-        verify(exactly = 1) { memoRepository.save(testUserInfo.id, "New Memo", "New Content", null) }
-        // 1 for createMemo, 1 for handleNotificationSchedule
-        verify(exactly = 2) { memoRepository.findById(memoId) }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
+        verify(exactly = 1) { memoRepository.newMemo(testUserInfo.id, "New Memo", "New Content", null) }
+        verify(exactly = 1) { notificationScheduleService.scheduleOperations(memo, null, testUserInfo) }
     }
 
     @Test
-    fun `test handleNotificationSchedule catches and logs exceptions`() {
+    fun `test scheduleOperations catches and logs exceptions`() {
         // Given
         val memoId = "new-memo-id"
         val memo =
@@ -665,9 +836,10 @@ class MemoServiceTest {
                 content = "New Content"
             }
 
-        every { memoRepository.save(any(), any(), any(), any()) } returns memoId
-        every { memoRepository.findById(memoId) } returns memo
-        every { notificationScheduleService.handleNotificationSchedule(any(), any()) } throws RuntimeException("Test exception")
+        every { memoRepository.newMemo(any(), any(), any(), any()) } returns memo
+        every { memoRepository.createOperation(memo) } returns memoOperation
+        every { memoRepository.transactWrite(any()) } just runs
+        every { notificationScheduleService.scheduleOperations(any(), any(), any()) } throws RuntimeException("Test exception")
 
         // When - the exception should be caught
         val result = memoService.createMemo(testUserInfo, "New Memo", "New Content", null)
@@ -676,8 +848,7 @@ class MemoServiceTest {
         assertEquals(memoId, result.id)
 
         // Verify
-        verify(exactly = 1) { memoRepository.save(testUserInfo.id, "New Memo", "New Content", null) }
-        verify(exactly = 2) { memoRepository.findById(memoId) }
-        verify(exactly = 1) { notificationScheduleService.handleNotificationSchedule(any(), testUserInfo) }
+        verify(exactly = 1) { memoRepository.newMemo(testUserInfo.id, "New Memo", "New Content", null) }
+        verify(exactly = 1) { notificationScheduleService.scheduleOperations(memo, null, testUserInfo) }
     }
 }
@@ -4,17 +4,19 @@ import io.mockk.MockKAnnotations
 import io.mockk.every
 import io.mockk.impl.annotations.MockK
 import io.mockk.junit5.MockKExtension
-import io.mockk.just
-import io.mockk.runs
+import io.mockk.slot
 import io.mockk.verify
-import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.ExtendWith
 import top.sunbath.api.memo.model.Memo
 import top.sunbath.api.memo.model.NotificationSchedule
+import top.sunbath.api.memo.model.OutboxMessageType
 import top.sunbath.api.memo.repository.NotificationScheduleRepository
-import top.sunbath.api.memo.service.notification.NotificationService
+import top.sunbath.api.memo.repository.OutboxRepository
+import top.sunbath.shared.dynamodb.TransactionOperation
 import top.sunbath.shared.types.CurrentUser
 import java.time.Instant
 
@@ -27,7 +29,7 @@ class NotificationScheduleServiceTest {
     private lateinit var notificationScheduleRepository: NotificationScheduleRepository
 
     @MockK
-    private lateinit var notificationService: NotificationService
+    private lateinit var outboxRepository: OutboxRepository
 
     private lateinit var notificationScheduleService: NotificationScheduleService
 
@@ -38,336 +40,240 @@ class NotificationScheduleServiceTest {
             email = "test@example.com",
         )
 
+    private val saveOperations = listOf(TransactionOperation.Put(emptyMap(), label = "notificationSchedule"))
+
+    private val cancelOperations =
+        listOf(
+            TransactionOperation.Put(emptyMap(), label = "notificationSchedule"),
+            TransactionOperation.Delete(emptyMap(), label = "legacyNotificationSchedule"),
+        )
+
+    private val remindOperation = TransactionOperation.Put(emptyMap(), label = "remind")
+
     @BeforeEach
     fun setup() {
         MockKAnnotations.init(this)
         notificationScheduleService =
             NotificationScheduleService(
                 notificationScheduleRepository,
-                notificationService,
+                outboxRepository,
             )
+        every { outboxRepository.enqueueOperation(any(), OutboxMessageType.REMIND, any(), any(), any(), any()) } returns remindOperation
     }
 
+    private fun memoOf(
+        reminderTime: Instant?,
+        isCompleted: Boolean = false,
+        isDeleted: Boolean = false,
+    ): Memo =
+        Memo().apply {
+            id = "test-memo-id"
+            userId = testUserInfo.id
+            title = "Test Memo"
+            content = "Test Content"
+            this.reminderTime = reminderTime
+            this.isCompleted = isCompleted
+            this.isDeleted = isDeleted
+        }
+
+    private fun scheduleOf(
+        reminderTime: Instant?,
+        version: Long = 3,
+    ): NotificationSchedule =
+        NotificationSchedule().apply {
+            id = "test-memo-id"
+            notificationId = if (reminderTime == null) "" else "old-notification-id"
+            this.reminderTime = reminderTime
+            this.version = version
+        }
+
     @Test
-    fun `test handleNotificationSchedule creates new notification for first time memo`() {
+    fun `test scheduleOperations enqueues a reminder for first time memo`() {
         // Given
-        val memoId = "test-memo-id"
         val futureTime = Instant.now().plusSeconds(3600)
-        val newNotificationId = "new-notification-id"
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Test Memo"
-                content = "Test Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = false
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns null
-        every { notificationService.publishNotification(memo, testUserInfo) } returns newNotificationId
-        every { notificationScheduleRepository.save(memoId, newNotificationId, futureTime) } returns memoId
+        val memo = memoOf(futureTime)
+        val notificationId = slot<String>()
+
+        every { notificationScheduleRepository.saveOperations(memo.id, capture(notificationId), futureTime, 1) } returns saveOperations
 
         // When
-        notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
+        val operations = notificationScheduleService.scheduleOperations(memo, null, testUserInfo)
 
         // Then
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 0) { notificationService.deleteNotification(any()) }
-        verify(exactly = 1) { notificationService.publishNotification(memo, testUserInfo) }
-        verify(exactly = 1) { notificationScheduleRepository.save(memoId, newNotificationId, futureTime) }
+        assertEquals(listOf(remindOperation) + saveOperations, operations)
+        verify(exactly = 1) {
+            outboxRepository.enqueueOperation(
+                memo.id,
+                OutboxMessageType.REMIND,
+                notificationId.captured,
+                1,
+                testUserInfo.email,
+                futureTime.minus(NotificationScheduleService.REMINDER_LEAD),
+            )
+        }
     }
 
     @Test
-    fun `test handleNotificationSchedule updates existing notification`() {
+    fun `test scheduleOperations replaces existing notification with the next version`() {
         // Given
-        val memoId = "test-memo-id"
-        val oldNotificationId = "old-notification-id"
-        val newNotificationId = "new-notification-id"
         val futureTime = Instant.now().plusSeconds(3600)
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Updated Memo"
-                content = "Updated Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = false
-            }
-        val existingSchedule =
-            NotificationSchedule().apply {
-                id = memoId
-                notificationId = oldNotificationId
-                reminderTime = Instant.now().plusSeconds(1800) // Earlier time
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns existingSchedule
-        every { notificationService.deleteNotification(oldNotificationId) } just runs
-        every { notificationService.publishNotification(memo, testUserInfo) } returns newNotificationId
-        every { notificationScheduleRepository.save(memoId, newNotificationId, futureTime) } returns memoId
-        every { notificationScheduleRepository.delete(memoId) } just runs
+        val memo = memoOf(futureTime)
+        val existingSchedule = scheduleOf(Instant.now().plusSeconds(1800))
+
+        every { notificationScheduleRepository.saveOperations(memo.id, any(), futureTime, 4) } returns saveOperations
 
         // When
-        notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
+        val operations = notificationScheduleService.scheduleOperations(memo, existingSchedule, testUserInfo)
+
+        // Then - the old reminder turns stale with the version, nothing is written for it
+        assertEquals(listOf(remindOperation) + saveOperations, operations)
+        verify(exactly = 1) { outboxRepository.enqueueOperation(memo.id, OutboxMessageType.REMIND, any(), 4, testUserInfo.email, any()) }
+        verify(exactly = 0) { notificationScheduleRepository.cancelOperations(any(), any()) }
+    }
+
+    @Test
+    fun `test scheduleOperations schedules again after a cancelled schedule`() {
+        // Given
+        val futureTime = Instant.now().plusSeconds(3600)
+        val memo = memoOf(futureTime)
+        val cancelledSchedule = scheduleOf(null, version = 2)
+
+        every { notificationScheduleRepository.saveOperations(memo.id, any(), futureTime, 3) } returns saveOperations
+
+        // When
+        val operations = notificationScheduleService.scheduleOperations(memo, cancelledSchedule, testUserInfo)
 
         // Then
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 1) { notificationService.deleteNotification(oldNotificationId) }
-        verify(exactly = 1) { notificationService.publishNotification(memo, testUserInfo) }
-        verify(exactly = 1) { notificationScheduleRepository.save(memoId, newNotificationId, futureTime) }
-        verify(exactly = 1) { notificationScheduleRepository.delete(memoId) }
+        assertEquals(listOf(remindOperation) + saveOperations, operations)
+        verify(exactly = 1) { outboxRepository.enqueueOperation(memo.id, OutboxMessageType.REMIND, any(), 3, testUserInfo.email, any()) }
     }
 
     @Test
-    fun `test handleNotificationSchedule cancels notification when memo is completed`() {
+    fun `test scheduleOperations cancels notification when memo is completed`() {
         // Given
-        val memoId = "test-memo-id"
-        val oldNotificationId = "old-notification-id"
         val futureTime = Instant.now().plusSeconds(3600)
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Completed Memo"
-                content = "Completed Content"
-                reminderTime = futureTime
-                isCompleted = true // Memo is completed
-                isDeleted = false
-            }
-        val existingSchedule =
-            NotificationSchedule().apply {
-                id = memoId
-                notificationId = oldNotificationId
-                reminderTime = futureTime
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns existingSchedule
-        every { notificationService.deleteNotification(oldNotificationId) } just runs
-        every { notificationScheduleRepository.delete(memoId) } just runs
+        val memo = memoOf(futureTime, isCompleted = true)
+        val existingSchedule = scheduleOf(futureTime)
+
+        every { notificationScheduleRepository.cancelOperations(memo.id, 4) } returns cancelOperations
 
         // When
-        notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
+        val operations = notificationScheduleService.scheduleOperations(memo, existingSchedule, testUserInfo)
 
         // Then
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 1) { notificationService.deleteNotification(oldNotificationId) }
-        verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-        verify(exactly = 1) { notificationScheduleRepository.delete(memoId) }
-        verify(exactly = 0) { notificationScheduleRepository.save(any(), any(), any()) }
+        assertEquals(cancelOperations, operations)
+        verify(exactly = 0) { outboxRepository.enqueueOperation(any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { notificationScheduleRepository.saveOperations(any(), any(), any(), any()) }
     }
 
     @Test
-    fun `test handleNotificationSchedule cancels notification when memo is deleted`() {
+    fun `test scheduleOperations cancels notification when memo is deleted`() {
         // Given
-        val memoId = "test-memo-id"
-        val oldNotificationId = "old-notification-id"
         val futureTime = Instant.now().plusSeconds(3600)
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Deleted Memo"
-                content = "Deleted Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = true // Memo is deleted
-            }
-        val existingSchedule =
-            NotificationSchedule().apply {
-                id = memoId
-                notificationId = oldNotificationId
-                reminderTime = futureTime
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns existingSchedule
-        every { notificationService.deleteNotification(oldNotificationId) } just runs
-        every { notificationScheduleRepository.delete(memoId) } just runs
+        val memo = memoOf(futureTime, isDeleted = true)
+        val existingSchedule = scheduleOf(futureTime)
+
+        every { notificationScheduleRepository.cancelOperations(memo.id, 4) } returns cancelOperations
 
         // When
-        notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
+        val operations = notificationScheduleService.scheduleOperations(memo, existingSchedule, testUserInfo)
 
         // Then
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 1) { notificationService.deleteNotification(oldNotificationId) }
-        verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-        verify(exactly = 1) { notificationScheduleRepository.delete(memoId) }
-        verify(exactly = 0) { notificationScheduleRepository.save(any(), any(), any()) }
+        assertEquals(cancelOperations, operations)
+        verify(exactly = 0) { outboxRepository.enqueueOperation(any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { notificationScheduleRepository.saveOperations(any(), any(), any(), any()) }
     }
 
     @Test
-    fun `test handleNotificationSchedule cancels notification when reminder time is past`() {
+    fun `test scheduleOperations cancels notification when reminder time is past`() {
         // Given
-        val memoId = "test-memo-id"
-        val oldNotificationId = "old-notification-id"
-        val pastTime = Instant.now().minusSeconds(3600) // Past time
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Past Memo"
-                content = "Past Content"
-                reminderTime = pastTime
-                isCompleted = false
-                isDeleted = false
-            }
-        val existingSchedule =
-            NotificationSchedule().apply {
-                id = memoId
-                notificationId = oldNotificationId
-                reminderTime = pastTime
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns existingSchedule
-        every { notificationService.deleteNotification(oldNotificationId) } just runs
-        every { notificationScheduleRepository.delete(memoId) } just runs
+        val pastTime = Instant.now().minusSeconds(3600)
+        val memo = memoOf(pastTime)
+        val existingSchedule = scheduleOf(pastTime)
+
+        every { notificationScheduleRepository.cancelOperations(memo.id, 4) } returns cancelOperations
 
         // When
-        notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
+        val operations = notificationScheduleService.scheduleOperations(memo, existingSchedule, testUserInfo)
 
         // Then
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 1) { notificationService.deleteNotification(oldNotificationId) }
-        verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-        verify(exactly = 1) { notificationScheduleRepository.delete(memoId) }
-        verify(exactly = 0) { notificationScheduleRepository.save(any(), any(), any()) }
+        assertEquals(cancelOperations, operations)
+        verify(exactly = 0) { outboxRepository.enqueueOperation(any(), any(), any(), any(), any(), any()) }
     }
 
     @Test
-    fun `test handleNotificationSchedule handles exception when sending notification fails`() {
+    fun `test scheduleOperations cancels notification when reminder time is removed`() {
         // Given
-        val memoId = "test-memo-id"
-        val futureTime = Instant.now().plusSeconds(3600)
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Test Memo"
-                content = "Test Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = false
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns null
-        every { notificationService.publishNotification(memo, testUserInfo) } throws RuntimeException("Failed to send notification")
-
-        // When & Then
-        assertThrows(RuntimeException::class.java) {
-            notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
-        }
+        val memo = memoOf(null)
+        val existingSchedule = scheduleOf(Instant.now().plusSeconds(3600))
+
+        every { notificationScheduleRepository.cancelOperations(memo.id, 4) } returns cancelOperations
+
+        // When
+        val operations = notificationScheduleService.scheduleOperations(memo, existingSchedule, testUserInfo)
 
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 0) { notificationService.deleteNotification(any()) }
-        verify(exactly = 1) { notificationService.publishNotification(memo, testUserInfo) }
-        verify(exactly = 0) { notificationScheduleRepository.save(any(), any(), any()) }
+        // Then
+        assertEquals(cancelOperations, operations)
+        verify(exactly = 0) { outboxRepository.enqueueOperation(any(), any(), any(), any(), any(), any()) }
     }
 
     @Test
-    fun `test handleNotificationSchedule handles exception when deleting notification fails`() {
+    fun `test scheduleOperations cancels a legacy schedule at version 1`() {
         // Given
-        val memoId = "test-memo-id"
-        val oldNotificationId = "old-notification-id"
-        val futureTime = Instant.now().plusSeconds(3600)
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Updated Memo"
-                content = "Updated Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = false
-            }
-        val existingSchedule =
-            NotificationSchedule().apply {
-                id = memoId
-                notificationId = oldNotificationId
-                reminderTime = Instant.now().plusSeconds(1800) // Earlier time
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns existingSchedule
-        every { notificationService.deleteNotification(oldNotificationId) } throws RuntimeException("Failed to delete notification")
-
-        // When & Then
-        assertThrows(RuntimeException::class.java) {
-            notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
-        }
+        val memo = memoOf(null)
+        val legacySchedule = scheduleOf(Instant.now().plusSeconds(3600), version = 0)
+
+        every { notificationScheduleRepository.cancelOperations(memo.id, 1) } returns cancelOperations
+
+        // When
+        val operations = notificationScheduleService.scheduleOperations(memo, legacySchedule, testUserInfo)
 
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 1) { notificationService.deleteNotification(oldNotificationId) }
-        verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-        verify(exactly = 0) { notificationScheduleRepository.save(any(), any(), any()) }
+        // Then
+        assertEquals(cancelOperations, operations)
     }
 
     @Test
-    fun `test handleNotificationSchedule handles exception when saving notification schedule fails`() {
+    fun `test scheduleOperations skips update when reminderTime is unchanged`() {
         // Given
-        val memoId = "test-memo-id"
         val futureTime = Instant.now().plusSeconds(3600)
-        val newNotificationId = "new-notification-id"
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Test Memo"
-                content = "Test Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = false
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns null
-        every { notificationService.publishNotification(memo, testUserInfo) } returns newNotificationId
-        every { notificationScheduleRepository.save(memoId, newNotificationId, futureTime) } throws
-            RuntimeException("Failed to save notification schedule")
-        every { notificationScheduleRepository.delete(any()) } just runs
-
-        // When & Then
-        assertThrows(RuntimeException::class.java) {
-            notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
-        }
+        val memo = memoOf(futureTime)
+        val existingSchedule = scheduleOf(futureTime) // Same reminder time as the memo
 
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 0) { notificationService.deleteNotification(any()) }
-        verify(exactly = 1) { notificationService.publishNotification(memo, testUserInfo) }
-        verify(exactly = 1) { notificationScheduleRepository.save(memoId, newNotificationId, futureTime) }
+        // When
+        val operations = notificationScheduleService.scheduleOperations(memo, existingSchedule, testUserInfo)
+
+        // Then
+        assertTrue(operations.isEmpty())
+        verify(exactly = 0) { outboxRepository.enqueueOperation(any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { notificationScheduleRepository.saveOperations(any(), any(), any(), any()) }
+        verify(exactly = 0) { notificationScheduleRepository.cancelOperations(any(), any()) }
     }
 
     @Test
-    fun `test handleNotificationSchedule skips update when reminderTime is unchanged`() {
+    fun `test scheduleOperations writes nothing when cancelling a memo without schedule`() {
         // Given
-        val memoId = "test-memo-id"
-        val existingNotificationId = "existing-notification-id"
-        val futureTime = Instant.now().plusSeconds(3600)
-        val memo =
-            Memo().apply {
-                id = memoId
-                userId = testUserInfo.id
-                title = "Updated Title Only"
-                content = "Unchanged Content"
-                reminderTime = futureTime
-                isCompleted = false
-                isDeleted = false
-            }
-        val existingSchedule =
-            NotificationSchedule().apply {
-                id = memoId
-                notificationId = existingNotificationId
-                reminderTime = futureTime // Same reminder time as the memo
-            }
-
-        every { notificationScheduleRepository.findById(memoId) } returns existingSchedule
+        val memo = memoOf(Instant.now().plusSeconds(3600), isCompleted = true)
+
+        // When
+        val operations = notificationScheduleService.scheduleOperations(memo, null, testUserInfo)
+
+        // Then
+        assertTrue(operations.isEmpty())
+        verify(exactly = 0) { outboxRepository.enqueueOperation(any(), any(), any(), any(), any(), any()) }
+        verify(exactly = 0) { notificationScheduleRepository.cancelOperations(any(), any()) }
+    }
+
+    @Test
+    fun `test scheduleOperations writes nothing when cancelling an already cancelled schedule`() {
+        // Given
+        val memo = memoOf(null)
+        val cancelledSchedule = scheduleOf(null)
 
         // When
-        notificationScheduleService.handleNotificationSchedule(memo, testUserInfo)
+        val operations = notificationScheduleService.scheduleOperations(memo, cancelledSchedule, testUserInfo)
 
         // Then
-        verify(exactly = 1) { notificationScheduleRepository.findById(memoId) }
-        verify(exactly = 0) { notificationService.deleteNotification(any()) }
-        verify(exactly = 0) { notificationService.publishNotification(any(), any()) }
-        verify(exactly = 0) { notificationScheduleRepository.save(any(), any(), any()) }
-        verify(exactly = 0) { notificationScheduleRepository.delete(any()) }
+        assertTrue(operations.isEmpty())
+        verify(exactly = 0) { notificationScheduleRepository.cancelOperations(any(), any()) }
     }
 }
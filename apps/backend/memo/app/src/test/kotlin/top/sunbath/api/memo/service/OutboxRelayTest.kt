@@ -0,0 +1,334 @@
+package top.sunbath.api.memo.service
+
+import io.mockk.MockKAnnotations
+import io.mockk.every
+import io.mockk.impl.annotations.MockK
+import io.mockk.junit5.MockKExtension
+import io.mockk.just
+import io.mockk.runs
+import io.mockk.verify
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.model.NotificationSchedule
+import top.sunbath.api.memo.model.OutboxMessage
+import top.sunbath.api.memo.model.OutboxMessageType
+import top.sunbath.api.memo.repository.MemoRepository
+import top.sunbath.api.memo.repository.MemoWithSchedule
+import top.sunbath.api.memo.repository.OutboxRepository
+import top.sunbath.api.memo.service.notification.NotificationService
+import top.sunbath.shared.dynamodb.DynamoDbLock
+import java.time.Instant
+
+/**
+ * Unit tests for the OutboxRelay.
+ */
+@ExtendWith(MockKExtension::class)
+class OutboxRelayTest {
+    @MockK
+    private lateinit var outboxRepository: OutboxRepository
+
+    @MockK
+    private lateinit var memoRepository: MemoRepository
+
+    @MockK
+    private lateinit var notificationService: NotificationService
+
+    @MockK
+    private lateinit var lock: DynamoDbLock
+
+    private lateinit var outboxRelay: OutboxRelay
+
+    private val now = Instant.parse("2026-01-01T00:00:30Z")
+
+    private val currentBucket = OutboxMessage.bucketOf(now)
+
+    @BeforeEach
+    fun setup() {
+        MockKAnnotations.init(this)
+        outboxRelay = OutboxRelay(outboxRepository, memoRepository, notificationService, lock)
+        every { lock.withLock(any(), any(), any()) } answers {
+            thirdArg<() -> Unit>().invoke()
+            true
+        }
+        every { outboxRepository.findCheckpoint() } returns currentBucket
+        every { outboxRepository.findByBucket(any(), any(), any()) } returns emptyList()
+        every { outboxRepository.deleteAll(any()) } returns emptyList()
+        every { outboxRepository.recordFailure(any(), any()) } just runs
+        every { outboxRepository.saveCheckpoint(any()) } just runs
+    }
+
+    private fun messageOf(
+        id: String,
+        memoId: String,
+        dueAt: Instant = now,
+        attempts: Int = 0,
+        version: Long = 1,
+    ): OutboxMessage =
+        OutboxMessage(
+            id = id,
+            memoId = memoId,
+            type = OutboxMessageType.REMIND,
+            notificationId = "notification-$id",
+            recipient = "test@example.com",
+            attempts = attempts,
+            createdAt = now.minusSeconds(3600),
+            version = version,
+            dueAt = dueAt,
+            bucket = OutboxMessage.bucketOf(dueAt),
+        )
+
+    private fun currentOf(
+        id: String,
+        version: Long = 1,
+    ): MemoWithSchedule {
+        val memo =
+            Memo().apply {
+                this.id = id
+                title = "Test Memo"
+                content = "Test Content"
+                reminderTime = now.plusSeconds(30)
+            }
+        val schedule =
+            NotificationSchedule().apply {
+                this.id = id
+                notificationId = "notification-$version"
+                reminderTime = memo.reminderTime
+                this.version = version
+            }
+        return MemoWithSchedule(memo, schedule)
+    }
+
+    @Test
+    fun `test sweep delivers due reminders in batches and deletes them`() {
+        // Given
+        val remind1 = messageOf("m1", "memo-1")
+        val remind2 = messageOf("m2", "memo-2")
+
+        every { outboxRepository.findByBucket(currentBucket, null, any()) } returns listOf(remind1, remind2)
+        every { memoRepository.findAllWithSchedules(setOf("memo-1", "memo-2")) } returns listOf(currentOf("memo-1"), currentOf("memo-2"))
+        every { notificationService.publishNotifications(any()) } returns setOf("m1", "m2")
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(2, processed)
+        verify(exactly = 1) { memoRepository.findAllWithSchedules(setOf("memo-1", "memo-2")) }
+        verify(exactly = 1) {
+            notificationService.publishNotifications(
+                match { reminders -> reminders.map { it.notificationId } == listOf("notification-m1", "notification-m2") },
+            )
+        }
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(remind1, remind2)) }
+        verify(exactly = 0) { outboxRepository.recordFailure(any(), any()) }
+    }
+
+    @Test
+    fun `test sweep drops reminders whose schedule version has moved on`() {
+        // Given - memo-1 was rescheduled and memo-2 cancelled after their reminders were enqueued
+        val stale1 = messageOf("m1", "memo-1", version = 1)
+        val stale2 = messageOf("m2", "memo-2", version = 1)
+        val current = messageOf("m3", "memo-1", version = 2)
+
+        every { outboxRepository.findByBucket(currentBucket, null, any()) } returns listOf(stale1, stale2, current)
+        every { memoRepository.findAllWithSchedules(setOf("memo-1", "memo-2")) } returns
+            listOf(currentOf("memo-1", version = 2), currentOf("memo-2", version = 2))
+        every { notificationService.publishNotifications(any()) } returns setOf("m3")
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then - one lookup decides for the whole batch
+        assertEquals(3, processed)
+        verify(exactly = 1) { memoRepository.findAllWithSchedules(any()) }
+        verify(exactly = 1) { notificationService.publishNotifications(match { it.single().messageId == "m3" }) }
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(stale1, stale2, current)) }
+    }
+
+    @Test
+    fun `test sweep drops reminders of memos without schedule`() {
+        // Given
+        val remind = messageOf("m1", "memo-1")
+
+        every { outboxRepository.findByBucket(currentBucket, null, any()) } returns listOf(remind)
+        every { memoRepository.findAllWithSchedules(any()) } returns listOf(MemoWithSchedule(currentOf("memo-1").memo, null))
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(1, processed)
+        verify(exactly = 0) { notificationService.publishNotifications(any()) }
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(remind)) }
+    }
+
+    @Test
+    fun `test sweep hands reminders to the transport with their due time`() {
+        // Given
+        val dueAt = now.plusSeconds(90)
+        val remind = messageOf("m1", "memo-1", dueAt = dueAt)
+
+        every { outboxRepository.findByBucket(OutboxMessage.bucketOf(dueAt), null, any()) } returns listOf(remind)
+        every { memoRepository.findAllWithSchedules(any()) } returns listOf(currentOf("memo-1"))
+        every { notificationService.publishNotifications(any()) } returns setOf("m1")
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(1, processed)
+        verify(exactly = 1) { notificationService.publishNotifications(match { it.single().dueAt == dueAt }) }
+    }
+
+    @Test
+    fun `test sweep leaves messages due after the lookahead for a later sweep`() {
+        // Given - the bucket of the horizon also holds messages due just after it
+        val horizon = now.plus(OutboxRelay.LOOKAHEAD)
+        val inTime = messageOf("m1", "memo-1", dueAt = horizon.minusSeconds(10))
+        val tooEarly = messageOf("m2", "memo-2", dueAt = horizon.plusSeconds(10))
+
+        every { outboxRepository.findByBucket(OutboxMessage.bucketOf(horizon), null, any()) } returns listOf(inTime, tooEarly)
+        every { memoRepository.findAllWithSchedules(any()) } returns listOf(currentOf("memo-1"))
+        every { notificationService.publishNotifications(any()) } returns setOf("m1")
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(1, processed)
+        verify(exactly = 1) { memoRepository.findAllWithSchedules(setOf("memo-1")) }
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(inTime)) }
+    }
+
+    @Test
+    fun `test sweep moves messages the transport did not accept to the next bucket`() {
+        // Given
+        val remind1 = messageOf("m1", "memo-1")
+        val remind2 = messageOf("m2", "memo-2")
+
+        every { outboxRepository.findByBucket(currentBucket, null, any()) } returns listOf(remind1, remind2)
+        every { memoRepository.findAllWithSchedules(any()) } returns listOf(currentOf("memo-1"), currentOf("memo-2"))
+        every { notificationService.publishNotifications(any()) } returns setOf("m1")
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(1, processed)
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(remind1)) }
+        verify(exactly = 1) { outboxRepository.recordFailure(remind2, currentBucket + 1) }
+    }
+
+    @Test
+    fun `test sweep drops messages that failed too often`() {
+        // Given
+        val remind = messageOf("m1", "memo-1", attempts = OutboxRelay.MAX_ATTEMPTS - 1)
+
+        every { outboxRepository.findByBucket(currentBucket, null, any()) } returns listOf(remind)
+        every { memoRepository.findAllWithSchedules(any()) } returns listOf(currentOf("memo-1"))
+        every { notificationService.publishNotifications(any()) } returns emptySet()
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(0, processed)
+        verify(exactly = 0) { outboxRepository.recordFailure(any(), any()) }
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(remind)) }
+    }
+
+    @Test
+    fun `test sweep drops reminders of memos that no longer exist`() {
+        // Given
+        val remind = messageOf("m1", "memo-1")
+
+        every { outboxRepository.findByBucket(currentBucket, null, any()) } returns listOf(remind)
+        every { memoRepository.findAllWithSchedules(any()) } returns emptyList()
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(1, processed)
+        verify(exactly = 0) { notificationService.publishNotifications(any()) }
+        verify(exactly = 1) { outboxRepository.deleteAll(listOf(remind)) }
+    }
+
+    @Test
+    fun `test sweep reads a bucket page by page`() {
+        // Given
+        val first = messageOf("m1", "memo-1")
+        val second = messageOf("m2", "memo-2")
+
+        every { memoRepository.findAllWithSchedules(any()) } returns listOf(currentOf("memo-1"), currentOf("memo-2"))
+        every { outboxRepository.findByBucket(currentBucket, null, 1) } returns listOf(first)
+        every { outboxRepository.findByBucket(currentBucket, first, 1) } returns listOf(second)
+        every { outboxRepository.findByBucket(currentBucket, second, 1) } returns emptyList()
+        every { notificationService.publishNotifications(match { it.single().messageId == "m1" }) } returns setOf("m1")
+        every { notificationService.publishNotifications(match { it.single().messageId == "m2" }) } returns setOf("m2")
+
+        // When
+        val processed = outboxRelay.sweep(now, batchSize = 1)
+
+        // Then
+        assertEquals(2, processed)
+        verify(exactly = 1) { outboxRepository.findByBucket(currentBucket, second, 1) }
+    }
+
+    @Test
+    fun `test sweep advances the checkpoint past buckets that can no longer change`() {
+        // Given
+        every { outboxRepository.findCheckpoint() } returns currentBucket - 5
+
+        // When
+        outboxRelay.sweep(now)
+
+        // Then - the previous minute stays open for writers with a slightly late clock
+        (currentBucket - 5..OutboxMessage.bucketOf(now.plus(OutboxRelay.LOOKAHEAD))).forEach { bucket ->
+            verify(exactly = 1) { outboxRepository.findByBucket(bucket, null, any()) }
+        }
+        verify(exactly = 1) { outboxRepository.saveCheckpoint(currentBucket - 1) }
+    }
+
+    @Test
+    fun `test sweep starts one hour back when there is no checkpoint`() {
+        // Given
+        every { outboxRepository.findCheckpoint() } returns null
+
+        // When
+        outboxRelay.sweep(now)
+
+        // Then
+        verify(exactly = 1) { outboxRepository.findByBucket(currentBucket - 60, null, any()) }
+        verify(exactly = 0) { outboxRepository.findByBucket(currentBucket - 61, any(), any()) }
+        verify(exactly = 1) { outboxRepository.saveCheckpoint(currentBucket - 1) }
+    }
+
+    @Test
+    fun `test sweep does nothing when the outbox is empty`() {
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(0, processed)
+        verify(exactly = 0) { memoRepository.findAllWithSchedules(any()) }
+        verify(exactly = 0) { outboxRepository.deleteAll(any()) }
+        verify(exactly = 0) { outboxRepository.saveCheckpoint(any()) }
+    }
+
+    @Test
+    fun `test sweep is skipped while another sweep holds the lock`() {
+        // Given
+        every { lock.withLock(any(), any(), any()) } returns false
+
+        // When
+        val processed = outboxRelay.sweep(now)
+
+        // Then
+        assertEquals(0, processed)
+        verify(exactly = 0) { outboxRepository.findCheckpoint() }
+    }
+}
@@ -0,0 +1,58 @@
+package top.sunbath.api.memo.service
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import top.sunbath.api.memo.model.Memo
+import top.sunbath.api.memo.service.notification.DigestConfiguration
+import top.sunbath.api.memo.service.notification.ReminderCoalescer
+import top.sunbath.api.memo.service.notification.ReminderNotification
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Unit tests for the ReminderCoalescer.
+ */
+class ReminderCoalescerTest {
+    private val reminderCoalescer = ReminderCoalescer(DigestConfiguration().apply { window = Duration.ofMinutes(1) })
+
+    private val now = Instant.parse("2030-01-01T09:00:00Z")
+
+    private fun reminderOf(
+        id: String,
+        recipient: String,
+        dueAt: Instant,
+    ): ReminderNotification = ReminderNotification("message-$id", "notification-$id", Memo().apply { this.id = id }, recipient, dueAt, 1)
+
+    @Test
+    fun `test coalesce groups the reminders of a recipient that are due together`() {
+        // Given
+        val reminders =
+            listOf(
+                reminderOf("1", "a@example.com", now.plusSeconds(30)),
+                reminderOf("2", "b@example.com", now),
+                reminderOf("3", "a@example.com", now),
+                reminderOf("4", "a@example.com", now.plusSeconds(90)),
+            )
+
+        // When
+        val groups = reminderCoalescer.coalesce(reminders)
+
+        // Then - the last reminder of a@example.com is outside the window of the first one
+        assertEquals(
+            listOf(listOf("3", "1"), listOf("2"), listOf("4")),
+            groups.map { group -> group.map { it.memo.id } },
+        )
+    }
+
+    @Test
+    fun `test coalesce keeps single reminders apart`() {
+        // Given
+        val reminders = listOf(reminderOf("1", "a@example.com", now), reminderOf("2", "b@example.com", now))
+
+        // When
+        val groups = reminderCoalescer.coalesce(reminders)
+
+        // Then
+        assertEquals(2, groups.size)
+    }
+}
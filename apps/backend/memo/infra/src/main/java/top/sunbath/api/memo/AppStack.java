@@ -11,6 +11,9 @@ import software.amazon.awscdk.StackProps;
 import software.amazon.awscdk.aws_apigatewayv2_integrations.HttpLambdaIntegration;
 import software.amazon.awscdk.services.apigatewayv2.*;
 import software.amazon.awscdk.services.dynamodb.*;
+import software.amazon.awscdk.services.events.Rule;
+import software.amazon.awscdk.services.events.Schedule;
+import software.amazon.awscdk.services.events.targets.LambdaFunction;
 import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.iam.Effect;
 import software.amazon.awscdk.services.lambda.Runtime;
@@ -51,6 +54,22 @@ public class AppStack extends Stack {
                                 .tracing(Tracing.ACTIVE).architecture(Architecture.X86_64)
                                 .snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS).build();
 
+                // Drains the notification outbox written by the API function
+                var outboxRelayFunction = MicronautFunction
+                                .create(ApplicationType.DEFAULT, false, this, serviceName + "-outbox-relay-function")
+                                .runtime(Runtime.JAVA_21)
+                                .handler("top.sunbath.api.memo.handler.OutboxRelayFunctionHandler")
+                                .environment(environmentVariables).code(Code.fromAsset(functionPath()))
+                                .timeout(Duration.seconds(50)).memorySize(512).logRetention(RetentionDays.ONE_WEEK)
+                                .tracing(Tracing.ACTIVE).architecture(Architecture.X86_64)
+                                .snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS).build();
+
+                Rule.Builder.create(this, serviceName + "-outbox-relay-schedule")
+                                .schedule(Schedule.rate(Duration.minutes(1)))
+                                .targets(Arrays.asList(LambdaFunction.Builder.create(outboxRelayFunction)
+                                                .retryAttempts(0).build()))
+                                .build();
+
                 // 获取当前区域和账户 ID
                 String region = this.getRegion();
                 String accountId = this.getAccount();
@@ -67,11 +86,13 @@ public class AppStack extends Stack {
                 // 授予 Lambda 函数对 DynamoDB 表的读写权限
                 singleTable.grantReadWriteData(function);
                 distributedLocksTable.grantReadWriteData(function);
+                singleTable.grantReadWriteData(outboxRelayFunction);
 
                 // 额外授予 Lambda 函数创建和管理索引的权限
                 function.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
                                 .actions(Arrays.asList("dynamodb:UpdateTable", "dynamodb:DescribeTable",
-                                                "dynamodb:CreateTable"))
+                                                "dynamodb:CreateTable", "dynamodb:DescribeTimeToLive",
+                                                "dynamodb:UpdateTimeToLive"))
                                 .resources(Arrays.asList(singleTable.getTableArn(),
                                                 // index
                                                 singleTable.getTableArn() + "/*", distributedLocksArn))
@@ -84,6 +105,13 @@ public class AppStack extends Stack {
                                                 singleTable.getTableArn() + "/*", distributedLocksArn))
                                 .build());
 
+                // The outbox relay queries the bucketed outbox index and sweeps under a distributed lock
+                distributedLocksTable.grantReadWriteData(outboxRelayFunction);
+                outboxRelayFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                                .actions(Arrays.asList("dynamodb:Query", "dynamodb:DescribeTable"))
+                                .resources(Arrays.asList(singleTable.getTableArn() + "/*", distributedLocksArn))
+                                .build());
+
                 var currentVersion = function.getCurrentVersion();
                 var prodAlias = Alias.Builder.create(this, "ProdAlias").aliasName("Prod").version(currentVersion)
                                 .build();
@@ -118,15 +146,15 @@ public class AppStack extends Stack {
                 ApiMapping.Builder.create(this, serviceName + "-api-mapping").api(httpApi).domainName(domainNameV2)
                                 .apiMappingKey(basePath).stage(httpApi.getDefaultStage()).build();
 
-                // 配置 SQS 队列权限
-                var queueNames = Arrays.asList("email-queue", "prevent-email-job-queue");
+                // 配置 SQS 队列权限, only the outbox relay sends messages
+                var queueNames = Arrays.asList("email-low-priority-queue");
                 for (var queueName : queueNames) {
                         var queueArn = String.format("arn:aws:sqs:%s:%s:%s", region, accountId, queueName);
                         System.out.println("Queue ARN: " + queueArn);
                         var sqsQueue = Queue.fromQueueAttributes(this, queueArn + "Queue",
                                         QueueAttributes.builder().queueArn(queueArn).build());
                         // Grant permission to get the queue URL
-                        function.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
+                        outboxRelayFunction.addToRolePolicy(PolicyStatement.Builder.create().effect(Effect.ALLOW)
                                         .actions(Arrays.asList("sqs:GetQueueUrl", "sqs:SendMessage"))
                                         .resources(Arrays.asList(sqsQueue.getQueueArn())).build());
                 }
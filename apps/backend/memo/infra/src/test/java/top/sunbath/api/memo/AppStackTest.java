@@ -17,6 +17,8 @@ class AppStackTest {
             Template template = Template.fromStack(stack);
             template.hasResourceProperties("AWS::Lambda::Function", Collections.singletonMap("Handler",
                     "io.micronaut.function.aws.proxy.payload2.APIGatewayV2HTTPEventFunction"));
+            template.hasResourceProperties("AWS::Lambda::Function", Collections.singletonMap("Handler",
+                    "top.sunbath.api.memo.handler.OutboxRelayFunctionHandler"));
         }
     }
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ plugins {
     id("org.jlleitschuh.gradle.ktlint")
     id("com.google.devtools.ksp")
     id("io.micronaut.application")
+    id("me.champeau.jmh")
 }
 
 ktlint {
@@ -26,6 +27,13 @@ tasks.withType<org.jlleitschuh.gradle.ktlint.tasks.KtLintFormatTask>().configure
     enabled = true
 }
 
+// Benchmarks live in src/jmh and run with ./gradlew :libs:jvm-shared-lib:jmh
+jmh {
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+}
+
 version = "0.1"
 group = "top.sunbath.shared"
 
@@ -35,6 +43,7 @@ dependencies {
     implementation(platform(libs.micronaut.bom))
 
     // KSP Annotation Processors
+    ksp(libs.micronaut.serde.processor)
     ksp(libs.micronaut.validation.processor)
 
     // Micronaut Dependencies
@@ -47,6 +56,7 @@ dependencies {
 
     // AWS SDK Dependencies
     implementation(libs.aws.dynamodb)
+    implementation(libs.aws.sqs)
     implementation(libs.aws.ssm)
 
     // Other Dependencies
@@ -58,3 +68,7 @@ dependencies {
     testImplementation(libs.mockk)
     testImplementation(libs.micronaut.test.junit5)
 }
+
+micronaut {
+    testRuntime("junit5")
+}
@@ -0,0 +1,93 @@
+package top.sunbath.shared.template
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Renders a reminder-sized email with [HtmlTemplate] and with string interpolation and `trimIndent()` on every
+ * call, the way the emails were built before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class HtmlTemplateBenchmark {
+    private val title = "Buy <groceries> & \"snacks\""
+    private val content = "Milk\nEggs\nBread & butter\n".repeat(5)
+
+    private val template =
+        HtmlTemplate(
+            """
+            <!DOCTYPE html>
+            <html>
+            <head>
+                <meta charset="UTF-8">
+                <title>{{title}}</title>
+            </head>
+            <body style="margin: 0; padding: 20px; font-family: Arial, sans-serif;">
+                <div style="max-width: 600px; margin: auto;">
+                    <h1 style="color: #2c3e50; margin-bottom: 30px;">Memo Reminder</h1>
+                    <div style="background: #f8f9fa; border-radius: 8px; padding: 20px; margin-bottom: 25px;">
+                        <h2 style="color: #2c3e50; margin-top: 0; font-size: 20px;">
+                            {{title}}
+                        </h2>
+                        <div style="color: #555; line-height: 1.6; margin-bottom: 15px;">
+                            {{{content}}}
+                        </div>
+                    </div>
+                    <p style="color: #666; line-height: 1.6; margin-bottom: 25px;">
+                        This is a friendly reminder about your memo. You can view and manage all your memos on our platform:
+                    </p>
+                    <div style="border-top: 1px solid #eee; padding-top: 20px; margin-top: 30px; color: #95a5a6; font-size: 12px;">
+                        <p>This is an automated message. Please do not reply directly to this email.</p>
+                    </div>
+                </div>
+            </body>
+            </html>
+            """.trimIndent(),
+        )
+
+    @Benchmark
+    fun interpolated(): String =
+        """
+        <!DOCTYPE html>
+        <html>
+        <head>
+            <meta charset="UTF-8">
+            <title>$title</title>
+        </head>
+        <body style="margin: 0; padding: 20px; font-family: Arial, sans-serif;">
+            <div style="max-width: 600px; margin: auto;">
+                <h1 style="color: #2c3e50; margin-bottom: 30px;">Memo Reminder</h1>
+                <div style="background: #f8f9fa; border-radius: 8px; padding: 20px; margin-bottom: 25px;">
+                    <h2 style="color: #2c3e50; margin-top: 0; font-size: 20px;">
+                        $title
+                    </h2>
+                    <div style="color: #555; line-height: 1.6; margin-bottom: 15px;">
+                        ${content.replace("\n", "<br>")}
+                    </div>
+                </div>
+                <p style="color: #666; line-height: 1.6; margin-bottom: 25px;">
+                    This is a friendly reminder about your memo. You can view and manage all your memos on our platform:
+                </p>
+                <div style="border-top: 1px solid #eee; padding-top: 20px; margin-top: 30px; color: #95a5a6; font-size: 12px;">
+                    <p>This is an automated message. Please do not reply directly to this email.</p>
+                </div>
+            </div>
+        </body>
+        </html>
+        """.trimIndent()
+
+    @Benchmark
+    fun precompiled(): String =
+        template.render(
+            mapOf(
+                "title" to title,
+                "content" to HtmlTemplate.escape(content).replace("\n", "<br>"),
+            ),
+        )
+}
@@ -54,6 +54,7 @@ class DynamoDbInitializer(
                             if (!repository.existsTable()) {
                                 LOG.info("Creating table $tableName")
                                 repository.createTable()
+                                repository.ensureTimeToLive()
                                 LOG.info("Table $tableName created successfully")
                             } else {
                                 LOG.info("Table $tableName was created by another instance while acquiring lock")
@@ -74,6 +75,7 @@ class DynamoDbInitializer(
                         lock.withLock(indexCreationLockId) {
                             LOG.info("Updating indexes for table $tableName")
                             repository.updateTableIndexes()
+                            repository.ensureTimeToLive()
                         }
 
                     if (!acquired) {
@@ -12,22 +12,42 @@ import org.slf4j.LoggerFactory
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient
 import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest
 import software.amazon.awssdk.services.dynamodb.model.BillingMode
 import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest
 import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest
+import software.amazon.awssdk.services.dynamodb.model.DescribeTimeToLiveRequest
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest
 import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndex
 import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement
 import software.amazon.awssdk.services.dynamodb.model.KeyType
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes
 import software.amazon.awssdk.services.dynamodb.model.Projection
 import software.amazon.awssdk.services.dynamodb.model.ProjectionType
+import software.amazon.awssdk.services.dynamodb.model.PutRequest
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse
 import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException
 import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType
+import software.amazon.awssdk.services.dynamodb.model.TimeToLiveSpecification
+import software.amazon.awssdk.services.dynamodb.model.TimeToLiveStatus
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItem
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException
+import software.amazon.awssdk.services.dynamodb.model.UpdateTimeToLiveRequest
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest
 import java.util.Arrays
 import java.util.Collections
+import software.amazon.awssdk.services.dynamodb.model.ConditionCheck as ConditionCheckAction
+import software.amazon.awssdk.services.dynamodb.model.Delete as DeleteAction
+import software.amazon.awssdk.services.dynamodb.model.Get as GetAction
+import software.amazon.awssdk.services.dynamodb.model.Put as PutAction
+import software.amazon.awssdk.services.dynamodb.model.Update as UpdateAction
 
 @Requires(condition = CIAwsRegionProviderChainCondition::class)
 @Requires(condition = CIAwsCredentialsProviderChainCondition::class)
@@ -46,6 +66,30 @@ open class DynamoRepository<T : Identified>(
         protected const val ATTRIBUTE_GSI_1_PK = "GSI1PK"
         protected const val ATTRIBUTE_GSI_1_SK = "GSI1SK"
         protected const val INDEX_GSI_1 = "GSI1"
+        protected const val CONDITION_NOT_EXISTS = "attribute_not_exists($ATTRIBUTE_PK)"
+        protected const val CONDITION_EXISTS = "attribute_exists($ATTRIBUTE_PK)"
+
+        /**
+         * Items carrying this attribute, in epoch seconds, are deleted by DynamoDB some time after it passed.
+         */
+        protected const val ATTRIBUTE_TTL = "ttl"
+
+        /**
+         * DynamoDB accepts at most 100 operations per transaction.
+         */
+        const val MAX_TRANSACTION_OPERATIONS = 100
+
+        /**
+         * DynamoDB accepts at most 100 keys per BatchGetItem and 25 requests per BatchWriteItem.
+         */
+        const val MAX_BATCH_GET_KEYS = 100
+        const val MAX_BATCH_WRITE_REQUESTS = 25
+
+        /**
+         * Unprocessed keys are retried with exponential backoff, starting at [BATCH_RETRY_BASE_DELAY_MILLIS].
+         */
+        private const val MAX_BATCH_ATTEMPTS = 5
+        private const val BATCH_RETRY_BASE_DELAY_MILLIS = 50L
 
         private val SUPPORTED_INDEXES =
             mutableListOf(
@@ -118,6 +162,24 @@ open class DynamoRepository<T : Identified>(
                         .build(),
                 ).build()
 
+        private fun attributeDefinitionsOf(indexDefinition: IndexDefinition): List<AttributeDefinition> =
+            listOf(
+                AttributeDefinition
+                    .builder()
+                    .attributeName(indexDefinition.partitionKeyName)
+                    .attributeType(indexDefinition.partitionKeyType)
+                    .build(),
+                AttributeDefinition
+                    .builder()
+                    .attributeName(indexDefinition.sortKeyName)
+                    .attributeType(indexDefinition.sortKeyType)
+                    .build(),
+            )
+
+        internal fun sortKeyPrefix(cls: Class<*>): String = "${cls.simpleName.uppercase()}$HASH"
+
+        internal fun sortKeyOf(item: Map<String, AttributeValue>): String? = item[ATTRIBUTE_SK]?.s()
+
         @NonNull
         protected fun classAttributeValue(
             @NonNull cls: Class<*>,
@@ -134,7 +196,7 @@ open class DynamoRepository<T : Identified>(
         ): AttributeValue =
             AttributeValue
                 .builder()
-                .s("${cls.simpleName.uppercase()}$HASH$id")
+                .s("${sortKeyPrefix(cls)}$id")
                 .build()
 
         @NonNull
@@ -143,7 +205,7 @@ open class DynamoRepository<T : Identified>(
             @NonNull attributeValue: AttributeValue,
         ): String? {
             val str = attributeValue.s()
-            val substring = cls.simpleName.uppercase() + HASH
+            val substring = sortKeyPrefix(cls)
             return if (str.startsWith(substring)) str.substring(substring.length) else null
         }
     }
@@ -161,6 +223,37 @@ open class DynamoRepository<T : Identified>(
             false
         }
 
+    /**
+     * Enables time to live on [ATTRIBUTE_TTL] unless it is enabled already.
+     */
+    fun ensureTimeToLive() {
+        val status =
+            dynamoDbClient
+                .describeTimeToLive(
+                    DescribeTimeToLiveRequest
+                        .builder()
+                        .tableName(dynamoConfiguration.tableName)
+                        .build(),
+                ).timeToLiveDescription()
+                ?.timeToLiveStatus()
+        if (status == TimeToLiveStatus.ENABLED || status == TimeToLiveStatus.ENABLING) {
+            return
+        }
+        logger.info("Enabling time to live on ${dynamoConfiguration.tableName}")
+        dynamoDbClient.updateTimeToLive(
+            UpdateTimeToLiveRequest
+                .builder()
+                .tableName(dynamoConfiguration.tableName)
+                .timeToLiveSpecification(
+                    TimeToLiveSpecification
+                        .builder()
+                        .attributeName(ATTRIBUTE_TTL)
+                        .enabled(true)
+                        .build(),
+                ).build(),
+        )
+    }
+
     /**
      * Updates the table's indexes if new ones have been registered.
      */
@@ -191,22 +284,8 @@ open class DynamoRepository<T : Identified>(
 
                 for (index in indexesToAdd) {
                     logger.info("Adding index ${index.indexName} to table ${dynamoConfiguration.tableName}")
-                    val attributeDefinitions = mutableListOf<AttributeDefinition>()
                     // build attribute definitions for current index
-                    attributeDefinitions.add(
-                        AttributeDefinition
-                            .builder()
-                            .attributeName(index.partitionKeyName)
-                            .attributeType(ScalarAttributeType.S)
-                            .build(),
-                    )
-                    attributeDefinitions.add(
-                        AttributeDefinition
-                            .builder()
-                            .attributeName(index.sortKeyName)
-                            .attributeType(ScalarAttributeType.S)
-                            .build(),
-                    )
+                    val attributeDefinitions = attributeDefinitionsOf(index)
 
                     // build global secondary index for current index
                     val gsi = if (index.indexName == INDEX_GSI_1) gsi1() else buildGlobalSecondaryIndex(index)
@@ -318,20 +397,7 @@ open class DynamoRepository<T : Identified>(
             )
 
         SUPPORTED_INDEXES.forEach { index ->
-            attributeDefinitions.add(
-                AttributeDefinition
-                    .builder()
-                    .attributeName(index.partitionKeyName)
-                    .attributeType(ScalarAttributeType.S)
-                    .build(),
-            )
-            attributeDefinitions.add(
-                AttributeDefinition
-                    .builder()
-                    .attributeName(index.sortKeyName)
-                    .attributeType(ScalarAttributeType.S)
-                    .build(),
-            )
+            attributeDefinitions.addAll(attributeDefinitionsOf(index))
         }
 
         val globalSecondaryIndexes =
@@ -342,7 +408,7 @@ open class DynamoRepository<T : Identified>(
         dynamoDbClient.createTable(
             CreateTableRequest
                 .builder()
-                .attributeDefinitions(attributeDefinitions)
+                .attributeDefinitions(attributeDefinitions.distinctBy { it.attributeName() })
                 .keySchema(
                     Arrays.asList(
                         KeySchemaElement
@@ -441,22 +507,122 @@ open class DynamoRepository<T : Identified>(
         return if (!getItemResponse.hasItem()) null else getItemResponse.item()
     }
 
+    /**
+     * Returns the primary key of an entity.
+     * Collection members are placed under the partition key of their parent.
+     */
+    @NonNull
+    protected fun key(
+        @NonNull entity: Identified,
+    ): Map<String, AttributeValue> {
+        val sk = id(entity.javaClass, entity.id)
+        val pk = if (entity is CollectionMember) id(entity.parentClass(), entity.parentId()) else sk
+        return mapOf(ATTRIBUTE_PK to pk, ATTRIBUTE_SK to sk)
+    }
+
+    /**
+     * Returns the primary key of a collection member.
+     */
+    @NonNull
+    protected fun memberKey(
+        @NonNull parentCls: Class<*>,
+        @NonNull parentId: String,
+        @NonNull cls: Class<*>,
+        @NonNull id: String,
+    ): Map<String, AttributeValue> = mapOf(ATTRIBUTE_PK to id(parentCls, parentId), ATTRIBUTE_SK to id(cls, id))
+
+    /**
+     * Find a collection member by the ID of its parent and its own ID.
+     */
+    protected open fun findMemberById(
+        @NonNull @NotNull parentCls: Class<*>,
+        @NonNull @NotBlank parentId: String,
+        @NonNull @NotNull cls: Class<*>,
+        @NonNull @NotBlank id: String,
+    ): (Map<String, AttributeValue>)? {
+        val getItemResponse =
+            dynamoDbClient.getItem(
+                GetItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(memberKey(parentCls, parentId, cls, id))
+                    .build(),
+            )
+        return if (!getItemResponse.hasItem()) null else getItemResponse.item()
+    }
+
+    /**
+     * Delete a collection member by the ID of its parent and its own ID.
+     */
+    protected open fun deleteMember(
+        @NonNull @NotNull parentCls: Class<*>,
+        @NonNull @NotBlank parentId: String,
+        @NonNull @NotNull cls: Class<*>,
+        @NonNull @NotBlank id: String,
+    ) {
+        val deleteItemResponse =
+            dynamoDbClient.deleteItem(
+                DeleteItemRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .key(memberKey(parentCls, parentId, cls, id))
+                    .build(),
+            )
+        if (logger.isDebugEnabled) {
+            logger.debug(deleteItemResponse.toString())
+        }
+    }
+
+    /**
+     * Load a parent entity together with all of its collection members using a single, strongly consistent Query.
+     * @param parentCls The class of the parent entity
+     * @param parentId The ID of the parent entity
+     * @return The item collection, empty if the parent does not exist and has no members
+     */
+    @NonNull
+    protected open fun findCollection(
+        @NonNull @NotNull parentCls: Class<*>,
+        @NonNull @NotBlank parentId: String,
+    ): ItemCollection {
+        val items = ArrayList<Map<String, AttributeValue>>()
+        var exclusiveStartKey: Map<String, AttributeValue>? = null
+        do {
+            val builder =
+                QueryRequest
+                    .builder()
+                    .tableName(dynamoConfiguration.tableName)
+                    .consistentRead(true)
+                    .keyConditionExpression("#pk = :pk")
+                    .expressionAttributeNames(mapOf("#pk" to ATTRIBUTE_PK))
+                    .expressionAttributeValues(mapOf(":pk" to id(parentCls, parentId)))
+            if (exclusiveStartKey != null) {
+                builder.exclusiveStartKey(exclusiveStartKey)
+            }
+            val response = dynamoDbClient.query(builder.build())
+            items.addAll(response.items())
+            exclusiveStartKey = if (response.hasLastEvaluatedKey()) response.lastEvaluatedKey() else null
+        } while (!exclusiveStartKey.isNullOrEmpty())
+        return ItemCollection(items)
+    }
+
     @NonNull
     protected open fun item(
         @NonNull entity: T,
     ): Map<String, AttributeValue> {
         val item = HashMap<String, AttributeValue>()
-        val pk = id(entity.javaClass, entity.id ?: "")
-        item[ATTRIBUTE_PK] = pk
-        item[ATTRIBUTE_SK] = pk
+        item.putAll(key(entity))
         item[ATTRIBUTE_GSI_1_PK] = classAttributeValue(entity.javaClass)
-        item[ATTRIBUTE_GSI_1_SK] = pk
+        item[ATTRIBUTE_GSI_1_SK] = item[ATTRIBUTE_SK]!!
 
         if (entity is Indexable) {
             val indexValues = entity.getIndexValues()
             for ((key, value) in indexValues) {
                 item[key] = AttributeValue.builder().s(value).build()
             }
+            val numericIndexValues = entity.getNumericIndexValues()
+            for ((key, value) in numericIndexValues) {
+                item[key] = AttributeValue.builder().n(value.toString()).build()
+            }
         }
 
         return item
@@ -502,5 +668,338 @@ open class DynamoRepository<T : Identified>(
         return builder.build()
     }
 
+    /**
+     * Creates a query on an index with an N-typed sort key, matching sort keys between [from] and [to] inclusive.
+     */
+    fun createIndexRangeQuery(
+        indexName: String,
+        partitionKeyName: String,
+        partitionKeyValue: String,
+        sortKeyName: String,
+        from: Long,
+        to: Long,
+    ): QueryRequest =
+        QueryRequest
+            .builder()
+            .tableName(dynamoConfiguration.tableName)
+            .indexName(indexName)
+            .keyConditionExpression("#pk = :pk and #sk between :from and :to")
+            .expressionAttributeNames(
+                mapOf(
+                    "#pk" to partitionKeyName,
+                    "#sk" to sortKeyName,
+                ),
+            ).expressionAttributeValues(
+                mapOf(
+                    ":pk" to AttributeValue.builder().s(partitionKeyValue).build(),
+                    ":from" to AttributeValue.builder().n(from.toString()).build(),
+                    ":to" to AttributeValue.builder().n(to.toString()).build(),
+                ),
+            ).build()
+
+    /**
+     * Write all operations atomically with one TransactWriteItems call.
+     * @param operations The operations, possibly spanning several entities
+     * @throws TransactionConditionFailedException if a condition did not hold
+     * @throws TransactionConflictException if a concurrent transaction touched the same items
+     * @throws TransactionCancelledException if the transaction was cancelled for another reason
+     */
+    open fun transactWrite(operations: List<TransactionOperation>) {
+        if (operations.isEmpty()) {
+            return
+        }
+        require(operations.size <= MAX_TRANSACTION_OPERATIONS) {
+            "A transaction supports at most $MAX_TRANSACTION_OPERATIONS operations, got ${operations.size}"
+        }
+        try {
+            val response =
+                dynamoDbClient.transactWriteItems(
+                    TransactWriteItemsRequest
+                        .builder()
+                        .transactItems(operations.map { transactWriteItemOf(it) })
+                        .build(),
+                )
+            if (logger.isDebugEnabled) {
+                logger.debug(response.toString())
+            }
+        } catch (e: TransactionCanceledException) {
+            throw TransactionCancelledException.of(
+                operations,
+                if (e.hasCancellationReasons()) e.cancellationReasons() else emptyList(),
+                e,
+            )
+        }
+    }
+
+    /**
+     * Read several items consistently with one TransactGetItems call.
+     * @param keys The primary keys of the items, possibly spanning several entities
+     * @return The items in the order of the keys, null for items that do not exist
+     */
+    fun transactGet(keys: List<Map<String, AttributeValue>>): List<Map<String, AttributeValue>?> {
+        if (keys.isEmpty()) {
+            return emptyList()
+        }
+        require(keys.size <= MAX_TRANSACTION_OPERATIONS) {
+            "A transaction supports at most $MAX_TRANSACTION_OPERATIONS operations, got ${keys.size}"
+        }
+        try {
+            val response =
+                dynamoDbClient.transactGetItems(
+                    TransactGetItemsRequest
+                        .builder()
+                        .transactItems(
+                            keys.map {
+                                TransactGetItem
+                                    .builder()
+                                    .get(
+                                        GetAction
+                                            .builder()
+                                            .tableName(dynamoConfiguration.tableName)
+                                            .key(it)
+                                            .build(),
+                                    ).build()
+                            },
+                        ).build(),
+                )
+            return response.responses().map { if (it.hasItem() && it.item().isNotEmpty()) it.item() else null }
+        } catch (e: TransactionCanceledException) {
+            throw TransactionCancelledException.of(
+                emptyList(),
+                if (e.hasCancellationReasons()) e.cancellationReasons() else emptyList(),
+                e,
+            )
+        }
+    }
+
+    /**
+     * Read items by primary key with BatchGetItem, retrying unprocessed keys with backoff.
+     * @param keys The primary keys of the items
+     * @param consistentRead Whether to use strongly consistent reads
+     * @return The items that exist, in no particular order
+     */
+    @NonNull
+    protected fun batchGet(
+        @NonNull keys: List<Map<String, AttributeValue>>,
+        consistentRead: Boolean = false,
+    ): List<Map<String, AttributeValue>> {
+        val items = ArrayList<Map<String, AttributeValue>>()
+        for (chunk in keys.distinct().chunked(MAX_BATCH_GET_KEYS)) {
+            var pending: Map<String, KeysAndAttributes> =
+                mapOf(
+                    dynamoConfiguration.tableName to
+                        KeysAndAttributes
+                            .builder()
+                            .keys(chunk)
+                            .consistentRead(consistentRead)
+                            .build(),
+                )
+            var attempt = 0
+            while (pending.isNotEmpty()) {
+                if (attempt > 0) {
+                    if (attempt >= MAX_BATCH_ATTEMPTS) {
+                        logger.warn("Giving up on ${pending.values.sumOf { it.keys().size }} unprocessed keys after $attempt attempts")
+                        break
+                    }
+                    Thread.sleep(BATCH_RETRY_BASE_DELAY_MILLIS shl (attempt - 1))
+                }
+                val response = dynamoDbClient.batchGetItem(BatchGetItemRequest.builder().requestItems(pending).build())
+                response.responses()[dynamoConfiguration.tableName]?.let { items.addAll(it) }
+                pending = if (response.hasUnprocessedKeys()) response.unprocessedKeys() else emptyMap()
+                attempt++
+            }
+        }
+        return items
+    }
+
+    /**
+     * Delete items by primary key with BatchWriteItem, retrying unprocessed requests with backoff.
+     * @param keys The primary keys of the items
+     * @return The keys that could not be deleted
+     */
+    @NonNull
+    protected fun batchDelete(
+        @NonNull keys: List<Map<String, AttributeValue>>,
+    ): List<Map<String, AttributeValue>> =
+        batchWrite(
+            keys.distinct().map {
+                WriteRequest
+                    .builder()
+                    .deleteRequest(DeleteRequest.builder().key(it).build())
+                    .build()
+            },
+        ).map { it.deleteRequest().key() }
+
+    /**
+     * Put entities with BatchWriteItem, retrying unprocessed requests with backoff.
+     * Unlike a transaction, puts are neither conditional nor atomic.
+     * @param entities The entities, at most one per primary key
+     * @return The entities that could not be written
+     */
+    @NonNull
+    protected fun batchPut(
+        @NonNull entities: List<T>,
+    ): List<T> {
+        val requests =
+            entities.map {
+                it to
+                    WriteRequest
+                        .builder()
+                        .putRequest(PutRequest.builder().item(item(it)).build())
+                        .build()
+            }
+        val failed = batchWrite(requests.map { it.second }).toSet()
+        return requests.filter { it.second in failed }.map { it.first }
+    }
+
+    /**
+     * Put items with BatchWriteItem, retrying unprocessed requests with backoff.
+     * Unlike [batchPut], the items are written as they are, so entities can share batches with items derived from them.
+     * @param items The items, at most one per primary key
+     * @return The items that could not be written
+     */
+    @NonNull
+    protected fun batchPutItems(
+        @NonNull items: List<Map<String, AttributeValue>>,
+    ): List<Map<String, AttributeValue>> =
+        batchWrite(
+            items.map {
+                WriteRequest
+                    .builder()
+                    .putRequest(PutRequest.builder().item(it).build())
+                    .build()
+            },
+        ).map { it.putRequest().item() }
+
+    /**
+     * Send write requests in chunks of [MAX_BATCH_WRITE_REQUESTS].
+     * @return The requests that were still unprocessed after [MAX_BATCH_ATTEMPTS] attempts
+     */
+    private fun batchWrite(requests: List<WriteRequest>): List<WriteRequest> {
+        val failed = ArrayList<WriteRequest>()
+        for (chunk in requests.chunked(MAX_BATCH_WRITE_REQUESTS)) {
+            var pending: List<WriteRequest> = chunk
+            var attempt = 0
+            while (pending.isNotEmpty()) {
+                if (attempt > 0) {
+                    if (attempt >= MAX_BATCH_ATTEMPTS) {
+                        logger.warn("Giving up on ${pending.size} unprocessed writes after $attempt attempts")
+                        failed.addAll(pending)
+                        break
+                    }
+                    Thread.sleep(BATCH_RETRY_BASE_DELAY_MILLIS shl (attempt - 1))
+                }
+                val response =
+                    dynamoDbClient.batchWriteItem(
+                        BatchWriteItemRequest
+                            .builder()
+                            .requestItems(mapOf(dynamoConfiguration.tableName to pending))
+                            .build(),
+                    )
+                pending =
+                    if (response.hasUnprocessedItems()) {
+                        response.unprocessedItems()[dynamoConfiguration.tableName] ?: emptyList()
+                    } else {
+                        emptyList()
+                    }
+                attempt++
+            }
+        }
+        return failed
+    }
+
+    /**
+     * Build a put of the entity for use in a transaction.
+     */
+    @NonNull
+    protected fun putOperation(
+        @NonNull entity: T,
+        conditionExpression: String? = null,
+        label: String? = null,
+    ): TransactionOperation.Put = TransactionOperation.Put(item(entity), conditionExpression, label = label)
+
+    /**
+     * Build a delete of the item with the given key for use in a transaction.
+     */
+    @NonNull
+    protected fun deleteOperation(
+        @NonNull key: Map<String, AttributeValue>,
+        conditionExpression: String? = null,
+        label: String? = null,
+    ): TransactionOperation.Delete = TransactionOperation.Delete(key, conditionExpression, label = label)
+
+    /**
+     * Returns the primary key of a top-level entity.
+     */
+    @NonNull
+    protected fun key(
+        @NonNull cls: Class<*>,
+        @NonNull @NotBlank id: String,
+    ): Map<String, AttributeValue> {
+        val pk = id(cls, id)
+        return mapOf(ATTRIBUTE_PK to pk, ATTRIBUTE_SK to pk)
+    }
+
+    private fun transactWriteItemOf(operation: TransactionOperation): TransactWriteItem {
+        val builder = TransactWriteItem.builder()
+        val tableName = dynamoConfiguration.tableName
+        when (operation) {
+            is TransactionOperation.Put -> {
+                val put = PutAction.builder().tableName(tableName).item(operation.item)
+                operation.conditionExpression?.let { put.conditionExpression(it) }
+                if (operation.expressionAttributeNames.isNotEmpty()) {
+                    put.expressionAttributeNames(operation.expressionAttributeNames)
+                }
+                if (operation.expressionAttributeValues.isNotEmpty()) {
+                    put.expressionAttributeValues(operation.expressionAttributeValues)
+                }
+                builder.put(put.build())
+            }
+            is TransactionOperation.Update -> {
+                val update =
+                    UpdateAction
+                        .builder()
+                        .tableName(tableName)
+                        .key(operation.key)
+                        .updateExpression(operation.updateExpression)
+                operation.conditionExpression?.let { update.conditionExpression(it) }
+                if (operation.expressionAttributeNames.isNotEmpty()) {
+                    update.expressionAttributeNames(operation.expressionAttributeNames)
+                }
+                if (operation.expressionAttributeValues.isNotEmpty()) {
+                    update.expressionAttributeValues(operation.expressionAttributeValues)
+                }
+                builder.update(update.build())
+            }
+            is TransactionOperation.Delete -> {
+                val delete = DeleteAction.builder().tableName(tableName).key(operation.key)
+                operation.conditionExpression?.let { delete.conditionExpression(it) }
+                if (operation.expressionAttributeNames.isNotEmpty()) {
+                    delete.expressionAttributeNames(operation.expressionAttributeNames)
+                }
+                if (operation.expressionAttributeValues.isNotEmpty()) {
+                    delete.expressionAttributeValues(operation.expressionAttributeValues)
+                }
+                builder.delete(delete.build())
+            }
+            is TransactionOperation.ConditionCheck -> {
+                val conditionCheck =
+                    ConditionCheckAction
+                        .builder()
+                        .tableName(tableName)
+                        .key(operation.key)
+                        .conditionExpression(operation.conditionExpression)
+                if (operation.expressionAttributeNames.isNotEmpty()) {
+                    conditionCheck.expressionAttributeNames(operation.expressionAttributeNames)
+                }
+                if (operation.expressionAttributeValues.isNotEmpty()) {
+                    conditionCheck.expressionAttributeValues(operation.expressionAttributeValues)
+                }
+                builder.conditionCheck(conditionCheck.build())
+            }
+        }
+        return builder.build()
+    }
+
     fun getTableName(): String = dynamoConfiguration.tableName
 }
@@ -1,5 +1,7 @@
 package top.sunbath.shared.dynamodb
 
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType
+
 /**
  * Defines a DynamoDB index with its name and attribute names.
  */
@@ -16,6 +18,15 @@ data class IndexDefinition(
      * The name of the sort key attribute.
      */
     val sortKeyName: String,
+    /**
+     * The type of the partition key attribute.
+     */
+    val partitionKeyType: ScalarAttributeType = ScalarAttributeType.S,
+    /**
+     * The type of the sort key attribute.
+     * Use [ScalarAttributeType.N] with epoch millis to run numeric range conditions on time keys.
+     */
+    val sortKeyType: ScalarAttributeType = ScalarAttributeType.S,
 )
 
 /**
@@ -27,4 +38,10 @@ interface Indexable {
      * The key is the attribute name, and the value is the attribute value.
      */
     fun getIndexValues(): Map<String, String>
+
+    /**
+     * Returns a map of numeric index values for this entity, written as N attributes.
+     * Only needed for indexes that declare an N-typed key.
+     */
+    fun getNumericIndexValues(): Map<String, Long> = emptyMap()
 }
@@ -0,0 +1,34 @@
+package top.sunbath.shared.dynamodb
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.time.Instant
+
+/**
+ * Encoding of time attributes.
+ *
+ * Time attributes are written as epoch milliseconds (N). Items written before the switch hold
+ * ISO-8601 strings (S), so reads accept both formats until every item has been rewritten.
+ */
+object InstantAttributes {
+    /**
+     * Encode an instant as an epoch millis N attribute.
+     */
+    fun of(instant: Instant): AttributeValue =
+        AttributeValue
+            .builder()
+            .n(instant.toEpochMilli().toString())
+            .build()
+
+    /**
+     * Decode a time attribute written either as epoch millis (N) or as an ISO-8601 string (S).
+     * @return The instant, or null if the attribute is missing or holds neither format
+     */
+    fun instantOf(attributeValue: AttributeValue?): Instant? {
+        if (attributeValue == null) {
+            return null
+        }
+        attributeValue.n()?.let { return Instant.ofEpochMilli(it.toLong()) }
+        attributeValue.s()?.let { return Instant.parse(it) }
+        return null
+    }
+}
@@ -0,0 +1,53 @@
+package top.sunbath.shared.dynamodb
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+/**
+ * Interface for entities stored in the item collection of a parent entity.
+ * Members share the partition key of their parent and are told apart by the sort-key prefix of their own class,
+ * so a single Query on the parent's partition returns the parent together with all of its members.
+ */
+interface CollectionMember {
+    /**
+     * The class of the parent entity.
+     */
+    fun parentClass(): Class<*>
+
+    /**
+     * The ID of the parent entity.
+     */
+    fun parentId(): String
+}
+
+/**
+ * The items sharing one partition key, as returned by a single Query.
+ */
+class ItemCollection(
+    val items: List<Map<String, AttributeValue>>,
+) {
+    /**
+     * Decode all items of the given entity class.
+     * @param cls The entity class, which determines the sort-key prefix
+     * @param decoder Converts a raw item to the entity
+     */
+    fun <E> all(
+        cls: Class<*>,
+        decoder: (Map<String, AttributeValue>) -> E,
+    ): List<E> {
+        val prefix = DynamoRepository.sortKeyPrefix(cls)
+        return items
+            .filter { DynamoRepository.sortKeyOf(it)?.startsWith(prefix) == true }
+            .map(decoder)
+    }
+
+    /**
+     * Decode the first item of the given entity class.
+     * @return The entity, or null if the collection holds no item of that class
+     */
+    fun <E> first(
+        cls: Class<*>,
+        decoder: (Map<String, AttributeValue>) -> E,
+    ): E? = all(cls, decoder).firstOrNull()
+
+    fun isEmpty(): Boolean = items.isEmpty()
+}
@@ -0,0 +1,160 @@
+package top.sunbath.shared.dynamodb
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason
+
+/**
+ * A single operation of a DynamoDB write transaction.
+ *
+ * Operations are built by the repositories of the entities involved and executed together with
+ * [DynamoRepository.transactWrite]. The optional label names the operation, so that a cancelled
+ * transaction can be attributed to the operation that caused it.
+ */
+sealed class TransactionOperation {
+    abstract val label: String?
+
+    /**
+     * Put a full item, optionally guarded by a condition.
+     */
+    data class Put(
+        val item: Map<String, AttributeValue>,
+        val conditionExpression: String? = null,
+        val expressionAttributeNames: Map<String, String> = emptyMap(),
+        val expressionAttributeValues: Map<String, AttributeValue> = emptyMap(),
+        override val label: String? = null,
+    ) : TransactionOperation()
+
+    /**
+     * Update attributes of an item, optionally guarded by a condition.
+     */
+    data class Update(
+        val key: Map<String, AttributeValue>,
+        val updateExpression: String,
+        val conditionExpression: String? = null,
+        val expressionAttributeNames: Map<String, String> = emptyMap(),
+        val expressionAttributeValues: Map<String, AttributeValue> = emptyMap(),
+        override val label: String? = null,
+    ) : TransactionOperation()
+
+    /**
+     * Delete an item, optionally guarded by a condition.
+     */
+    data class Delete(
+        val key: Map<String, AttributeValue>,
+        val conditionExpression: String? = null,
+        val expressionAttributeNames: Map<String, String> = emptyMap(),
+        val expressionAttributeValues: Map<String, AttributeValue> = emptyMap(),
+        override val label: String? = null,
+    ) : TransactionOperation()
+
+    /**
+     * Check a condition on an item without writing it.
+     */
+    data class ConditionCheck(
+        val key: Map<String, AttributeValue>,
+        val conditionExpression: String,
+        val expressionAttributeNames: Map<String, String> = emptyMap(),
+        val expressionAttributeValues: Map<String, AttributeValue> = emptyMap(),
+        override val label: String? = null,
+    ) : TransactionOperation()
+}
+
+/**
+ * Why a single operation of a transaction was cancelled.
+ */
+enum class TransactionFailureReason {
+    CONDITIONAL_CHECK_FAILED,
+    TRANSACTION_CONFLICT,
+    THROTTLED,
+    ITEM_COLLECTION_SIZE_LIMIT_EXCEEDED,
+    VALIDATION_ERROR,
+    UNKNOWN,
+    ;
+
+    companion object {
+        /**
+         * Map a DynamoDB cancellation reason code to a failure reason.
+         * @return The failure reason, or null if the operation itself did not fail
+         */
+        fun of(code: String?): TransactionFailureReason? =
+            when (code) {
+                null, "None" -> null
+                "ConditionalCheckFailed" -> CONDITIONAL_CHECK_FAILED
+                "TransactionConflict" -> TRANSACTION_CONFLICT
+                "ProvisionedThroughputExceeded", "ThrottlingError", "RequestLimitExceeded" -> THROTTLED
+                "ItemCollectionSizeLimitExceeded" -> ITEM_COLLECTION_SIZE_LIMIT_EXCEEDED
+                "ValidationError" -> VALIDATION_ERROR
+                else -> UNKNOWN
+            }
+    }
+}
+
+/**
+ * A failed operation of a cancelled transaction.
+ * @param index The position of the operation in the transaction
+ * @param label The label of the operation, if any
+ * @param reason Why the operation failed
+ * @param message The message reported by DynamoDB
+ */
+data class TransactionFailure(
+    val index: Int,
+    val label: String?,
+    val reason: TransactionFailureReason,
+    val message: String?,
+)
+
+/**
+ * Thrown when DynamoDB cancels a transaction.
+ */
+open class TransactionCancelledException(
+    val failures: List<TransactionFailure>,
+    cause: Throwable? = null,
+) : RuntimeException("Transaction cancelled: ${failures.joinToString { "${it.label ?: it.index}=${it.reason}" }}", cause) {
+    /**
+     * Whether the operation with the given label failed its condition.
+     */
+    fun conditionFailed(label: String): Boolean =
+        failures.any { it.label == label && it.reason == TransactionFailureReason.CONDITIONAL_CHECK_FAILED }
+
+    companion object {
+        /**
+         * Build the typed exception for the cancellation reasons of a transaction.
+         * Condition failures take precedence over conflicts, which are the only retryable outcome.
+         */
+        fun of(
+            operations: List<TransactionOperation>,
+            reasons: List<CancellationReason>,
+            cause: Throwable?,
+        ): TransactionCancelledException {
+            val failures =
+                reasons.mapIndexedNotNull { index, reason ->
+                    TransactionFailureReason.of(reason.code())?.let {
+                        TransactionFailure(index, operations.getOrNull(index)?.label, it, reason.message())
+                    }
+                }
+            return when {
+                failures.any { it.reason == TransactionFailureReason.CONDITIONAL_CHECK_FAILED } ->
+                    TransactionConditionFailedException(failures, cause)
+                failures.any { it.reason == TransactionFailureReason.TRANSACTION_CONFLICT } ->
+                    TransactionConflictException(failures, cause)
+                else -> TransactionCancelledException(failures, cause)
+            }
+        }
+    }
+}
+
+/**
+ * Thrown when at least one condition of a transaction did not hold, e.g. a uniqueness guard.
+ */
+class TransactionConditionFailedException(
+    failures: List<TransactionFailure>,
+    cause: Throwable? = null,
+) : TransactionCancelledException(failures, cause)
+
+/**
+ * Thrown when a transaction collided with a concurrent transaction on the same items. It is safe to retry.
+ */
+class TransactionConflictException(
+    failures: List<TransactionFailure>,
+    cause: Throwable? = null,
+) : TransactionCancelledException(failures, cause)
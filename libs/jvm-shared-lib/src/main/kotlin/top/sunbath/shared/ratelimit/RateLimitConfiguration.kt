@@ -0,0 +1,28 @@
+package top.sunbath.shared.ratelimit
+
+import io.micronaut.context.annotation.EachProperty
+import io.micronaut.context.annotation.Parameter
+
+/**
+ * The rate limit of one vendor, configured under `rate-limits.<name>`.
+ */
+@EachProperty("rate-limits")
+class RateLimitConfiguration(
+    @param:Parameter val name: String,
+) {
+    /**
+     * The sustained rate.
+     */
+    var permitsPerSecond: Double = 1.0
+
+    /**
+     * The largest burst, defaults to one second worth of permits.
+     */
+    var burst: Int? = null
+
+    /**
+     * Permits only high-priority callers may take, so they never queue up behind a burst of low-priority work.
+     * Like the rate, they are held per container.
+     */
+    var reserved: Int = 0
+}
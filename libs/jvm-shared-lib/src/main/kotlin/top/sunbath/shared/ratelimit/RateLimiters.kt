@@ -0,0 +1,37 @@
+package top.sunbath.shared.ratelimit
+
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ceil
+
+/**
+ * Hands out one [TokenBucket] per configured rate limit.
+ *
+ * The buckets live as long as the application context, so in a warm Lambda container they are shared by all
+ * invocations. They limit a single container only: a vendor limit holds globally as long as the function
+ * runs with a concurrency of one.
+ */
+@Singleton
+class RateLimiters(
+    configurations: List<RateLimitConfiguration>,
+) {
+    private val logger = LoggerFactory.getLogger(RateLimiters::class.java)
+    private val configurations = configurations.associateBy { it.name }
+    private val buckets = ConcurrentHashMap<String, TokenBucket>()
+
+    /**
+     * The bucket of a rate limit.
+     * @param name The name under `rate-limits`
+     * @throws IllegalStateException if the rate limit is not configured
+     */
+    fun bucket(name: String): TokenBucket =
+        buckets.computeIfAbsent(name) {
+            val configuration = configurations[name] ?: throw IllegalStateException("Rate limit [$name] not found in configuration")
+            val burst = configuration.burst ?: ceil(configuration.permitsPerSecond).toInt().coerceAtLeast(1)
+            logger.info(
+                "Rate limit [$name]: ${configuration.permitsPerSecond} per second, burst $burst, reserved ${configuration.reserved}",
+            )
+            TokenBucket(burst, configuration.permitsPerSecond, configuration.reserved)
+        }
+}
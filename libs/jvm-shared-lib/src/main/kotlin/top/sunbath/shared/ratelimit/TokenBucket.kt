@@ -0,0 +1,88 @@
+package top.sunbath.shared.ratelimit
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * A token bucket rate limiter.
+ *
+ * The bucket holds up to [capacity] tokens and is refilled continuously at [permitsPerSecond]. It starts full,
+ * so a burst of [capacity] permits is granted at once and callers are only held back once it is spent.
+ *
+ * Low-priority callers must leave [reserved] tokens in the bucket. The rate is shared, but high-priority
+ * callers always find capacity within the time it takes to refill a single permit.
+ *
+ * The bucket, and so the reservation, only holds within one container. Two containers each have their own
+ * reserved tokens and their own rate, which is why the email function runs with a reserved concurrency of one.
+ *
+ * @param capacity The largest burst
+ * @param permitsPerSecond The sustained rate
+ * @param reserved The tokens only high-priority callers may take
+ * @param clock The time in nanoseconds
+ * @param sleep Waits for the given nanoseconds
+ */
+class TokenBucket(
+    private val capacity: Int,
+    private val permitsPerSecond: Double,
+    private val reserved: Int = 0,
+    private val clock: () -> Long = System::nanoTime,
+    private val sleep: (Long) -> Unit = TimeUnit.NANOSECONDS::sleep,
+) {
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        require(permitsPerSecond > 0) { "permitsPerSecond must be positive" }
+        require(reserved in 0 until capacity) { "reserved must be less than capacity" }
+    }
+
+    private val lock = Object()
+    private var tokens = capacity.toDouble()
+    private var refilledAt = clock()
+
+    /**
+     * Take permits, waiting until the bucket holds enough of them.
+     * @param permits The number of permits
+     * @param highPriority Whether the caller may take the reserved tokens
+     */
+    fun acquire(
+        permits: Int = 1,
+        highPriority: Boolean = true,
+    ) {
+        val required = permits + if (highPriority) 0 else reserved
+        require(permits > 0 && required <= capacity) { "permits must be between 1 and ${capacity - reserved}" }
+        while (true) {
+            val waitNanos =
+                synchronized(lock) {
+                    refill()
+                    if (tokens >= required) {
+                        tokens -= permits
+                        return
+                    }
+                    ((required - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1)).toLong()
+                }
+            sleep(waitNanos.coerceAtLeast(1))
+        }
+    }
+
+    /**
+     * Take permits if the bucket holds enough of them right now.
+     * @return Whether the permits were taken
+     */
+    fun tryAcquire(
+        permits: Int = 1,
+        highPriority: Boolean = true,
+    ): Boolean =
+        synchronized(lock) {
+            refill()
+            if (tokens >= permits + if (highPriority) 0 else reserved) {
+                tokens -= permits
+                true
+            } else {
+                false
+            }
+        }
+
+    private fun refill() {
+        val now = clock()
+        tokens = minOf(capacity.toDouble(), tokens + (now - refilledAt) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1))
+        refilledAt = now
+    }
+}
@@ -0,0 +1,56 @@
+package top.sunbath.shared.sqs
+
+import io.micronaut.core.type.Argument
+import io.micronaut.serde.ObjectMapper
+import jakarta.inject.Singleton
+import top.sunbath.shared.types.SqsMessage
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Encodes and decodes the [SqsMessage] envelopes of all queues.
+ *
+ * It uses the Micronaut Serde mapper, whose serializers are generated at compile time for `@Serdeable` types,
+ * so no reflection is involved and it works in a native image. The envelope type of every payload type is
+ * built once and cached.
+ */
+@Singleton
+class MessageCodec(
+    private val objectMapper: ObjectMapper,
+) {
+    private val types = ConcurrentHashMap<Class<*>, Argument<*>>()
+
+    /**
+     * Encode a message as JSON.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun encode(message: SqsMessage<*>): String {
+        val data = requireNotNull(message.data) { "Message [${message.id}] has no data" }
+        return objectMapper.writeValueAsString(typeOf(data.javaClass as Class<Any>), message as SqsMessage<Any>)
+    }
+
+    /**
+     * Decode a message.
+     * @param body The JSON message
+     * @param dataType The payload type
+     * @throws IllegalArgumentException if the body is not a message of a schema version this codec knows
+     */
+    fun <T : Any> decode(
+        body: String,
+        dataType: Class<T>,
+    ): SqsMessage<T> {
+        val message =
+            try {
+                objectMapper.readValue(body, typeOf(dataType))
+            } catch (e: Exception) {
+                throw IllegalArgumentException("Invalid message: ${e.message}", e)
+            } ?: throw IllegalArgumentException("Empty message")
+        require(message.schemaVersion <= SqsMessage.SCHEMA_VERSION) {
+            "Unsupported schema version ${message.schemaVersion} of message [${message.id}]"
+        }
+        return message
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : Any> typeOf(dataType: Class<T>): Argument<SqsMessage<T>> =
+        types.computeIfAbsent(dataType) { Argument.of(SqsMessage::class.java, Argument.of(dataType)) } as Argument<SqsMessage<T>>
+}
@@ -0,0 +1,21 @@
+package top.sunbath.shared.sqs
+
+import io.micronaut.context.annotation.Requires
+import io.micronaut.http.HttpResponse
+import io.micronaut.http.annotation.ResponseFilter
+import io.micronaut.http.annotation.ServerFilter
+
+/**
+ * Flushes the [QueuePublisher] before a response is returned, so no buffered message is left behind
+ * when the Lambda function is frozen after the invocation.
+ */
+@ServerFilter(ServerFilter.MATCH_ALL_PATTERN)
+@Requires(property = "my-property.queue-publisher.enabled", value = "true")
+class QueueFlushFilter(
+    private val queuePublisher: QueuePublisher,
+) {
+    @ResponseFilter
+    fun flush(response: HttpResponse<*>) {
+        queuePublisher.flush()
+    }
+}
@@ -0,0 +1,330 @@
+package top.sunbath.shared.sqs
+
+import io.micronaut.context.annotation.Requires
+import jakarta.annotation.PreDestroy
+import jakarta.inject.Singleton
+import org.slf4j.LoggerFactory
+import software.amazon.awssdk.services.sqs.SqsClient
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry
+import top.sunbath.shared.types.SqsMessage
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Publishes messages to the queues configured under `aws.sqs.queues`, addressed by their logical name.
+ *
+ * Messages are sent with SendMessageBatch, up to [MAX_BATCH_SIZE] messages per request. [send] buffers a message
+ * and sends the buffer once it is full or [FLUSH_WINDOW] after the first message arrived. [sendNow] sends right
+ * away and reports which messages were accepted. Entries the queue rejected without a sender fault are retried
+ * individually, up to [MAX_ATTEMPTS] times in total.
+ *
+ * A Lambda function is frozen as soon as its invocation returns, so buffered messages must be flushed before
+ * that: the [QueueFlushFilter] does it for every HTTP request, other handlers call [flush] themselves.
+ */
+@Singleton
+@Requires(property = "my-property.queue-publisher.enabled", value = "true")
+class QueuePublisher(
+    private val sqsClient: SqsClient,
+    private val sqsConfiguration: SqsConfiguration,
+    private val messageCodec: MessageCodec,
+) : AutoCloseable {
+    companion object {
+        const val MAX_BATCH_SIZE = 10
+
+        /**
+         * The largest total payload of a SendMessageBatch request.
+         */
+        const val MAX_BATCH_BYTES = 256 * 1024
+
+        /**
+         * The longest delay SQS accepts.
+         */
+        const val MAX_DELAY_SECONDS = 900
+
+        /**
+         * How long a buffered message waits for others to share its request.
+         */
+        val FLUSH_WINDOW: Duration = Duration.ofMillis(20)
+
+        const val MAX_ATTEMPTS = 3
+        private val RETRY_BACKOFF: Duration = Duration.ofMillis(50)
+    }
+
+    /**
+     * A message to send.
+     * @param id The id reported back by [sendNow], unique within one call
+     * @param message The message, serialized as JSON
+     * @param delaySeconds The delivery delay, clamped to [MAX_DELAY_SECONDS]
+     */
+    data class Entry(
+        val id: String,
+        val message: SqsMessage<*>,
+        val delaySeconds: Int = 0,
+    )
+
+    /**
+     * Counters since the publisher was created.
+     */
+    data class Metrics(
+        val requests: Long,
+        val messagesSent: Long,
+        val messagesFailed: Long,
+        val retries: Long,
+        val meanSendLatencyMillis: Double,
+        val maxSendLatencyMillis: Double,
+    )
+
+    private val logger = LoggerFactory.getLogger(QueuePublisher::class.java)
+
+    private val queueUrls = ConcurrentHashMap<String, String>()
+
+    private val lock = Any()
+    private val buffers = mutableMapOf<String, MutableList<SendMessageBatchRequestEntry>>()
+    private var scheduledFlush: ScheduledFuture<*>? = null
+    private val scheduler =
+        Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "queue-publisher").apply { isDaemon = true }
+        }
+
+    private val requests = LongAdder()
+    private val messagesSent = LongAdder()
+    private val messagesFailed = LongAdder()
+    private val retries = LongAdder()
+    private val sendNanos = LongAdder()
+    private val maxSendNanos = AtomicLong()
+
+    /**
+     * Buffer a message. It is sent with the next batch of its queue, failures are logged.
+     * @param queue The logical queue name
+     * @param message The message
+     * @param delaySeconds The delivery delay
+     */
+    fun send(
+        queue: String,
+        message: SqsMessage<*>,
+        delaySeconds: Int = 0,
+    ) {
+        val entry = entryOf(Entry(message.id, message, delaySeconds), "0")
+        val full =
+            synchronized(lock) {
+                val buffer = buffers.getOrPut(queue) { mutableListOf() }
+                buffer.add(entry)
+                if (buffer.size >= MAX_BATCH_SIZE) {
+                    buffers.remove(queue)
+                } else {
+                    if (scheduledFlush == null) {
+                        scheduledFlush = scheduler.schedule({ flush() }, FLUSH_WINDOW.toMillis(), TimeUnit.MILLISECONDS)
+                    }
+                    null
+                }
+            }
+        full?.let { sendBuffered(queue, it) }
+    }
+
+    /**
+     * Send the messages right away, in as few requests as possible.
+     * @param queue The logical queue name
+     * @param entries The messages
+     * @return The ids of the entries that were accepted
+     */
+    fun sendNow(
+        queue: String,
+        entries: List<Entry>,
+    ): Set<String> {
+        val ids = mutableMapOf<String, String>()
+        val requestEntries =
+            entries.mapIndexedNotNull { index, entry ->
+                try {
+                    // Batch entry ids only allow a small alphabet, the caller ids are mapped back afterwards
+                    ids[index.toString()] = entry.id
+                    entryOf(entry, index.toString())
+                } catch (e: Exception) {
+                    logger.error("Error serializing message [${entry.id}] for queue [$queue]", e)
+                    null
+                }
+            }
+        return sendEntries(queue, requestEntries).mapNotNull { ids[it] }.toSet()
+    }
+
+    /**
+     * Send all buffered messages and wait until they are accepted or given up on.
+     */
+    fun flush() {
+        val pending =
+            synchronized(lock) {
+                scheduledFlush?.cancel(false)
+                scheduledFlush = null
+                buffers.toMap().also { buffers.clear() }
+            }
+        pending.forEach { (queue, entries) -> sendBuffered(queue, entries) }
+    }
+
+    /**
+     * A snapshot of the counters, also logged at debug level after every flush.
+     */
+    fun metrics(): Metrics {
+        val requestCount = requests.sum()
+        return Metrics(
+            requests = requestCount,
+            messagesSent = messagesSent.sum(),
+            messagesFailed = messagesFailed.sum(),
+            retries = retries.sum(),
+            meanSendLatencyMillis = if (requestCount == 0L) 0.0 else sendNanos.sum() / requestCount / 1_000_000.0,
+            maxSendLatencyMillis = maxSendNanos.get() / 1_000_000.0,
+        )
+    }
+
+    @PreDestroy
+    override fun close() {
+        flush()
+        scheduler.shutdown()
+    }
+
+    private fun sendBuffered(
+        queue: String,
+        entries: List<SendMessageBatchRequestEntry>,
+    ) {
+        // Buffered entries come from independent calls, give them ids that are unique within the batch
+        val renumbered = entries.mapIndexed { index, entry -> entry.toBuilder().id(index.toString()).build() }
+        try {
+            val dropped = renumbered.size - sendEntries(queue, renumbered).size
+            if (dropped > 0) {
+                logger.error("Dropping $dropped buffered messages to [$queue] after $MAX_ATTEMPTS attempts")
+            }
+        } catch (e: Exception) {
+            // Nobody waits for a buffered message, so the failure can only be logged
+            logger.error("Error sending ${entries.size} buffered messages to [$queue]", e)
+        }
+        logger.debug("Queue publisher metrics: {}", metrics())
+    }
+
+    /**
+     * Send the entries in batches, retrying rejected entries.
+     * @return The ids of the entries that were accepted
+     */
+    private fun sendEntries(
+        queue: String,
+        entries: List<SendMessageBatchRequestEntry>,
+    ): Set<String> {
+        if (entries.isEmpty()) {
+            return emptySet()
+        }
+        val queueUrl = queueUrlOf(queue)
+        val accepted = mutableSetOf<String>()
+        var remaining = entries
+        for (attempt in 1..MAX_ATTEMPTS) {
+            if (attempt > 1) {
+                retries.add(remaining.size.toLong())
+                Thread.sleep(RETRY_BACKOFF.toMillis() shl (attempt - 2))
+            }
+            val retryable = mutableListOf<SendMessageBatchRequestEntry>()
+            batchesOf(remaining).forEach { batch -> retryable.addAll(sendBatch(queueUrl, batch, accepted)) }
+            remaining = retryable
+            if (remaining.isEmpty()) {
+                break
+            }
+        }
+        messagesFailed.add((entries.size - accepted.size).toLong())
+        return accepted
+    }
+
+    /**
+     * Send one batch.
+     * @return The entries worth retrying
+     */
+    private fun sendBatch(
+        queueUrl: String,
+        batch: List<SendMessageBatchRequestEntry>,
+        accepted: MutableSet<String>,
+    ): List<SendMessageBatchRequestEntry> {
+        val start = System.nanoTime()
+        try {
+            val response =
+                sqsClient.sendMessageBatch(
+                    SendMessageBatchRequest
+                        .builder()
+                        .queueUrl(queueUrl)
+                        .entries(batch)
+                        .build(),
+                )
+            response.successful().forEach { accepted.add(it.id()) }
+            messagesSent.add(response.successful().size.toLong())
+            val retryIds = mutableSetOf<String>()
+            response.failed().forEach {
+                logger.warn("Failed to send message [${it.id()}] to [$queueUrl]: ${it.code()} ${it.message()}")
+                if (!it.senderFault()) {
+                    retryIds.add(it.id())
+                }
+            }
+            return batch.filter { it.id() in retryIds }
+        } catch (e: Exception) {
+            logger.error("Error sending ${batch.size} messages to [$queueUrl]", e)
+            return batch
+        } finally {
+            val elapsed = System.nanoTime() - start
+            requests.increment()
+            sendNanos.add(elapsed)
+            maxSendNanos.accumulateAndGet(elapsed, ::maxOf)
+        }
+    }
+
+    /**
+     * Split the entries into batches that respect both the entry count and the payload size limit.
+     */
+    private fun batchesOf(entries: List<SendMessageBatchRequestEntry>): List<List<SendMessageBatchRequestEntry>> {
+        val batches = mutableListOf<List<SendMessageBatchRequestEntry>>()
+        var batch = mutableListOf<SendMessageBatchRequestEntry>()
+        var batchBytes = 0
+        for (entry in entries) {
+            val bytes = entry.messageBody().toByteArray().size
+            if (batch.isNotEmpty() && (batch.size == MAX_BATCH_SIZE || batchBytes + bytes > MAX_BATCH_BYTES)) {
+                batches.add(batch)
+                batch = mutableListOf()
+                batchBytes = 0
+            }
+            batch.add(entry)
+            batchBytes += bytes
+        }
+        if (batch.isNotEmpty()) {
+            batches.add(batch)
+        }
+        return batches
+    }
+
+    private fun entryOf(
+        entry: Entry,
+        batchId: String,
+    ): SendMessageBatchRequestEntry =
+        SendMessageBatchRequestEntry
+            .builder()
+            .id(batchId)
+            .messageBody(messageCodec.encode(entry.message))
+            .delaySeconds(entry.delaySeconds.coerceIn(0, MAX_DELAY_SECONDS))
+            .build()
+
+    /**
+     * Resolve the URL of a queue once and cache it.
+     */
+    private fun queueUrlOf(queue: String): String =
+        queueUrls.computeIfAbsent(queue) {
+            val queueName =
+                sqsConfiguration.getQueues()[queue] ?: throw IllegalStateException("Queue [$queue] not found in configuration")
+            val queueUrl =
+                sqsClient
+                    .getQueueUrl(
+                        GetQueueUrlRequest
+                            .builder()
+                            .queueName(queueName)
+                            .build(),
+                    ).queueUrl()
+            logger.info("Queue URL of [$queue]: $queueUrl")
+            queueUrl
+        }
+}
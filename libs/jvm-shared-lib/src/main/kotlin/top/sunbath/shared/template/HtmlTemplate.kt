@@ -0,0 +1,92 @@
+package top.sunbath.shared.template
+
+/**
+ * An HTML template with `{{name}}` slots, whose values are HTML-escaped, and `{{{name}}}` slots, whose values
+ * are inserted as they are.
+ *
+ * The source is parsed once into static fragments and slots. Rendering appends fragments and escaped values to
+ * a builder reused by the rendering thread, so a render allocates nothing but its result.
+ *
+ * @param source The template text
+ */
+class HtmlTemplate(
+    source: String,
+) {
+    companion object {
+        private val SLOT = Regex("""\{\{(\{?)\s*([A-Za-z0-9_]+)\s*}?}}""")
+
+        private val builders = ThreadLocal.withInitial { StringBuilder(4096) }
+
+        /**
+         * Escape text for use in HTML content and quoted attribute values.
+         */
+        fun escape(text: String): String = StringBuilder(text.length + 16).also { appendEscaped(it, text) }.toString()
+
+        private fun appendEscaped(
+            builder: StringBuilder,
+            text: String,
+        ) {
+            var start = 0
+            for (i in text.indices) {
+                val replacement =
+                    when (text[i]) {
+                        '&' -> "&amp;"
+                        '<' -> "&lt;"
+                        '>' -> "&gt;"
+                        '"' -> "&quot;"
+                        '\'' -> "&#39;"
+                        else -> continue
+                    }
+                builder.append(text, start, i).append(replacement)
+                start = i + 1
+            }
+            builder.append(text, start, text.length)
+        }
+    }
+
+    private class Slot(
+        val name: String,
+        val escaped: Boolean,
+    )
+
+    private val fragments: Array<String>
+    private val slots: Array<Slot>
+
+    init {
+        val fragments = mutableListOf<String>()
+        val slots = mutableListOf<Slot>()
+        var start = 0
+        SLOT.findAll(source).forEach { match ->
+            val raw = match.groupValues[1].isNotEmpty()
+            require(raw == match.value.endsWith("}}}")) { "Unbalanced braces in slot [${match.value}]" }
+            fragments.add(source.substring(start, match.range.first))
+            slots.add(Slot(match.groupValues[2], escaped = !raw))
+            start = match.range.last + 1
+        }
+        fragments.add(source.substring(start))
+        this.fragments = fragments.toTypedArray()
+        this.slots = slots.toTypedArray()
+    }
+
+    /**
+     * Render the template.
+     * @param values The value of every slot
+     * @throws IllegalArgumentException if a slot has no value
+     */
+    fun render(values: Map<String, String>): String {
+        val builder = builders.get()
+        builder.setLength(0)
+        for (i in slots.indices) {
+            builder.append(fragments[i])
+            val slot = slots[i]
+            val value = values[slot.name] ?: throw IllegalArgumentException("Missing value of slot [${slot.name}]")
+            if (slot.escaped) {
+                appendEscaped(builder, value)
+            } else {
+                builder.append(value)
+            }
+        }
+        builder.append(fragments[slots.size])
+        return builder.toString()
+    }
+}
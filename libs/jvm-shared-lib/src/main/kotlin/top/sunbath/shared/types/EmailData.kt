@@ -1,17 +1,29 @@
 package top.sunbath.shared.types
 
 import com.fasterxml.jackson.annotation.JsonCreator
+import com.fasterxml.jackson.annotation.JsonInclude
 import com.fasterxml.jackson.annotation.JsonProperty
 import io.micronaut.core.annotation.Introspected
 import io.micronaut.serde.annotation.Serdeable
 
+/**
+ * An email to send. It either references a [template] rendered by the email service, or carries its rendered
+ * [subject] and [html].
+ *
+ * An email with [versionChecks] is dropped when it is about to be sent if none of them holds any more. A digest
+ * carries one check per reminder and is sent whole while any of its reminders is current.
+ */
 @Introspected
 @Serdeable
+@JsonInclude(JsonInclude.Include.NON_NULL)
 data class EmailData
     @JsonCreator
     constructor(
         @JsonProperty("to") val to: String,
-        @JsonProperty("subject") val subject: String,
-        @JsonProperty("html") val html: String,
+        @JsonProperty("subject") val subject: String? = null,
+        @JsonProperty("html") val html: String? = null,
         @JsonProperty("from") val from: String = "no-reply@sunbath.top",
+        @JsonProperty("priority") val priority: EmailPriority = EmailPriority.HIGH,
+        @JsonProperty("template") val template: EmailTemplateRef? = null,
+        @JsonProperty("versionChecks") val versionChecks: List<VersionCheck>? = null,
     )
@@ -0,0 +1,22 @@
+package top.sunbath.shared.types
+
+import io.micronaut.serde.annotation.Serdeable
+
+/**
+ * The lane an email travels in. Each lane has its own queue, so a burst in one does not delay the other.
+ * @param queue The logical queue name of the lane, see `aws.sqs.queues`
+ */
+@Serdeable
+enum class EmailPriority(
+    val queue: String,
+) {
+    /**
+     * Transactional email a user is waiting for, such as a verification email.
+     */
+    HIGH("email"),
+
+    /**
+     * Email nobody is waiting for right now, such as a reminder.
+     */
+    LOW("email-low-priority"),
+}
@@ -0,0 +1,43 @@
+package top.sunbath.shared.types
+
+import com.fasterxml.jackson.annotation.JsonCreator
+import com.fasterxml.jackson.annotation.JsonProperty
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.serde.annotation.Serdeable
+
+/**
+ * A reference to a template owned by the email service, rendered when the email is sent.
+ * @param id The template, see [EmailTemplateIds]
+ * @param version The version of the template the parameters were written for
+ * @param params The values of the template parameters
+ */
+@Introspected
+@Serdeable
+data class EmailTemplateRef
+    @JsonCreator
+    constructor(
+        @JsonProperty("id") val id: String,
+        @JsonProperty("version") val version: Int,
+        @JsonProperty("params") val params: Map<String, String> = emptyMap(),
+    )
+
+/**
+ * The templates of the email service.
+ */
+object EmailTemplateIds {
+    /**
+     * Params: `username`, `verificationToken`, `expiresAt` (ISO-8601).
+     */
+    const val VERIFICATION = "verification"
+
+    /**
+     * Params: `title`, `content`, `reminderTime` (ISO-8601).
+     */
+    const val MEMO_REMINDER = "memo-reminder"
+
+    /**
+     * Several memo reminders in one email. Params: `count`, then `title.<i>`, `content.<i>` and
+     * `reminderTime.<i>` (ISO-8601) for every reminder from 0 to count - 1.
+     */
+    const val MEMO_DIGEST = "memo-digest"
+}
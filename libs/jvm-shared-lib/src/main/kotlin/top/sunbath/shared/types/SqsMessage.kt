@@ -5,6 +5,13 @@ import com.fasterxml.jackson.annotation.JsonProperty
 import io.micronaut.core.annotation.Introspected
 import io.micronaut.serde.annotation.Serdeable
 
+/**
+ * The envelope of every queue message.
+ * @param id The message ID, unique per message and kept when the message is redelivered
+ * @param data The payload
+ * @param schemaVersion The version of the envelope and payload schema the message was written with. Messages
+ *   written before the version was introduced have version 1.
+ */
 @Introspected
 @Serdeable
 data class SqsMessage<T>
@@ -12,4 +19,12 @@ data class SqsMessage<T>
     constructor(
         @JsonProperty("id") val id: String,
         @JsonProperty("data") val data: T,
-    )
+        @JsonProperty("schemaVersion") val schemaVersion: Int = SCHEMA_VERSION,
+    ) {
+        companion object {
+            /**
+             * The schema version written by this code.
+             */
+            const val SCHEMA_VERSION = 1
+        }
+    }
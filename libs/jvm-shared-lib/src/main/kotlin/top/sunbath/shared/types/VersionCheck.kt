@@ -0,0 +1,33 @@
+package top.sunbath.shared.types
+
+import com.fasterxml.jackson.annotation.JsonCreator
+import com.fasterxml.jackson.annotation.JsonProperty
+import io.micronaut.core.annotation.Introspected
+import io.micronaut.serde.annotation.Serdeable
+
+/**
+ * A version an item of another service must still be at when the email is sent, checked by the email service
+ * right before sending. A reminder carries the version of its notification schedule, so a reminder cancelled or
+ * moved after it was queued is not sent.
+ * @param source The service owning the item, the email service resolves it to a table
+ * @param pk The partition key of the item
+ * @param sk The sort key of the item
+ * @param version The version the item must be at, a missing item is at no version
+ */
+@Introspected
+@Serdeable
+data class VersionCheck
+    @JsonCreator
+    constructor(
+        @JsonProperty("source") val source: String,
+        @JsonProperty("pk") val pk: String,
+        @JsonProperty("sk") val sk: String,
+        @JsonProperty("version") val version: Long,
+    ) {
+        companion object {
+            /**
+             * The attribute holding the version of a checked item.
+             */
+            const val ATTRIBUTE_VERSION = "version"
+        }
+    }
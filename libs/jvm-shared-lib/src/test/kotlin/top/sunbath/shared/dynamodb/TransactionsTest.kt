@@ -0,0 +1,185 @@
+package top.sunbath.shared.dynamodb
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException
+
+/**
+ * Unit tests for how [DynamoRepository.transactWrite] reports a cancelled transaction, against a mocked client.
+ */
+class TransactionsTest {
+    private val dynamoDbClient = mockk<DynamoDbClient>()
+
+    private val dynamoConfiguration = mockk<DynamoConfiguration> { every { tableName } returns "test-table" }
+
+    private val repository = DynamoRepository<Identified>(dynamoDbClient, dynamoConfiguration)
+
+    private fun keyOf(pk: String): Map<String, AttributeValue> {
+        val value = AttributeValue.builder().s(pk).build()
+        return mapOf("pk" to value, "sk" to value)
+    }
+
+    private fun put(label: String?): TransactionOperation =
+        TransactionOperation.Put(keyOf("ITEM#$label"), "attribute_not_exists(pk)", label = label)
+
+    private fun reasonOf(code: String?): CancellationReason =
+        CancellationReason
+            .builder()
+            .code(code)
+            .message(code?.let { "$it message" })
+            .build()
+
+    // Helper to let the mocked client cancel every transaction with the given reason codes
+    private fun cancelWith(vararg codes: String?) {
+        every { dynamoDbClient.transactWriteItems(any<TransactWriteItemsRequest>()) } throws
+            TransactionCanceledException
+                .builder()
+                .message("Transaction cancelled")
+                .cancellationReasons(codes.map { reasonOf(it) })
+                .build()
+    }
+
+    @Test
+    fun `test cancellation codes map to failure reasons`() {
+        assertNull(TransactionFailureReason.of(null))
+        assertNull(TransactionFailureReason.of("None"))
+        assertEquals(TransactionFailureReason.CONDITIONAL_CHECK_FAILED, TransactionFailureReason.of("ConditionalCheckFailed"))
+        assertEquals(TransactionFailureReason.TRANSACTION_CONFLICT, TransactionFailureReason.of("TransactionConflict"))
+        assertEquals(TransactionFailureReason.THROTTLED, TransactionFailureReason.of("ProvisionedThroughputExceeded"))
+        assertEquals(TransactionFailureReason.THROTTLED, TransactionFailureReason.of("ThrottlingError"))
+        assertEquals(TransactionFailureReason.THROTTLED, TransactionFailureReason.of("RequestLimitExceeded"))
+        assertEquals(
+            TransactionFailureReason.ITEM_COLLECTION_SIZE_LIMIT_EXCEEDED,
+            TransactionFailureReason.of("ItemCollectionSizeLimitExceeded"),
+        )
+        assertEquals(TransactionFailureReason.VALIDATION_ERROR, TransactionFailureReason.of("ValidationError"))
+        assertEquals(TransactionFailureReason.UNKNOWN, TransactionFailureReason.of("SomethingNew"))
+    }
+
+    @Test
+    fun `test a failed condition is attributed to the label of its operation`() {
+        // Given
+        cancelWith("None", "ConditionalCheckFailed", "None")
+
+        // When
+        val exception =
+            assertThrows<TransactionConditionFailedException> {
+                repository.transactWrite(listOf(put("user"), put("username"), put("email")))
+            }
+
+        // Then
+        assertEquals(
+            listOf(TransactionFailure(1, "username", TransactionFailureReason.CONDITIONAL_CHECK_FAILED, "ConditionalCheckFailed message")),
+            exception.failures,
+        )
+        assertTrue(exception.conditionFailed("username"))
+        assertFalse(exception.conditionFailed("email"))
+        assertFalse(exception.conditionFailed("user"))
+    }
+
+    @Test
+    fun `test condition failures take precedence over other reasons`() {
+        // Given
+        cancelWith("TransactionConflict", "ConditionalCheckFailed", "ThrottlingError")
+
+        // When
+        val exception =
+            assertThrows<TransactionConditionFailedException> {
+                repository.transactWrite(listOf(put("user"), put("username"), put("email")))
+            }
+
+        // Then - every failed operation is reported, only the condition counts as failed
+        assertEquals(
+            listOf(
+                TransactionFailureReason.TRANSACTION_CONFLICT,
+                TransactionFailureReason.CONDITIONAL_CHECK_FAILED,
+                TransactionFailureReason.THROTTLED,
+            ),
+            exception.failures.map { it.reason },
+        )
+        assertEquals(listOf("user", "username", "email"), exception.failures.map { it.label })
+        assertTrue(exception.conditionFailed("username"))
+        assertFalse(exception.conditionFailed("user"))
+    }
+
+    @Test
+    fun `test conflicts are retryable unless a condition failed`() {
+        // Given
+        cancelWith("TransactionConflict", "ThrottlingError")
+
+        // When
+        val exception =
+            assertThrows<TransactionConflictException> {
+                repository.transactWrite(listOf(put("user"), put("username")))
+            }
+
+        // Then
+        assertEquals(2, exception.failures.size)
+        assertFalse(exception.conditionFailed("user"))
+    }
+
+    @Test
+    fun `test other reasons cancel the transaction without a subtype`() {
+        // Given
+        cancelWith("None", "ValidationError")
+
+        // When
+        val exception =
+            assertThrows<TransactionCancelledException> {
+                repository.transactWrite(listOf(put("user"), put("username")))
+            }
+
+        // Then
+        assertEquals(TransactionCancelledException::class.java, exception.javaClass)
+        assertEquals(listOf(TransactionFailureReason.VALIDATION_ERROR), exception.failures.map { it.reason })
+        assertTrue(exception.cause is TransactionCanceledException)
+    }
+
+    @Test
+    fun `test a failed operation without a label is reported by its index`() {
+        // Given - the second operation has no label, and a reason without an operation has none either
+        cancelWith("None", "ConditionalCheckFailed")
+
+        // When
+        val exception =
+            assertThrows<TransactionConditionFailedException> {
+                repository.transactWrite(listOf(put("user"), put(null)))
+            }
+
+        // Then
+        val failure = exception.failures.single()
+        assertEquals(1, failure.index)
+        assertNull(failure.label)
+        assertFalse(exception.conditionFailed("user"))
+        assertTrue(exception.message!!.contains("1=CONDITIONAL_CHECK_FAILED"))
+        val reasons = listOf(reasonOf("None"), reasonOf("ConditionalCheckFailed"))
+        assertNull(TransactionCancelledException.of(listOf(put("user")), reasons, null).failures.single().label)
+    }
+
+    @Test
+    fun `test a cancellation without reasons has no failures`() {
+        // Given
+        every { dynamoDbClient.transactWriteItems(any<TransactWriteItemsRequest>()) } throws
+            TransactionCanceledException.builder().message("Transaction cancelled").build()
+
+        // When
+        val exception =
+            assertThrows<TransactionCancelledException> {
+                repository.transactWrite(listOf(put("user")))
+            }
+
+        // Then
+        assertEquals(TransactionCancelledException::class.java, exception.javaClass)
+        assertTrue(exception.failures.isEmpty())
+    }
+}
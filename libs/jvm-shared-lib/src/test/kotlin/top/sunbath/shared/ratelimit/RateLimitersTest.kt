@@ -0,0 +1,22 @@
+package top.sunbath.shared.ratelimit
+
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+/**
+ * Unit tests for the RateLimiters.
+ */
+class RateLimitersTest {
+    private val rateLimiters = RateLimiters(listOf(RateLimitConfiguration("resend").apply { permitsPerSecond = 2.0 }))
+
+    @Test
+    fun `test a rate limit has one bucket shared by all callers`() {
+        assertSame(rateLimiters.bucket("resend"), rateLimiters.bucket("resend"))
+    }
+
+    @Test
+    fun `test an unknown rate limit is rejected`() {
+        assertThrows<IllegalStateException> { rateLimiters.bucket("unknown") }
+    }
+}
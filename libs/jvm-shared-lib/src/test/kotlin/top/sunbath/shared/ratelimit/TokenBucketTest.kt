@@ -0,0 +1,113 @@
+package top.sunbath.shared.ratelimit
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit tests for the TokenBucket, against a clock that only moves when the test or a waiting caller moves it.
+ */
+class TokenBucketTest {
+    private var now = 0L
+
+    // The nanoseconds waited by acquire, each wait moves the clock on
+    private val waits = mutableListOf<Long>()
+
+    private fun bucket(
+        capacity: Int,
+        permitsPerSecond: Double,
+        reserved: Int = 0,
+    ): TokenBucket =
+        TokenBucket(capacity, permitsPerSecond, reserved, { now }) { nanos ->
+            waits.add(nanos)
+            now += nanos
+        }
+
+    private fun advanceMillis(millis: Long) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis)
+    }
+
+    @Test
+    fun `test a full bucket grants its burst at once`() {
+        // Given
+        val bucket = bucket(capacity = 3, permitsPerSecond = 1.0)
+
+        // When / Then
+        repeat(3) { assertTrue(bucket.tryAcquire()) }
+        assertFalse(bucket.tryAcquire())
+    }
+
+    @Test
+    fun `test the bucket refills at the sustained rate up to its capacity`() {
+        // Given
+        val bucket = bucket(capacity = 3, permitsPerSecond = 2.0)
+        assertTrue(bucket.tryAcquire(3))
+
+        // When / Then - a permit takes half a second
+        advanceMillis(400)
+        assertFalse(bucket.tryAcquire())
+        advanceMillis(100)
+        assertTrue(bucket.tryAcquire())
+        assertFalse(bucket.tryAcquire())
+
+        // A long pause refills no more than the capacity
+        advanceMillis(10_000)
+        assertTrue(bucket.tryAcquire(3))
+        assertFalse(bucket.tryAcquire())
+    }
+
+    @Test
+    fun `test low-priority callers leave the reserved tokens to high-priority ones`() {
+        // Given
+        val bucket = bucket(capacity = 3, permitsPerSecond = 1.0, reserved = 1)
+
+        // When / Then
+        assertTrue(bucket.tryAcquire(highPriority = false))
+        assertTrue(bucket.tryAcquire(highPriority = false))
+        assertFalse(bucket.tryAcquire(highPriority = false))
+        assertTrue(bucket.tryAcquire(highPriority = true))
+        assertFalse(bucket.tryAcquire(highPriority = true))
+    }
+
+    @Test
+    fun `test acquire waits for the missing tokens`() {
+        // Given
+        val bucket = bucket(capacity = 2, permitsPerSecond = 4.0)
+        bucket.acquire(2)
+
+        // When
+        bucket.acquire()
+
+        // Then - a single permit takes a quarter second
+        assertEquals(listOf(TimeUnit.MILLISECONDS.toNanos(250)), waits)
+    }
+
+    @Test
+    fun `test a waiting low-priority caller does not hold back a high-priority one`() {
+        // Given
+        val bucket = bucket(capacity = 2, permitsPerSecond = 1.0, reserved = 1)
+        bucket.acquire(highPriority = false)
+
+        // When - the second low-priority permit waits until the reserved token is back
+        bucket.acquire(highPriority = false)
+
+        // Then - the high-priority permit is granted right away
+        assertEquals(listOf(TimeUnit.SECONDS.toNanos(1)), waits)
+        bucket.acquire(highPriority = true)
+        assertEquals(1, waits.size)
+    }
+
+    @Test
+    fun `test permits beyond what a caller may ever take are rejected`() {
+        // Given
+        val bucket = bucket(capacity = 2, permitsPerSecond = 1.0, reserved = 1)
+
+        // When / Then
+        assertThrows<IllegalArgumentException> { bucket.acquire(2, highPriority = false) }
+        assertThrows<IllegalArgumentException> { bucket.acquire(3) }
+        assertThrows<IllegalArgumentException> { TokenBucket(2, 1.0, reserved = 2) }
+    }
+}
@@ -0,0 +1,72 @@
+package top.sunbath.shared.sqs
+
+import io.micronaut.serde.ObjectMapper
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import top.sunbath.shared.types.EmailData
+import top.sunbath.shared.types.EmailPriority
+import top.sunbath.shared.types.EmailTemplateIds
+import top.sunbath.shared.types.EmailTemplateRef
+import top.sunbath.shared.types.SqsMessage
+import top.sunbath.shared.types.VersionCheck
+
+/**
+ * Unit tests for the MessageCodec with the compile-time generated serializers.
+ */
+class MessageCodecTest {
+    private val messageCodec = MessageCodec(ObjectMapper.getDefault())
+
+    @Test
+    fun `test an email message survives a round trip`() {
+        // Given
+        val message =
+            SqsMessage(
+                id = "message-1",
+                data =
+                    EmailData(
+                        to = "user@example.com",
+                        priority = EmailPriority.LOW,
+                        template = EmailTemplateRef(EmailTemplateIds.MEMO_REMINDER, 1, mapOf("title" to "<b>Memo</b>")),
+                        versionChecks = listOf(VersionCheck("memo", "MEMO#1", "NOTIFICATIONSCHEDULE#1", 3)),
+                    ),
+            )
+
+        // When
+        val decoded = messageCodec.decode(messageCodec.encode(message), EmailData::class.java)
+
+        // Then
+        assertEquals(message, decoded)
+    }
+
+    @Test
+    fun `test a message written before the schema version decodes as version 1`() {
+        // When
+        val decoded = messageCodec.decode("""{"id":"message-1","data":"payload"}""", String::class.java)
+
+        // Then
+        assertEquals(SqsMessage("message-1", "payload", 1), decoded)
+    }
+
+    @Test
+    fun `test a message of an unknown schema version is rejected`() {
+        // Given
+        val body = messageCodec.encode(SqsMessage("message-1", "payload", SqsMessage.SCHEMA_VERSION + 1))
+
+        // When / Then
+        val exception = assertThrows<IllegalArgumentException> { messageCodec.decode(body, String::class.java) }
+        assertEquals("Unsupported schema version ${SqsMessage.SCHEMA_VERSION + 1} of message [message-1]", exception.message)
+    }
+
+    @Test
+    fun `test an empty body is rejected`() {
+        assertThrows<IllegalArgumentException> { messageCodec.decode("", String::class.java) }
+        assertThrows<IllegalArgumentException> { messageCodec.decode("null", String::class.java) }
+    }
+
+    @Test
+    fun `test malformed JSON is rejected`() {
+        assertThrows<IllegalArgumentException> { messageCodec.decode("""{"id":"message-1","data":""", String::class.java) }
+        assertThrows<IllegalArgumentException> { messageCodec.decode("not a message", String::class.java) }
+    }
+}
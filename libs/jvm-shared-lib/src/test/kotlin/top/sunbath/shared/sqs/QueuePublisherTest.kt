@@ -0,0 +1,176 @@
+package top.sunbath.shared.sqs
+
+import io.micronaut.http.HttpResponse
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import io.mockk.verify
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.services.sqs.SqsClient
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry
+import top.sunbath.shared.types.SqsMessage
+import java.util.Collections
+
+/**
+ * Unit tests for the QueuePublisher and QueueFlushFilter against a mocked SQS client.
+ */
+class QueuePublisherTest {
+    private val sqsClient = mockk<SqsClient>()
+    private val messageCodec = mockk<MessageCodec>()
+    private val sqsConfiguration = SqsConfiguration().apply { setQueues(mapOf("email" to "email-queue")) }
+
+    private val requests: MutableList<SendMessageBatchRequest> = Collections.synchronizedList(mutableListOf())
+
+    // The batch entry ids the mocked queue rejects as invalid, and how often it fails others transiently
+    private val invalid = mutableSetOf<String>()
+    private val transientFailures = mutableMapOf<String, Int>()
+
+    private lateinit var queuePublisher: QueuePublisher
+
+    @BeforeEach
+    fun setup() {
+        every { messageCodec.encode(any()) } answers { "{\"id\":\"${firstArg<SqsMessage<*>>().id}\"}" }
+        every { sqsClient.getQueueUrl(any<GetQueueUrlRequest>()) } returns
+            GetQueueUrlResponse.builder().queueUrl("https://sqs.test/email-queue").build()
+        val request = slot<SendMessageBatchRequest>()
+        every { sqsClient.sendMessageBatch(capture(request)) } answers {
+            requests.add(request.captured)
+            val failed =
+                request.captured.entries().mapNotNull {
+                    when {
+                        it.id() in invalid -> failure(it.id(), "InvalidParameterValue", true)
+                        (transientFailures[it.id()] ?: 0) > 0 -> {
+                            transientFailures.computeIfPresent(it.id()) { _, left -> left - 1 }
+                            failure(it.id(), "InternalError", false)
+                        }
+                        else -> null
+                    }
+                }
+            val failedIds = failed.map { it.id() }.toSet()
+            SendMessageBatchResponse
+                .builder()
+                .successful(
+                    request.captured
+                        .entries()
+                        .filter { it.id() !in failedIds }
+                        .map { SendMessageBatchResultEntry.builder().id(it.id()).build() },
+                ).failed(failed)
+                .build()
+        }
+        queuePublisher = QueuePublisher(sqsClient, sqsConfiguration, messageCodec)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        queuePublisher.close()
+    }
+
+    private fun failure(
+        id: String,
+        code: String,
+        senderFault: Boolean,
+    ): BatchResultErrorEntry =
+        BatchResultErrorEntry
+            .builder()
+            .id(id)
+            .code(code)
+            .senderFault(senderFault)
+            .build()
+
+    private fun entries(count: Int): List<QueuePublisher.Entry> =
+        (0 until count).map { QueuePublisher.Entry("message-$it", SqsMessage("message-$it", "data-$it")) }
+
+    @Test
+    fun `test sendNow chunks the entries into batches of ten`() {
+        // When
+        val accepted = queuePublisher.sendNow("email", entries(25))
+
+        // Then
+        assertEquals(listOf(10, 10, 5), requests.map { it.entries().size })
+        assertEquals((0 until 25).map { "message-$it" }.toSet(), accepted)
+        verify(exactly = 1) { sqsClient.getQueueUrl(any<GetQueueUrlRequest>()) }
+    }
+
+    @Test
+    fun `test sendNow retries only the failed entries the sender is not at fault for`() {
+        // Given - entry 1 fails transiently once, entry 2 is invalid
+        transientFailures["1"] = 1
+        invalid.add("2")
+
+        // When
+        val accepted = queuePublisher.sendNow("email", entries(4))
+
+        // Then
+        assertEquals(2, requests.size)
+        assertEquals(listOf("1"), requests[1].entries().map { it.id() })
+        assertEquals(setOf("message-0", "message-1", "message-3"), accepted)
+        assertEquals(1L, queuePublisher.metrics().retries)
+        assertEquals(1L, queuePublisher.metrics().messagesFailed)
+    }
+
+    @Test
+    fun `test sendNow gives up on an entry after the attempt limit`() {
+        // Given
+        transientFailures["0"] = Int.MAX_VALUE
+
+        // When
+        val accepted = queuePublisher.sendNow("email", entries(2))
+
+        // Then
+        assertEquals(QueuePublisher.MAX_ATTEMPTS, requests.size)
+        assertEquals(listOf("0", "1"), requests[0].entries().map { it.id() })
+        requests.drop(1).forEach { assertEquals(listOf("0"), it.entries().map { entry -> entry.id() }) }
+        assertEquals(setOf("message-1"), accepted)
+        assertEquals(1L, queuePublisher.metrics().messagesFailed)
+    }
+
+    @Test
+    fun `test send flushes a full buffer right away`() {
+        // When
+        entries(10).forEach { queuePublisher.send("email", it.message) }
+
+        // Then
+        assertEquals(1, requests.size)
+        assertEquals((0 until 10).map { it.toString() }, requests[0].entries().map { it.id() })
+    }
+
+    @Test
+    fun `test send flushes a partial buffer when the flush window expires`() {
+        // When
+        entries(3).forEach { queuePublisher.send("email", it.message) }
+
+        // Then
+        verify(timeout = 1000) {
+            sqsClient.sendMessageBatch(
+                match<SendMessageBatchRequest> { request -> request.entries().map { it.id() } == listOf("0", "1", "2") },
+            )
+        }
+    }
+
+    @Test
+    fun `test flush filter sends the buffered messages before the response`() {
+        // Given
+        val queueFlushFilter = QueueFlushFilter(queuePublisher)
+        val response = mockk<HttpResponse<*>>()
+        entries(3).forEach { queuePublisher.send("email", it.message) }
+
+        // When
+        queueFlushFilter.flush(response)
+
+        // Then
+        assertEquals(1, requests.size)
+        assertEquals(3, requests[0].entries().size)
+
+        // The flush window finds nothing left to send
+        Thread.sleep(QueuePublisher.FLUSH_WINDOW.multipliedBy(5).toMillis())
+        assertEquals(1, requests.size)
+    }
+}
@@ -9,6 +9,7 @@ pluginManagement {
         id("io.micronaut.aot") version "4.4.4" apply false
         id("io.micronaut.application") version "4.4.4" apply false
         id("io.micronaut.test-resources") version "4.4.4" apply false
+        id("me.champeau.jmh") version "0.7.2" apply false
         id("org.jetbrains.kotlin.jvm") version "1.9.25" apply false
         id("org.jetbrains.kotlin.plugin.allopen") version "1.9.25" apply false
         id("org.jlleitschuh.gradle.ktlint") version "12.1.2" apply false